@@ -6,11 +6,17 @@ public class Account {
     private String name;
     private java.sql.Date openingDate;
     private double openingBalance;
+    private String currency;
 
     public Account(String name, java.sql.Date openingDate, double openingBalance) {
+        this(name, openingDate, openingBalance, ExchangeRates.DEFAULT_CURRENCY);
+    }
+
+    public Account(String name, java.sql.Date openingDate, double openingBalance, String currency) {
         this.name = name;
         this.openingDate = openingDate;
         this.openingBalance = openingBalance;
+        this.currency = currency;
     }
 
     public String getName() {
@@ -24,4 +30,9 @@ public class Account {
     public double getOpeningBalance() {
         return openingBalance;
     }
+
+    // Every amount in the account, including its transactions, is in this currency
+    public String getCurrency() {
+        return currency;
+    }
 }
@@ -0,0 +1,194 @@
+package application;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Checks that archiving old rows changes nothing a reader can see.
+//
+// Usage: java -cp <app classpath> application.ArchiveCheck
+//
+// First writes one segment of 300 rows on consecutive days (a few days twice, so a day can straddle two index
+// blocks) and scans it with date ranges that start and end at, just inside and in the middle of index
+// blocks, with and without account and type filters. Each scan must return exactly the rows the filter
+// picks, in ascending date order. Then it seeds a temp ledger, takes every listing, page, count and tag
+// search, archives the older half and takes them again; each must come back the same.
+// Differences are printed and the exit status is 1.
+public class ArchiveCheck {
+    private static final int FIRST_DAY = 10_000;
+    private static final int ROWS = 300;
+    private static final String[] ACCOUNTS = {"Checking", "Savings", "Card"};
+    private static final String[] TYPES = {"Groceries", "Rent", "Salary", "Dining"};
+
+    public static void main(String[] args) throws IOException {
+        List<Transaction> rows = rows();
+        Path directory = Files.createTempDirectory("centsible-archive-check");
+        Path file = directory.resolve("check.seg");
+        List<String> differences = new ArrayList<>();
+        int scans = 0;
+        try {
+            ArchiveSegment.write(file, rows);
+            ArchiveSegment segment = ArchiveSegment.open(file);
+            int stride = ArchiveSegment.INDEX_STRIDE;
+            int last = FIRST_DAY + ROWS - 1;
+            int[][] ranges = {
+                    {FIRST_DAY, last}, {Integer.MIN_VALUE, Integer.MAX_VALUE}, {FIRST_DAY - 50, FIRST_DAY - 1},
+                    {last + 1, last + 50}, {FIRST_DAY + 200, FIRST_DAY + 210}, {FIRST_DAY + 5, FIRST_DAY + 5},
+                    {FIRST_DAY + stride, FIRST_DAY + stride}, {FIRST_DAY + stride - 1, FIRST_DAY + stride + 1},
+                    {FIRST_DAY + stride + 1, FIRST_DAY + 2 * stride - 1}, {FIRST_DAY + 2 * stride, last},
+                    {FIRST_DAY + 60, FIRST_DAY + 2 * stride + 3}, {FIRST_DAY + 90, FIRST_DAY + 80}};
+            for (int[] range : ranges) {
+                for (String account : new String[] {null, "Savings", "Nowhere"}) {
+                    for (String type : new String[] {null, "Rent"}) {
+                        List<String> expected = rows.stream()
+                                .filter(t -> day(t) >= range[0] && day(t) <= range[1])
+                                .filter(t -> account == null || account.equals(t.getAccountName()))
+                                .filter(t -> type == null || type.equals(t.getTransactionType()))
+                                .sorted((a, b) -> day(a) != day(b) ? Integer.compare(day(a), day(b)) : Integer.compare(a.getId(), b.getId()))
+                                .map(ArchiveCheck::render)
+                                .collect(Collectors.toList());
+                        List<String> actual = new ArrayList<>();
+                        segment.scan(account == null ? ArchiveSegment.ANY : segment.accountId(account),
+                                type == null ? ArchiveSegment.ANY : segment.typeId(type), range[0], range[1],
+                                t -> actual.add(render(t)));
+                        scans++;
+                        if (!expected.equals(actual)) {
+                            differences.add(String.format("scan(%s, %s, %d..%d): expected %d rows, got %d%n  expected: %s%n  actual:   %s",
+                                    account, type, range[0], range[1], expected.size(), actual.size(), abbreviate(expected.toString()), abbreviate(actual.toString())));
+                        }
+                    }
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        }
+        scans += checkLedger(differences);
+
+        for (String difference : differences) {
+            System.out.println(difference);
+            System.out.println();
+        }
+        if (!differences.isEmpty()) {
+            System.out.printf("%d of %d archive reads differ%n", differences.size(), scans);
+            System.exit(1);
+        }
+        System.out.printf("%d archive reads match%n", scans);
+    }
+
+    // Every read is taken before and after archiving the first year of a two-year ledger; returns how many
+    private static int checkLedger(List<String> differences) throws IOException {
+        Path directory = Files.createTempDirectory("centsible-archive-check");
+        LocalDate first = LocalDate.of(2022, 1, 1);
+        DatabaseHelper helper = new DatabaseHelper(directory.resolve(DatabaseHelper.DATABASE_FILE).toString());
+        try {
+            for (String type : TYPES) {
+                helper.addTransactionType(type);
+            }
+            for (String account : ACCOUNTS) {
+                helper.createAccount(account, Date.valueOf(first), 0, "USD");
+            }
+            Random random = new Random(7);
+            for (int i = 0; i < 600; i++) {
+                List<String> tags = i % 3 == 0 ? List.of("work") : i % 5 == 0 ? List.of("home", "work") : List.of();
+                helper.saveTransaction(ACCOUNTS[random.nextInt(ACCOUNTS.length)], TYPES[random.nextInt(TYPES.length)],
+                        Date.valueOf(first.plusDays(random.nextInt(2 * 365))), "Payee " + random.nextInt(40),
+                        random.nextInt(20_000) / 100.0, 0, tags);
+            }
+
+            Map<String, String> before = ledgerReads(helper, first);
+            int moved = helper.archiveTransactionsBefore(first.plusYears(1));
+            if (moved == 0) {
+                differences.add("archiveTransactionsBefore moved no rows");
+            }
+            Map<String, String> after = ledgerReads(helper, first);
+            for (Map.Entry<String, String> read : before.entrySet()) {
+                if (!read.getValue().equals(after.get(read.getKey()))) {
+                    differences.add(String.format("%s after archiving %d rows:%n  before: %s%n  after:  %s", read.getKey(), moved,
+                            abbreviate(read.getValue()), abbreviate(after.get(read.getKey()))));
+                }
+            }
+            return before.size();
+        } finally {
+            helper.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> ledgerReads(DatabaseHelper helper, LocalDate first) {
+        Map<String, String> reads = new LinkedHashMap<>();
+        reads.put("getTransactions", render(helper.getTransactions()));
+        reads.put("getTransactionsByAccount", render(helper.getTransactionsByAccount("Savings")));
+        reads.put("getTransactionsByType", render(helper.getTransactionsByType("Rent")));
+        reads.put("getTransactionsBetween", render(helper.getTransactionsBetween(first.plusMonths(10), first.plusMonths(14))));
+        String[][] filters = {{null, null}, {"Savings", null}, {null, "Rent"}, {"Savings", "Rent"}};
+        for (String[] filter : filters) {
+            String label = "(" + filter[0] + ", " + filter[1] + ")";
+            reads.put("countTransactions" + label, String.valueOf(helper.countTransactions(filter[0], filter[1])));
+            for (int offset : new int[] {0, 100, 290}) {
+                reads.put("getTransactionPage" + label + " from " + offset,
+                        render(helper.getTransactionPage(filter[0], filter[1], List.of(), offset, 50)));
+            }
+        }
+        for (TransactionSort.Column column : TransactionSort.Column.values()) {
+            reads.put("getTransactionPage(" + column + ")", render(helper.getTransactionPage(null, null,
+                    List.of(new TransactionSort(column, true)), 280, 40)));
+        }
+        for (String query : new String[] {"work", "home and not work", "work or home"}) {
+            IdBitmap matched = helper.matchTransactions(TagQuery.parse(query), null, first.plusMonths(6), first.plusMonths(18));
+            int[] ids = matched.select(0, matched.cardinality());
+            reads.put("matchTransactions(" + query + ")", Arrays.toString(ids));
+            reads.put("getTransactionsByIds(" + query + ")", render(helper.getTransactionsByIds(ids)));
+        }
+        return reads;
+    }
+
+    private static String render(Collection<Transaction> transactions) {
+        return transactions.stream().map(ArchiveCheck::render).collect(Collectors.joining("; ", "[", "]"));
+    }
+
+    // One row a day, ids in date order, plus a second row on every 64th day
+    private static List<Transaction> rows() {
+        List<Transaction> rows = new ArrayList<>();
+        int id = 1;
+        for (int i = 0; i < ROWS; i++) {
+            int copies = i % 64 == 0 ? 2 : 1;
+            for (int copy = 0; copy < copies; copy++) {
+                Transaction transaction = new Transaction(ACCOUNTS[i % ACCOUNTS.length], TYPES[(i / 2) % TYPES.length],
+                        Date.valueOf(LocalDate.ofEpochDay(FIRST_DAY + i)), copy == 0 ? "Payee " + i : null, i % 7, i % 5 == 0 ? 100 : 0);
+                transaction.setId(id++);
+                rows.add(transaction);
+            }
+        }
+        return rows;
+    }
+
+    private static int day(Transaction transaction) {
+        return (int) transaction.getTransactionDate().toLocalDate().toEpochDay();
+    }
+
+    private static String render(Transaction t) {
+        return t.getId() + " " + t.getAccountName() + " " + t.getTransactionType() + " " + t.getTransactionDate() + " "
+                + t.getDescription() + " " + t.getPaymentAmount() + " " + t.getDepositAmount();
+    }
+
+    private static String abbreviate(String text) {
+        return text == null ? "(missing)" : text.length() > 300 ? text.substring(0, 300) + "..." : text;
+    }
+}
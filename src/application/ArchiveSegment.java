@@ -0,0 +1,304 @@
+package application;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// One immutable, memory-mapped file of archived transactions.
+//
+// Layout (big-endian):
+//   header       MAGIC, VERSION, recordCount, accountCount, typeCount, indexCount,
+//                dictionaryOffset, indexOffset, recordsOffset, descriptionsOffset (10 ints)
+//   dictionary   account names then type names, each as (short length, UTF-8 bytes)
+//   index        epoch day of every INDEX_STRIDE-th record, for binary search on date
+//   records      RECORD_SIZE bytes each, sorted by (epoch day, id):
+//                int id, int epochDay, short account, short type, long paymentCents, long depositCents,
+//                int descriptionOffset, int descriptionLength
+//   descriptions UTF-8 heap referenced by the records
+public class ArchiveSegment {
+    private static final int MAGIC = 0x43545841; // "CTXA"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 10 * Integer.BYTES;
+    static final int RECORD_SIZE = 36;
+    static final int INDEX_STRIDE = 128;
+    public static final int ANY = -1;
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int recordCount;
+    private final String[] accounts;
+    private final String[] types;
+    private final Map<String, Integer> accountIds = new HashMap<>();
+    private final Map<String, Integer> typeIds = new HashMap<>();
+    private final int indexOffset;
+    private final int indexCount;
+    private final int recordsOffset;
+    private final int descriptionsOffset;
+
+    private ArchiveSegment(Path file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not an archive segment: " + file);
+        }
+        recordCount = buffer.getInt(8);
+        int accountCount = buffer.getInt(12);
+        int typeCount = buffer.getInt(16);
+        indexCount = buffer.getInt(20);
+        int dictionaryOffset = buffer.getInt(24);
+        indexOffset = buffer.getInt(28);
+        recordsOffset = buffer.getInt(32);
+        descriptionsOffset = buffer.getInt(36);
+
+        ByteBuffer dictionary = buffer.duplicate();
+        dictionary.position(dictionaryOffset);
+        accounts = readStrings(dictionary, accountCount, accountIds);
+        types = readStrings(dictionary, typeCount, typeIds);
+    }
+
+    public static ArchiveSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return new ArchiveSegment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    // Dictionary lookups; a name the segment has never seen means no record can match
+    public int accountId(String accountName) {
+        return accountIds.getOrDefault(accountName, -2);
+    }
+
+    public int typeId(String transactionType) {
+        return typeIds.getOrDefault(transactionType, -2);
+    }
+
+    // Visits matching records in ascending date order, decoding only the ones that match.
+    // Pass ANY to leave a filter open; the day bounds are inclusive.
+    public void scan(int accountId, int typeId, int fromEpochDay, int toEpochDay, Consumer<Transaction> consumer) {
+        if (accountId == -2 || typeId == -2) {
+            return;
+        }
+        for (int i = firstRecordOnOrAfter(fromEpochDay); i < recordCount; i++) {
+            int position = recordsOffset + i * RECORD_SIZE;
+            int epochDay = buffer.getInt(position + 4);
+            if (epochDay > toEpochDay) {
+                break;
+            }
+            // The search lands on the start of a block, so its earlier records still have to be skipped
+            if (epochDay < fromEpochDay) {
+                continue;
+            }
+            if ((accountId == ANY || buffer.getShort(position + 8) == accountId)
+                    && (typeId == ANY || buffer.getShort(position + 10) == typeId)) {
+                consumer.accept(decode(position, epochDay));
+            }
+        }
+    }
+
+    // How many records match, without decoding any; ANY leaves a filter open
+    public int count(int accountId, int typeId) {
+        if (accountId == -2 || typeId == -2) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = 0; i < recordCount; i++) {
+            int position = recordsOffset + i * RECORD_SIZE;
+            if ((accountId == ANY || buffer.getShort(position + 8) == accountId)
+                    && (typeId == ANY || buffer.getShort(position + 10) == typeId)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Visits the records whose ids are in the bitmap, decoding only those
+    public void scanIds(IdBitmap ids, Consumer<Transaction> consumer) {
+        for (int i = 0; i < recordCount; i++) {
+            int position = recordsOffset + i * RECORD_SIZE;
+            if (ids.contains(buffer.getInt(position))) {
+                consumer.accept(decode(position, buffer.getInt(position + 4)));
+            }
+        }
+    }
+
+    // Adds records [fromRecord, toRecord) to per-account or per-type totals straight from the mapped
+    // buffer; nothing is decoded except each group's name, once
+    public void summarize(int fromRecord, int toRecord, boolean byAccount, Map<String, ReportTotals> totals) {
+        String[] names = byAccount ? accounts : types;
+        long[] counts = new long[names.length];
+        long[] paymentCents = new long[names.length];
+        long[] depositCents = new long[names.length];
+        int groupOffset = byAccount ? 8 : 10;
+        for (int i = fromRecord; i < toRecord; i++) {
+            int position = recordsOffset + i * RECORD_SIZE;
+            int group = buffer.getShort(position + groupOffset);
+            counts[group]++;
+            paymentCents[group] += buffer.getLong(position + 12);
+            depositCents[group] += buffer.getLong(position + 20);
+        }
+        for (int group = 0; group < names.length; group++) {
+            if (counts[group] > 0) {
+                totals.computeIfAbsent(names[group], name -> new ReportTotals())
+                        .add(counts[group], paymentCents[group], depositCents[group]);
+            }
+        }
+    }
+
+    private Transaction decode(int position, int epochDay) {
+        Transaction transaction = new Transaction(
+                accounts[buffer.getShort(position + 8)],
+                types[buffer.getShort(position + 10)],
+                SqlDates.fromDay(epochDay),
+                readDescription(buffer.getInt(position + 28), buffer.getInt(position + 32)),
+                buffer.getLong(position + 12) / 100.0,
+                buffer.getLong(position + 20) / 100.0);
+        transaction.setId(buffer.getInt(position));
+        return transaction;
+    }
+
+    private String readDescription(int offset, int length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(descriptionsOffset + offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Binary search over the sparse index, then back up to the start of that block
+    private int firstRecordOnOrAfter(int epochDay) {
+        int low = 0;
+        int high = indexCount - 1;
+        int block = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getInt(indexOffset + mid * Integer.BYTES) < epochDay) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return block * INDEX_STRIDE;
+    }
+
+    private static String[] readStrings(ByteBuffer source, int count, Map<String, Integer> ids) {
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[source.getShort()];
+            source.get(bytes);
+            values[i] = new String(bytes, StandardCharsets.UTF_8);
+            ids.put(values[i], i);
+        }
+        return values;
+    }
+
+    // Writes the given transactions (any order) as a new segment, durably, via a temp file and rename
+    public static void write(Path file, List<Transaction> transactions) throws IOException {
+        List<Transaction> sorted = new ArrayList<>(transactions);
+        sorted.sort((a, b) -> {
+            int byDate = Long.compare(SqlDates.toDay(a.getTransactionDate()), SqlDates.toDay(b.getTransactionDate()));
+            return byDate != 0 ? byDate : Integer.compare(a.getId(), b.getId());
+        });
+
+        Map<String, Integer> accountIds = new HashMap<>();
+        Map<String, Integer> typeIds = new HashMap<>();
+        List<String> accounts = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        for (Transaction transaction : sorted) {
+            intern(transaction.getAccountName(), accountIds, accounts);
+            intern(transaction.getTransactionType(), typeIds, types);
+        }
+        if (accounts.size() > Short.MAX_VALUE || types.size() > Short.MAX_VALUE) {
+            throw new IOException("Too many distinct accounts or types for one segment");
+        }
+
+        byte[] dictionary = encodeStrings(accounts, types);
+        int indexCount = (sorted.size() + INDEX_STRIDE - 1) / INDEX_STRIDE;
+        int dictionaryOffset = HEADER_SIZE;
+        int indexOffset = dictionaryOffset + dictionary.length;
+        int recordsOffset = indexOffset + indexCount * Integer.BYTES;
+        int descriptionsOffset = recordsOffset + sorted.size() * RECORD_SIZE;
+
+        ByteBuffer records = ByteBuffer.allocate(sorted.size() * RECORD_SIZE);
+        ByteBuffer index = ByteBuffer.allocate(indexCount * Integer.BYTES);
+        ByteArrayOutputStream descriptions = new ByteArrayOutputStream();
+        for (int i = 0; i < sorted.size(); i++) {
+            Transaction transaction = sorted.get(i);
+            int epochDay = (int) SqlDates.toDay(transaction.getTransactionDate());
+            if (i % INDEX_STRIDE == 0) {
+                index.putInt(epochDay);
+            }
+            byte[] description = transaction.getDescription() == null ? null
+                    : transaction.getDescription().getBytes(StandardCharsets.UTF_8);
+            records.putInt(transaction.getId());
+            records.putInt(epochDay);
+            records.putShort(accountIds.get(transaction.getAccountName()).shortValue());
+            records.putShort(typeIds.get(transaction.getTransactionType()).shortValue());
+            records.putLong(Math.round(transaction.getPaymentAmount() * 100));
+            records.putLong(Math.round(transaction.getDepositAmount() * 100));
+            records.putInt(descriptions.size());
+            records.putInt(description == null ? -1 : description.length);
+            if (description != null) {
+                descriptions.write(description, 0, description.length);
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(sorted.size()).putInt(accounts.size()).putInt(types.size())
+                .putInt(indexCount).putInt(dictionaryOffset).putInt(indexOffset).putInt(recordsOffset).putInt(descriptionsOffset);
+
+        Path partial = file.resolveSibling(file.getFileName() + ".partial");
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (ByteBuffer part : new ByteBuffer[]{header.flip(), ByteBuffer.wrap(dictionary), index.flip(),
+                    records.flip(), ByteBuffer.wrap(descriptions.toByteArray())}) {
+                while (part.hasRemaining()) {
+                    channel.write(part);
+                }
+            }
+            channel.force(true);
+        }
+        Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void intern(String value, Map<String, Integer> ids, List<String> values) {
+        if (!ids.containsKey(value)) {
+            ids.put(value, values.size());
+            values.add(value);
+        }
+    }
+
+    private static byte[] encodeStrings(List<String> accounts, List<String> types) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (List<String> values : List.of(accounts, types)) {
+            for (String value : values) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.write(bytes.length >>> 8);
+                out.write(bytes.length);
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+        return out.toByteArray();
+    }
+}
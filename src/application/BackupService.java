@@ -0,0 +1,176 @@
+package application;
+
+import org.sqlite.SQLiteConnection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Takes online snapshots of the live database on a background thread using SQLite's backup API.
+// The copy runs on its own connection inside a read transaction, so with the database in WAL mode
+// the snapshot stays consistent and writers on the UI connection are never blocked or restart it.
+public class BackupService {
+    private static final int PAGES_PER_STEP = 64;
+    private static final int PAUSE_BETWEEN_STEPS_MS = 2;
+    private static final int BUSY_RETRY_SLEEP_MS = 100;
+    private static final int BUSY_RETRIES = 50;
+    private static final DateTimeFormatter SNAPSHOT_NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+    // <base>-<time>[-n].db, where -n counts up from 1 when the name is already taken; names written before
+    // milliseconds were added have no -SSS part
+    private static final Pattern SNAPSHOT_SUFFIX = Pattern.compile("-(\\d{8}-\\d{6})(?:-(\\d{3}))?(?:-(\\d{1,9}))?\\.db");
+
+    private final String databaseFile;
+    private final Path backupDirectory;
+    private final int retainedSnapshots;
+    private final ScheduledExecutorService executor;
+
+    public BackupService(String databaseFile, String backupDirectory, int retainedSnapshots) {
+        this.databaseFile = databaseFile;
+        this.backupDirectory = Paths.get(backupDirectory);
+        this.retainedSnapshots = retainedSnapshots;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "database-backup");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    public void scheduleSnapshots(long interval, TimeUnit unit) {
+        executor.scheduleWithFixedDelay(this::takeSnapshot, interval, interval, unit);
+    }
+
+    public Future<Path> snapshotNow() {
+        return executor.submit(this::takeSnapshot);
+    }
+
+    // Returns the verified snapshot, or null if the backup or its integrity check failed
+    private Path takeSnapshot() {
+        String baseName = new File(databaseFile).getName().replaceFirst("\\.db$", "");
+        String name = baseName + "-" + LocalDateTime.now().format(SNAPSHOT_NAME_FORMAT);
+        Path snapshot = backupDirectory.resolve(name + ".db");
+        // Snapshots run one at a time on the executor, so a free name stays free until the move
+        for (int sequence = 1; Files.exists(snapshot); sequence++) {
+            snapshot = backupDirectory.resolve(name + "-" + sequence + ".db");
+        }
+        Path partial = backupDirectory.resolve(snapshot.getFileName() + ".partial");
+
+        try {
+            Files.createDirectories(backupDirectory);
+            Files.deleteIfExists(partial);
+            copyInBatches(partial);
+
+            if (!verify(partial)) {
+                System.err.println("Backup failed integrity check: " + partial);
+                Files.deleteIfExists(partial);
+                return null;
+            }
+            Files.move(partial, snapshot, StandardCopyOption.ATOMIC_MOVE);
+            pruneOldSnapshots(baseName);
+            return snapshot;
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException ignored) {
+            }
+            return null;
+        }
+    }
+
+    private void copyInBatches(Path target) throws SQLException {
+        try (Connection source = DriverManager.getConnection("jdbc:sqlite:" + databaseFile)) {
+            // Pin a read snapshot so concurrent commits from other connections don't restart the copy
+            source.setAutoCommit(false);
+            try (Statement stmt = source.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master")) {
+                rs.next();
+            }
+
+            int rc = source.unwrap(SQLiteConnection.class).getDatabase().backup("main", target.toString(),
+                    (remaining, pageCount) -> pauseBetweenSteps(),
+                    BUSY_RETRY_SLEEP_MS, BUSY_RETRIES, PAGES_PER_STEP);
+            source.rollback();
+            if (rc != 0) {
+                throw new SQLException("Backup did not complete (sqlite code " + rc + ")");
+            }
+        }
+    }
+
+    // Yields the disk and CPU between page batches so the app stays responsive during large copies
+    private static void pauseBetweenSteps() {
+        try {
+            Thread.sleep(PAUSE_BETWEEN_STEPS_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean verify(Path snapshot) {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + snapshot);
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA integrity_check")) {
+            return rs.next() && "ok".equals(rs.getString(1));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public List<Path> listSnapshots() {
+        String baseName = new File(databaseFile).getName().replaceFirst("\\.db$", "");
+        return listSnapshots(baseName);
+    }
+
+    private List<Path> listSnapshots(String baseName) {
+        List<Path> snapshots = new ArrayList<>();
+        File[] files = backupDirectory.toFile().listFiles((dir, name) ->
+                name.startsWith(baseName) && SNAPSHOT_SUFFIX.matcher(name.substring(baseName.length())).matches());
+        if (files != null) {
+            for (File file : files) {
+                snapshots.add(file.toPath());
+            }
+        }
+        // Oldest first; plain name order would put "-1.db" before ".db" and "-10" before "-2"
+        snapshots.sort(Comparator.comparing((Path snapshot) -> sortKey(baseName, snapshot)).thenComparing(Comparator.naturalOrder()));
+        return snapshots;
+    }
+
+    private static String sortKey(String baseName, Path snapshot) {
+        Matcher matcher = SNAPSHOT_SUFFIX.matcher(snapshot.getFileName().toString().substring(baseName.length()));
+        matcher.matches();
+        String millis = matcher.group(2) == null ? "000" : matcher.group(2);
+        int sequence = matcher.group(3) == null ? 0 : Integer.parseInt(matcher.group(3));
+        return matcher.group(1) + millis + String.format("%09d", sequence);
+    }
+
+    private void pruneOldSnapshots(String baseName) throws IOException {
+        List<Path> snapshots = listSnapshots(baseName);
+        for (int i = 0; i < snapshots.size() - retainedSnapshots; i++) {
+            Files.deleteIfExists(snapshots.get(i));
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
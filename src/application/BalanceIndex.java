@@ -0,0 +1,171 @@
+package application;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+// Account balances as of any date, from one Fenwick (binary indexed) tree per account over the net amount
+// (deposits minus payments, in cents) of each epoch day.
+//
+// A balance is the opening balance, once the opening date is reached, plus a prefix sum of the tree, and a
+// net change between two dates is the difference of two prefix sums; both are O(log days), as is adding or
+// removing a transaction. build() streams every transaction once into raw per-day sums and then converts
+// each account's array into a tree in parallel, in place and in linear time. A tree covers a range of days
+// that doubles when a transaction falls outside it.
+public class BalanceIndex {
+
+    public interface RowConsumer {
+        void accept(String accountName, long epochDay, long netCents);
+    }
+
+    // Feeds every transaction to the consumer once
+    public interface RowSource {
+        void forEach(RowConsumer consumer) throws SQLException;
+    }
+
+    private static final class Tree {
+        long base;       // epoch day at index 1
+        long[] values;   // 1-based; raw per-day sums until built, then the Fenwick tree
+        boolean built;
+        long openingDay = Long.MIN_VALUE;
+        long openingCents;
+
+        void add(long epochDay, long cents) {
+            if (values == null) {
+                base = epochDay - 16;
+                values = new long[65];
+            } else if (epochDay < base || epochDay >= base + values.length - 1) {
+                grow(epochDay);
+            }
+            int i = (int) (epochDay - base + 1);
+            if (!built) {
+                values[i] += cents;
+                return;
+            }
+            for (; i < values.length; i += i & -i) {
+                values[i] += cents;
+            }
+        }
+
+        // Sum of every day up to and including epochDay
+        long prefix(long epochDay) {
+            if (values == null || epochDay < base) {
+                return 0;
+            }
+            long sum = 0;
+            for (int i = (int) Math.min(epochDay - base + 1, values.length - 1); i > 0; i -= i & -i) {
+                sum += values[i];
+            }
+            return sum;
+        }
+
+        void build() {
+            for (int i = 1; values != null && i < values.length; i++) {
+                int parent = i + (i & -i);
+                if (parent < values.length) {
+                    values[parent] += values[i];
+                }
+            }
+            built = true;
+        }
+
+        // The inverse of build(), turning the tree back into per-day sums
+        void unbuild() {
+            for (int i = values.length - 1; i > 0; i--) {
+                int parent = i + (i & -i);
+                if (parent < values.length) {
+                    values[parent] -= values[i];
+                }
+            }
+            built = false;
+        }
+
+        private void grow(long epochDay) {
+            boolean wasBuilt = built;
+            if (wasBuilt) {
+                unbuild();
+            }
+            long days = values.length - 1;
+            long newBase = Math.min(base, epochDay);
+            long newEnd = Math.max(base + days, epochDay + 1);
+            long newDays = Math.max(days * 2, newEnd - newBase);
+            if (epochDay < base) {
+                newBase = newEnd - newDays;
+            }
+            long[] grown = new long[Math.toIntExact(newDays + 1)];
+            System.arraycopy(values, 1, grown, (int) (base - newBase + 1), (int) days);
+            base = newBase;
+            values = grown;
+            if (wasBuilt) {
+                build();
+            }
+        }
+    }
+
+    private final Map<String, Tree> trees = new HashMap<>();
+    // While build() streams rows, new trees take raw sums
+    private boolean loading;
+
+    // Streams the rows into raw daily sums, then builds every account's tree on the common pool
+    public static BalanceIndex build(Iterable<Account> accounts, RowSource rows) throws SQLException {
+        BalanceIndex index = new BalanceIndex();
+        index.loading = true;
+        for (Account account : accounts) {
+            index.setOpening(account.getName(), account.getOpeningDate().toLocalDate(), account.getOpeningBalance());
+        }
+        rows.forEach((accountName, epochDay, netCents) -> index.tree(accountName).add(epochDay, netCents));
+        index.trees.values().parallelStream().forEach(Tree::build);
+        index.loading = false;
+        return index;
+    }
+
+    private Tree tree(String accountName) {
+        return trees.computeIfAbsent(accountName, name -> {
+            Tree tree = new Tree();
+            tree.built = !loading;
+            return tree;
+        });
+    }
+
+    public synchronized void setOpening(String accountName, LocalDate openingDate, double openingBalance) {
+        Tree tree = tree(accountName);
+        tree.openingDay = openingDate.toEpochDay();
+        tree.openingCents = ReportTotals.toCents(openingBalance);
+    }
+
+    // The account's transactions stay counted; only the opening balance goes
+    public synchronized void removeOpening(String accountName) {
+        Tree tree = trees.get(accountName);
+        if (tree != null) {
+            tree.openingDay = Long.MIN_VALUE;
+            tree.openingCents = 0;
+        }
+    }
+
+    // Adds (sign 1) or removes (sign -1) a transaction
+    public synchronized void add(String accountName, LocalDate date, double paymentAmount, double depositAmount, int sign) {
+        tree(accountName).add(date.toEpochDay(),
+                sign * (ReportTotals.toCents(depositAmount) - ReportTotals.toCents(paymentAmount)));
+    }
+
+    // Opening balance plus every transaction dated on or before the date
+    public synchronized double balanceOn(String accountName, LocalDate date) {
+        Tree tree = trees.get(accountName);
+        if (tree == null) {
+            return 0;
+        }
+        long day = date.toEpochDay();
+        long opening = tree.openingDay != Long.MIN_VALUE && day >= tree.openingDay ? tree.openingCents : 0;
+        return (opening + tree.prefix(day)) / 100.0;
+    }
+
+    // Deposits minus payments dated within [from, to]
+    public synchronized double netChange(String accountName, LocalDate from, LocalDate to) {
+        Tree tree = trees.get(accountName);
+        if (tree == null || to.isBefore(from)) {
+            return 0;
+        }
+        return (tree.prefix(to.toEpochDay()) - tree.prefix(from.toEpochDay() - 1)) / 100.0;
+    }
+}
@@ -0,0 +1,134 @@
+package application;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Monthly budget limits per transaction type, for one account or for all of them, and what has been spent
+// against them. Spending is payments minus deposits, kept in cents per (month, type, account) and per (month,
+// type) across accounts, so every write moves two counters and a budget's status is one map lookup.
+//
+// DatabaseHelper seeds the counters from the MONTH rows of spending_buckets and InMemoryLedgerRepository from
+// its own rows; both then call add() alongside every bucket update. An edit is a removal and an addition, so
+// add() only notes each counter's value before the write, and publish() at the end of the write compares and
+// tells the listener about every budget that went from within its limit to over it.
+public class BudgetTracker {
+    // Stands in for the account of a budget covering every account
+    static final String ALL_ACCOUNTS = "";
+
+    public interface Listener {
+        void budgetExceeded(Status status);
+    }
+
+    public static final class Status {
+        private final LocalDate month;
+        private final String transactionType;
+        private final String accountName;
+        private final long limitCents;
+        private final long spentCents;
+
+        Status(LocalDate month, List<String> key, long limitCents, long spentCents) {
+            this.month = month;
+            this.transactionType = key.get(0);
+            this.accountName = key.get(1).equals(ALL_ACCOUNTS) ? null : key.get(1);
+            this.limitCents = limitCents;
+            this.spentCents = spentCents;
+        }
+
+        public LocalDate getMonth() { return month; }
+        public String getTransactionType() { return transactionType; }
+        // Null for a budget covering every account
+        public String getAccountName() { return accountName; }
+        public String getAccountLabel() { return accountName == null ? "All accounts" : accountName; }
+        public double getLimit() { return limitCents / 100.0; }
+        public double getSpent() { return spentCents / 100.0; }
+        public double getRemaining() { return (limitCents - spentCents) / 100.0; }
+        public int getPercentUsed() { return limitCents == 0 ? 0 : (int) Math.round(100.0 * spentCents / limitCents); }
+        public boolean isExceeded() { return spentCents > limitCents; }
+    }
+
+    private final Map<List<String>, Long> limits = new HashMap<>();
+    // Month start epoch day -> (type, account or ALL_ACCOUNTS) -> cents spent
+    private final Map<Long, Map<List<String>, Long>> spent = new HashMap<>();
+    // Budgeted counters changed since the last publish(), by month, with their value before the change
+    private final Map<Long, Map<List<String>, Long>> pending = new LinkedHashMap<>();
+    private volatile Listener listener;
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public static List<String> key(String transactionType, String accountName) {
+        return List.of(SpendingBuckets.bucketType(transactionType), accountName == null ? ALL_ACCOUNTS : accountName);
+    }
+
+    public synchronized void setLimit(String transactionType, String accountName, long limitCents) {
+        limits.put(key(transactionType, accountName), limitCents);
+    }
+
+    public synchronized boolean removeLimit(String transactionType, String accountName) {
+        return limits.remove(key(transactionType, accountName)) != null;
+    }
+
+    // Seeds a month's spending for one account and type, e.g. from a spending bucket
+    public synchronized void load(LocalDate monthStart, String accountName, String transactionType, long paymentCents, long depositCents) {
+        Map<List<String>, Long> month = spent.computeIfAbsent(monthStart.toEpochDay(), day -> new HashMap<>());
+        month.merge(key(transactionType, accountName), paymentCents - depositCents, Long::sum);
+        month.merge(key(transactionType, null), paymentCents - depositCents, Long::sum);
+    }
+
+    // Adds (sign 1) or removes (sign -1) a transaction's amounts from its month
+    public synchronized void add(String accountName, String transactionType, LocalDate date,
+                                 double paymentAmount, double depositAmount, int sign) {
+        long monthStart = date.withDayOfMonth(1).toEpochDay();
+        long cents = sign * (ReportTotals.toCents(paymentAmount) - ReportTotals.toCents(depositAmount));
+        Map<List<String>, Long> month = spent.computeIfAbsent(monthStart, day -> new HashMap<>());
+        for (List<String> key : List.of(key(transactionType, accountName), key(transactionType, null))) {
+            long before = month.getOrDefault(key, 0L);
+            if (limits.containsKey(key)) {
+                pending.computeIfAbsent(monthStart, day -> new LinkedHashMap<>()).putIfAbsent(key, before);
+            }
+            month.put(key, before + cents);
+        }
+    }
+
+    // Tells the listener about each budget the writes since the last call took over its limit
+    public void publish() {
+        List<Status> exceeded = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<Long, Map<List<String>, Long>> month : pending.entrySet()) {
+                for (Map.Entry<List<String>, Long> change : month.getValue().entrySet()) {
+                    Long limit = limits.get(change.getKey());
+                    long now = spent.get(month.getKey()).getOrDefault(change.getKey(), 0L);
+                    if (limit != null && change.getValue() <= limit && now > limit) {
+                        exceeded.add(new Status(LocalDate.ofEpochDay(month.getKey()), change.getKey(), limit, now));
+                    }
+                }
+            }
+            pending.clear();
+        }
+        Listener current = listener;
+        if (current != null) {
+            for (Status status : exceeded) {
+                current.budgetExceeded(status);
+            }
+        }
+    }
+
+    // Every budget's status for the month holding the date, by type and then account
+    public synchronized List<Status> status(LocalDate date) {
+        LocalDate monthStart = date.withDayOfMonth(1);
+        Map<List<String>, Long> month = spent.getOrDefault(monthStart.toEpochDay(), Map.of());
+        List<Status> statuses = new ArrayList<>();
+        for (Map.Entry<List<String>, Long> limit : limits.entrySet()) {
+            statuses.add(new Status(monthStart, limit.getKey(), limit.getValue(), month.getOrDefault(limit.getKey(), 0L)));
+        }
+        statuses.sort(Comparator.comparing(Status::getTransactionType)
+                .thenComparing(status -> status.getAccountName() == null ? "" : status.getAccountName()));
+        return statuses;
+    }
+}
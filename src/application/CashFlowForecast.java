@@ -0,0 +1,212 @@
+package application;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+// Projects account balances forward from a start date using the scheduled transactions.
+//
+// Each schedule is expanded lazily by its RecurrenceRule's cursor, and the cursors of all schedules are merged
+// through a priority queue, so occurrences come out in date order and callers such as upcoming() only expand
+// as far as they read. Building the forecast folds every occurrence into a per-account array of daily changes
+// (in cents) across the horizon; month-end balances are prefix sums over that array, cached per account.
+// Changing one schedule subtracts its old occurrences and adds its new ones to that one account's array and
+// drops only that account's cached balances, so no other schedule is re-expanded.
+public class CashFlowForecast {
+
+    public static final class Occurrence {
+        private final LocalDate date;
+        private final ScheduledTransaction schedule;
+
+        Occurrence(LocalDate date, ScheduledTransaction schedule) {
+            this.date = date;
+            this.schedule = schedule;
+        }
+
+        public LocalDate getDate() { return date; }
+        public ScheduledTransaction getSchedule() { return schedule; }
+    }
+
+    public static final class BalancePoint {
+        private final LocalDate date;
+        private final double balance;
+
+        BalancePoint(LocalDate date, double balance) {
+            this.date = date;
+            this.balance = balance;
+        }
+
+        public LocalDate getDate() { return date; }
+        public double getBalance() { return balance; }
+    }
+
+    // One schedule's position in the merge; the rule's cursor seeks straight to the first due date in range
+    private static final class Cursor {
+        final ScheduledTransaction schedule;
+        final RecurrenceRule.Cursor dates;
+
+        Cursor(ScheduledTransaction schedule, LocalDate from) {
+            this.schedule = schedule;
+            this.dates = schedule.getRecurrence().cursor(from);
+        }
+    }
+
+    private final LocalDate start;
+    private final LocalDate end;
+    private final int days;
+    private final Map<String, Long> startingCents = new HashMap<>();
+    private final Map<String, ScheduledTransaction> schedulesByName = new HashMap<>();
+    private final Map<String, long[]> dailyCentsByAccount = new HashMap<>();
+    private final Map<String, List<BalancePoint>> monthEndCache = new HashMap<>();
+
+    public CashFlowForecast(LocalDate start, int months, Map<String, Double> startingBalances,
+                            Collection<ScheduledTransaction> schedules) {
+        this.start = start;
+        this.end = start.plusMonths(months);
+        this.days = (int) (end.toEpochDay() - start.toEpochDay());
+        startingBalances.forEach((account, balance) -> startingCents.put(account, ReportTotals.toCents(balance)));
+        for (ScheduledTransaction schedule : schedules) {
+            schedulesByName.put(schedule.getScheduleName(), schedule);
+        }
+        for (Iterator<Occurrence> occurrences = occurrences(schedules, start, end); occurrences.hasNext(); ) {
+            apply(occurrences.next(), 1);
+        }
+    }
+
+    // Current balance of every account (opening balance plus recorded transactions) projected forward
+    public static CashFlowForecast forLedger(LedgerRepository repository, int months) {
+        Map<String, Double> balances = new HashMap<>();
+        for (Account account : repository.getAllAccountDetails()) {
+            balances.put(account.getName(), account.getOpeningBalance());
+        }
+        new ReportEngine().summarize(repository, ReportEngine.GroupBy.ACCOUNT)
+                .forEach((account, totals) -> balances.merge(account, totals.getNet(), Double::sum));
+        return new CashFlowForecast(LocalDate.now(), months, balances, repository.getScheduledTransactions());
+    }
+
+    // Occurrences of all the schedules in [from, until), in date order, expanded only as far as they are read
+    public static Iterator<Occurrence> occurrences(Collection<ScheduledTransaction> schedules, LocalDate from, LocalDate until) {
+        long untilDay = until.toEpochDay();
+        PriorityQueue<Cursor> heap = new PriorityQueue<>(Comparator.comparingLong((Cursor cursor) -> cursor.dates.peekEpochDay())
+                .thenComparing(cursor -> cursor.schedule.getScheduleName()));
+        for (ScheduledTransaction schedule : schedules) {
+            Cursor cursor = new Cursor(schedule, from);
+            if (cursor.dates.hasNext() && cursor.dates.peekEpochDay() < untilDay) {
+                heap.add(cursor);
+            }
+        }
+        return new Iterator<Occurrence>() {
+            @Override
+            public boolean hasNext() {
+                return !heap.isEmpty();
+            }
+
+            @Override
+            public Occurrence next() {
+                Cursor cursor = heap.poll();
+                if (cursor == null) {
+                    throw new NoSuchElementException();
+                }
+                Occurrence occurrence = new Occurrence(cursor.dates.next(), cursor.schedule);
+                if (cursor.dates.hasNext() && cursor.dates.peekEpochDay() < untilDay) {
+                    heap.add(cursor);
+                }
+                return occurrence;
+            }
+        };
+    }
+
+    public List<Occurrence> upcoming(int limit) {
+        List<Occurrence> upcoming = new ArrayList<>();
+        Iterator<Occurrence> occurrences = occurrences(schedulesByName.values(), start, end);
+        while (upcoming.size() < limit && occurrences.hasNext()) {
+            upcoming.add(occurrences.next());
+        }
+        return upcoming;
+    }
+
+    // Adds a schedule, or replaces the one with the same name
+    public void putSchedule(ScheduledTransaction schedule) {
+        removeSchedule(schedule.getScheduleName());
+        schedulesByName.put(schedule.getScheduleName(), schedule);
+        for (Iterator<Occurrence> occurrences = occurrences(List.of(schedule), start, end); occurrences.hasNext(); ) {
+            apply(occurrences.next(), 1);
+        }
+    }
+
+    public void removeSchedule(String scheduleName) {
+        ScheduledTransaction removed = schedulesByName.remove(scheduleName);
+        if (removed == null) {
+            return;
+        }
+        for (Iterator<Occurrence> occurrences = occurrences(List.of(removed), start, end); occurrences.hasNext(); ) {
+            apply(occurrences.next(), -1);
+        }
+    }
+
+    public void setStartingBalance(String accountName, double balance) {
+        startingCents.put(accountName, ReportTotals.toCents(balance));
+        monthEndCache.remove(accountName);
+    }
+
+    // Scheduled amounts are payments, so each occurrence lowers its account's balance
+    private void apply(Occurrence occurrence, int sign) {
+        String account = occurrence.getSchedule().getAccountName();
+        long[] dailyCents = dailyCentsByAccount.computeIfAbsent(account, a -> new long[days]);
+        dailyCents[(int) (occurrence.getDate().toEpochDay() - start.toEpochDay())]
+                -= sign * ReportTotals.toCents(occurrence.getSchedule().getPaymentAmount());
+        monthEndCache.remove(account);
+    }
+
+    public List<String> getAccountNames() {
+        TreeSet<String> names = new TreeSet<>(startingCents.keySet());
+        names.addAll(dailyCentsByAccount.keySet());
+        return new ArrayList<>(names);
+    }
+
+    // The starting balance, then the projected balance at the end of each month in the horizon
+    public List<BalancePoint> monthEndBalances(String accountName) {
+        return monthEndCache.computeIfAbsent(accountName, account -> {
+            long balance = startingCents.getOrDefault(account, 0L);
+            long[] dailyCents = dailyCentsByAccount.get(account);
+            List<BalancePoint> points = new ArrayList<>();
+            points.add(new BalancePoint(start, balance / 100.0));
+            for (int day = 0; day < days; day++) {
+                if (dailyCents != null) {
+                    balance += dailyCents[day];
+                }
+                LocalDate date = start.plusDays(day);
+                if (date.getDayOfMonth() == date.lengthOfMonth() || day == days - 1) {
+                    points.add(new BalancePoint(date, balance / 100.0));
+                }
+            }
+            return points;
+        });
+    }
+
+    public double balanceOn(String accountName, LocalDate date) {
+        long balance = startingCents.getOrDefault(accountName, 0L);
+        long[] dailyCents = dailyCentsByAccount.get(accountName);
+        int lastDay = (int) Math.min(date.toEpochDay() - start.toEpochDay(), days - 1);
+        for (int day = 0; dailyCents != null && day <= lastDay; day++) {
+            balance += dailyCents[day];
+        }
+        return balance / 100.0;
+    }
+
+    public LocalDate getStart() {
+        return start;
+    }
+
+    public LocalDate getEnd() {
+        return end;
+    }
+}
@@ -0,0 +1,28 @@
+package application;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// One DatabaseHelper call: QueryMetrics.time() begins the event before the call runs and ends and commits
+// it once the call finishes, so the event's own duration is the call's.
+@Name("application.DatabaseCall")
+@Label("Database Call")
+@Category({"Centsible", "Database"})
+@Description("A single DatabaseHelper data-access method")
+@StackTrace(false)
+public class DatabaseCallEvent extends jdk.jfr.Event {
+    @Label("Query Name")
+    public String queryName;
+
+    @Label("SQL")
+    public String sql;
+
+    @Label("Rows")
+    public int rows;
+
+    @Label("Failed")
+    public boolean failed;
+}
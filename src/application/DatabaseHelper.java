@@ -1,46 +1,329 @@
 package application;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
-public class DatabaseHelper {
+public class DatabaseHelper implements LedgerRepository {
+    public static final String DATABASE_FILE = "mydatabase.db";
+    // Bump when the DDL below changes so existing files get upgraded on their next launch
+    static final int SCHEMA_VERSION = 14;
+    static final String ARCHIVE_DIRECTORY = "archive";
+    static final String PARTITION_DIRECTORY = "partitions";
+
+    private final String databaseFile;
+    // Shared by every reader; see connection()
     private Connection connection;
+    // The writer thread's own connection, so readers never see a group's rows before it commits; the same as
+    // connection for partitioned ledgers
+    private Connection writerConnection;
+    private final QueryMetrics metrics = QueryMetrics.getInstance();
+    private TransactionArchive archive;
+    // Null unless transactions are split into per-year files
+    private TransactionPartitions partitions;
+    private TransactionPartitions writerPartitions;
+    // Set when migrate() creates transaction_fingerprints; it is filled once the partitions are open
+    private boolean fingerprintsPending;
+    // The in-memory indexes below are built under this lock, and the writer holds it while a write and its
+    // hooks run, so a build sees either none or all of a write. They are volatile because readers use them
+    // without the lock.
+    private final Object indexLock = new Object();
+    // Loaded from transaction_fingerprints on first use, then kept in step with every write
+    private volatile DuplicateIndex duplicates;
+    // Set when migrate() creates type_model, which is then trained on the existing rows
+    private boolean typeModelPending;
+    // Loaded from type_model on first use, then kept in step with every write
+    private volatile TypeClassifier classifier;
+    // Built from one scan of every transaction on first use, then kept in step with every write
+    private volatile BalanceIndex balances;
+    // Tag bitmaps are loaded from tag_chunks on first use and written back a chunk at a time; the live rows
+    // they are matched against are loaded by one scan the first time a filter runs
+    private volatile TagIndex tags;
+    // Built from one pass over the ledger in date order on first use, then fed each new payment; edits and
+    // deletes can't be taken back out of its running counts, so they drop it to be rebuilt
+    private volatile RecurringPaymentFinder recurring;
+    // Budget limits and month counters, loaded from budgets and the MONTH spending buckets on first use, then
+    // moved by recordSpending() on every write
+    private volatile BudgetTracker budgets;
+    private volatile BudgetTracker.Listener budgetListener;
+    // Loaded on first use; setExchangeRate keeps it current
+    private volatile ExchangeRates rates;
+    // Set when migrate() creates spending_buckets; live, partitioned and archived rows are summed into it afterwards
+    private boolean spendingPending;
+    // Set when migrate() rewrites an existing file's dates as epoch days; the freed space is reclaimed afterwards
+    private boolean compactPending;
+    // Every write after startup runs on its thread; transaction saves, edits and deletes share commits
+    private WriteQueue writes;
+    // Bumped by every transaction write, so a sorted window cached by getTransactionPage() is never stale
+    private volatile long transactionsVersion;
+    // Sorts pages in memory when one ORDER BY can't cover the rows (partitions or archived rows)
+    private final TransactionSort.Window sortedWindow = new TransactionSort.Window();
 
     public DatabaseHelper() {
+        this(DATABASE_FILE);
+    }
+
+    // Opens (creating if needed) the ledger in the given file; archive and partition files live beside it
+    public DatabaseHelper(String databaseFile) {
+        this.databaseFile = databaseFile;
         // Initialize the database connection
         try {
             // Adjust the URL to your SQLite database location
-            connection = DriverManager.getConnection("jdbc:sqlite:mydatabase.db");
-            createAccountTable();
-            createTransactionTable();
-            createTransactionTypeTable();
-            createSchedulesTable();
-            createScheduledTransactionTable();
-        } catch (SQLException e) {
+            connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+            // WAL lets background readers (e.g. backups) run without blocking writes from the UI
+            try (Statement stmt = connection().createStatement()) {
+                stmt.execute("PRAGMA journal_mode=WAL");
+            }
+            // The schema version lives in the file header, so an up-to-date database skips all DDL
+            int schemaVersion = getSchemaVersion();
+            if (schemaVersion < SCHEMA_VERSION) {
+                try {
+                    migrate(schemaVersion);
+                } catch (SQLException e) {
+                    // The file is left as it was; carrying on would run every query against the old schema
+                    connection.close();
+                    throw new IllegalStateException("Could not upgrade " + databaseFile + " from schema version "
+                            + schemaVersion + " to " + SCHEMA_VERSION, e);
+                }
+            }
+            if (TransactionPartitions.isEnabled(connection)) {
+                partitions = new TransactionPartitions(connection, besideDatabase(databaseFile, PARTITION_DIRECTORY));
+                partitions.convertDates();
+                partitions.createMissingIndexes();
+                partitions.absorbMainTable();
+            }
+            if (compactPending) {
+                compact();
+            }
+            if (fingerprintsPending) {
+                backfillFingerprints();
+            }
+            if (typeModelPending) {
+                trainTypeModel();
+            }
+            if (spendingPending) {
+                backfillSpending();
+            }
+        } catch (SQLException | IOException e) {
             e.printStackTrace();
         }
+        // The writer attaches partitions on its own connection and holds each one a group writes to until the
+        // group's transaction ends; readers attach theirs on the shared connection
+        writerConnection = openWriterConnection();
+        writerPartitions = partitions == null ? null : partitions.on(writerConnection);
+        writes = new WriteQueue(writerConnection, "ledger-writer", writerConnection != connection, indexLock, () -> {
+            if (writerPartitions != null) {
+                writerPartitions.release();
+            }
+        });
 //        populateInitialTransactions(); //Adnan added-modified-start-&-end
     }
 
-    private void createTransactionTypeTable() {
+    // Falls back to the shared connection, without grouping, if a second one can't be opened
+    private Connection openWriterConnection() {
+        try {
+            return DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return connection;
+        }
+    }
+
+    // The writer thread's connection on the writer thread, the shared one everywhere else. In WAL mode the
+    // shared connection only sees committed rows, however long a group stays open.
+    private Connection connection() {
+        return writes != null && writes.isWriterThread() ? writerConnection : connection;
+    }
+
+    // The partitions as attached to connection()
+    private TransactionPartitions partitions() {
+        return writes != null && writes.isWriterThread() ? writerPartitions : partitions;
+    }
+
+    public String getDatabaseFile() {
+        return databaseFile;
+    }
+
+    // A directory next to the database file, e.g. "archive" for mydatabase.db in the working directory
+    public static Path besideDatabase(String databaseFile, String directory) {
+        Path parent = Paths.get(databaseFile).getParent();
+        return parent == null ? Paths.get(directory) : parent.resolve(directory);
+    }
+
+    private int getSchemaVersion() throws SQLException {
+        try (Statement stmt = connection().createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // Applies every schema step newer than the file's version in one transaction
+    private void migrate(int fromVersion) throws SQLException {
+        connection().setAutoCommit(false);
+        try {
+            if (fromVersion < 1) {
+                createAccountTable();
+                createTransactionTable();
+                createTransactionTypeTable();
+                createSchedulesTable();
+                createScheduledTransactionTable();
+            }
+            if (fromVersion < 2) {
+                createArchiveSegmentsTable();
+            }
+            if (fromVersion < 3) {
+                createTransactionPartitionsTable();
+            }
+            if (fromVersion < 4) {
+                addRecurrenceColumn();
+            }
+            if (fromVersion < 5) {
+                createTransactionFingerprintsTable();
+                fingerprintsPending = true;
+            }
+            if (fromVersion < 6) {
+                createTypeModelTable();
+                typeModelPending = true;
+            }
+            if (fromVersion < 7) {
+                createTransactionSortIndexes();
+            }
+            if (fromVersion < 8) {
+                createSpendingBucketsTable();
+                spendingPending = true;
+            }
+            if (fromVersion < 9) {
+                createTagChunksTable();
+            }
+            if (fromVersion < 10) {
+                createBudgetsTable();
+            }
+            if (fromVersion < 11) {
+                addCurrencyColumn();
+                createExchangeRatesTable();
+            }
+            if (fromVersion < 12) {
+                convertDatesToEpochDays();
+                compactPending = fromVersion > 0;
+            }
+            if (fromVersion < 13) {
+                addPartitionIndexesColumn();
+            }
+            if (fromVersion < 14) {
+                createNameIndexes();
+            }
+            try (Statement stmt = connection().createStatement()) {
+                stmt.execute("PRAGMA user_version = " + SCHEMA_VERSION);
+            }
+            connection().commit();
+        } catch (SQLException e) {
+            connection().rollback();
+            throw e;
+        } finally {
+            connection().setAutoCommit(true);
+        }
+    }
+
+    // Schema version 12: every date column holds an INTEGER epoch day (see SqlDates). DATE columns have numeric
+    // affinity, so their values are rewritten in place. Older files declared accounts.opening_date and due_date
+    // TEXT or REAL, which would store the integers back as text or reals, so accounts and
+    // scheduled_transactions are rebuilt first. Partition files are converted when they are opened.
+    private void convertDatesToEpochDays() throws SQLException {
+        rebuildAccountsWithIntegerDates();
+        SqlDates.convertColumn(connection, "transactions", "transaction_date");
+        SqlDates.convertColumn(connection, "accounts", "opening_date");
+        SqlDates.convertColumn(connection, "archive_segments", "cutoff_date");
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute("ALTER TABLE transaction_partitions ADD COLUMN epoch_days INTEGER NOT NULL DEFAULT 0");
+            stmt.execute("CREATE TABLE scheduled_transactions_v12 (" +
+                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "schedule_name TEXT NOT NULL," +
+                    "account_name TEXT NOT NULL," +
+                    "transaction_type TEXT NOT NULL," +
+                    "frequency TEXT NOT NULL," +
+                    "due_date INTEGER NOT NULL," +
+                    "payment_amount REAL," +
+                    "recurrence INTEGER," +
+                    "FOREIGN KEY (schedule_name) REFERENCES schedules(name)" +
+                    ");");
+            stmt.execute("INSERT INTO scheduled_transactions_v12 (id, schedule_name, account_name, transaction_type, " +
+                    "frequency, due_date, payment_amount, recurrence) SELECT id, schedule_name, account_name, " +
+                    "transaction_type, frequency, CAST(due_date AS INTEGER), payment_amount, recurrence " +
+                    "FROM scheduled_transactions");
+            stmt.execute("DROP TABLE scheduled_transactions");
+            stmt.execute("ALTER TABLE scheduled_transactions_v12 RENAME TO scheduled_transactions");
+        }
+    }
+
+    // Copies accounts into a table declared the same way except for an INTEGER opening_date. The file's own
+    // definition is reused, since files from different versions differ (e.g. a UNIQUE name) and the columns
+    // added since must keep their order for the copy.
+    private void rebuildAccountsWithIntegerDates() throws SQLException {
+        String definition;
+        try (Statement stmt = connection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = 'accounts'")) {
+            definition = rs.next() ? rs.getString(1) : null;
+        }
+        if (definition == null) {
+            throw new SQLException("The accounts table is missing");
+        }
+        String rebuilt = definition
+                .replaceFirst("(?i)^CREATE TABLE\\s+(IF NOT EXISTS\\s+)?\"?accounts\"?", "CREATE TABLE accounts_v12")
+                .replaceFirst("(?i)opening_date\\s+[A-Z]+", "opening_date INTEGER");
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute(rebuilt);
+            stmt.execute("INSERT INTO accounts_v12 SELECT * FROM accounts");
+            stmt.execute("DROP TABLE accounts");
+            stmt.execute("ALTER TABLE accounts_v12 RENAME TO accounts");
+        }
+    }
+
+    // Rewrites the main file without the free pages a migration left behind
+    private void compact() throws SQLException {
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute("VACUUM");
+        }
+    }
+
+    private void createTransactionTypeTable() throws SQLException {
         String sql = "CREATE TABLE IF NOT EXISTS transaction_types (" +
                 "id INTEGER PRIMARY KEY AUTOINCREMENT," +
                 "name TEXT NOT NULL UNIQUE" +
                 ");";
-        try (Statement stmt = connection.createStatement()) {
+        try (Statement stmt = connection().createStatement()) {
             stmt.execute(sql);
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
     }
 
     public boolean addTransactionType(String typeName) {
+        if (!writes.isWriterThread()) {
+            return writeAlone(() -> addTransactionType(typeName));
+        }
         String sql = "INSERT INTO transaction_types (name) VALUES (?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, typeName);
-            pstmt.executeUpdate();
+        try {
+            metrics.time("addTransactionType", sql, connection(), () -> {
+                try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                    pstmt.setString(1, typeName);
+                    return pstmt.executeUpdate();
+                }
+            });
             return true;
         } catch (SQLException e) {
             if (e.getMessage().contains("UNIQUE constraint failed")) {
@@ -53,10 +336,14 @@ public class DatabaseHelper {
 
     public boolean transactionTypeExists(String transactionType) {
         String sql = "SELECT COUNT(*) FROM transaction_types WHERE name = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, transactionType);
-            ResultSet rs = pstmt.executeQuery();
-            return rs.next() && rs.getInt(1) > 0; // Return true if count is greater than 0
+        try {
+            return metrics.time("transactionTypeExists", sql, connection(), exists -> 1, () -> {
+                try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                    pstmt.setString(1, transactionType);
+                    ResultSet rs = pstmt.executeQuery();
+                    return rs.next() && rs.getInt(1) > 0; // Return true if count is greater than 0
+                }
+            });
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
@@ -65,12 +352,14 @@ public class DatabaseHelper {
 
     public boolean scheduleNameExists(String scheduleName) {
         String query = "SELECT COUNT(*) FROM scheduled_transactions WHERE schedule_name = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setString(1, scheduleName);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt(1) > 0;
-            }
+        try {
+            return metrics.time("scheduleNameExists", query, connection(), exists -> 1, () -> {
+                try (PreparedStatement stmt = connection().prepareStatement(query)) {
+                    stmt.setString(1, scheduleName);
+                    ResultSet rs = stmt.executeQuery();
+                    return rs.next() && rs.getInt(1) > 0;
+                }
+            });
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -82,11 +371,16 @@ public class DatabaseHelper {
     public List<String> getAllTransactionTypes() {
         List<String> transactionTypes = new ArrayList<>();
         String sql = "SELECT name FROM transaction_types";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                transactionTypes.add(rs.getString("name"));
-            }
+        try {
+            metrics.time("getAllTransactionTypes", sql, connection(), () -> {
+                try (Statement stmt = connection().createStatement();
+                     ResultSet rs = stmt.executeQuery(sql)) {
+                    while (rs.next()) {
+                        transactionTypes.add(rs.getString("name"));
+                    }
+                }
+                return transactionTypes.size();
+            });
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -95,85 +389,1269 @@ public class DatabaseHelper {
 
     public List<ScheduledTransaction> getScheduledTransactions()  {
         List<ScheduledTransaction> transactions = new ArrayList<>();
-        String sql = "SELECT schedule_name, account_name, transaction_type, frequency, due_date, payment_amount FROM scheduled_transactions ORDER BY due_date ASC";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                transactions.add(new ScheduledTransaction(
-                        rs.getString("schedule_name"),
-                        rs.getString("account_name"),
-                        rs.getString("transaction_type"),
-                        rs.getString("frequency"),
-                        rs.getInt("due_date"),
-                        rs.getDouble("payment_amount")
-                ));
+        String sql = "SELECT schedule_name, account_name, transaction_type, frequency, due_date, payment_amount, recurrence FROM scheduled_transactions ORDER BY due_date ASC";
+        try {
+            metrics.time("getScheduledTransactions", sql, connection(), () -> {
+                try (Statement stmt = connection().createStatement();
+                     ResultSet rs = stmt.executeQuery(sql)) {
+                    while (rs.next()) {
+                        transactions.add(readScheduledTransaction(rs));
+                    }
+                }
+                return transactions.size();
+            });
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return transactions;
+    }
+
+    public List<Transaction> getTransactions()  {
+        List<Transaction> transactions = queryTransactions("getTransactions", Integer.MIN_VALUE, Integer.MAX_VALUE, "");
+        return withArchived(transactions, TransactionArchive::getTransactions);
+    }
+
+    public List<Transaction> getTransactionsBetween(LocalDate from, LocalDate to) {
+        List<Transaction> transactions = queryTransactions("getTransactionsBetween", from.getYear(), to.getYear(),
+                " WHERE transaction_date BETWEEN ? AND ?", from.toEpochDay(), to.toEpochDay());
+        return withArchived(transactions, a -> a.getTransactionsBetween(from, to));
+    }
+
+    // Runs the query against every table that may hold rows dated within [fromYear, toYear]: the main table,
+    // or each matching partition newest year first, so appending each date-ordered result keeps the overall
+    // newest-first order without a merge. Partitions outside the years are never attached.
+    private List<Transaction> queryTransactions(String method, int fromYear, int toYear, String where, Object... params) {
+        List<Transaction> transactions = new ArrayList<>();
+        List<Integer> years = partitions == null ? List.of(0) : partitions.yearsNewestFirst(fromYear, toYear);
+        for (int year : years) {
+            String sql = "SELECT id, account_name, transaction_type, transaction_date, description, payment_amount, deposit_amount " +
+                    "FROM " + (partitions == null ? "transactions" : TransactionPartitions.table(year)) +
+                    where + " ORDER BY transaction_date DESC, id DESC";
+            int before = transactions.size();
+            try {
+                metrics.time(method, sql, connection(), () -> {
+                    if (partitions != null) {
+                        partitions().attachForRead(year);
+                    }
+                    try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                        for (int i = 0; i < params.length; i++) {
+                            pstmt.setObject(i + 1, params[i]);
+                        }
+                        try (ResultSet rs = pstmt.executeQuery()) {
+                            while (rs.next()) {
+                                transactions.add(readTransaction(rs));
+                            }
+                        }
+                    }
+                    return transactions.size() - before;
+                });
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
+        }
+        return transactions;
+    }
+
+    private static Transaction readTransaction(ResultSet rs) throws SQLException {
+        Transaction transaction = new Transaction(
+                rs.getString("account_name"),
+                rs.getString("transaction_type"),
+                SqlDates.read(rs, "transaction_date"),
+                rs.getString("description"),
+                rs.getDouble("payment_amount"),
+                rs.getDouble("deposit_amount")
+        );
+        transaction.setId(rs.getInt("id"));
+        return transaction;
+    }
+
 
+    private void createTransactionTable() throws SQLException {
+        String sql = "CREATE TABLE IF NOT EXISTS transactions (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "account_name TEXT NOT NULL," +
+                "transaction_type TEXT NOT NULL," +
+                "transaction_date DATE NOT NULL," +
+                "description TEXT," +
+                "payment_amount REAL," +
+                "deposit_amount REAL," +
+                "FOREIGN KEY (account_name) REFERENCES accounts(name)" +
+                ");";
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute(sql);
         }
-        catch (SQLException e) {
+    }
+
+    // One DuplicateIndex fingerprint per transaction id. Rows keep theirs when archived, so imports of old
+    // statements are still caught.
+    private void createTransactionFingerprintsTable() throws SQLException {
+        String sql = "CREATE TABLE IF NOT EXISTS transaction_fingerprints (" +
+                "transaction_id INTEGER PRIMARY KEY," +
+                "fingerprint INTEGER NOT NULL," +
+                "epoch_day INTEGER NOT NULL" +
+                ");";
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    // Fingerprints every live row, one transaction per table; partitions can't be attached inside migrate()
+    private void backfillFingerprints() throws SQLException {
+        List<Integer> years = partitions == null ? List.of(0) : partitions.yearsNewestFirst(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        for (int year : years) {
+            String table = partitions == null ? "transactions" : TransactionPartitions.table(year);
+            if (partitions != null) {
+                partitions().attachForRead(year);
+            }
+            connection().setAutoCommit(false);
+            try (Statement stmt = connection().createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT id, account_name, transaction_date, description, " +
+                         "payment_amount, deposit_amount FROM " + table);
+                 PreparedStatement insert = connection().prepareStatement("INSERT OR REPLACE INTO transaction_fingerprints " +
+                         "(transaction_id, fingerprint, epoch_day) VALUES (?, ?, ?)")) {
+                int batched = 0;
+                while (rs.next()) {
+                    insert.setLong(1, rs.getLong("id"));
+                    insert.setLong(2, DuplicateIndex.fingerprint(rs.getString("account_name"), rs.getString("description"),
+                            rs.getDouble("payment_amount"), rs.getDouble("deposit_amount")));
+                    insert.setLong(3, rs.getLong("transaction_date"));
+                    insert.addBatch();
+                    if (++batched % 10_000 == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+                connection().commit();
+            } catch (SQLException e) {
+                connection().rollback();
+                throw e;
+            } finally {
+                connection().setAutoCommit(true);
+            }
+        }
+    }
+
+    private DuplicateIndex getDuplicates() throws SQLException {
+        synchronized (indexLock) {
+            if (duplicates == null) {
+                String sql = "SELECT fingerprint, epoch_day FROM transaction_fingerprints";
+                metrics.time("loadFingerprints", sql, connection(), () -> {
+                    int rows = 0;
+                    try (Statement stmt = connection().createStatement()) {
+                        DuplicateIndex index;
+                        try (ResultSet count = stmt.executeQuery("SELECT COUNT(*) FROM transaction_fingerprints")) {
+                            index = new DuplicateIndex(count.next() ? count.getInt(1) : 0);
+                        }
+                        try (ResultSet rs = stmt.executeQuery(sql)) {
+                            while (rs.next()) {
+                                index.add(rs.getLong(1), rs.getLong(2));
+                                rows++;
+                            }
+                        }
+                        duplicates = index;
+                    }
+                    return rows;
+                });
+            }
+            return duplicates;
+        }
+    }
+
+    // Stores (or replaces) a row's fingerprint, inside the write that saves the row. A failure is thrown, so the
+    // row rolls back with it.
+    private void recordFingerprint(long id, String accountName, Date transactionDate, String description,
+                                   double paymentAmount, double depositAmount) throws SQLException {
+        long fingerprint = DuplicateIndex.fingerprint(accountName, description, paymentAmount, depositAmount);
+        long epochDay = DuplicateIndex.epochDay(transactionDate);
+        String sql = "INSERT OR REPLACE INTO transaction_fingerprints (transaction_id, fingerprint, epoch_day) VALUES (?, ?, ?)";
+        metrics.time("recordFingerprint", sql, connection(), () -> {
+            // The fingerprint being replaced, if any, leaves the index only once its replacement is stored
+            long[] replaced = null;
+            if (duplicates != null) {
+                try (PreparedStatement old = connection().prepareStatement(
+                        "SELECT fingerprint, epoch_day FROM transaction_fingerprints WHERE transaction_id = ?")) {
+                    old.setLong(1, id);
+                    try (ResultSet rs = old.executeQuery()) {
+                        if (rs.next()) {
+                            replaced = new long[] {rs.getLong(1), rs.getLong(2)};
+                        }
+                    }
+                }
+            }
+            int rows;
+            try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                pstmt.setLong(1, id);
+                pstmt.setLong(2, fingerprint);
+                pstmt.setLong(3, epochDay);
+                rows = pstmt.executeUpdate();
+            }
+            if (duplicates != null) {
+                if (replaced != null) {
+                    duplicates.remove(replaced[0], replaced[1]);
+                }
+                duplicates.add(fingerprint, epochDay);
+            }
+            return rows;
+        });
+    }
+
+    // Drops the fingerprints of the rows in the table that a delete by description is about to remove
+    private void forgetFingerprints(String table, String description) throws SQLException {
+        String sql = "DELETE FROM transaction_fingerprints WHERE transaction_id IN " +
+                "(SELECT id FROM " + table + " WHERE description = ?) RETURNING fingerprint, epoch_day";
+        metrics.time("forgetFingerprints", sql, connection(), () -> {
+            // As in recordFingerprint(), the index changes only once the whole statement has run
+            List<long[]> forgotten = new ArrayList<>();
+            try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                pstmt.setString(1, description);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        forgotten.add(new long[] {rs.getLong(1), rs.getLong(2)});
+                    }
+                }
+            }
+            if (duplicates != null) {
+                for (long[] fingerprint : forgotten) {
+                    duplicates.remove(fingerprint[0], fingerprint[1]);
+                }
+            }
+            return forgotten.size();
+        });
+    }
+
+    public List<Transaction> findLikelyDuplicates(String accountName, Date transactionDate, String description,
+                                                  double paymentAmount, double depositAmount) {
+        long fingerprint = DuplicateIndex.fingerprint(accountName, description, paymentAmount, depositAmount);
+        LocalDate date = transactionDate.toLocalDate();
+        try {
+            if (!getDuplicates().containsNear(fingerprint, date.toEpochDay())) {
+                return new ArrayList<>();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+        return DuplicateIndex.matching(getTransactionsBetween(date.minusDays(DuplicateIndex.TOLERANCE_DAYS),
+                date.plusDays(DuplicateIndex.TOLERANCE_DAYS)), fingerprint);
+    }
+
+    public List<Transaction> flagLikelyDuplicates(List<Transaction> candidates) {
+        try {
+            return getDuplicates().flag(candidates);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    // TypeClassifier counts: transactions per type (feature '') and occurrences of each feature per type
+    private void createTypeModelTable() throws SQLException {
+        String sql = "CREATE TABLE IF NOT EXISTS type_model (" +
+                "transaction_type TEXT NOT NULL," +
+                "feature TEXT NOT NULL," +
+                "count INTEGER NOT NULL," +
+                "PRIMARY KEY (transaction_type, feature)" +
+                ") WITHOUT ROWID;";
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    // One index per sortable column, each ending in transaction_date so ties come back in index order and a
+    // sorted page is read straight off the index in either direction. Partition files get the same ones.
+    static final String[] SORT_INDEXES = {
+            "idx_transactions_date ON transactions (transaction_date)",
+            "idx_transactions_account ON transactions (account_name, transaction_date)",
+            "idx_transactions_type ON transactions (transaction_type, transaction_date)",
+            "idx_transactions_description ON transactions (description, transaction_date)",
+            "idx_transactions_payment ON transactions (payment_amount, transaction_date)",
+            "idx_transactions_deposit ON transactions (deposit_amount, transaction_date)"};
+
+    private void createTransactionSortIndexes() throws SQLException {
+        try (Statement stmt = connection().createStatement()) {
+            for (String index : SORT_INDEXES) {
+                stmt.execute("CREATE INDEX IF NOT EXISTS " + index);
+            }
+        }
+    }
+
+    private void trainTypeModel() throws SQLException {
+        TypeClassifier trained = new TypeClassifier();
+        List<Integer> years = partitions == null ? List.of(0) : partitions.yearsNewestFirst(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        for (int year : years) {
+            String table = partitions == null ? "transactions" : TransactionPartitions.table(year);
+            if (partitions != null) {
+                partitions().attachForRead(year);
+            }
+            try (Statement stmt = connection().createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT transaction_type, description FROM " + table)) {
+                while (rs.next()) {
+                    trained.learn(rs.getString("transaction_type"), rs.getString("description"));
+                }
+            }
+        }
+        connection().setAutoCommit(false);
+        try (PreparedStatement insert = connection().prepareStatement(
+                "INSERT OR REPLACE INTO type_model (transaction_type, feature, count) VALUES (?, ?, ?)")) {
+            trained.forEachCount((type, feature, count) -> {
+                insert.setString(1, type);
+                insert.setString(2, feature);
+                insert.setLong(3, count);
+                insert.addBatch();
+            });
+            insert.executeBatch();
+            connection().commit();
+        } catch (SQLException e) {
+            connection().rollback();
+            throw e;
+        } finally {
+            connection().setAutoCommit(true);
+        }
+        classifier = trained;
+    }
+
+    private TypeClassifier getClassifier() throws SQLException {
+        synchronized (indexLock) {
+            if (classifier == null) {
+                String sql = "SELECT transaction_type, feature, count FROM type_model";
+                metrics.time("loadTypeModel", sql, connection(), () -> {
+                    int rows = 0;
+                    try (Statement stmt = connection().createStatement();
+                         ResultSet rs = stmt.executeQuery(sql)) {
+                        TypeClassifier loaded = new TypeClassifier();
+                        while (rs.next()) {
+                            loaded.add(rs.getString(1), rs.getString(2), rs.getLong(3));
+                            rows++;
+                        }
+                        classifier = loaded;
+                    }
+                    return rows;
+                });
+            }
+            return classifier;
+        }
+    }
+
+    // Adds (times > 0) or removes (times < 0) a description's features for a type, in the table and then in
+    // the loaded model. Like recordFingerprint, a failure is thrown so the whole write rolls back.
+    private void recordTypeCounts(String type, String description, int times) throws SQLException {
+        Map<String, Integer> features = TypeClassifier.features(description);
+        String sql = "INSERT INTO type_model (transaction_type, feature, count) VALUES (?, ?, ?) " +
+                "ON CONFLICT (transaction_type, feature) DO UPDATE SET count = count + excluded.count";
+        metrics.time("recordTypeCounts", sql, connection(), () -> {
+            int rows = 0;
+            try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                for (Map.Entry<String, Integer> feature : features.entrySet()) {
+                    pstmt.setString(1, type);
+                    pstmt.setString(2, feature.getKey());
+                    pstmt.setLong(3, (long) feature.getValue() * times);
+                    pstmt.addBatch();
+                }
+                for (int updated : pstmt.executeBatch()) {
+                    rows += updated;
+                }
+            }
+            if (times < 0) {
+                String pruneSql = "DELETE FROM type_model WHERE transaction_type = ? AND count <= 0";
+                metrics.time("pruneTypeCounts", pruneSql, connection(), () -> {
+                    try (PreparedStatement pstmt = connection().prepareStatement(pruneSql)) {
+                        pstmt.setString(1, type);
+                        return pstmt.executeUpdate();
+                    }
+                });
+            }
+            if (classifier != null) {
+                classifier.add(type, features, times);
+            }
+            return rows;
+        });
+    }
+
+    // Removes the rows a delete by description is about to remove from the type model
+    private void forgetTypeCounts(String table, String description) throws SQLException {
+        List<String> types = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        String sql = "SELECT transaction_type, COUNT(*) FROM " + table + " WHERE description = ? GROUP BY transaction_type";
+        metrics.time("forgetTypeCounts", sql, connection(), () -> {
+            try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                pstmt.setString(1, description);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        types.add(rs.getString(1));
+                        counts.add(rs.getInt(2));
+                    }
+                }
+            }
+            return types.size();
+        });
+        for (int i = 0; i < types.size(); i++) {
+            recordTypeCounts(types.get(i), description, -counts.get(i));
+        }
+    }
+
+    public String suggestTransactionType(String description) {
+        try {
+            return getClassifier().suggest(description);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public List<String> suggestTransactionTypes(List<String> descriptions) {
+        try {
+            return getClassifier().suggestAll(descriptions);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new ArrayList<>(Collections.nCopies(descriptions.size(), (String) null));
+        }
+    }
+
+    // period is a SpendingBuckets.Period name and bucket_start the epoch day the period starts on
+    private void createSpendingBucketsTable() throws SQLException {
+        String sql = "CREATE TABLE IF NOT EXISTS spending_buckets (" +
+                "period TEXT NOT NULL," +
+                "bucket_start INTEGER NOT NULL," +
+                "account_name TEXT NOT NULL," +
+                "transaction_type TEXT NOT NULL," +
+                "transaction_count INTEGER NOT NULL," +
+                "payment_cents INTEGER NOT NULL," +
+                "deposit_cents INTEGER NOT NULL," +
+                "PRIMARY KEY (period, bucket_start, account_name, transaction_type)" +
+                ") WITHOUT ROWID;";
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    // Sums every transaction into its buckets on the heap, then writes the buckets in one transaction
+    private void backfillSpending() throws SQLException {
+        SpendingBuckets summed = new SpendingBuckets();
+        List<Integer> years = partitions == null ? List.of(0) : partitions.yearsNewestFirst(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        for (int year : years) {
+            String table = partitions == null ? "transactions" : TransactionPartitions.table(year);
+            if (partitions != null) {
+                partitions().attachForRead(year);
+            }
+            try (Statement stmt = connection().createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT id, account_name, transaction_type, transaction_date, description, " +
+                         "payment_amount, deposit_amount FROM " + table)) {
+                while (rs.next()) {
+                    summed.add(readTransaction(rs), 1);
+                }
+            }
+        }
+        for (Transaction archived : getArchive().getTransactionsBetween(LocalDate.of(1, 1, 1), LocalDate.of(9999, 12, 31))) {
+            summed.add(archived, 1);
+        }
+        connection().setAutoCommit(false);
+        try (PreparedStatement insert = connection().prepareStatement("INSERT INTO spending_buckets (period, bucket_start, " +
+                "account_name, transaction_type, transaction_count, payment_cents, deposit_cents) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+            summed.forEachBucket((period, start, accountName, transactionType, totals) -> {
+                insert.setString(1, period.name());
+                insert.setLong(2, start.toEpochDay());
+                insert.setString(3, accountName);
+                insert.setString(4, transactionType);
+                insert.setLong(5, totals.getCount());
+                insert.setLong(6, totals.getPaymentCents());
+                insert.setLong(7, totals.getDepositCents());
+                insert.addBatch();
+            });
+            insert.executeBatch();
+            connection().commit();
+        } catch (SQLException e) {
+            connection().rollback();
+            throw e;
+        } finally {
+            connection().setAutoCommit(true);
+        }
+    }
+
+    // Adds (sign 1) or removes (sign -1) a transaction from its day, week and month buckets, and then from the
+    // budget counters. Like recordFingerprint, a failure is thrown so the whole write rolls back.
+    private void recordSpending(String accountName, String transactionType, Date transactionDate,
+                                double paymentAmount, double depositAmount, int sign) throws SQLException {
+        String sql = "INSERT INTO spending_buckets (period, bucket_start, account_name, transaction_type, " +
+                "transaction_count, payment_cents, deposit_cents) VALUES (?, ?, ?, ?, ?, ?, ?) " +
+                "ON CONFLICT (period, bucket_start, account_name, transaction_type) DO UPDATE SET " +
+                "transaction_count = transaction_count + excluded.transaction_count, " +
+                "payment_cents = payment_cents + excluded.payment_cents, " +
+                "deposit_cents = deposit_cents + excluded.deposit_cents";
+        LocalDate date = transactionDate.toLocalDate();
+        metrics.time("recordSpending", sql, connection(), () -> {
+            int rows = 0;
+            try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                for (SpendingBuckets.Period period : SpendingBuckets.Period.values()) {
+                    pstmt.setString(1, period.name());
+                    pstmt.setLong(2, period.start(date).toEpochDay());
+                    pstmt.setString(3, accountName);
+                    pstmt.setString(4, SpendingBuckets.bucketType(transactionType));
+                    pstmt.setLong(5, sign);
+                    pstmt.setLong(6, sign * ReportTotals.toCents(paymentAmount));
+                    pstmt.setLong(7, sign * ReportTotals.toCents(depositAmount));
+                    pstmt.addBatch();
+                }
+                for (int updated : pstmt.executeBatch()) {
+                    rows += updated;
+                }
+            }
+            if (sign < 0) {
+                String pruneSql = "DELETE FROM spending_buckets WHERE period = ? AND bucket_start = ? " +
+                        "AND account_name = ? AND transaction_type = ? AND transaction_count <= 0";
+                metrics.time("pruneSpending", pruneSql, connection(), () -> {
+                    int pruned = 0;
+                    try (PreparedStatement pstmt = connection().prepareStatement(pruneSql)) {
+                        for (SpendingBuckets.Period period : SpendingBuckets.Period.values()) {
+                            pstmt.setString(1, period.name());
+                            pstmt.setLong(2, period.start(date).toEpochDay());
+                            pstmt.setString(3, accountName);
+                            pstmt.setString(4, SpendingBuckets.bucketType(transactionType));
+                            pstmt.addBatch();
+                        }
+                        for (int deleted : pstmt.executeBatch()) {
+                            pruned += deleted;
+                        }
+                    }
+                    return pruned;
+                });
+            }
+            if (budgets != null) {
+                budgets.add(accountName, transactionType, date, paymentAmount, depositAmount, sign);
+            }
+            return rows;
+        });
+    }
+
+    // Removes the rows a delete by description is about to remove from their buckets, the balances and the tags
+    private void forgetAmounts(String table, String description) throws SQLException {
+        List<Transaction> deleted = new ArrayList<>();
+        String sql = "SELECT id, account_name, transaction_type, transaction_date, description, payment_amount, " +
+                "deposit_amount FROM " + table + " WHERE description = ?";
+        metrics.time("forgetAmounts", sql, connection(), () -> {
+            try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                pstmt.setString(1, description);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        deleted.add(readTransaction(rs));
+                    }
+                }
+            }
+            return deleted.size();
+        });
+        for (Transaction transaction : deleted) {
+            recordSpending(transaction.getAccountName(), transaction.getTransactionType(), transaction.getTransactionDate(),
+                    transaction.getPaymentAmount(), transaction.getDepositAmount(), -1);
+            writeTransactionTags(transaction.getId(), List.of());
+            recordBalance(transaction.getAccountName(), transaction.getTransactionDate(),
+                    transaction.getPaymentAmount(), transaction.getDepositAmount(), -1);
+            recordTagRow(transaction.getId(), transaction.getAccountName(), transaction.getTransactionDate(), -1);
+        }
+    }
+
+    public Map<String, SortedMap<LocalDate, ReportTotals>> getSpendingOverTime(SpendingBuckets.Period period,
+                                                                              ReportEngine.GroupBy groupBy,
+                                                                              LocalDate from, LocalDate to) {
+        String sql = "SELECT bucket_start, " + groupBy.column + ", SUM(transaction_count), SUM(payment_cents), " +
+                "SUM(deposit_cents) FROM spending_buckets WHERE period = ? AND bucket_start BETWEEN ? AND ? " +
+                "GROUP BY bucket_start, " + groupBy.column;
+        Map<String, SortedMap<LocalDate, ReportTotals>> series = new TreeMap<>();
+        try {
+            metrics.time("getSpendingOverTime", sql, connection(), () -> {
+                int rows = 0;
+                try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                    pstmt.setString(1, period.name());
+                    pstmt.setLong(2, period.start(from).toEpochDay());
+                    pstmt.setLong(3, to.toEpochDay());
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            ReportTotals totals = new ReportTotals();
+                            totals.add(rs.getLong(3), rs.getLong(4), rs.getLong(5));
+                            series.computeIfAbsent(rs.getString(2), name -> new TreeMap<>())
+                                    .put(LocalDate.ofEpochDay(rs.getLong(1)), totals);
+                            rows++;
+                        }
+                    }
+                }
+                return rows;
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return series;
+    }
+
+    public Map<String, SortedMap<LocalDate, ReportTotals>> getSpendingOverTime(SpendingBuckets.Period period,
+                                                                              ReportEngine.GroupBy groupBy,
+                                                                              LocalDate from, LocalDate to,
+                                                                              String reportingCurrency) {
+        Map<String, String> currencies = new HashMap<>();
+        StringWriter homeAccounts = new StringWriter();
+        boolean converting = !reportingCurrency.equals(ExchangeRates.DEFAULT_CURRENCY);
+        Map<String, SortedMap<LocalDate, ReportTotals>> series = new TreeMap<>();
+        ExchangeRates exchangeRates;
+        try {
+            JsonWriter json = new JsonWriter(homeAccounts).beginArray();
+            for (Account account : getAllAccountDetails()) {
+                currencies.put(account.getName(), account.getCurrency());
+                if (account.getCurrency().equals(reportingCurrency)) {
+                    json.value(account.getName());
+                } else {
+                    converting = true;
+                }
+            }
+            json.endArray().flush();
+            exchangeRates = getRates();
+        } catch (IOException | SQLException e) {
+            e.printStackTrace();
+            return series;
+        }
+        if (!converting) {
+            return getSpendingOverTime(period, groupBy, from, to);
+        }
+        // Accounts in the reporting currency are summed per period by SQLite. Every other account, including
+        // deleted ones (taken as the default currency), is read a day at a time and converted at that day's rate.
+        String homeSql = "SELECT bucket_start, " + groupBy.column + ", SUM(transaction_count), SUM(payment_cents), " +
+                "SUM(deposit_cents) FROM spending_buckets WHERE period = ? AND bucket_start BETWEEN ? AND ? " +
+                "AND account_name IN (SELECT value FROM json_each(?)) GROUP BY bucket_start, " + groupBy.column;
+        String foreignSql = "SELECT bucket_start, account_name, " + groupBy.column + ", SUM(transaction_count), " +
+                "SUM(payment_cents), SUM(deposit_cents) FROM spending_buckets WHERE period = 'DAY' AND bucket_start BETWEEN ? AND ? " +
+                "AND account_name NOT IN (SELECT value FROM json_each(?)) GROUP BY bucket_start, " +
+                (groupBy == ReportEngine.GroupBy.ACCOUNT ? "account_name" : "account_name, " + groupBy.column);
+        try {
+            metrics.time("getSpendingOverTimeHome", homeSql, connection(), () -> {
+                int rows = 0;
+                try (PreparedStatement pstmt = connection().prepareStatement(homeSql)) {
+                    pstmt.setString(1, period.name());
+                    pstmt.setLong(2, period.start(from).toEpochDay());
+                    pstmt.setLong(3, to.toEpochDay());
+                    pstmt.setString(4, homeAccounts.toString());
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            ReportTotals totals = new ReportTotals();
+                            totals.add(rs.getLong(3), rs.getLong(4), rs.getLong(5));
+                            series.computeIfAbsent(rs.getString(2), name -> new TreeMap<>())
+                                    .put(LocalDate.ofEpochDay(rs.getLong(1)), totals);
+                            rows++;
+                        }
+                    }
+                }
+                return rows;
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            metrics.time("getSpendingOverTimeForeign", foreignSql, connection(), () -> {
+                int rows = 0;
+                try (PreparedStatement pstmt = connection().prepareStatement(foreignSql)) {
+                    pstmt.setLong(1, period.start(from).toEpochDay());
+                    pstmt.setLong(2, period.next(period.start(to)).toEpochDay() - 1);
+                    pstmt.setString(3, homeAccounts.toString());
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            String currency = currencies.getOrDefault(rs.getString(2), ExchangeRates.DEFAULT_CURRENCY);
+                            exchangeRates.addConverted(series, period, rs.getString(3), rs.getLong(1), currency, reportingCurrency,
+                                    rs.getLong(4), rs.getLong(5), rs.getLong(6));
+                            rows++;
+                        }
+                    }
+                }
+                return rows;
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return series;
+    }
+
+    private void addCurrencyColumn() throws SQLException {
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute("ALTER TABLE accounts ADD COLUMN currency TEXT NOT NULL DEFAULT '" + ExchangeRates.DEFAULT_CURRENCY + "'");
+        }
+    }
+
+    private void createExchangeRatesTable() throws SQLException {
+        String sql = "CREATE TABLE IF NOT EXISTS exchange_rates (" +
+                "base_currency TEXT NOT NULL," +
+                "quote_currency TEXT NOT NULL," +
+                "rate_day INTEGER NOT NULL," +
+                "rate REAL NOT NULL," +
+                "PRIMARY KEY (base_currency, quote_currency, rate_day)" +
+                ") WITHOUT ROWID;";
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private ExchangeRates getRates() throws SQLException {
+        synchronized (indexLock) {
+            if (rates == null) {
+                ExchangeRates loaded = new ExchangeRates();
+                String sql = "SELECT base_currency, quote_currency, rate_day, rate FROM exchange_rates";
+                metrics.time("loadExchangeRates", sql, connection(), () -> {
+                    int rows = 0;
+                    try (Statement stmt = connection().createStatement();
+                         ResultSet rs = stmt.executeQuery(sql)) {
+                        while (rs.next()) {
+                            loaded.put(rs.getString(1), rs.getString(2), LocalDate.ofEpochDay(rs.getLong(3)), rs.getDouble(4));
+                            rows++;
+                        }
+                    }
+                    return rows;
+                });
+                rates = loaded;
+            }
+            return rates;
+        }
+    }
+
+    public boolean setExchangeRate(String baseCurrency, String quoteCurrency, LocalDate date, double rate) {
+        if (!writes.isWriterThread()) {
+            return writeAlone(() -> setExchangeRate(baseCurrency, quoteCurrency, date, rate));
+        }
+        String base = ExchangeRates.normalize(baseCurrency);
+        String quote = ExchangeRates.normalize(quoteCurrency);
+        String sql = "INSERT INTO exchange_rates (base_currency, quote_currency, rate_day, rate) VALUES (?, ?, ?, ?) " +
+                "ON CONFLICT (base_currency, quote_currency, rate_day) DO UPDATE SET rate = excluded.rate";
+        try {
+            metrics.time("setExchangeRate", sql, connection(), () -> {
+                ExchangeRates exchangeRates = getRates();
+                // Validates the rate before anything is written
+                exchangeRates.put(base, quote, date, rate);
+                try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                    pstmt.setString(1, base);
+                    pstmt.setString(2, quote);
+                    pstmt.setLong(3, date.toEpochDay());
+                    pstmt.setDouble(4, rate);
+                    return pstmt.executeUpdate();
+                }
+            });
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            // The cache may now hold a rate that was never written
+            rates = null;
+            return false;
+        }
+    }
+
+    // Empty if the rates could not be read
+    public ExchangeRates getExchangeRates() {
+        try {
+            return getRates();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new ExchangeRates();
+        }
+    }
+
+    // A budget with an empty account_name covers every account
+    private void createBudgetsTable() throws SQLException {
+        String sql = "CREATE TABLE IF NOT EXISTS budgets (" +
+                "transaction_type TEXT NOT NULL," +
+                "account_name TEXT NOT NULL," +
+                "monthly_limit_cents INTEGER NOT NULL," +
+                "PRIMARY KEY (transaction_type, account_name)" +
+                ") WITHOUT ROWID;";
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    // The limits, then every month's spending straight from its buckets; nothing is summed in SQL
+    private BudgetTracker getBudgets() throws SQLException {
+        synchronized (indexLock) {
+            if (budgets == null) {
+                BudgetTracker tracker = new BudgetTracker();
+                String limitsSql = "SELECT transaction_type, account_name, monthly_limit_cents FROM budgets";
+                metrics.time("loadBudgets", limitsSql, connection(), () -> {
+                    int rows = 0;
+                    try (Statement stmt = connection().createStatement();
+                         ResultSet rs = stmt.executeQuery(limitsSql)) {
+                        while (rs.next()) {
+                            String accountName = rs.getString(2);
+                            tracker.setLimit(rs.getString(1), accountName.isEmpty() ? null : accountName, rs.getLong(3));
+                            rows++;
+                        }
+                    }
+                    return rows;
+                });
+
+                String sql = "SELECT bucket_start, account_name, transaction_type, payment_cents, deposit_cents " +
+                        "FROM spending_buckets WHERE period = 'MONTH'";
+                metrics.time("loadBudgetSpending", sql, connection(), () -> {
+                    int rows = 0;
+                    try (Statement stmt = connection().createStatement();
+                         ResultSet rs = stmt.executeQuery(sql)) {
+                        while (rs.next()) {
+                            tracker.load(LocalDate.ofEpochDay(rs.getLong(1)), rs.getString(2), rs.getString(3), rs.getLong(4), rs.getLong(5));
+                            rows++;
+                        }
+                    }
+                    return rows;
+                });
+                tracker.setListener(budgetListener);
+                budgets = tracker;
+            }
+            return budgets;
+        }
+    }
+
+    // Tells the listener about budgets the write that just finished took over their limit
+    private void publishBudgets() {
+        if (budgets != null) {
+            budgets.publish();
+        }
+    }
+
+    public void setBudgetListener(BudgetTracker.Listener listener) {
+        budgetListener = listener;
+        if (budgets != null) {
+            budgets.setListener(listener);
+        }
+    }
+
+    public boolean setBudget(String transactionType, String accountName, double monthlyLimit) {
+        if (!writes.isWriterThread()) {
+            return writeAlone(() -> setBudget(transactionType, accountName, monthlyLimit));
+        }
+        String sql = "INSERT INTO budgets (transaction_type, account_name, monthly_limit_cents) VALUES (?, ?, ?) " +
+                "ON CONFLICT (transaction_type, account_name) DO UPDATE SET monthly_limit_cents = excluded.monthly_limit_cents";
+        try {
+            metrics.time("setBudget", sql, connection(), () -> {
+                BudgetTracker tracker = getBudgets();
+                int rows;
+                try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                    pstmt.setString(1, transactionType);
+                    pstmt.setString(2, accountName == null ? "" : accountName);
+                    pstmt.setLong(3, ReportTotals.toCents(monthlyLimit));
+                    rows = pstmt.executeUpdate();
+                }
+                tracker.setLimit(transactionType, accountName, ReportTotals.toCents(monthlyLimit));
+                return rows;
+            });
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public boolean deleteBudget(String transactionType, String accountName) {
+        if (!writes.isWriterThread()) {
+            return writeAlone(() -> deleteBudget(transactionType, accountName));
+        }
+        String sql = "DELETE FROM budgets WHERE transaction_type = ? AND account_name = ?";
+        try {
+            return metrics.time("deleteBudget", sql, connection(), () -> {
+                BudgetTracker tracker = getBudgets();
+                int rows;
+                try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                    pstmt.setString(1, transactionType);
+                    pstmt.setString(2, accountName == null ? "" : accountName);
+                    rows = pstmt.executeUpdate();
+                }
+                tracker.removeLimit(transactionType, accountName);
+                return rows;
+            }) > 0;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public List<BudgetTracker.Status> getBudgetStatus(LocalDate month) {
+        try {
+            return getBudgets().status(month);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    // One pass over the live table or every partition, then the archive, feeding each row's net amount to the
+    // index; the per-account trees are then built in parallel
+    private BalanceIndex getBalances() throws SQLException {
+        synchronized (indexLock) {
+            if (balances == null) {
+                String sql = "SELECT account_name, transaction_date, payment_amount, deposit_amount FROM ";
+                int[] rows = {0};
+                metrics.time("loadBalances", sql + "transactions", connection(), () -> {
+                    balances = BalanceIndex.build(getAllAccountDetails(), consumer -> {
+                        List<Integer> years = partitions == null ? List.of(0) : partitions.yearsNewestFirst(Integer.MIN_VALUE, Integer.MAX_VALUE);
+                        for (int year : years) {
+                            String table = partitions == null ? "transactions" : TransactionPartitions.table(year);
+                            if (partitions != null) {
+                                partitions().attachForRead(year);
+                            }
+                            try (Statement stmt = connection().createStatement();
+                                 ResultSet rs = stmt.executeQuery(sql + table)) {
+                                while (rs.next()) {
+                                    consumer.accept(rs.getString(1), rs.getLong(2),
+                                            ReportTotals.toCents(rs.getDouble(4)) - ReportTotals.toCents(rs.getDouble(3)));
+                                    rows[0]++;
+                                }
+                            }
+                        }
+                        for (Transaction archived : getArchive().getTransactionsBetween(LocalDate.of(1, 1, 1), LocalDate.of(9999, 12, 31))) {
+                            consumer.accept(archived.getAccountName(), archived.getTransactionDate().toLocalDate().toEpochDay(),
+                                    ReportTotals.toCents(archived.getDepositAmount()) - ReportTotals.toCents(archived.getPaymentAmount()));
+                            rows[0]++;
+                        }
+                    });
+                    return rows[0];
+                });
+            }
+            return balances;
+        }
+    }
+
+    private void recordBalance(String accountName, Date transactionDate, double paymentAmount, double depositAmount, int sign) {
+        if (balances != null) {
+            balances.add(accountName, transactionDate.toLocalDate(), paymentAmount, depositAmount, sign);
+        }
+    }
+
+    public double getBalanceOn(String accountName, LocalDate date) {
+        try {
+            return getBalances().balanceOn(accountName, date);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    public double getNetChange(String accountName, LocalDate from, LocalDate to) {
+        try {
+            return getBalances().netChange(accountName, from, to);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    // Each tag's IdBitmap, a chunk per row: chunk is the ids' high 16 bits and ids the serialized chunk, whose
+    // cardinality tells an array chunk from a bitmap one
+    private void createTagChunksTable() throws SQLException {
+        String sql = "CREATE TABLE IF NOT EXISTS tag_chunks (" +
+                "tag TEXT NOT NULL," +
+                "chunk INTEGER NOT NULL," +
+                "cardinality INTEGER NOT NULL," +
+                "ids BLOB NOT NULL," +
+                "PRIMARY KEY (tag, chunk)" +
+                ") WITHOUT ROWID;";
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private TagIndex getTags() throws SQLException {
+        synchronized (indexLock) {
+            if (tags == null) {
+                TagIndex index = new TagIndex();
+                String sql = "SELECT tag, chunk, cardinality, ids FROM tag_chunks";
+                metrics.time("loadTags", sql, connection(), () -> {
+                    int rows = 0;
+                    try (Statement stmt = connection().createStatement();
+                         ResultSet rs = stmt.executeQuery(sql)) {
+                        while (rs.next()) {
+                            index.loadChunk(rs.getString(1), rs.getInt(2), rs.getBytes(4), rs.getInt(3));
+                            rows++;
+                        }
+                    }
+                    return rows;
+                });
+                tags = index;
+            }
+            return tags;
+        }
+    }
+
+    // The tag index with every row loaded, by one scan of the live table or of every partition, then the archive
+    private TagIndex getTaggedRows() throws SQLException {
+        synchronized (indexLock) {
+            TagIndex index = getTags();
+            if (!index.hasRows()) {
+                index.clearRows();
+                String sql = "SELECT id, account_name, transaction_date FROM ";
+                try {
+                    metrics.time("loadTaggedRows", sql + "transactions", connection(), () -> {
+                        int rows = 0;
+                        List<Integer> years = partitions == null ? List.of(0) : partitions.yearsNewestFirst(Integer.MIN_VALUE, Integer.MAX_VALUE);
+                        for (int year : years) {
+                            String table = partitions == null ? "transactions" : TransactionPartitions.table(year);
+                            if (partitions != null) {
+                                partitions().attachForRead(year);
+                            }
+                            try (Statement stmt = connection().createStatement();
+                                 ResultSet rs = stmt.executeQuery(sql + table)) {
+                                while (rs.next()) {
+                                    index.addRow(rs.getInt(1), rs.getString(2), LocalDate.ofEpochDay(rs.getLong(3)));
+                                    rows++;
+                                }
+                            }
+                        }
+                        // Archiving keeps a row's id, account and date, so archived rows stay searchable by tag
+                        for (Transaction archived : getArchive().getTransactions()) {
+                            index.addRow(archived.getId(), archived.getAccountName(), archived.getTransactionDate().toLocalDate());
+                            rows++;
+                        }
+                        return rows;
+                    });
+                } catch (SQLException e) {
+                    index.dropRows();
+                    throw e;
+                }
+            }
+            return index;
+        }
+    }
+
+    // Adds (sign 1) or removes (sign -1) a live row from the tag index, once its rows are loaded
+    private void recordTagRow(long id, String accountName, Date transactionDate, int sign) {
+        if (tags != null) {
+            if (sign > 0) {
+                tags.addRow((int) id, accountName, transactionDate.toLocalDate());
+            } else {
+                tags.removeRow((int) id, accountName, transactionDate.toLocalDate());
+            }
+        }
+    }
+
+    // Writes back the chunk holding the id for each changed tag, deleting chunks left empty, in one transaction
+    private void writeTagChunks(TagIndex index, List<String> changedTags, int transactionId) throws SQLException {
+        String sql = "INSERT INTO tag_chunks (tag, chunk, cardinality, ids) VALUES (?, ?, ?, ?) " +
+                "ON CONFLICT (tag, chunk) DO UPDATE SET cardinality = excluded.cardinality, ids = excluded.ids";
+        String deleteSql = "DELETE FROM tag_chunks WHERE tag = ? AND chunk = ?";
+        // Each tag has one chunk holding the id, so deleting the emptied ones first changes nothing
+        List<String> emptied = new ArrayList<>();
+        Map<String, byte[]> filled = new LinkedHashMap<>();
+        for (String tag : changedTags) {
+            byte[] chunk = index.chunk(tag, transactionId);
+            if (chunk == null) {
+                emptied.add(tag);
+            } else {
+                filled.put(tag, chunk);
+            }
+        }
+        // Inside a group (a delete clearing a row's tags) the chunks commit with the group
+        boolean ownTransaction = connection().getAutoCommit();
+        if (ownTransaction) {
+            connection().setAutoCommit(false);
+        }
+        try {
+            metrics.time("deleteTagChunks", deleteSql, connection(), () -> {
+                int deleted = 0;
+                try (PreparedStatement delete = connection().prepareStatement(deleteSql)) {
+                    for (String tag : emptied) {
+                        delete.setString(1, tag);
+                        delete.setInt(2, transactionId >>> 16);
+                        deleted += delete.executeUpdate();
+                    }
+                }
+                return deleted;
+            });
+            metrics.time("writeTagChunks", sql, connection(), () -> {
+                int written = 0;
+                try (PreparedStatement upsert = connection().prepareStatement(sql)) {
+                    for (Map.Entry<String, byte[]> chunk : filled.entrySet()) {
+                        upsert.setString(1, chunk.getKey());
+                        upsert.setInt(2, transactionId >>> 16);
+                        upsert.setInt(3, index.chunkCardinality(chunk.getKey(), transactionId));
+                        upsert.setBytes(4, chunk.getValue());
+                        written += upsert.executeUpdate();
+                    }
+                }
+                return written;
+            });
+            if (ownTransaction) {
+                connection().commit();
+            }
+        } catch (SQLException e) {
+            if (ownTransaction) {
+                connection().rollback();
+            }
+            throw e;
+        } finally {
+            if (ownTransaction) {
+                connection().setAutoCommit(true);
+            }
+        }
+    }
+
+    public Set<String> getTransactionTags(int transactionId) {
+        try {
+            return getTags().tagsOf(transactionId);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new TreeSet<>();
+        }
+    }
+
+    public boolean setTransactionTags(int transactionId, Collection<String> tagNames) {
+        if (!writes.isWriterThread()) {
+            return writeAlone(() -> setTransactionTags(transactionId, tagNames));
+        }
+        try {
+            writeTransactionTags(transactionId, tagNames);
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            // The bitmaps may be ahead of tag_chunks now, so they are reloaded on next use
+            tags = null;
+            return false;
+        }
+    }
+
+    // On the writer thread; a failure is thrown with the bitmaps possibly ahead of tag_chunks, so the caller
+    // must drop them
+    private void writeTransactionTags(int transactionId, Collection<String> tagNames) throws SQLException {
+        Set<String> wanted = TagIndex.normalizeAll(tagNames);
+        TagIndex index = getTags();
+        List<String> changed = new ArrayList<>();
+        for (String tag : index.tagsOf(transactionId)) {
+            if (!wanted.contains(tag) && index.untag(transactionId, tag)) {
+                changed.add(tag);
+            }
+        }
+        for (String tag : wanted) {
+            if (index.tag(transactionId, tag)) {
+                changed.add(tag);
+            }
+        }
+        if (!changed.isEmpty()) {
+            writeTagChunks(index, changed, transactionId);
+        }
+    }
+
+    public List<String> getAllTags() {
+        try {
+            return getTags().tagNames();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    public IdBitmap matchTransactions(TagQuery query, String accountName, LocalDate from, LocalDate to) {
+        try {
+            return getTaggedRows().match(query, accountName, from, to);
+        } catch (SQLException e) {
             e.printStackTrace();
+            return new IdBitmap();
         }
-        return transactions;
     }
 
-    public List<Transaction> getTransactions()  {
-        List<Transaction> trans = new ArrayList<>();
-        String sql = "SELECT account_name, transaction_type, transaction_date, description, payment_amount, deposit_amount FROM transactions ORDER BY transaction_date DESC";
-        try (Statement stmt = connection.createStatement();
-             ResultSet res = stmt.executeQuery(sql)) {
-            while (res.next()) {
-                trans.add(new Transaction(
-                        res.getString("account_name"),
-                        res.getString("transaction_type"),
-                        res.getDate("transaction_date"),
-                        res.getString("description"),
-                        res.getDouble("payment_amount"),
-                        res.getDouble("deposit_amount")
-                ));
-            }
-
+    // One statement for any number of ids: they are bound as a JSON array and looked up by primary key
+    public List<Transaction> getTransactionsByIds(int[] ids) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < ids.length; i++) {
+            json.append(i == 0 ? "" : ",").append(ids[i]);
         }
-        catch (SQLException e) {
-            e.printStackTrace();
+        List<Transaction> transactions = queryTransactions("getTransactionsByIds", Integer.MIN_VALUE, Integer.MAX_VALUE,
+                " WHERE id IN (SELECT value FROM json_each(?))", json.append(']').toString());
+        return withArchived(transactions, a -> a.getTransactionsByIds(ids));
+    }
+
+    private RecurringPaymentFinder getRecurring() throws SQLException {
+        synchronized (indexLock) {
+            if (recurring == null) {
+                RecurringPaymentFinder finder = new RecurringPaymentFinder();
+                // No WHERE clause, so the date index is walked in order instead of sorting the matches
+                String sql = "SELECT account_name, transaction_type, transaction_date, description, payment_amount, " +
+                        "deposit_amount FROM ";
+                String order = " ORDER BY transaction_date";
+                metrics.time("loadRecurring", sql + "transactions" + order, connection(), () -> {
+                    int rows = 0;
+                    List<Integer> years = partitions == null ? List.of(0) : partitions.yearsNewestFirst(Integer.MIN_VALUE, Integer.MAX_VALUE);
+                    for (int i = years.size() - 1; i >= 0; i--) {
+                        String table = partitions == null ? "transactions" : TransactionPartitions.table(years.get(i));
+                        if (partitions != null) {
+                            partitions().attachForRead(years.get(i));
+                        }
+                        try (Statement stmt = connection().createStatement();
+                             ResultSet rs = stmt.executeQuery(sql + table + order)) {
+                            while (rs.next()) {
+                                finder.add(rs.getString(1), rs.getString(2), LocalDate.ofEpochDay(rs.getLong(3)), rs.getString(4),
+                                        rs.getDouble(5), rs.getDouble(6));
+                                rows++;
+                            }
+                        }
+                    }
+                    return rows;
+                });
+                recurring = finder;
+            }
+            return recurring;
         }
-        return trans;
     }
 
+    private void recordRecurring(String accountName, String transactionType, Date transactionDate,
+                                 String description, double paymentAmount, double depositAmount) {
+        synchronized (indexLock) {
+            if (recurring != null) {
+                recurring.add(accountName, transactionType, transactionDate.toLocalDate(), description, paymentAmount, depositAmount);
+            }
+        }
+    }
 
-    private void createTransactionTable() {
-        String sql = "CREATE TABLE IF NOT EXISTS transactions (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                "account_name TEXT NOT NULL," +
-                "transaction_type TEXT NOT NULL," +
-                "transaction_date DATE NOT NULL," +
-                "description TEXT," +
-                "payment_amount REAL," +
-                "deposit_amount REAL," +
-                "FOREIGN KEY (account_name) REFERENCES accounts(name)" +
-                ");";
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute(sql);
-        } catch (SQLException e) {
-            e.printStackTrace();
+    public List<RecurringPaymentFinder.Proposal> findRecurringPayments() {
+        synchronized (indexLock) {
+            try {
+                return getRecurring().proposals();
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return new ArrayList<>();
+            }
         }
     }
 
-    private void createSchedulesTable() {
+    private void createSchedulesTable() throws SQLException {
         String sql = "CREATE TABLE IF NOT EXISTS schedules (" +
                 "id INTEGER PRIMARY KEY AUTOINCREMENT," +
                 "name TEXT NOT NULL UNIQUE" +
                 ");";
-        try (Statement stmt = connection.createStatement()) {
+        try (Statement stmt = connection().createStatement()) {
             stmt.execute(sql);
-            System.out.println("Created 'schedules' table successfully.");
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
     }
 
+    // Packed RecurrenceRule per schedule; existing rows get the rule their frequency text and due day describe,
+    // anchored on their next due date
+    private void addRecurrenceColumn() throws SQLException {
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute("ALTER TABLE scheduled_transactions ADD COLUMN recurrence INTEGER");
+        }
+        LocalDate today = LocalDate.now();
+        try (Statement stmt = connection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, frequency, due_date FROM scheduled_transactions");
+             PreparedStatement pstmt = connection().prepareStatement("UPDATE scheduled_transactions SET recurrence = ? WHERE id = ?")) {
+            while (rs.next()) {
+                pstmt.setLong(1, RecurrenceRule.parse(rs.getString("frequency"), rs.getInt("due_date"), today).encode());
+                pstmt.setLong(2, rs.getLong("id"));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    private static ScheduledTransaction readScheduledTransaction(ResultSet rs) throws SQLException {
+        long recurrence = rs.getLong("recurrence");
+        if (rs.wasNull()) {
+            return new ScheduledTransaction(rs.getString("schedule_name"), rs.getString("account_name"),
+                    rs.getString("transaction_type"), rs.getString("frequency"), rs.getInt("due_date"),
+                    rs.getDouble("payment_amount"));
+        }
+        return new ScheduledTransaction(rs.getString("schedule_name"), rs.getString("account_name"),
+                rs.getString("transaction_type"), rs.getString("frequency"), rs.getInt("due_date"),
+                rs.getDouble("payment_amount"), RecurrenceRule.decode(recurrence));
+    }
+
     // Method to create the 'scheduled_transactions' table if it does not exist
-    private void createScheduledTransactionTable() {
-        String sql = "CREATE TABLE IF NOT EXISTS scheduledTransactions (" +
+    private void createScheduledTransactionTable() throws SQLException {
+        String sql = "CREATE TABLE IF NOT EXISTS scheduled_transactions (" +
                 "id INTEGER PRIMARY KEY AUTOINCREMENT," +
                 "schedule_name TEXT NOT NULL," +
                 "account_name TEXT NOT NULL," +
@@ -183,44 +1661,216 @@ public class DatabaseHelper {
                 "payment_amount REAL," +
                 "FOREIGN KEY (schedule_name) REFERENCES schedules(name)" +
                 ");";
-        try (Statement stmt = connection.createStatement()) {
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private void createArchiveSegmentsTable() throws SQLException {
+        String sql = "CREATE TABLE IF NOT EXISTS archive_segments (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "file TEXT NOT NULL UNIQUE," +
+                "row_count INTEGER NOT NULL," +
+                "cutoff_date DATE NOT NULL" +
+                ");";
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private void createTransactionPartitionsTable() throws SQLException {
+        String sql = "CREATE TABLE IF NOT EXISTS transaction_partitions (" +
+                "year INTEGER PRIMARY KEY," +
+                "file TEXT NOT NULL UNIQUE" +
+                ");";
+        try (Statement stmt = connection().createStatement()) {
             stmt.execute(sql);
-            System.out.println("Created 'scheduledTransactions' table successfully.");
+        }
+    }
+
+    // Schema version 13: partition files carry the main table's sort indexes. Files created before get theirs
+    // when they are next opened.
+    private void addPartitionIndexesColumn() throws SQLException {
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute("ALTER TABLE transaction_partitions ADD COLUMN sort_indexes INTEGER NOT NULL DEFAULT 0");
+        }
+    }
+
+    // Schema version 14: accounts and schedules are looked up, edited and deleted by name. Names aren't
+    // declared unique, so older files may repeat one and the indexes don't insist.
+    private void createNameIndexes() throws SQLException {
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_accounts_name ON accounts (name)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_scheduled_transactions_name ON scheduled_transactions (schedule_name)");
+        }
+    }
+
+    // Segments are only mapped the first time a query needs them, keeping startup free of file I/O
+    private synchronized TransactionArchive getArchive() throws SQLException {
+        if (archive == null) {
+            archive = new TransactionArchive(databaseFile, besideDatabase(databaseFile, ARCHIVE_DIRECTORY), connection());
+        }
+        return archive;
+    }
+
+    // The segments this ledger has mapped, for ReportEngine to share rather than map again
+    List<ArchiveSegment> getArchiveSegments() throws SQLException {
+        return getArchive().getSegments();
+    }
+
+    // Held while a write runs and commits, so while it is held no write can commit
+    Object getWriteLock() {
+        return indexLock;
+    }
+
+    public boolean isPartitioned() {
+        return partitions != null;
+    }
+
+    // Moves transactions dated before the cutoff out of the live table; returns how many were moved. A ledger
+    // partitioned by year can't be archived: moving a partition's rows would commit to two files, which is
+    // only atomic per file, so a crash could leave a row both archived and live or in neither.
+    public int archiveTransactionsBefore(LocalDate cutoff) {
+        if (partitions != null) {
+            throw new IllegalStateException("Archiving is not available for a ledger partitioned by year");
+        }
+        transactionsVersion++;
+        try {
+            return getArchive().archiveBefore(cutoff);
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    private List<Transaction> withArchived(List<Transaction> live, Function<TransactionArchive, List<Transaction>> query) {
+        try {
+            TransactionArchive transactionArchive = getArchive();
+            return transactionArchive.isEmpty() ? live : TransactionArchive.merge(live, query.apply(transactionArchive));
         } catch (SQLException e) {
             e.printStackTrace();
+            return live;
         }
     }
 
-    public boolean saveTransaction(String accountName, String transactionType, Date transactionDate,
-                                   String description, double paymentAmount, double depositAmount) {
-        String sql = "INSERT INTO transactions (account_name, transaction_type, transaction_date, " +
-                "description, payment_amount, deposit_amount) VALUES (?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, accountName);
-            pstmt.setString(2, transactionType);
-            pstmt.setDate(3, transactionDate);
-            pstmt.setString(4, description);
-            pstmt.setDouble(5, paymentAmount);
-            pstmt.setDouble(6, depositAmount);
-            pstmt.executeUpdate();
-            return true;
+    // Runs one of the write methods below on the writer thread, which calls it again; they report their own errors
+    private boolean writeAlone(WriteQueue.Write<Boolean> write) {
+        try {
+            return writes.callAlone(write);
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
         }
     }
 
+    public boolean saveTransaction(String accountName, String transactionType, Date transactionDate,
+                                   String description, double paymentAmount, double depositAmount, Collection<String> tagNames) {
+        return saveTransactionAsync(accountName, transactionType, transactionDate, description, paymentAmount, depositAmount,
+                tagNames).join();
+    }
+
+    // Only a ledger whose writer couldn't get a connection of its own writes one statement at a time
+    public boolean queuesWrites() {
+        return writerConnection != connection;
+    }
+
+    // Saves queued together share one commit, so an import that keeps many in flight pays for few fsyncs
+    public CompletableFuture<Boolean> saveTransactionAsync(String accountName, String transactionType, Date transactionDate,
+                                                           String description, double paymentAmount, double depositAmount,
+                                                           Collection<String> tagNames) {
+        int year = TransactionPartitions.yearOf(transactionDate);
+        String sql = "INSERT INTO " + (partitions == null ? "transactions" : TransactionPartitions.table(year)) +
+                " (id, account_name, transaction_type, transaction_date, " +
+                "description, payment_amount, deposit_amount) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        return writes.submit(new WriteQueue.Write<Long>() {
+            @Override
+            public boolean prepare() throws SQLException {
+                return partitions == null || partitions().holdForWrite(year);
+            }
+
+            // The row commits together with its fingerprint, type counts and spending buckets, so the budget
+            // counters never count a row the ledger doesn't have
+            @Override
+            public Long apply() throws SQLException {
+                return metrics.time("saveTransaction", sql, connection(), saved -> 1, () -> {
+                    // A null id lets AUTOINCREMENT pick one; partitioned rows draw theirs from the same sequence,
+                    // and a failed insert only leaves a gap
+                    Long id = partitions == null ? null : partitions().nextTransactionId();
+                    try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                        pstmt.setObject(1, id);
+                        bindTransaction(pstmt, 2, accountName, transactionType, transactionDate, description, paymentAmount, depositAmount);
+                        pstmt.executeUpdate();
+                    }
+                    if (id == null) {
+                        try (Statement stmt = connection().createStatement();
+                             ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()")) {
+                            id = rs.getLong(1);
+                        }
+                    }
+                    recordFingerprint(id, accountName, transactionDate, description, paymentAmount, depositAmount);
+                    recordTypeCounts(transactionType, description, 1);
+                    recordSpending(accountName, transactionType, transactionDate, paymentAmount, depositAmount, 1);
+                    return id;
+                });
+            }
+
+            @Override
+            public void committed(Long id) {
+                transactionsVersion++;
+                recordBalance(accountName, transactionDate, paymentAmount, depositAmount, 1);
+                recordTagRow(id, accountName, transactionDate, 1);
+                recordRecurring(accountName, transactionType, transactionDate, description, paymentAmount, depositAmount);
+                publishBudgets();
+                if (!tagNames.isEmpty()) {
+                    setTransactionTags(Math.toIntExact(id), tagNames);
+                }
+            }
+
+            // The fingerprint, type counts and budget counters were already moved, so they are reloaded on next use
+            @Override
+            public void rolledBack() {
+                duplicates = null;
+                classifier = null;
+                budgets = null;
+            }
+        }).handle((id, e) -> {
+            if (e != null) {
+                e.printStackTrace();
+            }
+            return e == null;
+        });
+    }
+
+    private static void bindTransaction(PreparedStatement pstmt, int firstIndex, String accountName, String transactionType,
+                                        Date transactionDate, String description,
+                                        double paymentAmount, double depositAmount) throws SQLException {
+        pstmt.setString(firstIndex, accountName);
+        pstmt.setString(firstIndex + 1, transactionType);
+        SqlDates.bind(pstmt, firstIndex + 2, transactionDate);
+        pstmt.setString(firstIndex + 3, description);
+        pstmt.setDouble(firstIndex + 4, paymentAmount);
+        pstmt.setDouble(firstIndex + 5, depositAmount);
+    }
+
     public boolean saveScheduledTransaction(String scheduleName, String accountName, String transactionType,
-                                            String frequency, String dueDate, double paymentAmount) {
-        String sql = "INSERT INTO scheduled_transactions (schedule_name, account_name, transaction_type, frequency, due_date, payment_amount) VALUES (?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, scheduleName);
-            pstmt.setString(2, accountName);
-            pstmt.setString(3, transactionType);
-            pstmt.setString(4, frequency);
-            pstmt.setString(5, dueDate);
-            pstmt.setDouble(6, paymentAmount);
-            pstmt.executeUpdate();
+                                            RecurrenceRule recurrence, double paymentAmount) {
+        if (!writes.isWriterThread()) {
+            return writeAlone(() -> saveScheduledTransaction(scheduleName, accountName, transactionType, recurrence, paymentAmount));
+        }
+        String sql = "INSERT INTO scheduled_transactions (schedule_name, account_name, transaction_type, frequency, due_date, payment_amount, recurrence) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        try {
+            metrics.time("saveScheduledTransaction", sql, connection(), () -> {
+                try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                    pstmt.setString(1, scheduleName);
+                    pstmt.setString(2, accountName);
+                    pstmt.setString(3, transactionType);
+                    pstmt.setString(4, recurrence.describe());
+                    pstmt.setInt(5, recurrence.getDueDay());
+                    pstmt.setDouble(6, paymentAmount);
+                    pstmt.setLong(7, recurrence.encode());
+                    return pstmt.executeUpdate();
+                }
+            });
             return true;
         } catch (SQLException e) {
             e.printStackTrace();
@@ -232,18 +1882,23 @@ public class DatabaseHelper {
     public List<String> getAllAccountNames() {
         List<String> accountNames = new ArrayList<>();
         String sql = "SELECT name FROM accounts";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                accountNames.add(rs.getString("name"));
-            }
+        try {
+            metrics.time("getAllAccountNames", sql, connection(), () -> {
+                try (Statement stmt = connection().createStatement();
+                     ResultSet rs = stmt.executeQuery(sql)) {
+                    while (rs.next()) {
+                        accountNames.add(rs.getString("name"));
+                    }
+                }
+                return accountNames.size();
+            });
         } catch (SQLException e) {
             e.printStackTrace();
         }
         return accountNames;
     }
 
-    private void createAccountTable() {
+    private void createAccountTable() throws SQLException {
         String sql = "CREATE TABLE IF NOT EXISTS accounts (" +
                 "id INTEGER PRIMARY KEY AUTOINCREMENT," +
                 "name TEXT NOT NULL," +
@@ -251,21 +1906,33 @@ public class DatabaseHelper {
                 "opening_balance REAL NOT NULL" +
                 ");";
 
-        try (Statement stmt = connection.createStatement()) {
+        try (Statement stmt = connection().createStatement()) {
             stmt.execute(sql);
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
     }
 
-    public boolean createAccount(String name, Date openingDate, double openingBalance) {
-        String sql = "INSERT INTO accounts (name, opening_date, opening_balance) VALUES (?, ?, ?)";
+    public boolean createAccount(String name, Date openingDate, double openingBalance, String currency) {
+        if (!writes.isWriterThread()) {
+            return writeAlone(() -> createAccount(name, openingDate, openingBalance, currency));
+        }
+        String code = ExchangeRates.normalize(currency);
+        String sql = "INSERT INTO accounts (name, opening_date, opening_balance, currency) VALUES (?, ?, ?, ?)";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, name);
-            pstmt.setDate(2, openingDate);
-            pstmt.setDouble(3, openingBalance);
-            pstmt.executeUpdate();
+        try {
+            metrics.time("createAccount", sql, connection(), () -> {
+                int rows;
+                try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                    pstmt.setString(1, name);
+                    SqlDates.bind(pstmt, 2, openingDate);
+                    pstmt.setDouble(3, openingBalance);
+                    pstmt.setString(4, code);
+                    rows = pstmt.executeUpdate();
+                }
+                if (balances != null) {
+                    balances.setOpening(name, openingDate.toLocalDate(), openingBalance);
+                }
+                return rows;
+            });
             return true;
         } catch (SQLException e) {
             e.printStackTrace();
@@ -275,17 +1942,21 @@ public class DatabaseHelper {
 
     public List<Account> getAllAccountDetails() {
         List<Account> accountDetails = new ArrayList<>();
-        String sql = "SELECT name, opening_date, opening_balance FROM accounts ORDER BY opening_date DESC";
+        String sql = "SELECT name, opening_date, opening_balance, currency FROM accounts ORDER BY opening_date DESC";
 
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                String name = rs.getString("name");// Retrieve the opening_date as a long (timestamp)
-                long timestamp = rs.getLong("opening_date");
-                java.sql.Date date = new java.sql.Date(timestamp); // Convert to java.sql.Date
-                double balance = rs.getDouble("opening_balance");
-                accountDetails.add(new Account(name, date, balance)); // Format the display
-            }
+        try {
+            metrics.time("getAllAccountDetails", sql, connection(), () -> {
+                try (Statement stmt = connection().createStatement();
+                     ResultSet rs = stmt.executeQuery(sql)) {
+                    while (rs.next()) {
+                        String name = rs.getString("name");
+                        Date date = SqlDates.read(rs, "opening_date");
+                        double balance = rs.getDouble("opening_balance");
+                        accountDetails.add(new Account(name, date, balance, rs.getString("currency"))); // Format the display
+                    }
+                }
+                return accountDetails.size();
+            });
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -294,12 +1965,14 @@ public class DatabaseHelper {
 
     public boolean accountExists(String accountName) {
         String sql = "SELECT COUNT(*) FROM accounts WHERE name = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, accountName);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt(1) > 0; // Return true if count is greater than 0
-            }
+        try {
+            return metrics.time("accountExists", sql, connection(), exists -> 1, () -> {
+                try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                    pstmt.setString(1, accountName);
+                    ResultSet rs = pstmt.executeQuery();
+                    return rs.next() && rs.getInt(1) > 0; // Return true if count is greater than 0
+                }
+            });
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -307,10 +1980,20 @@ public class DatabaseHelper {
     }
 
     public boolean deleteAccount(String accountName) {
+        if (!writes.isWriterThread()) {
+            return writeAlone(() -> deleteAccount(accountName));
+        }
         String sql = "DELETE FROM accounts WHERE name = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, accountName);
-            int affectedRows = pstmt.executeUpdate();
+        try {
+            int affectedRows = metrics.time("deleteAccount", sql, connection(), () -> {
+                try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                    pstmt.setString(1, accountName);
+                    return pstmt.executeUpdate();
+                }
+            });
+            if (balances != null && affectedRows > 0) {
+                balances.removeOpening(accountName);
+            }
             return affectedRows > 0; // Return true if rows were affected
         } catch (SQLException e) {
             e.printStackTrace();
@@ -319,11 +2002,17 @@ public class DatabaseHelper {
     }
 
     public boolean deleteScheduledTransaction(String scheduleName) {
+        if (!writes.isWriterThread()) {
+            return writeAlone(() -> deleteScheduledTransaction(scheduleName));
+        }
         String sql = "DELETE FROM scheduled_transactions WHERE schedule_name = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, scheduleName);
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+        try {
+            return metrics.time("deleteScheduledTransaction", sql, connection(), () -> {
+                try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                    pstmt.setString(1, scheduleName);
+                    return pstmt.executeUpdate();
+                }
+            }) > 0;
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
@@ -331,82 +2020,269 @@ public class DatabaseHelper {
     }
 
     public boolean deleteTransaction(String description) {
-        String sql = "DELETE FROM transactions WHERE description = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, description);
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (partitions != null) {
+            return writeAlone(() -> deletePartitionedTransaction(description));
+        }
+        try {
+            return writes.submit(new WriteQueue.Write<Integer>() {
+                @Override
+                public Integer apply() throws SQLException {
+                    return deleteFrom("transactions", description);
+                }
+
+                // Deleting a refund can take a budget over
+                @Override
+                public void committed(Integer deleted) {
+                    transactionsVersion++;
+                    recurring = null;
+                    publishBudgets();
+                }
+
+                // Forgetting the rows already moved the cached indexes, so they are reloaded on next use
+                @Override
+                public void rolledBack() {
+                    duplicates = null;
+                    classifier = null;
+                    balances = null;
+                    tags = null;
+                    budgets = null;
+                }
+            }).join() > 0;
+        } catch (CompletionException e) {
+            e.getCause().printStackTrace();
             return false;
         }
     }
 
-// Adnan added-modified-start
-public List<Transaction> searchTransactions(String searchTerm) {
-    List<Transaction> transactions = new ArrayList<>();
-    String sql = "SELECT account_name, transaction_type, transaction_date, description, payment_amount, deposit_amount FROM transactions WHERE description LIKE ? ORDER BY transaction_date DESC";
+    private int deleteFrom(String table, String description) throws SQLException {
+        forgetFingerprints(table, description);
+        forgetTypeCounts(table, description);
+        forgetAmounts(table, description);
+        String sql = "DELETE FROM " + table + " WHERE description = ?";
+        return metrics.time("deleteTransaction", sql, connection(), () -> {
+            try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                pstmt.setString(1, description);
+                return pstmt.executeUpdate();
+            }
+        });
+    }
 
-    try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-        pstmt.setString(1, "%" + searchTerm + "%");
-        ResultSet rs = pstmt.executeQuery();
+    // Probes each partition before deleting, so read-only years are only reopened for writing when they hold a
+    // match. Runs alone on the writer thread, since a partition can't be attached inside a group's transaction;
+    // each year's rows go in one transaction with their fingerprints, type counts and spending buckets.
+    private boolean deletePartitionedTransaction(String description) {
+        transactionsVersion++;
+        recurring = null;
+        int affectedRows = 0;
+        for (int year : partitions.yearsNewestFirst(Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+            String table = TransactionPartitions.table(year);
+            String probeSql = "SELECT 1 FROM " + table + " WHERE description = ? LIMIT 1";
+            boolean found = false;
+            try {
+                found = metrics.time("probeTransaction", probeSql, connection(), match -> match ? 1 : 0, () -> {
+                    partitions().attachForRead(year);
+                    try (PreparedStatement probe = connection().prepareStatement(probeSql)) {
+                        probe.setString(1, description);
+                        try (ResultSet rs = probe.executeQuery()) {
+                            return rs.next();
+                        }
+                    }
+                });
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            if (!found) {
+                continue;
+            }
+            try {
+                partitions().attachForWrite(year);
+                affectedRows += inTransaction(() -> deleteFrom(table, description));
+                publishBudgets();
+            } catch (SQLException e) {
+                e.printStackTrace();
+                // Forgetting the rows already moved the cached indexes, so they are reloaded on next use
+                duplicates = null;
+                classifier = null;
+                balances = null;
+                tags = null;
+                budgets = null;
+            }
+        }
+        return affectedRows > 0;
+    }
 
-        while (rs.next()) {
-            transactions.add(new Transaction(
-                rs.getString("account_name"),
-                rs.getString("transaction_type"),
-                rs.getDate("transaction_date"),
-                rs.getString("description"),
-                rs.getDouble("payment_amount"),
-                rs.getDouble("deposit_amount")
-            ));
+    // Runs a write that is alone on the writer thread as one transaction
+    private <T> T inTransaction(WriteQueue.Write<T> write) throws SQLException {
+        Connection writer = connection();
+        writer.setAutoCommit(false);
+        try {
+            T result = write.apply();
+            writer.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            writer.rollback();
+            throw e;
+        } finally {
+            writer.setAutoCommit(true);
         }
-    } catch (SQLException e) {
-        e.printStackTrace();
     }
-    return transactions;
+
+// Adnan added-modified-start
+public List<Transaction> searchTransactions(String searchTerm) {
+    return queryTransactions("searchTransactions", Integer.MIN_VALUE, Integer.MAX_VALUE,
+            " WHERE description LIKE ?", "%" + searchTerm + "%");
 }
 
 public boolean updateTransaction(String originalAccountName, Date originalTransactionDate, String originalDescription,
                                  String newAccountName, String transactionType,
                                Date newTransactionDate, String newDescription,
                                double paymentAmount, double depositAmount) {
-    Integer id = findTransactionId(originalAccountName, originalTransactionDate, originalDescription);
+    String originalTable = partitions == null ? "transactions"
+            : TransactionPartitions.table(TransactionPartitions.yearOf(originalTransactionDate));
+    String newTable = partitions == null ? "transactions"
+            : TransactionPartitions.table(TransactionPartitions.yearOf(newTransactionDate));
+    String sql = originalTable.equals(newTable)
+            ? "UPDATE " + originalTable + " SET account_name = ?, transaction_type = ?, " +
+              "transaction_date = ?, description = ?, payment_amount = ?, " +
+              "deposit_amount = ? WHERE id = ?"
+            : "INSERT INTO " + newTable + " (account_name, transaction_type, transaction_date, " +
+              "description, payment_amount, deposit_amount, id) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    int[] rows = {0};
 
-    if (id == null) {
-        System.out.println("Transaction not found for the provided attributes.");
-        return false;
-    }
+    try {
+        // As in saveTransaction(), the row and its derived rows commit together
+        writes.submit(new WriteQueue.Write<Void>() {
+            private boolean found = true;
+            private Integer id;
+            private Transaction original;
 
-    String sql = "UPDATE transactions SET account_name = ?, transaction_type = ?, " +
-                 "transaction_date = ?, description = ?, payment_amount = ?, " +
-                 "deposit_amount = ? WHERE id = ?";
+            @Override
+            public boolean prepare() throws SQLException {
+                if (partitions == null) {
+                    return true;
+                }
+                int originalYear = TransactionPartitions.yearOf(originalTransactionDate);
+                found = partitions.hasYear(originalYear);
+                // Both must be attached before a move starts its transaction
+                return !found || partitions().holdForWrite(originalYear)
+                        && partitions().holdForWrite(TransactionPartitions.yearOf(newTransactionDate));
+            }
 
-    try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-        pstmt.setString(1, newAccountName);
-        pstmt.setString(2, transactionType);
-        pstmt.setDate(3, newTransactionDate);
-        pstmt.setString(4, newDescription);
-        pstmt.setDouble(5, paymentAmount);
-        pstmt.setDouble(6, depositAmount);
-        pstmt.setInt(7, id);
-        return pstmt.executeUpdate() > 0;
-    } catch (SQLException e) {
-        e.printStackTrace();
+            @Override
+            public Void apply() throws SQLException {
+                return metrics.time("updateTransaction", sql, connection(), done -> rows[0], () -> {
+                    id = found ? findTransactionId(originalTable, originalAccountName, originalTransactionDate, originalDescription) : null;
+                    if (id == null) {
+                        System.out.println("Transaction not found for the provided attributes.");
+                        return null;
+                    }
+                    original = findTransaction(originalTable, id);
+                    if (originalTable.equals(newTable)) {
+                        try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                            bindTransaction(pstmt, 1, newAccountName, transactionType, newTransactionDate, newDescription, paymentAmount, depositAmount);
+                            pstmt.setInt(7, id);
+                            rows[0] = pstmt.executeUpdate();
+                        }
+                    } else {
+                        rows[0] = moveTransaction(sql, originalTable, id, newAccountName, transactionType, newTransactionDate,
+                                newDescription, paymentAmount, depositAmount);
+                    }
+                    if (rows[0] > 0) {
+                        recordFingerprint(id, newAccountName, newTransactionDate, newDescription, paymentAmount, depositAmount);
+                        if (original != null) {
+                            recordTypeCounts(original.getTransactionType(), originalDescription, -1);
+                            recordSpending(original.getAccountName(), original.getTransactionType(), original.getTransactionDate(),
+                                    original.getPaymentAmount(), original.getDepositAmount(), -1);
+                        }
+                        recordTypeCounts(transactionType, newDescription, 1);
+                        recordSpending(newAccountName, transactionType, newTransactionDate, paymentAmount, depositAmount, 1);
+                    }
+                    return null;
+                });
+            }
+
+            @Override
+            public void committed(Void result) {
+                if (rows[0] > 0) {
+                    transactionsVersion++;
+                    recurring = null;
+                    if (original != null) {
+                        recordBalance(original.getAccountName(), original.getTransactionDate(),
+                                original.getPaymentAmount(), original.getDepositAmount(), -1);
+                        recordTagRow(id, original.getAccountName(), original.getTransactionDate(), -1);
+                    }
+                    recordBalance(newAccountName, newTransactionDate, paymentAmount, depositAmount, 1);
+                    recordTagRow(id, newAccountName, newTransactionDate, 1);
+                    publishBudgets();
+                }
+            }
+
+            // As in saveTransaction(), the indexes moved by apply() are reloaded on next use
+            @Override
+            public void rolledBack() {
+                rows[0] = 0;
+                duplicates = null;
+                classifier = null;
+                budgets = null;
+            }
+        }).join();
+        return rows[0] > 0;
+    } catch (CompletionException e) {
+        e.getCause().printStackTrace();
         return false;
     }
 }
 
-    private Integer findTransactionId(String accountName, Date transactionDate, String description) {
-        String sql = "SELECT id FROM transactions WHERE account_name = ? AND transaction_date = ? AND description = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, accountName);
-            pstmt.setDate(2, transactionDate);
-            pstmt.setString(3, description);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("id");
+    // A date change into another year moves the row to that partition, keeping its id; runs inside
+    // updateTransaction()'s transaction
+    private int moveTransaction(String insertSql, String fromTable, int id, String accountName, String transactionType,
+                                Date transactionDate, String description,
+                                double paymentAmount, double depositAmount) throws SQLException {
+        String deleteSql = "DELETE FROM " + fromTable + " WHERE id = ?";
+        int[] inserted = {0};
+        metrics.time("moveTransaction", deleteSql, connection(), () -> {
+            try (PreparedStatement insert = connection().prepareStatement(insertSql);
+                 PreparedStatement delete = connection().prepareStatement(deleteSql)) {
+                bindTransaction(insert, 1, accountName, transactionType, transactionDate, description, paymentAmount, depositAmount);
+                insert.setInt(7, id);
+                inserted[0] = insert.executeUpdate();
+                delete.setInt(1, id);
+                return delete.executeUpdate();
             }
+        });
+        return inserted[0];
+    }
+
+    private Transaction findTransaction(String table, int id) {
+        String sql = "SELECT id, account_name, transaction_type, transaction_date, description, payment_amount, " +
+                "deposit_amount FROM " + table + " WHERE id = ?";
+        try {
+            return metrics.time("findTransaction", sql, connection(), found -> found == null ? 0 : 1, () -> {
+                try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                    pstmt.setInt(1, id);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        return rs.next() ? readTransaction(rs) : null;
+                    }
+                }
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private Integer findTransactionId(String table, String accountName, Date transactionDate, String description) {
+        String sql = "SELECT id FROM " + table + " WHERE account_name = ? AND transaction_date = ? AND description = ?";
+        try {
+            return metrics.time("findTransactionId", sql, connection(), found -> found == null ? 0 : 1, () -> {
+                try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                    pstmt.setString(1, accountName);
+                    SqlDates.bind(pstmt, 2, transactionDate);
+                    pstmt.setString(3, description);
+                    ResultSet rs = pstmt.executeQuery();
+                    return rs.next() ? (Integer) rs.getInt("id") : null;
+                }
+            });
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -417,45 +2293,50 @@ public boolean updateTransaction(String originalAccountName, Date originalTransa
 public List<ScheduledTransaction> searchScheduledTransactions(String searchTerm) {
     List<ScheduledTransaction> transactions = new ArrayList<>();
     String sql = "SELECT schedule_name, account_name, transaction_type, frequency, " +
-                 "due_date, payment_amount FROM scheduled_transactions " +
+                 "due_date, payment_amount, recurrence FROM scheduled_transactions " +
                  "WHERE schedule_name LIKE ? ORDER BY due_date ASC";
-    
-    try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-        pstmt.setString(1, "%" + searchTerm + "%");
-        ResultSet rs = pstmt.executeQuery();
-        
-        while (rs.next()) {
-            transactions.add(new ScheduledTransaction(
-                rs.getString("schedule_name"),
-                rs.getString("account_name"),
-                rs.getString("transaction_type"),
-                rs.getString("frequency"),
-                rs.getInt("due_date"),
-                rs.getDouble("payment_amount")
-            ));
-        }
+
+    try {
+        metrics.time("searchScheduledTransactions", sql, connection(), () -> {
+            try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                pstmt.setString(1, "%" + searchTerm + "%");
+                ResultSet rs = pstmt.executeQuery();
+
+                while (rs.next()) {
+                    transactions.add(readScheduledTransaction(rs));
+                }
+            }
+            return transactions.size();
+        });
     } catch (SQLException e) {
         e.printStackTrace();
     }
     return transactions;
 }
 
-public boolean updateScheduledTransaction(String originalName, String scheduleName, 
-    String accountName, String transactionType, String frequency, 
-    String dueDate, double paymentAmount) {
+public boolean updateScheduledTransaction(String originalName, String scheduleName,
+    String accountName, String transactionType, RecurrenceRule recurrence, double paymentAmount) {
+    if (!writes.isWriterThread()) {
+        return writeAlone(() -> updateScheduledTransaction(originalName, scheduleName, accountName, transactionType, recurrence, paymentAmount));
+    }
     String sql = "UPDATE scheduled_transactions SET schedule_name = ?, account_name = ?, " +
                  "transaction_type = ?, frequency = ?, due_date = ?, " +
-                 "payment_amount = ? WHERE schedule_name = ?";
-    
-    try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-        pstmt.setString(1, scheduleName);
-        pstmt.setString(2, accountName);
-        pstmt.setString(3, transactionType);
-        pstmt.setString(4, frequency);
-        pstmt.setString(5, dueDate);
-        pstmt.setDouble(6, paymentAmount);
-        pstmt.setString(7, originalName);
-        return pstmt.executeUpdate() > 0;
+                 "payment_amount = ?, recurrence = ? WHERE schedule_name = ?";
+
+    try {
+        return metrics.time("updateScheduledTransaction", sql, connection(), () -> {
+            try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                pstmt.setString(1, scheduleName);
+                pstmt.setString(2, accountName);
+                pstmt.setString(3, transactionType);
+                pstmt.setString(4, recurrence.describe());
+                pstmt.setInt(5, recurrence.getDueDay());
+                pstmt.setDouble(6, paymentAmount);
+                pstmt.setLong(7, recurrence.encode());
+                pstmt.setString(8, originalName);
+                return pstmt.executeUpdate();
+            }
+        }) > 0;
     } catch (SQLException e) {
         e.printStackTrace();
         return false;
@@ -465,24 +2346,23 @@ public boolean updateScheduledTransaction(String originalName, String scheduleNa
     public List<ScheduledTransaction> getScheduledTransactionsDueToday() {
         List<ScheduledTransaction> transactions = new ArrayList<>();
         LocalDate today = LocalDate.now();
-        int todayDate = today.getDayOfMonth();
 
-        String sql = "SELECT schedule_name, account_name, transaction_type, frequency, due_date, payment_amount " +
-                "FROM scheduled_transactions WHERE due_date = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, todayDate);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    transactions.add(new ScheduledTransaction(
-                            rs.getString("schedule_name"),
-                            rs.getString("account_name"),
-                            rs.getString("transaction_type"),
-                            rs.getString("frequency"),
-                            rs.getInt("due_date"),
-                            rs.getDouble("payment_amount")
-                    ));
+        // Weekly, interval and last-business-day rules can't be matched on due_date alone, so each rule decides
+        String sql = "SELECT schedule_name, account_name, transaction_type, frequency, due_date, payment_amount, recurrence " +
+                "FROM scheduled_transactions";
+        try {
+            metrics.time("getScheduledTransactionsDueToday", sql, connection(), () -> {
+                try (Statement stmt = connection().createStatement();
+                     ResultSet rs = stmt.executeQuery(sql)) {
+                    while (rs.next()) {
+                        ScheduledTransaction schedule = readScheduledTransaction(rs);
+                        if (schedule.getRecurrence().occursOn(today)) {
+                            transactions.add(schedule);
+                        }
+                    }
                 }
-            }
+                return transactions.size();
+            });
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -492,55 +2372,137 @@ public boolean updateScheduledTransaction(String originalName, String scheduleNa
 
 // Adnan added-modified-start (12-03-2024)
 public List<Transaction> getTransactionsByType(String transactionType) {
-    List<Transaction> transactions = new ArrayList<>();
-    String sql = "SELECT account_name, transaction_type, transaction_date, description, " +
-                 "payment_amount, deposit_amount FROM transactions " +
-                 "WHERE transaction_type = ? ORDER BY transaction_date DESC";
-    
-    try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-        pstmt.setString(1, transactionType);
-        ResultSet rs = pstmt.executeQuery();
-        
-        while (rs.next()) {
-            transactions.add(new Transaction(
-                rs.getString("account_name"),
-                rs.getString("transaction_type"),
-                rs.getDate("transaction_date"),
-                rs.getString("description"),
-                rs.getDouble("payment_amount"),
-                rs.getDouble("deposit_amount")
-            ));
-        }
-    } catch (SQLException e) {
-        e.printStackTrace();
-    }
-    return transactions;
+    List<Transaction> transactions = queryTransactions("getTransactionsByType", Integer.MIN_VALUE, Integer.MAX_VALUE,
+            " WHERE transaction_type = ?", transactionType);
+    return withArchived(transactions, a -> a.getTransactionsByType(transactionType));
 }
 
 public List<Transaction> getTransactionsByAccount(String accountName) {
-    List<Transaction> transactions = new ArrayList<>();
-    String sql = "SELECT account_name, transaction_type, transaction_date, description, " +
-                 "payment_amount, deposit_amount FROM transactions " +
-                 "WHERE account_name = ? ORDER BY transaction_date DESC";
-    
-    try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-        pstmt.setString(1, accountName);
-        ResultSet rs = pstmt.executeQuery();
-        
-        while (rs.next()) {
-            transactions.add(new Transaction(
-                rs.getString("account_name"),
-                rs.getString("transaction_type"),
-                rs.getDate("transaction_date"),
-                rs.getString("description"),
-                rs.getDouble("payment_amount"),
-                rs.getDouble("deposit_amount")
-            ));
+    List<Transaction> transactions = queryTransactions("getTransactionsByAccount", Integer.MIN_VALUE, Integer.MAX_VALUE,
+            " WHERE account_name = ?", accountName);
+    return withArchived(transactions, a -> a.getTransactionsByAccount(accountName));
+} // Adnan added-modified-end (12-03-2024)
+
+    // Live rows are counted by SQL and archived ones straight off the mapped segments
+    public int countTransactions(String accountName, String transactionType) {
+        if (partitions != null) {
+            return filteredTransactions(accountName, transactionType).size();
+        }
+        int archived;
+        try {
+            archived = getArchive().count(accountName, transactionType);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            archived = 0;
+        }
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT COUNT(*) FROM transactions" + pageFilter(accountName, transactionType, params);
+        try {
+            return metrics.time("countTransactions", sql, connection(), count -> 1, () -> {
+                try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                    for (int i = 0; i < params.size(); i++) {
+                        pstmt.setObject(i + 1, params.get(i));
+                    }
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        return rs.next() ? rs.getInt(1) : 0;
+                    }
+                }
+            }) + archived;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return archived;
+    }
+
+    // When an index covers the order, the page is read straight off it: the inner query skips OFFSET entries
+    // of the covering index without touching the table, and only the page's rows are fetched. Otherwise the
+    // filtered rows are sorted in memory once and later pages are cut from that copy.
+    public List<Transaction> getTransactionPage(String accountName, String transactionType, List<TransactionSort> order,
+                                                int offset, int limit) {
+        if (!sortsInSql(accountName, transactionType, order)) {
+            return sortedWindow.page(() -> filteredTransactions(accountName, transactionType), order, transactionsVersion,
+                    accountName, transactionType, offset, limit);
+        }
+        List<Object> params = new ArrayList<>();
+        String orderBy = TransactionSort.orderBy(order);
+        String sql = "SELECT id, account_name, transaction_type, transaction_date, description, payment_amount, deposit_amount " +
+                "FROM transactions WHERE id IN (SELECT id FROM transactions" + pageFilter(accountName, transactionType, params) +
+                orderBy + " LIMIT ? OFFSET ?)" + orderBy;
+        params.add(limit);
+        params.add(offset);
+        List<Transaction> transactions = new ArrayList<>();
+        try {
+            metrics.time("getTransactionPage", sql, connection(), () -> {
+                try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+                    for (int i = 0; i < params.size(); i++) {
+                        pstmt.setObject(i + 1, params.get(i));
+                    }
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            transactions.add(readTransaction(rs));
+                        }
+                    }
+                }
+                return transactions.size();
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return transactions;
+    }
+
+    // Pages come straight from SQL only when every row is in the live table and an index covers the order
+    private boolean sortsInSql(String accountName, String transactionType, List<TransactionSort> order) {
+        boolean filtered = accountName != null || transactionType != null;
+        if (partitions != null || !TransactionSort.indexed(order, filtered)) {
+            return false;
+        }
+        try {
+            return getArchive().isEmpty();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static String pageFilter(String accountName, String transactionType, List<Object> params) {
+        List<String> conditions = new ArrayList<>();
+        if (accountName != null) {
+            conditions.add("account_name = ?");
+            params.add(accountName);
+        }
+        if (transactionType != null) {
+            conditions.add("transaction_type = ?");
+            params.add(transactionType);
+        }
+        return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+    }
+
+    private List<Transaction> filteredTransactions(String accountName, String transactionType) {
+        if (accountName == null) {
+            return transactionType == null ? getTransactions() : getTransactionsByType(transactionType);
+        }
+        List<Transaction> transactions = getTransactionsByAccount(accountName);
+        if (transactionType != null) {
+            transactions.removeIf(t -> !transactionType.equals(t.getTransactionType()));
+        }
+        return transactions;
+    }
+
+
+    // Waits for queued writes to commit first
+    public void close() {
+        writes.close();
+        try {
+            if (writerConnection != connection) {
+                writerConnection.close();
+            }
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
         }
-    } catch (SQLException e) {
-        e.printStackTrace();
     }
-    return transactions;
-} // Adnan added-modified-end (12-03-2024)
 
 }
@@ -0,0 +1,186 @@
+package application;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+
+// Spots transactions that were probably entered twice: same account and amounts, and the same description once
+// case, punctuation and spacing are ignored, dated within a few days of each other.
+//
+// A transaction's fingerprint hashes everything but the date. DatabaseHelper persists (fingerprint, epoch day)
+// per transaction id in transaction_fingerprints; this class is the in-memory mirror, an open-addressing table
+// of fingerprint-and-day keys at 8 bytes a slot, so checking a row costs 2 * TOLERANCE_DAYS + 1 array probes.
+// A key can be present more than once (a genuine repeat saved anyway); remove() drops a single copy.
+public class DuplicateIndex {
+    public static final int TOLERANCE_DAYS = Integer.getInteger("centsible.duplicateToleranceDays", 3);
+
+    private static final long EMPTY = 0;
+    private static final long REMOVED = Long.MIN_VALUE;
+
+    private long[] slots;
+    private int size;
+    private int used; // live keys plus REMOVED markers
+
+    public DuplicateIndex() {
+        this(0);
+    }
+
+    // Sized so that loading expectedSize keys never rehashes
+    public DuplicateIndex(int expectedSize) {
+        slots = new long[Math.max(1024, Integer.highestOneBit(Math.max(1, expectedSize / 3 * 4 + 1)) << 1)];
+    }
+
+    public static long fingerprint(String accountName, String description, double paymentAmount, double depositAmount) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hashNormalized(hash, accountName);
+        hash = (hash ^ 0x1f) * 0x100000001b3L;
+        hash = hashNormalized(hash, description);
+        hash ^= mix(ReportTotals.toCents(paymentAmount) * 31 + ReportTotals.toCents(depositAmount));
+        return mix(hash);
+    }
+
+    public static long fingerprint(Transaction transaction) {
+        return fingerprint(transaction.getAccountName(), transaction.getDescription(),
+                transaction.getPaymentAmount(), transaction.getDepositAmount());
+    }
+
+    public static long epochDay(Date date) {
+        return SqlDates.toDay(date);
+    }
+
+    // FNV-1a over the lower-cased letters and digits, with each run of anything else counted as one space
+    private static long hashNormalized(long hash, String text) {
+        if (text == null) {
+            return hash;
+        }
+        boolean pendingSpace = false;
+        boolean started = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (pendingSpace && started) {
+                    hash = (hash ^ ' ') * 0x100000001b3L;
+                }
+                hash = (hash ^ Character.toLowerCase(c)) * 0x100000001b3L;
+                pendingSpace = false;
+                started = true;
+            } else {
+                pendingSpace = true;
+            }
+        }
+        return hash;
+    }
+
+    // Murmur3's 64-bit finalizer
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static long key(long fingerprint, long epochDay) {
+        long key = mix(fingerprint + epochDay * 0x9e3779b97f4a7c15L);
+        return key == EMPTY || key == REMOVED ? 1 : key;
+    }
+
+    public synchronized void add(long fingerprint, long epochDay) {
+        if ((used + 1) * 4L > slots.length * 3L) {
+            rehash(size * 2 > slots.length / 2 ? slots.length * 2 : slots.length);
+        }
+        long key = key(fingerprint, epochDay);
+        int mask = slots.length - 1;
+        int slot = (int) key & mask;
+        while (slots[slot] != EMPTY && slots[slot] != REMOVED) {
+            slot = (slot + 1) & mask;
+        }
+        if (slots[slot] == EMPTY) {
+            used++;
+        }
+        slots[slot] = key;
+        size++;
+    }
+
+    public synchronized boolean remove(long fingerprint, long epochDay) {
+        int slot = find(key(fingerprint, epochDay));
+        if (slot < 0) {
+            return false;
+        }
+        slots[slot] = REMOVED;
+        size--;
+        return true;
+    }
+
+    public synchronized boolean contains(long fingerprint, long epochDay) {
+        return find(key(fingerprint, epochDay)) >= 0;
+    }
+
+    // Whether a transaction with this fingerprint is dated within TOLERANCE_DAYS of the given day
+    public synchronized boolean containsNear(long fingerprint, long epochDay) {
+        for (long day = epochDay - TOLERANCE_DAYS; day <= epochDay + TOLERANCE_DAYS; day++) {
+            if (find(key(fingerprint, day)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private int find(long key) {
+        int mask = slots.length - 1;
+        for (int slot = (int) key & mask; slots[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (slots[slot] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = slots;
+        slots = new long[capacity];
+        used = 0;
+        int mask = capacity - 1;
+        for (long key : old) {
+            if (key != EMPTY && key != REMOVED) {
+                int slot = (int) key & mask;
+                while (slots[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = key;
+                used++;
+            }
+        }
+    }
+
+    // The candidates that look like a duplicate of a transaction in this index or of an earlier candidate
+    public List<Transaction> flag(List<Transaction> candidates) {
+        DuplicateIndex batch = new DuplicateIndex();
+        List<Transaction> flagged = new ArrayList<>();
+        for (Transaction candidate : candidates) {
+            long fingerprint = fingerprint(candidate);
+            long day = epochDay(candidate.getTransactionDate());
+            if (containsNear(fingerprint, day) || batch.containsNear(fingerprint, day)) {
+                flagged.add(candidate);
+            }
+            batch.add(fingerprint, day);
+        }
+        return flagged;
+    }
+
+    // The transactions in a date window around the new one that share its fingerprint
+    public static List<Transaction> matching(List<Transaction> window, long fingerprint) {
+        List<Transaction> matches = new ArrayList<>();
+        for (Transaction transaction : window) {
+            if (fingerprint(transaction) == fingerprint) {
+                matches.add(transaction);
+            }
+        }
+        return matches;
+    }
+}
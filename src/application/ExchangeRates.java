@@ -0,0 +1,190 @@
+package application;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Dated exchange rates, held per currency pair as a day array sorted ascending beside an array of rates, so a
+// lookup is a binary search over primitives. A pair's rate on a day is the nearest one dated on or before it,
+// or its earliest rate for days before that. A conversion with no rate of its own uses the inverse pair, or
+// goes through one currency both sides have rates against; the route is worked out once per pair and kept
+// until rates are added.
+//
+// Reports never convert row by row: they convert per-day spending buckets, so the lookups depend on accounts
+// and days, not on how many transactions there are. DatabaseHelper keeps the rates in exchange_rates.
+public class ExchangeRates {
+    public static final String DEFAULT_CURRENCY = normalize(System.getProperty("centsible.defaultCurrency", "USD"));
+
+    // A rate is 1 unit of base in quote, e.g. EUR/USD 1.08
+    private static final class Series {
+        int[] days = new int[8];
+        double[] rates = new double[8];
+        int size;
+
+        void put(int day, double rate) {
+            int index = Arrays.binarySearch(days, 0, size, day);
+            if (index >= 0) {
+                rates[index] = rate;
+                return;
+            }
+            index = -index - 1;
+            if (size == days.length) {
+                days = Arrays.copyOf(days, size * 2);
+                rates = Arrays.copyOf(rates, size * 2);
+            }
+            System.arraycopy(days, index, days, index + 1, size - index);
+            System.arraycopy(rates, index, rates, index + 1, size - index);
+            days[index] = day;
+            rates[index] = rate;
+            size++;
+        }
+
+        double on(long day) {
+            int index = Arrays.binarySearch(days, 0, size, (int) day);
+            if (index < 0) {
+                index = Math.max(0, -index - 2);
+            }
+            return rates[index];
+        }
+    }
+
+    // One step of a route: a series read directly or inverted
+    private static final class Leg {
+        final Series series;
+        final boolean inverse;
+
+        Leg(Series series, boolean inverse) {
+            this.series = series;
+            this.inverse = inverse;
+        }
+
+        double on(long day) {
+            double rate = series.on(day);
+            return inverse ? 1 / rate : rate;
+        }
+    }
+
+    private final Map<String, Series> series = new HashMap<>();
+    // "EUR/USD" -> legs; no entry until first asked, an empty array when there is no route
+    private final Map<String, Leg[]> routes = new HashMap<>();
+    // The last conversion, since reports convert day buckets in date order
+    private String lastFrom;
+    private String lastTo;
+    private long lastDay;
+    private double lastRate;
+
+    // Upper-cased three-letter ISO 4217 style code; throws IllegalArgumentException for anything else
+    public static String normalize(String currency) {
+        String code = currency == null ? "" : currency.trim().toUpperCase(Locale.ROOT);
+        if (!code.matches("[A-Z]{3}")) {
+            throw new IllegalArgumentException("Currency must be a three-letter code such as USD, not \"" + currency + "\"");
+        }
+        return code;
+    }
+
+    public synchronized void put(String baseCurrency, String quoteCurrency, LocalDate date, double rate) {
+        if (!(rate > 0) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException("An exchange rate must be a positive number");
+        }
+        series.computeIfAbsent(pair(baseCurrency, quoteCurrency), p -> new Series()).put((int) date.toEpochDay(), rate);
+        routes.clear();
+        lastFrom = null;
+    }
+
+    // Units of the target currency per unit of the source on the date; throws IllegalArgumentException when
+    // no rates connect the two
+    public synchronized double rate(String fromCurrency, String toCurrency, LocalDate date) {
+        return rate(fromCurrency, toCurrency, date.toEpochDay());
+    }
+
+    public synchronized double rate(String fromCurrency, String toCurrency, long epochDay) {
+        if (fromCurrency.equals(toCurrency)) {
+            return 1;
+        }
+        if (epochDay == lastDay && fromCurrency.equals(lastFrom) && toCurrency.equals(lastTo)) {
+            return lastRate;
+        }
+        Leg[] legs = routes.computeIfAbsent(pair(fromCurrency, toCurrency), p -> route(fromCurrency, toCurrency));
+        if (legs.length == 0) {
+            throw new IllegalArgumentException("No exchange rate from " + fromCurrency + " to " + toCurrency);
+        }
+        double rate = 1;
+        for (Leg leg : legs) {
+            rate *= leg.on(epochDay);
+        }
+        lastFrom = fromCurrency;
+        lastTo = toCurrency;
+        lastDay = epochDay;
+        lastRate = rate;
+        return rate;
+    }
+
+    public long convertCents(long cents, String fromCurrency, String toCurrency, long epochDay) {
+        return fromCurrency.equals(toCurrency) ? cents : Math.round(cents * rate(fromCurrency, toCurrency, epochDay));
+    }
+
+    // Every currency with a rate, alphabetically
+    public synchronized List<String> currencies() {
+        TreeSet<String> currencies = new TreeSet<>();
+        for (String pair : series.keySet()) {
+            currencies.add(pair.substring(0, 3));
+            currencies.add(pair.substring(4));
+        }
+        return new ArrayList<>(currencies);
+    }
+
+    // Each pair's newest rate and its date, e.g. "EUR/USD" -> (2024-06-28, 1.0705)
+    public synchronized SortedMap<String, Map.Entry<LocalDate, Double>> latest() {
+        SortedMap<String, Map.Entry<LocalDate, Double>> latest = new TreeMap<>();
+        series.forEach((pair, rates) -> latest.put(pair,
+                Map.entry(LocalDate.ofEpochDay(rates.days[rates.size - 1]), rates.rates[rates.size - 1])));
+        return latest;
+    }
+
+    // Adds an account's buckets to a report, converting each one at its own day's rate. Buckets must be at most
+    // a period long, so a DAY bucket is re-filed under the start of the report's period.
+    public void addConverted(Map<String, SortedMap<LocalDate, ReportTotals>> report, SpendingBuckets.Period period,
+                             String group, long bucketDay, String fromCurrency, String toCurrency,
+                             long count, long paymentCents, long depositCents) {
+        LocalDate start = period.start(LocalDate.ofEpochDay(bucketDay));
+        long payment = convertCents(paymentCents, fromCurrency, toCurrency, bucketDay);
+        long deposit = convertCents(depositCents, fromCurrency, toCurrency, bucketDay);
+        report.computeIfAbsent(group, name -> new TreeMap<>()).computeIfAbsent(start, day -> new ReportTotals())
+                .add(count, payment, deposit);
+    }
+
+    private Leg[] route(String fromCurrency, String toCurrency) {
+        Leg direct = leg(fromCurrency, toCurrency);
+        if (direct != null) {
+            return new Leg[] {direct};
+        }
+        for (String via : currencies()) {
+            Leg first = leg(fromCurrency, via);
+            Leg second = first == null ? null : leg(via, toCurrency);
+            if (second != null) {
+                return new Leg[] {first, second};
+            }
+        }
+        return new Leg[0];
+    }
+
+    private Leg leg(String fromCurrency, String toCurrency) {
+        Series forward = series.get(pair(fromCurrency, toCurrency));
+        if (forward != null) {
+            return new Leg(forward, false);
+        }
+        Series backward = series.get(pair(toCurrency, fromCurrency));
+        return backward == null ? null : new Leg(backward, true);
+    }
+
+    private static String pair(String baseCurrency, String quoteCurrency) {
+        return baseCurrency + "/" + quoteCurrency;
+    }
+}
@@ -0,0 +1,479 @@
+package application;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A compressed set of non-negative ints (transaction ids) laid out like a Roaring bitmap. Ids are split by
+// their high 16 bits into chunks of 65536, and each chunk is a sorted array of the low 16 bits while it holds
+// at most ARRAY_MAX ids, or a 65536-bit bitmap once it holds more. A sparse chunk costs two bytes an id and a
+// dense one 8 KB, and AND, OR and AND NOT work chunk by chunk, 64 ids per word on dense chunks. Each chunk
+// serializes on its own, so a persisted bitmap is rewritten one chunk at a time.
+//
+// add() and remove() change the bitmap in place; and(), or() and andNot() return new bitmaps that share
+// nothing with their operands.
+public class IdBitmap {
+    static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    private static final class Container {
+        int cardinality;
+        char[] values;   // sorted, while cardinality <= ARRAY_MAX
+        long[] words;    // otherwise
+
+        static Container ofArray(char[] values, int cardinality) {
+            Container container = new Container();
+            container.values = values;
+            container.cardinality = cardinality;
+            return container;
+        }
+
+        // Picks the representation for the cardinality, so the ARRAY_MAX invariant holds after every operation
+        static Container ofWords(long[] words, int cardinality) {
+            if (cardinality <= ARRAY_MAX) {
+                char[] values = new char[Math.max(cardinality, 1)];
+                int n = 0;
+                for (int w = 0; w < WORDS; w++) {
+                    for (long word = words[w]; word != 0; word &= word - 1) {
+                        values[n++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+                    }
+                }
+                return ofArray(values, cardinality);
+            }
+            Container container = new Container();
+            container.words = words;
+            container.cardinality = cardinality;
+            return container;
+        }
+
+        boolean contains(char low) {
+            if (words != null) {
+                return (words[low >>> 6] & 1L << low) != 0;
+            }
+            return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+        }
+
+        boolean add(char low) {
+            if (words != null) {
+                long before = words[low >>> 6];
+                words[low >>> 6] = before | 1L << low;
+                if (before == words[low >>> 6]) {
+                    return false;
+                }
+                cardinality++;
+                return true;
+            }
+            int i = Arrays.binarySearch(values, 0, cardinality, low);
+            if (i >= 0) {
+                return false;
+            }
+            if (cardinality == ARRAY_MAX) {
+                words = toWords();
+                values = null;
+                words[low >>> 6] |= 1L << low;
+                cardinality++;
+                return true;
+            }
+            i = -i - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(4, cardinality * 2)));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = low;
+            cardinality++;
+            return true;
+        }
+
+        boolean remove(char low) {
+            if (words != null) {
+                long before = words[low >>> 6];
+                words[low >>> 6] = before & ~(1L << low);
+                if (before == words[low >>> 6]) {
+                    return false;
+                }
+                if (--cardinality <= ARRAY_MAX) {
+                    Container array = ofWords(words, cardinality);
+                    values = array.values;
+                    words = null;
+                }
+                return true;
+            }
+            int i = Arrays.binarySearch(values, 0, cardinality, low);
+            if (i < 0) {
+                return false;
+            }
+            System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+            cardinality--;
+            return true;
+        }
+
+        long[] toWords() {
+            if (words != null) {
+                return words.clone();
+            }
+            long[] copy = new long[WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                copy[values[i] >>> 6] |= 1L << values[i];
+            }
+            return copy;
+        }
+
+        Container copy() {
+            return words != null ? ofWords(words.clone(), cardinality) : ofArray(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+        }
+
+        // Writes count ids, in order and after skipping the first skip, into out from outOffset
+        void copyTo(int high, int skip, int[] out, int outOffset, int count) {
+            int n = 0;
+            int seen = 0;
+            if (words == null) {
+                for (int i = skip; i < cardinality && n < count; i++) {
+                    out[outOffset + n++] = high << 16 | values[i];
+                }
+                return;
+            }
+            for (int w = 0; w < WORDS && n < count; w++) {
+                for (long word = words[w]; word != 0 && n < count; word &= word - 1) {
+                    if (seen++ >= skip) {
+                        out[outOffset + n++] = high << 16 | w << 6 | Long.numberOfTrailingZeros(word);
+                    }
+                }
+            }
+        }
+
+        static Container and(Container a, Container b) {
+            if (a.words != null && b.words != null) {
+                long[] words = new long[WORDS];
+                int cardinality = 0;
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] = a.words[w] & b.words[w];
+                    cardinality += Long.bitCount(words[w]);
+                }
+                return cardinality == 0 ? null : ofWords(words, cardinality);
+            }
+            if (a.words != null) {
+                Container swap = a;
+                a = b;
+                b = swap;
+            }
+            // a is an array: keep the values b has too
+            char[] values = new char[Math.max(a.cardinality, 1)];
+            int n = 0;
+            if (b.words != null) {
+                for (int i = 0; i < a.cardinality; i++) {
+                    if ((b.words[a.values[i] >>> 6] & 1L << a.values[i]) != 0) {
+                        values[n++] = a.values[i];
+                    }
+                }
+            } else {
+                for (int i = 0, j = 0; i < a.cardinality && j < b.cardinality; ) {
+                    if (a.values[i] < b.values[j]) {
+                        i++;
+                    } else if (a.values[i] > b.values[j]) {
+                        j++;
+                    } else {
+                        values[n++] = a.values[i++];
+                        j++;
+                    }
+                }
+            }
+            return n == 0 ? null : ofArray(values, n);
+        }
+
+        static Container andNot(Container a, Container b) {
+            if (a.words != null) {
+                long[] words = a.words.clone();
+                int cardinality = 0;
+                if (b.words != null) {
+                    for (int w = 0; w < WORDS; w++) {
+                        words[w] &= ~b.words[w];
+                        cardinality += Long.bitCount(words[w]);
+                    }
+                } else {
+                    cardinality = a.cardinality;
+                    for (int i = 0; i < b.cardinality; i++) {
+                        long bit = 1L << b.values[i];
+                        if ((words[b.values[i] >>> 6] & bit) != 0) {
+                            words[b.values[i] >>> 6] &= ~bit;
+                            cardinality--;
+                        }
+                    }
+                }
+                return cardinality == 0 ? null : ofWords(words, cardinality);
+            }
+            char[] values = new char[Math.max(a.cardinality, 1)];
+            int n = 0;
+            if (b.words != null) {
+                for (int i = 0; i < a.cardinality; i++) {
+                    if ((b.words[a.values[i] >>> 6] & 1L << a.values[i]) == 0) {
+                        values[n++] = a.values[i];
+                    }
+                }
+            } else {
+                int j = 0;
+                for (int i = 0; i < a.cardinality; i++) {
+                    while (j < b.cardinality && b.values[j] < a.values[i]) {
+                        j++;
+                    }
+                    if (j == b.cardinality || b.values[j] != a.values[i]) {
+                        values[n++] = a.values[i];
+                    }
+                }
+            }
+            return n == 0 ? null : ofArray(values, n);
+        }
+
+        // Small unions merge sorted arrays; larger ones OR into a bitmap
+        static Container or(List<Container> parts) {
+            int total = 0;
+            boolean anyWords = false;
+            for (Container part : parts) {
+                total += part.cardinality;
+                anyWords |= part.words != null;
+            }
+            if (!anyWords && total <= ARRAY_MAX) {
+                char[] merged = Arrays.copyOf(parts.get(0).values, Math.max(total, 1));
+                int n = parts.get(0).cardinality;
+                for (int p = 1; p < parts.size(); p++) {
+                    n = merge(merged, n, parts.get(p));
+                }
+                return ofArray(merged, n);
+            }
+            long[] words = new long[WORDS];
+            for (Container part : parts) {
+                if (part.words != null) {
+                    for (int w = 0; w < WORDS; w++) {
+                        words[w] |= part.words[w];
+                    }
+                } else {
+                    for (int i = 0; i < part.cardinality; i++) {
+                        words[part.values[i] >>> 6] |= 1L << part.values[i];
+                    }
+                }
+            }
+            int cardinality = 0;
+            for (long word : words) {
+                cardinality += Long.bitCount(word);
+            }
+            return ofWords(words, cardinality);
+        }
+
+        // Merges b's values into the first n of target, which has room for both; returns the new count
+        private static int merge(char[] target, int n, Container b) {
+            char[] a = Arrays.copyOf(target, n);
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < n || j < b.cardinality) {
+                if (j == b.cardinality || (i < n && a[i] < b.values[j])) {
+                    target[k++] = a[i++];
+                } else if (i == n || b.values[j] < a[i]) {
+                    target[k++] = b.values[j++];
+                } else {
+                    target[k++] = a[i++];
+                    j++;
+                }
+            }
+            return k;
+        }
+    }
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    public boolean add(int id) {
+        int i = find((char) (id >>> 16));
+        if (i < 0) {
+            i = -i - 1;
+            insert(i, (char) (id >>> 16), Container.ofArray(new char[4], 0));
+        }
+        return containers[i].add((char) id);
+    }
+
+    public boolean remove(int id) {
+        int i = find((char) (id >>> 16));
+        if (i < 0 || !containers[i].remove((char) id)) {
+            return false;
+        }
+        if (containers[i].cardinality == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+            containers[--size] = null;
+        }
+        return true;
+    }
+
+    public boolean contains(int id) {
+        int i = find((char) (id >>> 16));
+        return i >= 0 && containers[i].contains((char) id);
+    }
+
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality;
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public IdBitmap copy() {
+        IdBitmap copy = new IdBitmap();
+        for (int i = 0; i < size; i++) {
+            copy.append(keys[i], containers[i].copy());
+        }
+        return copy;
+    }
+
+    public IdBitmap and(IdBitmap other) {
+        IdBitmap result = new IdBitmap();
+        for (int i = 0, j = 0; i < size && j < other.size; ) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                result.append(keys[i], Container.and(containers[i++], other.containers[j++]));
+            }
+        }
+        return result;
+    }
+
+    public IdBitmap andNot(IdBitmap other) {
+        IdBitmap result = new IdBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            boolean shared = j < other.size && other.keys[j] == keys[i];
+            result.append(keys[i], shared ? Container.andNot(containers[i], other.containers[j]) : containers[i].copy());
+        }
+        return result;
+    }
+
+    public IdBitmap or(IdBitmap other) {
+        return or(List.of(this, other));
+    }
+
+    // Unions any number of bitmaps a chunk at a time, so each chunk of the result is built once
+    public static IdBitmap or(List<IdBitmap> bitmaps) {
+        IdBitmap result = new IdBitmap();
+        int[] positions = new int[bitmaps.size()];
+        List<Container> parts = new ArrayList<>();
+        while (true) {
+            int key = Integer.MAX_VALUE;
+            for (int b = 0; b < bitmaps.size(); b++) {
+                if (positions[b] < bitmaps.get(b).size) {
+                    key = Math.min(key, bitmaps.get(b).keys[positions[b]]);
+                }
+            }
+            if (key == Integer.MAX_VALUE) {
+                return result;
+            }
+            parts.clear();
+            for (int b = 0; b < bitmaps.size(); b++) {
+                IdBitmap bitmap = bitmaps.get(b);
+                if (positions[b] < bitmap.size && bitmap.keys[positions[b]] == key) {
+                    parts.add(bitmap.containers[positions[b]++]);
+                }
+            }
+            result.append((char) key, parts.size() == 1 ? parts.get(0).copy() : Container.or(parts));
+        }
+    }
+
+    // Up to limit ids in ascending order, skipping the first offset
+    public int[] select(int offset, int limit) {
+        int[] ids = new int[Math.max(0, Math.min(limit, cardinality() - offset))];
+        int n = 0;
+        for (int i = 0; i < size && n < ids.length; i++) {
+            if (offset >= containers[i].cardinality) {
+                offset -= containers[i].cardinality;
+                continue;
+            }
+            int count = Math.min(ids.length - n, containers[i].cardinality - offset);
+            containers[i].copyTo(keys[i], offset, ids, n, count);
+            n += count;
+            offset = 0;
+        }
+        return ids;
+    }
+
+    public int[] toArray() {
+        return select(0, Integer.MAX_VALUE);
+    }
+
+    // The chunk holding ids whose high 16 bits are the given value, for persisting it; null when it is empty.
+    // Arrays are two bytes a value and bitmaps 1024 words, little-endian; chunkCardinality() tells them apart.
+    public byte[] chunk(int high) {
+        int i = find((char) high);
+        if (i < 0) {
+            return null;
+        }
+        Container container = containers[i];
+        ByteBuffer buffer;
+        if (container.words != null) {
+            buffer = ByteBuffer.allocate(WORDS * 8).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asLongBuffer().put(container.words);
+        } else {
+            buffer = ByteBuffer.allocate(container.cardinality * 2).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asCharBuffer().put(container.values, 0, container.cardinality);
+        }
+        return buffer.array();
+    }
+
+    public int chunkCardinality(int high) {
+        int i = find((char) high);
+        return i < 0 ? 0 : containers[i].cardinality;
+    }
+
+    // Replaces a chunk with one read back from chunk()
+    public void putChunk(int high, byte[] bytes, int cardinality) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        Container container;
+        if (cardinality > ARRAY_MAX) {
+            long[] words = new long[WORDS];
+            buffer.asLongBuffer().get(words);
+            container = Container.ofWords(words, cardinality);
+        } else {
+            char[] values = new char[Math.max(cardinality, 1)];
+            buffer.asCharBuffer().get(values, 0, cardinality);
+            container = Container.ofArray(values, cardinality);
+        }
+        int i = find((char) high);
+        if (i >= 0) {
+            containers[i] = container;
+        } else {
+            insert(-i - 1, (char) high, container);
+        }
+    }
+
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int i, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = container;
+        size++;
+    }
+
+    // Adds a chunk after every existing one; empty (null) chunks are dropped
+    private void append(char key, Container container) {
+        if (container != null) {
+            insert(size, key, container);
+        }
+    }
+}
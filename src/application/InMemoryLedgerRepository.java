@@ -0,0 +1,538 @@
+package application;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Heap-only LedgerRepository with the same semantics as the SQLite implementation.
+// Transactions are kept in a skip list ordered by (date DESC, id DESC) so listing is a plain in-order scan,
+// with per-account and per-type secondary indexes in the same order. Writers serialize on this object;
+// readers never lock and may observe a write that is only partially applied across indexes.
+public class InMemoryLedgerRepository implements LedgerRepository {
+
+    // Sort key matching "ORDER BY transaction_date DESC, id DESC"
+    private static final class TransactionKey implements Comparable<TransactionKey> {
+        final long dateMillis;
+        final int id;
+
+        TransactionKey(long dateMillis, int id) {
+            this.dateMillis = dateMillis;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(TransactionKey other) {
+            int byDate = Long.compare(other.dateMillis, dateMillis);
+            return byDate != 0 ? byDate : Integer.compare(other.id, id);
+        }
+    }
+
+    private final AtomicInteger nextAccountId = new AtomicInteger(1);
+    private final AtomicInteger nextTransactionId = new AtomicInteger(1);
+    private final AtomicInteger nextScheduleId = new AtomicInteger(1);
+    private final AtomicInteger nextTransactionTypeId = new AtomicInteger(1);
+
+    private final ConcurrentSkipListMap<Integer, Account> accountsById = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Integer, String> transactionTypesById = new ConcurrentSkipListMap<>();
+    private final Set<String> transactionTypeNames = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentSkipListMap<TransactionKey, Transaction> transactionsByDate = new ConcurrentSkipListMap<>();
+    private final Map<Integer, TransactionKey> transactionKeysById = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<TransactionKey, Transaction>> transactionsByAccount = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<TransactionKey, Transaction>> transactionsByType = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListSet<Integer>> transactionIdsByDescription = new ConcurrentHashMap<>();
+    private final DuplicateIndex duplicates = new DuplicateIndex();
+    private final TypeClassifier classifier = new TypeClassifier();
+    private final SpendingBuckets spending = new SpendingBuckets();
+    private final BalanceIndex balances = new BalanceIndex();
+    private final TagIndex tags = new TagIndex();
+    private final BudgetTracker budgets = new BudgetTracker();
+    private final ExchangeRates rates = new ExchangeRates();
+    // Bumped by index() and unindex(), so the window's sorted copy is rebuilt after any write
+    private final AtomicLong transactionsVersion = new AtomicLong();
+    private final TransactionSort.Window sortedWindow = new TransactionSort.Window();
+
+    private final ConcurrentSkipListMap<Integer, ScheduledTransaction> schedulesById = new ConcurrentSkipListMap<>();
+    private final Map<String, ConcurrentSkipListSet<Integer>> scheduleIdsByName = new ConcurrentHashMap<>();
+
+    public InMemoryLedgerRepository() {
+        // Every row is on the heap, so the tag index follows the live rows from the start
+        tags.clearRows();
+    }
+
+    // Accounts
+
+    @Override
+    public synchronized boolean createAccount(String name, Date openingDate, double openingBalance, String currency) {
+        accountsById.put(nextAccountId.getAndIncrement(), new Account(name, openingDate, openingBalance, ExchangeRates.normalize(currency)));
+        balances.setOpening(name, openingDate.toLocalDate(), openingBalance);
+        return true;
+    }
+
+    @Override
+    public boolean accountExists(String accountName) {
+        for (Account account : accountsById.values()) {
+            if (account.getName().equals(accountName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean deleteAccount(String accountName) {
+        if (!accountsById.values().removeIf(account -> account.getName().equals(accountName))) {
+            return false;
+        }
+        balances.removeOpening(accountName);
+        return true;
+    }
+
+    @Override
+    public List<String> getAllAccountNames() {
+        List<String> names = new ArrayList<>();
+        for (Account account : accountsById.values()) {
+            names.add(account.getName());
+        }
+        return names;
+    }
+
+    @Override
+    public List<Account> getAllAccountDetails() {
+        List<Account> accounts = new ArrayList<>(accountsById.values());
+        accounts.sort(Comparator.comparing(Account::getOpeningDate).reversed());
+        return accounts;
+    }
+
+    // Transaction types
+
+    @Override
+    public synchronized boolean addTransactionType(String typeName) {
+        if (!transactionTypeNames.add(typeName)) {
+            return false;
+        }
+        transactionTypesById.put(nextTransactionTypeId.getAndIncrement(), typeName);
+        return true;
+    }
+
+    @Override
+    public boolean transactionTypeExists(String transactionType) {
+        return transactionTypeNames.contains(transactionType);
+    }
+
+    @Override
+    public List<String> getAllTransactionTypes() {
+        return new ArrayList<>(transactionTypesById.values());
+    }
+
+    // Transactions
+
+    @Override
+    public synchronized boolean saveTransaction(String accountName, String transactionType, Date transactionDate,
+                                                String description, double paymentAmount, double depositAmount,
+                                                Collection<String> tagNames) {
+        Transaction transaction = new Transaction(accountName, transactionType, transactionDate,
+                description, paymentAmount, depositAmount);
+        transaction.setId(nextTransactionId.getAndIncrement());
+        index(transaction);
+        budgets.publish();
+        setTransactionTags(transaction.getId(), tagNames);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean updateTransaction(String originalAccountName, Date originalTransactionDate, String originalDescription,
+                                                  String newAccountName, String transactionType,
+                                                  Date newTransactionDate, String newDescription,
+                                                  double paymentAmount, double depositAmount) {
+        Transaction original = findTransaction(originalAccountName, originalTransactionDate, originalDescription);
+        if (original == null) {
+            return false;
+        }
+        unindex(original);
+        Transaction updated = new Transaction(newAccountName, transactionType, newTransactionDate,
+                newDescription, paymentAmount, depositAmount);
+        updated.setId(original.getId());
+        index(updated);
+        budgets.publish();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean deleteTransaction(String description) {
+        Set<Integer> ids = transactionIdsByDescription.get(description);
+        if (ids == null || ids.isEmpty()) {
+            return false;
+        }
+        for (Integer id : new ArrayList<>(ids)) {
+            unindex(transactionsByDate.get(transactionKeysById.get(id)));
+            setTransactionTags(id, List.of());
+        }
+        budgets.publish();
+        return true;
+    }
+
+    @Override
+    public List<Transaction> getTransactions() {
+        return new ArrayList<>(transactionsByDate.values());
+    }
+
+    // Mirrors SQLite's LIKE '%term%', which is case-insensitive for ASCII
+    @Override
+    public List<Transaction> searchTransactions(String searchTerm) {
+        String needle = searchTerm.toLowerCase();
+        List<Transaction> results = new ArrayList<>();
+        for (Transaction transaction : transactionsByDate.values()) {
+            if (transaction.getDescription() != null && transaction.getDescription().toLowerCase().contains(needle)) {
+                results.add(transaction);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<Transaction> getTransactionsByType(String transactionType) {
+        NavigableMap<TransactionKey, Transaction> rows = transactionsByType.get(transactionType);
+        return rows == null ? new ArrayList<>() : new ArrayList<>(rows.values());
+    }
+
+    @Override
+    public List<Transaction> getTransactionsByAccount(String accountName) {
+        NavigableMap<TransactionKey, Transaction> rows = transactionsByAccount.get(accountName);
+        return rows == null ? new ArrayList<>() : new ArrayList<>(rows.values());
+    }
+
+    // The skip list runs newest first, so the range is (end of "to", end of "from"]
+    @Override
+    public List<Transaction> getTransactionsBetween(LocalDate from, LocalDate to) {
+        TransactionKey afterTo = new TransactionKey(Date.valueOf(to.plusDays(1)).getTime(), Integer.MIN_VALUE);
+        TransactionKey endOfFrom = new TransactionKey(Date.valueOf(from).getTime(), Integer.MIN_VALUE);
+        if (afterTo.compareTo(endOfFrom) >= 0) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(transactionsByDate.subMap(afterTo, false, endOfFrom, true).values());
+    }
+
+    @Override
+    public List<Transaction> findLikelyDuplicates(String accountName, Date transactionDate, String description,
+                                                  double paymentAmount, double depositAmount) {
+        long fingerprint = DuplicateIndex.fingerprint(accountName, description, paymentAmount, depositAmount);
+        LocalDate date = transactionDate.toLocalDate();
+        if (!duplicates.containsNear(fingerprint, date.toEpochDay())) {
+            return new ArrayList<>();
+        }
+        return DuplicateIndex.matching(getTransactionsBetween(date.minusDays(DuplicateIndex.TOLERANCE_DAYS),
+                date.plusDays(DuplicateIndex.TOLERANCE_DAYS)), fingerprint);
+    }
+
+    @Override
+    public List<Transaction> flagLikelyDuplicates(List<Transaction> candidates) {
+        return duplicates.flag(candidates);
+    }
+
+    @Override
+    public String suggestTransactionType(String description) {
+        return classifier.suggest(description);
+    }
+
+    @Override
+    public List<String> suggestTransactionTypes(List<String> descriptions) {
+        return classifier.suggestAll(descriptions);
+    }
+
+    @Override
+    public double getBalanceOn(String accountName, LocalDate date) {
+        return balances.balanceOn(accountName, date);
+    }
+
+    @Override
+    public double getNetChange(String accountName, LocalDate from, LocalDate to) {
+        return balances.netChange(accountName, from, to);
+    }
+
+    @Override
+    public Map<String, SortedMap<LocalDate, ReportTotals>> getSpendingOverTime(SpendingBuckets.Period period,
+                                                                              ReportEngine.GroupBy groupBy,
+                                                                              LocalDate from, LocalDate to) {
+        return spending.query(period, groupBy, from, to);
+    }
+
+    @Override
+    public Map<String, SortedMap<LocalDate, ReportTotals>> getSpendingOverTime(SpendingBuckets.Period period,
+                                                                              ReportEngine.GroupBy groupBy,
+                                                                              LocalDate from, LocalDate to,
+                                                                              String reportingCurrency) {
+        // Transactions of a deleted account stay in its buckets; they count as the default currency
+        Map<String, String> currencies = new HashMap<>();
+        for (Account account : accountsById.values()) {
+            currencies.put(account.getName(), account.getCurrency());
+        }
+        return spending.query(period, groupBy, from, to,
+                accountName -> currencies.getOrDefault(accountName, ExchangeRates.DEFAULT_CURRENCY), reportingCurrency, rates);
+    }
+
+    @Override
+    public boolean setExchangeRate(String baseCurrency, String quoteCurrency, LocalDate date, double rate) {
+        rates.put(ExchangeRates.normalize(baseCurrency), ExchangeRates.normalize(quoteCurrency), date, rate);
+        return true;
+    }
+
+    @Override
+    public ExchangeRates getExchangeRates() {
+        return rates;
+    }
+
+    @Override
+    public boolean setBudget(String transactionType, String accountName, double monthlyLimit) {
+        budgets.setLimit(transactionType, accountName, ReportTotals.toCents(monthlyLimit));
+        return true;
+    }
+
+    @Override
+    public boolean deleteBudget(String transactionType, String accountName) {
+        return budgets.removeLimit(transactionType, accountName);
+    }
+
+    @Override
+    public List<BudgetTracker.Status> getBudgetStatus(LocalDate month) {
+        return budgets.status(month);
+    }
+
+    @Override
+    public void setBudgetListener(BudgetTracker.Listener listener) {
+        budgets.setListener(listener);
+    }
+
+    @Override
+    public Set<String> getTransactionTags(int transactionId) {
+        return tags.tagsOf(transactionId);
+    }
+
+    @Override
+    public synchronized boolean setTransactionTags(int transactionId, Collection<String> tagNames) {
+        Set<String> wanted = TagIndex.normalizeAll(tagNames);
+        for (String tag : tags.tagsOf(transactionId)) {
+            if (!wanted.contains(tag)) {
+                tags.untag(transactionId, tag);
+            }
+        }
+        for (String tag : wanted) {
+            tags.tag(transactionId, tag);
+        }
+        return true;
+    }
+
+    @Override
+    public List<String> getAllTags() {
+        return tags.tagNames();
+    }
+
+    @Override
+    public IdBitmap matchTransactions(TagQuery query, String accountName, LocalDate from, LocalDate to) {
+        return tags.match(query, accountName, from, to);
+    }
+
+    @Override
+    public List<Transaction> getTransactionsByIds(int[] ids) {
+        List<Transaction> transactions = new ArrayList<>();
+        for (int id : ids) {
+            TransactionKey key = transactionKeysById.get(id);
+            Transaction transaction = key == null ? null : transactionsByDate.get(key);
+            if (transaction != null) {
+                transactions.add(transaction);
+            }
+        }
+        transactions.sort(TransactionSort.comparator(List.of()));
+        return transactions;
+    }
+
+    @Override
+    public int countTransactions(String accountName, String transactionType) {
+        return filteredTransactions(accountName, transactionType).size();
+    }
+
+    @Override
+    public List<Transaction> getTransactionPage(String accountName, String transactionType, List<TransactionSort> order,
+                                                int offset, int limit) {
+        return sortedWindow.page(() -> new ArrayList<>(filteredTransactions(accountName, transactionType)), order,
+                transactionsVersion.get(), accountName, transactionType, offset, limit);
+    }
+
+    // A view of the matching rows, newest first
+    private Collection<Transaction> filteredTransactions(String accountName, String transactionType) {
+        if (accountName == null) {
+            if (transactionType == null) {
+                return transactionsByDate.values();
+            }
+            NavigableMap<TransactionKey, Transaction> rows = transactionsByType.get(transactionType);
+            return rows == null ? Collections.emptyList() : rows.values();
+        }
+        NavigableMap<TransactionKey, Transaction> rows = transactionsByAccount.get(accountName);
+        if (rows == null) {
+            return Collections.emptyList();
+        }
+        if (transactionType == null) {
+            return rows.values();
+        }
+        List<Transaction> matching = new ArrayList<>();
+        for (Transaction transaction : rows.values()) {
+            if (transactionType.equals(transaction.getTransactionType())) {
+                matching.add(transaction);
+            }
+        }
+        return matching;
+    }
+
+    // Lowest id wins, like the SELECT in DatabaseHelper.findTransactionId
+    private Transaction findTransaction(String accountName, Date transactionDate, String description) {
+        Set<Integer> ids = transactionIdsByDescription.get(description);
+        if (ids == null) {
+            return null;
+        }
+        for (Integer id : ids) {
+            Transaction candidate = transactionsByDate.get(transactionKeysById.get(id));
+            if (candidate != null && candidate.getAccountName().equals(accountName)
+                    && candidate.getTransactionDate().getTime() == transactionDate.getTime()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private void index(Transaction transaction) {
+        TransactionKey key = new TransactionKey(transaction.getTransactionDate().getTime(), transaction.getId());
+        transactionsByDate.put(key, transaction);
+        transactionKeysById.put(transaction.getId(), key);
+        transactionsByAccount.computeIfAbsent(transaction.getAccountName(), k -> new ConcurrentSkipListMap<>()).put(key, transaction);
+        transactionsByType.computeIfAbsent(transaction.getTransactionType(), k -> new ConcurrentSkipListMap<>()).put(key, transaction);
+        transactionIdsByDescription.computeIfAbsent(transaction.getDescription(), k -> new ConcurrentSkipListSet<>()).add(transaction.getId());
+        duplicates.add(DuplicateIndex.fingerprint(transaction), DuplicateIndex.epochDay(transaction.getTransactionDate()));
+        classifier.learn(transaction.getTransactionType(), transaction.getDescription());
+        spending.add(transaction, 1);
+        balances.add(transaction.getAccountName(), transaction.getTransactionDate().toLocalDate(),
+                transaction.getPaymentAmount(), transaction.getDepositAmount(), 1);
+        tags.addRow(transaction.getId(), transaction.getAccountName(), transaction.getTransactionDate().toLocalDate());
+        budgets.add(transaction.getAccountName(), transaction.getTransactionType(), transaction.getTransactionDate().toLocalDate(),
+                transaction.getPaymentAmount(), transaction.getDepositAmount(), 1);
+        transactionsVersion.incrementAndGet();
+    }
+
+    private void unindex(Transaction transaction) {
+        TransactionKey key = transactionKeysById.remove(transaction.getId());
+        transactionsByDate.remove(key);
+        transactionsByAccount.get(transaction.getAccountName()).remove(key);
+        transactionsByType.get(transaction.getTransactionType()).remove(key);
+        transactionIdsByDescription.get(transaction.getDescription()).remove(transaction.getId());
+        duplicates.remove(DuplicateIndex.fingerprint(transaction), DuplicateIndex.epochDay(transaction.getTransactionDate()));
+        classifier.forget(transaction.getTransactionType(), transaction.getDescription());
+        spending.add(transaction, -1);
+        balances.add(transaction.getAccountName(), transaction.getTransactionDate().toLocalDate(),
+                transaction.getPaymentAmount(), transaction.getDepositAmount(), -1);
+        tags.removeRow(transaction.getId(), transaction.getAccountName(), transaction.getTransactionDate().toLocalDate());
+        budgets.add(transaction.getAccountName(), transaction.getTransactionType(), transaction.getTransactionDate().toLocalDate(),
+                transaction.getPaymentAmount(), transaction.getDepositAmount(), -1);
+        transactionsVersion.incrementAndGet();
+    }
+
+    // Scheduled transactions
+
+    @Override
+    public synchronized boolean saveScheduledTransaction(String scheduleName, String accountName, String transactionType,
+                                                         RecurrenceRule recurrence, double paymentAmount) {
+        int id = nextScheduleId.getAndIncrement();
+        schedulesById.put(id, new ScheduledTransaction(scheduleName, accountName, transactionType, recurrence, paymentAmount));
+        scheduleIdsByName.computeIfAbsent(scheduleName, k -> new ConcurrentSkipListSet<>()).add(id);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean updateScheduledTransaction(String originalName, String scheduleName, String accountName,
+                                                           String transactionType, RecurrenceRule recurrence, double paymentAmount) {
+        Set<Integer> ids = scheduleIdsByName.remove(originalName);
+        if (ids == null || ids.isEmpty()) {
+            return false;
+        }
+        for (Integer id : ids) {
+            schedulesById.put(id, new ScheduledTransaction(scheduleName, accountName, transactionType, recurrence, paymentAmount));
+            scheduleIdsByName.computeIfAbsent(scheduleName, k -> new ConcurrentSkipListSet<>()).add(id);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean deleteScheduledTransaction(String scheduleName) {
+        Set<Integer> ids = scheduleIdsByName.remove(scheduleName);
+        if (ids == null || ids.isEmpty()) {
+            return false;
+        }
+        for (Integer id : ids) {
+            schedulesById.remove(id);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean scheduleNameExists(String scheduleName) {
+        Set<Integer> ids = scheduleIdsByName.get(scheduleName);
+        return ids != null && !ids.isEmpty();
+    }
+
+    @Override
+    public List<ScheduledTransaction> getScheduledTransactions() {
+        List<ScheduledTransaction> schedules = new ArrayList<>(schedulesById.values());
+        schedules.sort(Comparator.comparingInt(ScheduledTransaction::getDueDate));
+        return schedules;
+    }
+
+    @Override
+    public List<ScheduledTransaction> searchScheduledTransactions(String searchTerm) {
+        String needle = searchTerm.toLowerCase();
+        List<ScheduledTransaction> results = new ArrayList<>();
+        for (ScheduledTransaction schedule : getScheduledTransactions()) {
+            if (schedule.getScheduleName().toLowerCase().contains(needle)) {
+                results.add(schedule);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<ScheduledTransaction> getScheduledTransactionsDueToday() {
+        LocalDate today = LocalDate.now();
+        List<ScheduledTransaction> results = new ArrayList<>();
+        for (ScheduledTransaction schedule : schedulesById.values()) {
+            if (schedule.getRecurrence().occursOn(today)) {
+                results.add(schedule);
+            }
+        }
+        return results;
+    }
+
+    // A fresh pass each time, oldest first; the heap copy is cheap to walk
+    @Override
+    public List<RecurringPaymentFinder.Proposal> findRecurringPayments() {
+        RecurringPaymentFinder finder = new RecurringPaymentFinder();
+        for (Transaction transaction : transactionsByDate.descendingMap().values()) {
+            finder.add(transaction);
+        }
+        return finder.proposals();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,328 @@
+package application;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Checks that every LedgerRepository backend means the same thing: DatabaseHelper, plain and partitioned by
+// year, and InMemoryLedgerRepository.
+//
+// Usage: java -cp <app classpath> application.LedgerConformanceCheck
+//
+// Runs one scripted workload (types, accounts, a few hundred saves, budgets, a rate, tags, edits within and
+// across years, deletes and schedules) against each backend, each SQLite one in a temp directory. After every
+// step it calls every read method the interface has and renders the results as text; each backend's text, and
+// what its writes returned, must match plain SQLite's. Differences are printed per step and read, and the exit
+// status is 1, so a build step running the check fails. Amounts are compared to the cent.
+public class LedgerConformanceCheck {
+    private static final String[] TYPES = {"Groceries", "Rent", "Utilities", "Salary", "Dining", "Travel"};
+    private static final int ACCOUNTS = 5;
+    private static final int ROWS = 300;
+    private static final LocalDate FIRST = LocalDate.of(2023, 1, 1);
+    // Enough differences to see the pattern without drowning it
+    private static final int MAX_REPORTED = 40;
+
+    // One step of the workload, applied to each backend in turn; returns what its writes returned
+    private interface Step {
+        String apply(LedgerRepository repository);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, Step> script = script();
+        List<Path> directories = new ArrayList<>();
+        Map<String, LedgerRepository> backends = new LinkedHashMap<>();
+        try {
+            backends.put("sqlite", openSqlite(directories, false));
+            backends.put("partitioned", openSqlite(directories, true));
+            backends.put("memory", new InMemoryLedgerRepository());
+
+            List<String> differences = new ArrayList<>();
+            int reads = 0;
+            for (Map.Entry<String, Step> step : script.entrySet()) {
+                Map<String, Map<String, String>> results = new LinkedHashMap<>();
+                for (Map.Entry<String, LedgerRepository> backend : backends.entrySet()) {
+                    Map<String, String> observed = new LinkedHashMap<>();
+                    observed.put("returned", step.getValue().apply(backend.getValue()));
+                    observed.putAll(snapshot(backend.getValue()));
+                    results.put(backend.getKey(), observed);
+                }
+                Map<String, String> expected = results.get("sqlite");
+                reads += expected.size();
+                for (Map.Entry<String, Map<String, String>> backend : results.entrySet()) {
+                    for (Map.Entry<String, String> read : expected.entrySet()) {
+                        String actual = backend.getValue().get(read.getKey());
+                        if (!read.getValue().equals(actual)) {
+                            differences.add(String.format("[%s] after %s, %s:%n  sqlite:  %s%n  %-8s %s", backend.getKey(),
+                                    step.getKey(), read.getKey(), abbreviate(read.getValue()), backend.getKey() + ":",
+                                    abbreviate(actual)));
+                        }
+                    }
+                }
+            }
+
+            for (String difference : differences.subList(0, Math.min(MAX_REPORTED, differences.size()))) {
+                System.out.println(difference);
+                System.out.println();
+            }
+            if (!differences.isEmpty()) {
+                System.out.printf("%d reads differ between backends (%d shown)%n", differences.size(),
+                        Math.min(MAX_REPORTED, differences.size()));
+                System.exit(1);
+            }
+            System.out.printf("%d backends agree on %d reads over %d steps%n", backends.size(), reads, script.size());
+        } finally {
+            for (LedgerRepository repository : backends.values()) {
+                repository.close();
+            }
+            for (Path directory : directories) {
+                try (Stream<Path> files = Files.walk(directory)) {
+                    for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        }
+    }
+
+    private static DatabaseHelper openSqlite(List<Path> directories, boolean partitioned) throws IOException {
+        Path directory = Files.createTempDirectory("centsible-conformance");
+        directories.add(directory);
+        String previous = System.getProperty(TransactionPartitions.PROPERTY);
+        try {
+            if (partitioned) {
+                System.setProperty(TransactionPartitions.PROPERTY, "year");
+            }
+            return new DatabaseHelper(directory.resolve(DatabaseHelper.DATABASE_FILE).toString());
+        } finally {
+            if (previous == null) {
+                System.clearProperty(TransactionPartitions.PROPERTY);
+            } else {
+                System.setProperty(TransactionPartitions.PROPERTY, previous);
+            }
+        }
+    }
+
+    // The workload in order; every write's result is part of what is compared
+    private static Map<String, Step> script() {
+        Map<String, Step> script = new LinkedHashMap<>();
+        script.put("adding types", repository -> {
+            List<Object> results = new ArrayList<>();
+            for (String type : TYPES) {
+                results.add(repository.addTransactionType(type));
+            }
+            results.add(repository.addTransactionType("Rent"));
+            return results.toString();
+        });
+        script.put("creating accounts", repository -> {
+            List<Object> results = new ArrayList<>();
+            for (int account = 0; account < ACCOUNTS; account++) {
+                results.add(repository.createAccount("Account " + account, Date.valueOf(FIRST.plusDays(account)), 100 * account,
+                        account == ACCOUNTS - 1 ? "EUR" : "USD"));
+            }
+            return results.toString();
+        });
+        script.put("saving transactions", repository -> {
+            Random random = new Random(42);
+            List<Object> results = new ArrayList<>();
+            for (int i = 0; i < ROWS; i++) {
+                boolean payment = random.nextInt(4) != 0;
+                List<String> tags = i % 11 == 0 ? List.of("Work", "travel") : List.of();
+                results.add(repository.saveTransaction("Account " + random.nextInt(ACCOUNTS), TYPES[random.nextInt(TYPES.length)],
+                        Date.valueOf(FIRST.plusDays(random.nextInt(2 * 365))), "Payee " + random.nextInt(60),
+                        payment ? random.nextInt(50_000) / 100.0 : 0, payment ? 0 : random.nextInt(300_000) / 100.0, tags));
+            }
+            return results.stream().distinct().collect(Collectors.toList()).toString();
+        });
+        script.put("saving a monthly payment", repository -> {
+            List<Object> results = new ArrayList<>();
+            for (int month = 0; month < 8; month++) {
+                results.add(repository.saveTransaction("Account 1", "Rent", Date.valueOf(FIRST.plusMonths(month).withDayOfMonth(3)),
+                        "Landlord", 950, 0));
+            }
+            return results.toString();
+        });
+        script.put("setting budgets", repository -> List.of(repository.setBudget("Dining", null, 400),
+                repository.setBudget("Dining", "Account 1", 150), repository.setBudget("Groceries", "Account 2", 90)).toString());
+        script.put("saving over a budget", repository -> String.valueOf(repository.saveTransaction("Account 1", "Dining",
+                Date.valueOf(FIRST.plusMonths(2)), "Bistro", 200, 0)));
+        script.put("setting an exchange rate", repository -> List.of(repository.setExchangeRate("EUR", "USD", FIRST, 1.1),
+                repository.setExchangeRate("EUR", "USD", FIRST.plusMonths(6), 1.2)).toString());
+        script.put("tagging", repository -> {
+            List<Object> results = new ArrayList<>();
+            for (int id = 1; id <= ROWS; id += 13) {
+                results.add(repository.setTransactionTags(id, id % 3 == 0 ? List.of("work", "home") : List.of("home")));
+            }
+            results.add(repository.setTransactionTags(12, List.of()));
+            return results.toString();
+        });
+        script.put("editing within a year", repository -> {
+            Transaction first = repository.getTransactionsByAccount("Account 2").get(3);
+            return String.valueOf(repository.updateTransaction(first.getAccountName(), first.getTransactionDate(),
+                    first.getDescription(), "Account 3", "Travel", first.getTransactionDate(), first.getDescription() + " (edited)",
+                    first.getPaymentAmount() + 1, first.getDepositAmount()));
+        });
+        script.put("editing into another year", repository -> {
+            Transaction first = repository.getTransactionsByAccount("Account 0").get(5);
+            LocalDate date = first.getTransactionDate().toLocalDate();
+            return String.valueOf(repository.updateTransaction(first.getAccountName(), first.getTransactionDate(),
+                    first.getDescription(), first.getAccountName(), first.getTransactionType(), Date.valueOf(date.plusYears(1)),
+                    first.getDescription(), first.getPaymentAmount(), first.getDepositAmount()));
+        });
+        script.put("editing a missing transaction", repository -> String.valueOf(repository.updateTransaction("Account 0",
+                Date.valueOf(FIRST), "Nobody", "Account 0", "Rent", Date.valueOf(FIRST), "Nobody", 1, 0)));
+        script.put("deleting by description", repository -> List.of(repository.deleteTransaction("Payee 9"),
+                repository.deleteTransaction("Nobody")).toString());
+        script.put("saving schedules", repository -> {
+            RecurrenceRule monthly = RecurrenceRule.parse("Monthly", 15, FIRST);
+            return List.of(repository.saveScheduledTransaction("Rent", "Account 1", "Rent", monthly, 950),
+                    repository.saveScheduledTransaction("Power", "Account 2", "Utilities", RecurrenceRule.parse("Weekly", 2, FIRST), 40),
+                    repository.saveScheduledTransaction("Gym", "Account 0", "Dining", RecurrenceRule.parse("Yearly", 1, FIRST), 300))
+                    .toString();
+        });
+        script.put("editing and deleting schedules", repository -> List.of(
+                repository.updateScheduledTransaction("Power", "Electricity", "Account 2", "Utilities",
+                        RecurrenceRule.parse("Monthly", 28, FIRST), 45),
+                repository.deleteScheduledTransaction("Gym"), repository.deleteScheduledTransaction("Nothing")).toString());
+        script.put("deleting a budget", repository -> List.of(repository.deleteBudget("Dining", "Account 1"),
+                repository.deleteBudget("Dining", "Account 4")).toString());
+        script.put("deleting an account", repository -> List.of(repository.deleteAccount("Account 3"),
+                repository.deleteAccount("Account 9")).toString());
+        return script;
+    }
+
+    // Every read method, keyed by the call
+    private static Map<String, String> snapshot(LedgerRepository repository) {
+        Map<String, String> reads = new LinkedHashMap<>();
+        LocalDate last = FIRST.plusYears(3);
+        reads.put("accountExists", List.of(repository.accountExists("Account 1"), repository.accountExists("Account 9")).toString());
+        reads.put("getAllAccountNames", repository.getAllAccountNames().toString());
+        reads.put("getAllAccountDetails", render(repository.getAllAccountDetails(), LedgerConformanceCheck::account));
+        reads.put("transactionTypeExists", List.of(repository.transactionTypeExists("Rent"),
+                repository.transactionTypeExists("Boats")).toString());
+        reads.put("getAllTransactionTypes", repository.getAllTransactionTypes().toString());
+
+        reads.put("getTransactions", render(repository.getTransactions(), LedgerConformanceCheck::transaction));
+        reads.put("searchTransactions", render(repository.searchTransactions("ee 1"), LedgerConformanceCheck::transaction));
+        reads.put("getTransactionsByType", render(repository.getTransactionsByType("Dining"), LedgerConformanceCheck::transaction));
+        reads.put("getTransactionsByAccount", render(repository.getTransactionsByAccount("Account 2"), LedgerConformanceCheck::transaction));
+        reads.put("getTransactionsBetween", render(repository.getTransactionsBetween(FIRST.plusMonths(3), FIRST.plusMonths(9)),
+                LedgerConformanceCheck::transaction));
+        String[][] filters = {{null, null}, {"Account 1", null}, {null, "Rent"}, {"Account 1", "Rent"}};
+        for (String[] filter : filters) {
+            String label = "(" + filter[0] + ", " + filter[1];
+            reads.put("countTransactions" + label + ")", String.valueOf(repository.countTransactions(filter[0], filter[1])));
+            reads.put("getTransactionPage" + label + ", newest first)", render(repository.getTransactionPage(filter[0], filter[1],
+                    List.of(), 10, 25), LedgerConformanceCheck::transaction));
+        }
+        for (TransactionSort.Column column : TransactionSort.Column.values()) {
+            for (boolean ascending : new boolean[] {true, false}) {
+                List<TransactionSort> order = List.of(new TransactionSort(column, ascending),
+                        new TransactionSort(TransactionSort.Column.DATE, false));
+                reads.put("getTransactionPage(" + column + (ascending ? " ascending)" : " descending)"),
+                        render(repository.getTransactionPage(null, null, order, 20, 25), LedgerConformanceCheck::transaction));
+            }
+        }
+
+        reads.put("findLikelyDuplicates", render(repository.findLikelyDuplicates("Account 1", Date.valueOf(FIRST.plusMonths(1).withDayOfMonth(4)),
+                "landlord", 950, 0), LedgerConformanceCheck::transaction));
+        List<Transaction> candidates = List.of(
+                new Transaction("Account 1", "Rent", Date.valueOf(FIRST.plusMonths(2).withDayOfMonth(3)), "Landlord", 950, 0),
+                new Transaction("Account 1", "Rent", Date.valueOf(FIRST.plusYears(5)), "Landlord", 950, 0),
+                new Transaction("Account 1", "Rent", Date.valueOf(FIRST.plusYears(5)), "Landlord", 950, 0));
+        reads.put("flagLikelyDuplicates", render(repository.flagLikelyDuplicates(candidates), LedgerConformanceCheck::transaction));
+        reads.put("suggestTransactionType", String.valueOf(repository.suggestTransactionType("Landlord")));
+        reads.put("suggestTransactionTypes", String.valueOf(repository.suggestTransactionTypes(List.of("Payee 3", "Bistro", "zzz"))));
+
+        for (int account = 0; account < ACCOUNTS; account++) {
+            reads.put("getBalanceOn(Account " + account + ")", cents(repository.getBalanceOn("Account " + account, FIRST.plusYears(1))));
+            reads.put("getNetChange(Account " + account + ")", cents(repository.getNetChange("Account " + account,
+                    FIRST.plusMonths(2), FIRST.plusMonths(14))));
+        }
+        for (SpendingBuckets.Period period : SpendingBuckets.Period.values()) {
+            for (ReportEngine.GroupBy groupBy : new ReportEngine.GroupBy[] {ReportEngine.GroupBy.ACCOUNT, ReportEngine.GroupBy.TYPE}) {
+                reads.put("getSpendingOverTime(" + period + ", " + groupBy + ")",
+                        String.valueOf(repository.getSpendingOverTime(period, groupBy, FIRST, last)));
+            }
+        }
+        for (String currency : new String[] {"USD", "EUR"}) {
+            String report;
+            try {
+                report = String.valueOf(repository.getSpendingOverTime(SpendingBuckets.Period.MONTH, ReportEngine.GroupBy.TYPE,
+                        FIRST, last, currency));
+            } catch (IllegalArgumentException e) {
+                report = "IllegalArgumentException: " + e.getMessage();
+            }
+            reads.put("getSpendingOverTime(MONTH, TYPE, " + currency + ")", report);
+        }
+        reads.put("getExchangeRates", repository.getExchangeRates().latest().toString());
+        reads.put("getBudgetStatus", render(repository.getBudgetStatus(FIRST.plusMonths(2)), LedgerConformanceCheck::budget));
+
+        reads.put("getTransactionTags", render(List.of(1, 12, 14, 40, 79), id -> id + " " + new TreeSet<>(repository.getTransactionTags(id))));
+        reads.put("getAllTags", repository.getAllTags().toString());
+        for (String query : new String[] {"work", "home and not work", "work or travel"}) {
+            IdBitmap matched = repository.matchTransactions(TagQuery.parse(query), null, FIRST, last);
+            int[] ids = matched.select(0, matched.cardinality());
+            reads.put("matchTransactions(" + query + ")", java.util.Arrays.toString(ids));
+            reads.put("getTransactionsByIds(" + query + ")", render(repository.getTransactionsByIds(ids), LedgerConformanceCheck::transaction));
+        }
+        IdBitmap inAccount = repository.matchTransactions(TagQuery.parse("home"), "Account 2", FIRST.plusMonths(1), FIRST.plusYears(1));
+        reads.put("matchTransactions(home, Account 2)", java.util.Arrays.toString(inAccount.select(0, inAccount.cardinality())));
+
+        reads.put("scheduleNameExists", List.of(repository.scheduleNameExists("Rent"), repository.scheduleNameExists("Gym")).toString());
+        reads.put("getScheduledTransactions", render(repository.getScheduledTransactions(), LedgerConformanceCheck::schedule));
+        reads.put("searchScheduledTransactions", render(repository.searchScheduledTransactions("e"), LedgerConformanceCheck::schedule));
+        reads.put("getScheduledTransactionsDueToday", render(repository.getScheduledTransactionsDueToday(), LedgerConformanceCheck::schedule));
+        reads.put("findRecurringPayments", render(repository.findRecurringPayments(), LedgerConformanceCheck::proposal));
+        return reads;
+    }
+
+    private static <T> String render(Collection<T> items, Function<T, String> format) {
+        return items.stream().map(format).collect(Collectors.joining("; ", "[", "]"));
+    }
+
+    private static String transaction(Transaction t) {
+        return t.getId() + " " + t.getAccountName() + " " + t.getTransactionType() + " " + t.getTransactionDate() + " "
+                + t.getDescription() + " " + cents(t.getPaymentAmount()) + " " + cents(t.getDepositAmount());
+    }
+
+    private static String account(Account account) {
+        return account.getName() + " " + account.getOpeningDate() + " " + cents(account.getOpeningBalance()) + " " + account.getCurrency();
+    }
+
+    private static String schedule(ScheduledTransaction schedule) {
+        return schedule.getScheduleName() + " " + schedule.getAccountName() + " " + schedule.getTransactionType() + " "
+                + schedule.getFrequency() + " " + schedule.getDueDate() + " " + cents(schedule.getPaymentAmount()) + " "
+                + schedule.getRecurrence().encode();
+    }
+
+    private static String budget(BudgetTracker.Status status) {
+        return status.getMonth() + " " + status.getTransactionType() + " " + status.getAccountLabel() + " "
+                + cents(status.getLimit()) + " " + cents(status.getSpent()) + " " + status.isExceeded();
+    }
+
+    private static String proposal(RecurringPaymentFinder.Proposal proposal) {
+        return proposal.getAccountName() + " " + proposal.getTransactionType() + " " + proposal.getDescription() + " "
+                + cents(proposal.getPaymentAmount()) + " " + proposal.getFrequency() + " " + proposal.getPayments();
+    }
+
+    private static String cents(double amount) {
+        return String.format("%.2f", amount);
+    }
+
+    private static String abbreviate(String text) {
+        return text == null ? "(missing)" : text.length() > 300 ? text.substring(0, 300) + "..." : text;
+    }
+}
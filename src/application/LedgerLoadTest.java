@@ -0,0 +1,249 @@
+package application;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Drives LedgerServer with concurrent clients and reports throughput and tail latency per endpoint.
+//
+// Usage: java -cp <app classpath> application.LedgerLoadTest [seconds] [clients] [rows] [base url]
+// e.g.   ... application.LedgerLoadTest 30 64 50000
+//
+// Without a base url it starts a server on a free port over a generated ledger in a temp directory, so the
+// numbers include the server's own work but not the network. With one (e.g. http://127.0.0.1:8151) it only
+// reads from that server. Each client is a virtual thread sending one request at a time, drawn from a fixed
+// mix of page, account, schedule, report, budget and export reads plus transaction saves; the first tenth of
+// the run is warm-up and isn't counted.
+public class LedgerLoadTest {
+    private static final int ACCOUNTS = 20;
+    private static final int TYPES = 10;
+
+    private static final class Latencies {
+        private long[] nanos = new long[1024];
+        private int count;
+        private int errors;
+
+        void add(long elapsed) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = elapsed;
+        }
+
+        void addAll(Latencies other) {
+            for (int i = 0; i < other.count; i++) {
+                add(other.nanos[i]);
+            }
+            errors += other.errors;
+        }
+
+        double percentileMillis(double percentile) {
+            return count == 0 ? 0 : nanos[Math.min(count - 1, (int) Math.ceil(percentile / 100 * count) - 1)] / 1e6;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int rows = args.length > 2 ? Integer.parseInt(args[2]) : 50_000;
+        String baseUrl = args.length > 3 ? args[3] : null;
+
+        Path directory = null;
+        DatabaseHelper helper = null;
+        LedgerServer server = null;
+        boolean writes = baseUrl == null;
+        try {
+            if (baseUrl == null) {
+                directory = Files.createTempDirectory("centsible-load-test");
+                helper = new DatabaseHelper(directory.resolve(DatabaseHelper.DATABASE_FILE).toString());
+                seed(helper, rows);
+                server = new LedgerServer(helper, 0);
+                server.start();
+                baseUrl = "http://127.0.0.1:" + server.getPort();
+            }
+            System.out.printf("%d clients for %d s against %s%s%n", clients, seconds, baseUrl,
+                    writes ? String.format(" (%,d generated transactions)", rows) : "");
+            run(baseUrl, seconds, clients, writes);
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+            if (helper != null) {
+                helper.close();
+            }
+            if (directory != null) {
+                try (Stream<Path> files = Files.walk(directory)) {
+                    for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void run(String baseUrl, int seconds, int clients, boolean writes) throws InterruptedException {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        mix.put("transactions page", 40);
+        mix.put("accounts", 15);
+        mix.put("scheduled", 10);
+        mix.put("spending report", 10);
+        mix.put("budgets", 10);
+        mix.put("export one month", 10);
+        if (writes) {
+            mix.put("save transaction", 5);
+        }
+        List<String> draws = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                draws.add(entry.getKey());
+            }
+        }
+
+        long start = System.nanoTime();
+        long measureFrom = start + seconds * 100_000_000L;
+        long deadline = start + seconds * 1_000_000_000L;
+        List<Map<String, Latencies>> perClient = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+             HttpClient client = HttpClient.newHttpClient()) {
+            for (int c = 0; c < clients; c++) {
+                Map<String, Latencies> latencies = new LinkedHashMap<>();
+                perClient.add(latencies);
+                executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        String kind = draws.get(random.nextInt(draws.size()));
+                        HttpRequest request = request(baseUrl, kind, random);
+                        long sent = System.nanoTime();
+                        boolean ok;
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            ok = response.statusCode() < 300;
+                        } catch (IOException e) {
+                            ok = false;
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        if (sent >= measureFrom) {
+                            Latencies kindLatencies = latencies.computeIfAbsent(kind, k -> new Latencies());
+                            kindLatencies.add(System.nanoTime() - sent);
+                            if (!ok) {
+                                kindLatencies.errors++;
+                            }
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+        }
+
+        double measuredSeconds = (deadline - measureFrom) / 1e9;
+        Map<String, Latencies> byKind = new LinkedHashMap<>();
+        Latencies total = new Latencies();
+        for (String kind : mix.keySet()) {
+            Latencies merged = new Latencies();
+            for (Map<String, Latencies> latencies : perClient) {
+                Latencies own = latencies.get(kind);
+                if (own != null) {
+                    merged.addAll(own);
+                }
+            }
+            byKind.put(kind, merged);
+            total.addAll(merged);
+        }
+        byKind.put("all", total);
+        System.out.printf("%-18s %10s %9s %9s %9s %9s %9s %9s %7s%n",
+                "endpoint", "requests", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+        for (Map.Entry<String, Latencies> entry : byKind.entrySet()) {
+            Latencies latencies = entry.getValue();
+            Arrays.sort(latencies.nanos, 0, latencies.count);
+            System.out.printf("%-18s %,10d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %7d%n", entry.getKey(), latencies.count,
+                    latencies.count / measuredSeconds, latencies.percentileMillis(50), latencies.percentileMillis(90),
+                    latencies.percentileMillis(99), latencies.percentileMillis(99.9), latencies.percentileMillis(100),
+                    latencies.errors);
+        }
+    }
+
+    private static HttpRequest request(String baseUrl, String kind, ThreadLocalRandom random) {
+        String account = "Account%20" + random.nextInt(ACCOUNTS);
+        LocalDate month = LocalDate.now().minusMonths(random.nextInt(36)).withDayOfMonth(1);
+        String path;
+        switch (kind) {
+            case "transactions page":
+                path = "/api/transactions?account=" + account + "&offset=" + random.nextInt(10) * 100 + "&limit=100";
+                break;
+            case "accounts":
+                path = "/api/accounts";
+                break;
+            case "scheduled":
+                path = "/api/scheduled";
+                break;
+            case "spending report":
+                path = "/api/reports/spending?period=MONTH&groupBy=TYPE";
+                break;
+            case "budgets":
+                path = "/api/budgets?month=" + month;
+                break;
+            case "export one month":
+                path = "/api/transactions/export?account=" + account + "&from=" + month + "&to=" + month.plusMonths(1).minusDays(1);
+                break;
+            case "save transaction":
+                String body = String.format("{\"account\": \"Account %d\", \"type\": \"Type %d\", \"date\": \"%s\", "
+                                + "\"description\": \"Load test %d\", \"payment\": %d.%02d}", random.nextInt(ACCOUNTS),
+                        random.nextInt(TYPES), LocalDate.now(), random.nextInt(1_000_000), random.nextInt(500), random.nextInt(100));
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/api/transactions"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+            default:
+                throw new IllegalArgumentException(kind);
+        }
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build();
+    }
+
+    // Goes through the repository, so the balance, spending and duplicate indexes match the rows; saves are
+    // queued a window at a time so they share commits
+    private static void seed(DatabaseHelper helper, int rows) {
+        LocalDate today = LocalDate.now();
+        for (int account = 0; account < ACCOUNTS; account++) {
+            helper.createAccount("Account " + account, Date.valueOf(today.minusYears(4)), 1000);
+        }
+        for (int type = 0; type < TYPES; type++) {
+            helper.addTransactionType("Type " + type);
+            helper.setBudget("Type " + type, null, 5000);
+        }
+        for (int schedule = 0; schedule < 20; schedule++) {
+            helper.saveScheduledTransaction("Schedule " + schedule, "Account " + schedule % ACCOUNTS, "Type " + schedule % TYPES,
+                    "Monthly", String.valueOf(schedule + 1), 25 + schedule);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<CompletableFuture<Boolean>> window = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            boolean payment = random.nextInt(4) != 0;
+            window.add(helper.saveTransactionAsync("Account " + random.nextInt(ACCOUNTS), "Type " + random.nextInt(TYPES),
+                    Date.valueOf(today.minusDays(random.nextInt(3 * 365))), "Generated " + i,
+                    payment ? random.nextInt(100_000) / 100.0 : 0, payment ? 0 : random.nextInt(300_000) / 100.0, List.of()));
+            if (window.size() == 1000 || i == rows - 1) {
+                window.forEach(CompletableFuture::join);
+                window.clear();
+            }
+        }
+    }
+}
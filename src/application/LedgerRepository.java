@@ -0,0 +1,168 @@
+package application;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+
+// Everything the UI needs from storage. DatabaseHelper is the SQLite implementation and
+// InMemoryLedgerRepository keeps the whole ledger on the heap (useful for benchmarking the UI
+// without disk I/O). Pick one with -Dcentsible.storage=sqlite|memory; SQLite is the default.
+public interface LedgerRepository {
+    String STORAGE_PROPERTY = "centsible.storage";
+
+    static LedgerRepository open() {
+        String storage = System.getProperty(STORAGE_PROPERTY, "sqlite");
+        switch (storage) {
+            case "sqlite":
+                return new DatabaseHelper();
+            case "memory":
+                return new InMemoryLedgerRepository();
+            default:
+                throw new IllegalArgumentException("Unknown " + STORAGE_PROPERTY + ": " + storage);
+        }
+    }
+
+    // Accounts
+    // The currency is a code such as "EUR" (see ExchangeRates.normalize); the account's transactions are in it too
+    boolean createAccount(String name, Date openingDate, double openingBalance, String currency);
+
+    default boolean createAccount(String name, Date openingDate, double openingBalance) {
+        return createAccount(name, openingDate, openingBalance, ExchangeRates.DEFAULT_CURRENCY);
+    }
+    boolean accountExists(String accountName);
+    boolean deleteAccount(String accountName);
+    List<String> getAllAccountNames();
+    List<Account> getAllAccountDetails();
+
+    // Transaction types
+    boolean addTransactionType(String typeName);
+    boolean transactionTypeExists(String transactionType);
+    List<String> getAllTransactionTypes();
+
+    // Transactions
+    // Every list is newest first, and rows dated the same day are listed latest saved (highest id) first.
+    // Tags are normalized with TagIndex.normalize
+    boolean saveTransaction(String accountName, String transactionType, Date transactionDate,
+                            String description, double paymentAmount, double depositAmount, Collection<String> tags);
+
+    default boolean saveTransaction(String accountName, String transactionType, Date transactionDate,
+                                    String description, double paymentAmount, double depositAmount) {
+        return saveTransaction(accountName, transactionType, transactionDate, description, paymentAmount, depositAmount, List.of());
+    }
+
+    // Returns once the save is queued; the future completes with saveTransaction's result once it is durable.
+    // Lets a bulk caller such as an import keep many saves in flight.
+    default CompletableFuture<Boolean> saveTransactionAsync(String accountName, String transactionType, Date transactionDate,
+                                                            String description, double paymentAmount, double depositAmount,
+                                                            Collection<String> tags) {
+        return CompletableFuture.completedFuture(
+                saveTransaction(accountName, transactionType, transactionDate, description, paymentAmount, depositAmount, tags));
+    }
+
+    // True when transaction saves may be called while reads are in flight on other threads
+    default boolean queuesWrites() {
+        return false;
+    }
+    boolean updateTransaction(String originalAccountName, Date originalTransactionDate, String originalDescription,
+                              String newAccountName, String transactionType,
+                              Date newTransactionDate, String newDescription,
+                              double paymentAmount, double depositAmount);
+    boolean deleteTransaction(String description);
+    List<Transaction> getTransactions();
+    List<Transaction> searchTransactions(String searchTerm);
+    List<Transaction> getTransactionsByType(String transactionType);
+    List<Transaction> getTransactionsByAccount(String accountName);
+    // Both bounds inclusive, newest first
+    List<Transaction> getTransactionsBetween(LocalDate from, LocalDate to);
+    // Paging for the transaction tables: the filters match like getTransactionsByAccount/ByType (null matches
+    // any, both null matches getTransactions), and an empty order means newest first
+    int countTransactions(String accountName, String transactionType);
+    List<Transaction> getTransactionPage(String accountName, String transactionType, List<TransactionSort> order,
+                                         int offset, int limit);
+    // Transactions with the same account, amounts and normalized description dated within
+    // DuplicateIndex.TOLERANCE_DAYS of the given date; empty when the entry looks new
+    List<Transaction> findLikelyDuplicates(String accountName, Date transactionDate, String description,
+                                           double paymentAmount, double depositAmount);
+    // The rows of an import that look like duplicates of the ledger or of an earlier row, for review
+    List<Transaction> flagLikelyDuplicates(List<Transaction> candidates);
+    // The most likely transaction type for a description, learned from the types of past transactions;
+    // null when nothing similar has been saved
+    String suggestTransactionType(String description);
+    // One suggestion per description, in order, computed in parallel
+    List<String> suggestTransactionTypes(List<String> descriptions);
+    // The account's opening balance (from its opening date on) plus every transaction dated on or before the date
+    double getBalanceOn(String accountName, LocalDate date);
+    // Deposits minus payments of the account dated within [from, to]
+    double getNetChange(String accountName, LocalDate from, LocalDate to);
+    // Payments and deposits per account or type for each day, week or month starting in [from, to], keyed by
+    // name and then by the period's first day; read from totals kept up to date on every write
+    Map<String, SortedMap<LocalDate, ReportTotals>> getSpendingOverTime(SpendingBuckets.Period period,
+                                                                       ReportEngine.GroupBy groupBy,
+                                                                       LocalDate from, LocalDate to);
+    // The same totals in one reporting currency. Accounts in other currencies are read from their per-day
+    // buckets and converted at each day's rate; throws IllegalArgumentException when a rate is missing
+    Map<String, SortedMap<LocalDate, ReportTotals>> getSpendingOverTime(SpendingBuckets.Period period,
+                                                                       ReportEngine.GroupBy groupBy,
+                                                                       LocalDate from, LocalDate to,
+                                                                       String reportingCurrency);
+
+    // Exchange rates: 1 unit of the base currency is worth rate units of the quote currency from the date on
+    boolean setExchangeRate(String baseCurrency, String quoteCurrency, LocalDate date, double rate);
+    // The rate cache every conversion goes through
+    ExchangeRates getExchangeRates();
+
+    // Budgets: a monthly limit on spending (payments less deposits) of a transaction type in one account, or in
+    // every account when the account is null
+    boolean setBudget(String transactionType, String accountName, double monthlyLimit);
+    boolean deleteBudget(String transactionType, String accountName);
+    // Every budget with its spending in the month holding the date, read from counters kept by every write
+    List<BudgetTracker.Status> getBudgetStatus(LocalDate month);
+    // Told after a write takes a budget over its limit
+    void setBudgetListener(BudgetTracker.Listener listener);
+
+    // Tags
+    Set<String> getTransactionTags(int transactionId);
+    // Replaces the transaction's tags
+    boolean setTransactionTags(int transactionId, Collection<String> tags);
+    List<String> getAllTags();
+    // Ids of transactions (archived ones included) matching the tag query, account and date range (both inclusive); a null query,
+    // account or bound matches anything
+    IdBitmap matchTransactions(TagQuery query, String accountName, LocalDate from, LocalDate to);
+    // Newest first; ids that no longer exist are skipped
+    List<Transaction> getTransactionsByIds(int[] ids);
+
+    // Scheduled transactions
+    boolean saveScheduledTransaction(String scheduleName, String accountName, String transactionType,
+                                     RecurrenceRule recurrence, double paymentAmount);
+    boolean updateScheduledTransaction(String originalName, String scheduleName, String accountName,
+                                       String transactionType, RecurrenceRule recurrence, double paymentAmount);
+
+    // Frequency text and a due day of the month, anchored on the next due date from today
+    default boolean saveScheduledTransaction(String scheduleName, String accountName, String transactionType,
+                                             String frequency, String dueDate, double paymentAmount) {
+        return saveScheduledTransaction(scheduleName, accountName, transactionType,
+                RecurrenceRule.parse(frequency, ScheduledTransaction.parseDueDay(dueDate), LocalDate.now()), paymentAmount);
+    }
+
+    default boolean updateScheduledTransaction(String originalName, String scheduleName,
+                                               String accountName, String transactionType, String frequency,
+                                               String dueDate, double paymentAmount) {
+        return updateScheduledTransaction(originalName, scheduleName, accountName, transactionType,
+                RecurrenceRule.parse(frequency, ScheduledTransaction.parseDueDay(dueDate), LocalDate.now()), paymentAmount);
+    }
+    boolean deleteScheduledTransaction(String scheduleName);
+    boolean scheduleNameExists(String scheduleName);
+    List<ScheduledTransaction> getScheduledTransactions();
+    List<ScheduledTransaction> searchScheduledTransactions(String searchTerm);
+    List<ScheduledTransaction> getScheduledTransactionsDueToday();
+    // Schedules the payment history suggests: payments that repeat weekly, every two weeks, monthly, quarterly
+    // or yearly and haven't lapsed, most confident first
+    List<RecurringPaymentFinder.Proposal> findRecurringPayments();
+
+    void close();
+}
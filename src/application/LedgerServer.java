@@ -0,0 +1,514 @@
+package application;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// A local HTTP/JSON API over the ledger, for tools that want to read and write it without the UI. It uses
+// the JDK's HttpServer with one virtual thread per request and only listens on the loopback address.
+//
+// Usage: java -cp <app classpath> [-Dcentsible.serverPort=8151] [-Dcentsible.profile=<name>] application.LedgerServer
+//
+//   GET  /api/accounts                      accounts with their current balance
+//   POST /api/accounts                      {"name", "openingDate", "openingBalance", "currency"}
+//   GET  /api/types                         transaction types
+//   GET  /api/transactions                  a page, newest first: ?account=&type=&offset=0&limit=100 (limit <= 1000)
+//   POST /api/transactions                  {"account", "type", "date", "description", "payment", "deposit", "tags"}
+//   GET  /api/transactions/export           every match, archived rows included, streamed: ?account=&type=&tags=<tag query>&from=&to=
+//   GET  /api/scheduled                     scheduled transactions, or only today's with ?dueToday=true
+//   GET  /api/reports/spending              ?period=DAY|WEEK|MONTH&groupBy=ACCOUNT|TYPE&from=&to=&currency=
+//   GET  /api/budgets                       budget status for the month holding ?month= (default today)
+//
+// Dates are yyyy-MM-dd. Responses are sent chunked as they are written, so an export holds one batch of rows
+// in memory at a time. Reads run in parallel; writes wait for the reads in flight and run one at a time.
+// Transaction saves are the exception when the repository queues its own writes (SQLite without partitions):
+// they run alongside the reads, and concurrent saves share commits.
+public class LedgerServer {
+    static final String PORT_PROPERTY = "centsible.serverPort";
+    static final int DEFAULT_PORT = 8151;
+    private static final int DEFAULT_PAGE = 100;
+    private static final int MAX_PAGE = 1000;
+    private static final int EXPORT_BATCH = 1000;
+
+    static {
+        // Without it a chunked response's last chunk waits on the client's delayed ACK, about 40 ms per request
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final LedgerRepository repository;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private interface Handler {
+        void handle(HttpExchange exchange, Map<String, String> params) throws IOException;
+    }
+
+    public LedgerServer(LedgerRepository repository, int port) throws IOException {
+        this.repository = repository;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        route("/api/accounts", this::getAccounts, this::postAccount);
+        route("/api/types", this::getTypes, null);
+        route("/api/transactions", this::getTransactions, this::postTransaction);
+        route("/api/transactions/export", this::exportTransactions, null);
+        route("/api/scheduled", this::getScheduled, null);
+        route("/api/reports/spending", this::getSpending, null);
+        route("/api/budgets", this::getBudgets, null);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT);
+        String profile = System.getProperty(ProfileManager.PROPERTY);
+        ProfileManager profiles = profile == null ? null : new ProfileManager(Paths.get(ProfileManager.DIRECTORY));
+        ProfileManager.Lease lease = profile == null ? null : profiles.acquire(profile);
+        LedgerRepository repository = lease == null ? LedgerRepository.open() : lease.repository();
+        LedgerServer ledgerServer = new LedgerServer(repository, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            ledgerServer.stop();
+            if (lease != null) {
+                lease.close();
+                profiles.closeAll();
+            } else {
+                repository.close();
+            }
+        }));
+        ledgerServer.start();
+        System.out.println("Ledger API listening on http://" + ledgerServer.getAddress().getHostString() + ":" + ledgerServer.getPort() + "/api/");
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Stops accepting requests and waits up to a second for those in flight; the repository stays open
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void route(String path, Handler get, Handler post) {
+        server.createContext(path, exchange -> {
+            try {
+                Handler handler = "GET".equals(exchange.getRequestMethod()) ? get
+                        : "POST".equals(exchange.getRequestMethod()) ? post : null;
+                if (!exchange.getRequestURI().getPath().equals(path)) {
+                    error(exchange, 404, "Not found");
+                    return;
+                }
+                if (handler == null) {
+                    exchange.getResponseHeaders().set("Allow", post == null ? "GET" : "GET, POST");
+                    error(exchange, 405, "Method not allowed");
+                    return;
+                }
+                boolean queued = handler == post && path.equals("/api/transactions") && repository.queuesWrites();
+                Lock held = handler == get || queued ? lock.readLock() : lock.writeLock();
+                held.lock();
+                try {
+                    handler.handle(exchange, params(exchange.getRequestURI().getRawQuery()));
+                } finally {
+                    held.unlock();
+                }
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                error(exchange, 400, e.getMessage());
+            } catch (IOException e) {
+                // The client went away mid-response
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                error(exchange, 500, "Internal error");
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    private void getAccounts(HttpExchange exchange, Map<String, String> params) throws IOException {
+        LocalDate today = LocalDate.now();
+        JsonWriter json = respond(exchange, 200).beginArray();
+        for (Account account : repository.getAllAccountDetails()) {
+            json.beginObject()
+                    .name("name").value(account.getName())
+                    .name("openingDate").value(account.getOpeningDate().toString())
+                    .name("currency").value(account.getCurrency())
+                    .name("openingBalance").value(account.getOpeningBalance())
+                    .name("balance").value(repository.getBalanceOn(account.getName(), today))
+                    .endObject();
+        }
+        json.endArray().flush();
+    }
+
+    private void postAccount(HttpExchange exchange, Map<String, String> params) throws IOException {
+        Map<String, Object> body = readBody(exchange);
+        String name = requiredString(body, "name");
+        if (repository.accountExists(name)) {
+            throw new IllegalArgumentException("Account already exists: " + name);
+        }
+        Date openingDate = Date.valueOf(LocalDate.parse(requiredString(body, "openingDate")));
+        String currency = ExchangeRates.normalize(body.containsKey("currency")
+                ? String.valueOf(body.get("currency")) : ExchangeRates.DEFAULT_CURRENCY);
+        if (!repository.createAccount(name, openingDate, number(body, "openingBalance"), currency)) {
+            error(exchange, 500, "Failed to create account");
+            return;
+        }
+        respond(exchange, 201).beginObject().name("name").value(name).endObject().flush();
+    }
+
+    private void getTypes(HttpExchange exchange, Map<String, String> params) throws IOException {
+        JsonWriter json = respond(exchange, 200).beginArray();
+        for (String type : repository.getAllTransactionTypes()) {
+            json.value(type);
+        }
+        json.endArray().flush();
+    }
+
+    private void getTransactions(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String account = params.get("account");
+        String type = params.get("type");
+        int offset = integer(params, "offset", 0, Integer.MAX_VALUE, 0);
+        int limit = integer(params, "limit", 1, MAX_PAGE, DEFAULT_PAGE);
+        int total = repository.countTransactions(account, type);
+        List<Transaction> page = repository.getTransactionPage(account, type, List.of(), offset, limit);
+        JsonWriter json = respond(exchange, 200).beginObject()
+                .name("total").value(total)
+                .name("offset").value(offset)
+                .name("transactions").beginArray();
+        for (Transaction transaction : page) {
+            write(json, transaction);
+        }
+        json.endArray().endObject().flush();
+    }
+
+    private void postTransaction(HttpExchange exchange, Map<String, String> params) throws IOException {
+        Map<String, Object> body = readBody(exchange);
+        String account = requiredString(body, "account");
+        String type = requiredString(body, "type");
+        if (!repository.accountExists(account)) {
+            throw new IllegalArgumentException("No such account: " + account);
+        }
+        if (!repository.transactionTypeExists(type)) {
+            throw new IllegalArgumentException("No such transaction type: " + type);
+        }
+        Date date = Date.valueOf(LocalDate.parse(requiredString(body, "date")));
+        String description = requiredString(body, "description");
+        List<String> tags = new ArrayList<>();
+        if (body.get("tags") instanceof List) {
+            for (Object tag : (List<?>) body.get("tags")) {
+                tags.add(String.valueOf(tag));
+            }
+        }
+        if (!repository.saveTransaction(account, type, date, description, number(body, "payment"), number(body, "deposit"), tags)) {
+            error(exchange, 500, "Failed to save transaction");
+            return;
+        }
+        respond(exchange, 201).beginObject().name("saved").value(true).endObject().flush();
+    }
+
+    // Walks the matching ids from the newest down a batch at a time; ids are assigned in insertion order
+    private void exportTransactions(HttpExchange exchange, Map<String, String> params) throws IOException {
+        TagQuery query = params.containsKey("tags") ? TagQuery.parse(params.get("tags")) : null;
+        String type = params.get("type");
+        IdBitmap matched = repository.matchTransactions(query, params.get("account"), date(params, "from"), date(params, "to"));
+        JsonWriter json = respond(exchange, 200).beginArray();
+        for (int end = matched.cardinality(); end > 0; end -= EXPORT_BATCH) {
+            int start = Math.max(0, end - EXPORT_BATCH);
+            for (Transaction transaction : repository.getTransactionsByIds(matched.select(start, end - start))) {
+                if (type == null || type.equals(transaction.getTransactionType())) {
+                    write(json, transaction);
+                }
+            }
+        }
+        json.endArray().flush();
+    }
+
+    private void getScheduled(HttpExchange exchange, Map<String, String> params) throws IOException {
+        List<ScheduledTransaction> schedules = Boolean.parseBoolean(params.get("dueToday"))
+                ? repository.getScheduledTransactionsDueToday() : repository.getScheduledTransactions();
+        LocalDate today = LocalDate.now();
+        JsonWriter json = respond(exchange, 200).beginArray();
+        for (ScheduledTransaction schedule : schedules) {
+            RecurrenceRule.Cursor cursor = schedule.getRecurrence().cursor(today);
+            json.beginObject()
+                    .name("name").value(schedule.getScheduleName())
+                    .name("account").value(schedule.getAccountName())
+                    .name("type").value(schedule.getTransactionType())
+                    .name("frequency").value(schedule.getFrequency())
+                    .name("payment").value(schedule.getPaymentAmount())
+                    .name("nextDue").value(cursor.hasNext() ? cursor.next().toString() : null)
+                    .endObject();
+        }
+        json.endArray().flush();
+    }
+
+    private void getSpending(HttpExchange exchange, Map<String, String> params) throws IOException {
+        SpendingBuckets.Period period = SpendingBuckets.Period.valueOf(params.getOrDefault("period", "MONTH").toUpperCase(Locale.ROOT));
+        ReportEngine.GroupBy groupBy = ReportEngine.GroupBy.valueOf(params.getOrDefault("groupBy", "TYPE").toUpperCase(Locale.ROOT));
+        LocalDate to = params.containsKey("to") ? date(params, "to") : LocalDate.now();
+        LocalDate from = params.containsKey("from") ? date(params, "from") : to.minusYears(1);
+        String currency = ExchangeRates.normalize(params.getOrDefault("currency", ExchangeRates.DEFAULT_CURRENCY));
+        // Other currencies are converted; a missing rate is a 400
+        Map<String, SortedMap<LocalDate, ReportTotals>> spending = repository.getSpendingOverTime(period, groupBy, from, to, currency);
+        JsonWriter json = respond(exchange, 200).beginObject();
+        for (Map.Entry<String, SortedMap<LocalDate, ReportTotals>> group : spending.entrySet()) {
+            json.name(group.getKey()).beginObject();
+            for (Map.Entry<LocalDate, ReportTotals> bucket : group.getValue().entrySet()) {
+                ReportTotals totals = bucket.getValue();
+                json.name(bucket.getKey().toString()).beginObject()
+                        .name("count").value(totals.getCount())
+                        .name("payments").value(totals.getPayments())
+                        .name("deposits").value(totals.getDeposits())
+                        .name("net").value(totals.getNet())
+                        .endObject();
+            }
+            json.endObject();
+        }
+        json.endObject().flush();
+    }
+
+    private void getBudgets(HttpExchange exchange, Map<String, String> params) throws IOException {
+        LocalDate month = params.containsKey("month") ? date(params, "month") : LocalDate.now();
+        JsonWriter json = respond(exchange, 200).beginArray();
+        for (BudgetTracker.Status status : repository.getBudgetStatus(month)) {
+            json.beginObject()
+                    .name("month").value(status.getMonth().toString())
+                    .name("type").value(status.getTransactionType())
+                    .name("account").value(status.getAccountName())
+                    .name("limit").value(status.getLimit())
+                    .name("spent").value(status.getSpent())
+                    .name("remaining").value(status.getRemaining())
+                    .name("exceeded").value(status.isExceeded())
+                    .endObject();
+        }
+        json.endArray().flush();
+    }
+
+    private static void write(JsonWriter json, Transaction transaction) throws IOException {
+        json.beginObject()
+                .name("id").value(transaction.getId())
+                .name("account").value(transaction.getAccountName())
+                .name("type").value(transaction.getTransactionType())
+                .name("date").value(transaction.getTransactionDate().toString())
+                .name("description").value(transaction.getDescription())
+                .name("payment").value(transaction.getPaymentAmount())
+                .name("deposit").value(transaction.getDepositAmount())
+                .endObject();
+    }
+
+    // Sends the headers with a chunked body; the writer is flushed by the caller and closed with the exchange
+    private static JsonWriter respond(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, 0);
+        return new JsonWriter(new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 16 * 1024));
+    }
+
+    private static void error(HttpExchange exchange, int status, String message) {
+        try {
+            respond(exchange, status).beginObject().name("error").value(message).endObject().flush();
+        } catch (IOException e) {
+            // Headers already sent or the client went away; nothing more to tell it
+        }
+    }
+
+    private static Map<String, String> params(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            // An empty filter is no filter
+            if (!value.isEmpty()) {
+                params.put(name, value);
+            }
+        }
+        return params;
+    }
+
+    private static int integer(Map<String, String> params, String name, int min, int max, int fallback) {
+        if (!params.containsKey(name)) {
+            return fallback;
+        }
+        int value = Integer.parseInt(params.get(name));
+        if (value < min || value > max) {
+            throw new IllegalArgumentException(name + " must be between " + min + " and " + max);
+        }
+        return value;
+    }
+
+    private static LocalDate date(Map<String, String> params, String name) {
+        return params.containsKey(name) ? LocalDate.parse(params.get(name)) : null;
+    }
+
+    private static Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new JsonBody(new String(in.readAllBytes(), StandardCharsets.UTF_8)).object();
+        }
+    }
+
+    private static String requiredString(Map<String, Object> body, String name) {
+        Object value = body.get(name);
+        if (!(value instanceof String) || ((String) value).isBlank()) {
+            throw new IllegalArgumentException("\"" + name + "\" is required");
+        }
+        return (String) value;
+    }
+
+    // Missing means zero
+    private static double number(Map<String, Object> body, String name) {
+        Object value = body.get(name);
+        if (value == null) {
+            return 0;
+        }
+        if (!(value instanceof Double) || ((Double) value) < 0) {
+            throw new IllegalArgumentException("\"" + name + "\" must be a number of zero or more");
+        }
+        return (Double) value;
+    }
+
+    // Request bodies: one JSON object whose values are strings, numbers, booleans, null or arrays of those
+    private static final class JsonBody {
+        private final String text;
+        private int position;
+
+        JsonBody(String text) {
+            this.text = text;
+        }
+
+        Map<String, Object> object() {
+            Map<String, Object> object = new HashMap<>();
+            expect('{');
+            if (!peek('}')) {
+                do {
+                    String name = string();
+                    expect(':');
+                    object.put(name, value());
+                } while (accept(','));
+            }
+            expect('}');
+            if (skipSpace() < text.length()) {
+                throw new IllegalArgumentException("Unexpected text after the JSON object");
+            }
+            return object;
+        }
+
+        private Object value() {
+            skipSpace();
+            if (peek('"')) {
+                return string();
+            }
+            if (accept('[')) {
+                List<Object> values = new ArrayList<>();
+                if (!peek(']')) {
+                    do {
+                        values.add(value());
+                    } while (accept(','));
+                }
+                expect(']');
+                return values;
+            }
+            for (String literal : new String[] {"true", "false", "null"}) {
+                if (text.startsWith(literal, position)) {
+                    position += literal.length();
+                    return literal.equals("null") ? null : Boolean.valueOf(literal);
+                }
+            }
+            int start = position;
+            while (position < text.length() && "+-.eE0123456789".indexOf(text.charAt(position)) >= 0) {
+                position++;
+            }
+            if (start == position) {
+                throw new IllegalArgumentException("Malformed JSON at offset " + start);
+            }
+            return Double.valueOf(text.substring(start, position));
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (position < text.length() && text.charAt(position) != '"') {
+                char c = text.charAt(position++);
+                if (c == '\\' && position < text.length()) {
+                    char escaped = text.charAt(position++);
+                    switch (escaped) {
+                        case 'n': value.append('\n'); break;
+                        case 'r': value.append('\r'); break;
+                        case 't': value.append('\t'); break;
+                        case 'b': value.append('\b'); break;
+                        case 'f': value.append('\f'); break;
+                        case 'u':
+                            if (position + 4 > text.length()) {
+                                throw new IllegalArgumentException("Malformed JSON escape at offset " + position);
+                            }
+                            value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                            position += 4;
+                            break;
+                        default: value.append(escaped);
+                    }
+                } else {
+                    value.append(c);
+                }
+            }
+            expect('"');
+            return value.toString();
+        }
+
+        private int skipSpace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+            return position;
+        }
+
+        private boolean peek(char c) {
+            return skipSpace() < text.length() && text.charAt(position) == c;
+        }
+
+        private boolean accept(char c) {
+            if (peek(c)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!accept(c)) {
+                throw new IllegalArgumentException("Expected '" + c + "' at offset " + position + " of the JSON body");
+            }
+        }
+    }
+}
@@ -1,29 +1,54 @@
 package application;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene; 
+import javafx.scene.chart.CategoryAxis;
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.StackedBarChart;
+import javafx.scene.chart.XYChart;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Date;
+import java.time.Clock;
 import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 
 
 public class Main extends Application {
 
+    // Frequencies offered by the schedule forms; RecurrenceRule.parse understands each of them
+    private static final String[] SCHEDULE_FREQUENCIES = {"Weekly", "Every 2 Weeks", "Monthly", "Last Business Day", "Yearly"};
+    // Tag and filter searches fetch at most this many of the newest matches
+    private static final int TAG_SEARCH_LIMIT = 2000;
+
     private Stage primaryStage;
-    private DatabaseHelper dbHelper;
+    private LedgerRepository dbHelper;
     private TextField accountNameField;
     private DatePicker openingDatePicker;
     private TextField openingBalanceField;
+    private TextField accountCurrencyField;
     private TableView<Account> accountTable;
+    private VBox budgetStatusBox;
     private TableView<ScheduledTransaction> scheduledTransactionsTable;
     private TableView<Transaction> transactionsTable;
 
@@ -34,23 +59,582 @@ public class Main extends Application {
     private TextField transactionDescriptionField;
     private TextField paymentAmountField;
     private TextField depositAmountField;
+    private TextField transactionTagsField;
+    private boolean transactionTypeChosen;
     private TextField scheduledNameField;
     private ComboBox<String> frequencyComboBox;
     private TextField dueDateField;
+    private DatePicker scheduleEndDatePicker;
     private TableView<ScheduledTransaction> dueTodayTransactionsTable;
+    private BackupService backupService;
+    // Only set when running with -Dcentsible.profile=<name>
+    private ProfileManager profiles;
+    private ProfileManager.Lease profileLease;
+    // Built on first view; schedule edits update it in place, other edits discard it
+    private CashFlowForecast forecast;
+    // Started once the window is up; schedule edits update it in place
+    private ReminderService reminders;
 
     @Override
-    public void start(Stage primaryStage) {
+    public void start(Stage primaryStage) throws IOException {
         this.primaryStage = primaryStage;
-        dbHelper = new DatabaseHelper();
-        primaryStage.setTitle("Centsible Banking App");
+        String profile = System.getProperty(ProfileManager.PROPERTY);
+        if (profile != null) {
+            profiles = new ProfileManager(Paths.get(ProfileManager.DIRECTORY));
+            profileLease = profiles.acquire(profile);
+            useLedger(profileLease.repository());
+        } else {
+            useLedger(LedgerRepository.open());
+        }
+        primaryStage.setTitle(profile == null ? "Centsible Banking App" : "Centsible Banking App - " + profile);
         primaryStage.setScene(createHomeScene());
+        // Anything the first frame doesn't need waits until the window is up
+        primaryStage.setOnShown(e -> {
+            StartupBenchmark.report("window");
+            Platform.runLater(this::finishStartup);
+        });
         primaryStage.show();
     }
 
+    private void finishStartup() {
+        refreshDueTodayTransactionsTable();
+        refreshAccountTable();
+        refreshBudgetStatus();
+        if (backupService != null) {
+            backupService.scheduleSnapshots(24, TimeUnit.HOURS);
+        }
+        startReminders();
+        StartupBenchmark.report("ready");
+        if (StartupBenchmark.isRunning()) {
+            Platform.exit();
+        }
+    }
+
+    // Points the UI at a ledger; SQLite ledgers get a backup service writing next to their file
+    private void useLedger(LedgerRepository repository) {
+        if (backupService != null) {
+            backupService.shutdown();
+        }
+        if (reminders != null) {
+            reminders.shutdown();
+            reminders = null;
+        }
+        dbHelper = repository;
+        dbHelper.setBudgetListener(status -> Platform.runLater(() -> showBudgetExceeded(status)));
+        forecast = null;
+        backupService = null;
+        if (repository instanceof DatabaseHelper) {
+            String databaseFile = ((DatabaseHelper) repository).getDatabaseFile();
+            backupService = new BackupService(databaseFile, DatabaseHelper.besideDatabase(databaseFile, "backups").toString(), 7);
+        }
+    }
+
+    private void switchProfile() {
+        if (profiles == null) {
+            showAlert("Error", "Start the app with -D" + ProfileManager.PROPERTY + "=<name> to use profiles.");
+            return;
+        }
+        TextInputDialog dialog = new TextInputDialog(profileLease.getName());
+        dialog.setTitle("Switch Profile");
+        dialog.setHeaderText("Existing profiles: " + String.join(", ", profiles.listProfiles()));
+        dialog.setContentText("Profile name:");
+        dialog.showAndWait().ifPresent(name -> {
+            if (!ProfileManager.isValidName(name)) {
+                showAlert("Error", "Profile names may only contain letters, digits, '-' and '_'.");
+                return;
+            }
+            try {
+                ProfileManager.Lease next = profiles.acquire(name);
+                profileLease.close();
+                profileLease = next;
+                useLedger(next.repository());
+                backupService.scheduleSnapshots(24, TimeUnit.HOURS);
+                startReminders();
+                primaryStage.setTitle("Centsible Banking App - " + name);
+                primaryStage.setScene(createHomeScene());
+            } catch (IOException e) {
+                e.printStackTrace();
+                showAlert("Error", "Could not open profile " + name + ".");
+            }
+        });
+    }
+
+    // Net amount (deposits minus payments) per transaction type, summed over every profile
+    private void showAllProfilesSummary() {
+        if (profiles == null) {
+            showAlert("Error", "Start the app with -D" + ProfileManager.PROPERTY + "=<name> to use profiles.");
+            return;
+        }
+        new Thread(() -> {
+            try {
+                ReportEngine reportEngine = new ReportEngine();
+                Map<String, ReportTotals> totals = profiles.aggregate(
+                        repository -> reportEngine.summarize(repository, ReportEngine.GroupBy.TYPE),
+                        (combined, partial) -> {
+                            partial.forEach((type, typeTotals) -> combined.merge(type, typeTotals, ReportTotals::merge));
+                            return combined;
+                        }, new TreeMap<>());
+                StringBuilder summary = new StringBuilder();
+                totals.forEach((type, typeTotals) -> summary.append(String.format("%s: %.2f%n", type, typeTotals.getNet())));
+                Platform.runLater(() -> showAlert("All Profiles", totals.isEmpty() ? "No transactions yet." : summary.toString()));
+            } catch (IOException | InterruptedException e) {
+                e.printStackTrace();
+            }
+        }, "profile-summary").start();
+    }
+
+    private CashFlowForecast getForecast() {
+        if (forecast == null) {
+            forecast = CashFlowForecast.forLedger(dbHelper, Integer.getInteger("centsible.forecastMonths", 24));
+        }
+        return forecast;
+    }
+
+    private void startReminders() {
+        reminders = new ReminderService(dbHelper.getScheduledTransactions(), ReminderService.configuredDaysAhead(),
+                ReminderService.configuredTime(), Clock.systemDefaultZone(), reminder -> Platform.runLater(() -> showReminder(reminder)));
+        reminders.start();
+    }
+
+    // Non-blocking like reminders; the save that went over has already succeeded
+    private void showBudgetExceeded(BudgetTracker.Status status) {
+        refreshBudgetStatus();
+        Alert alert = new Alert(Alert.AlertType.WARNING);
+        alert.setTitle("Budget Exceeded");
+        alert.setHeaderText(null);
+        alert.setContentText(String.format("%s (%s): %.2f spent in %s, over the %.2f budget.", status.getTransactionType(),
+                status.getAccountLabel(), status.getSpent(), status.getMonth().format(DateTimeFormatter.ofPattern("MMMM yyyy")),
+                status.getLimit()));
+        alert.show();
+    }
+
+    // Non-blocking, so reminders that fire while a form is open don't interrupt it
+    private void showReminder(ReminderService.Reminder reminder) {
+        refreshDueTodayTransactionsTable();
+        ScheduledTransaction schedule = reminder.getSchedule();
+        String when = reminder.getDaysAhead() == 0 ? "today"
+                : reminder.getDaysAhead() == 1 ? "tomorrow" : "on " + reminder.getDueDate();
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("Payment Reminder");
+        alert.setHeaderText(null);
+        alert.setContentText(String.format("%s: %.2f from %s is due %s.", schedule.getScheduleName(),
+                schedule.getPaymentAmount(), schedule.getAccountName(), when));
+        alert.show();
+    }
+
+    // Re-expands only the edited schedule; either argument may be null for an add or a delete
+    private void scheduleChanged(String previousName, ScheduledTransaction schedule) {
+        if (reminders != null) {
+            if (previousName != null) {
+                reminders.removeSchedule(previousName);
+            }
+            if (schedule != null) {
+                reminders.putSchedule(schedule);
+            }
+        }
+        if (forecast == null) {
+            return;
+        }
+        if (previousName != null) {
+            forecast.removeSchedule(previousName);
+        }
+        if (schedule != null) {
+            forecast.putSchedule(schedule);
+        }
+    }
+
+    private Scene createForecastScene() {
+        SceneBuildEvent sceneEvent = SceneBuildEvent.start("Forecast");
+        VBox forecastLayout = new VBox(20);
+        forecastLayout.setPadding(new Insets(20));
+        forecastLayout.setStyle("-fx-background-color: white;");
+
+        Label forecastLabel = new Label("Cash Flow Forecast");
+        forecastLabel.setStyle("-fx-font-size: 24px; -fx-text-fill: #1e4b35; -fx-font-weight: bold;");
+
+        CashFlowForecast cashFlowForecast = getForecast();
+        ComboBox<String> accountComboBox = new ComboBox<>();
+        accountComboBox.getItems().addAll(cashFlowForecast.getAccountNames());
+        accountComboBox.setPromptText("Select Account");
+        accountComboBox.setStyle("-fx-background-color: #cbdfd6;");
+
+        CategoryAxis monthAxis = new CategoryAxis();
+        NumberAxis balanceAxis = new NumberAxis();
+        balanceAxis.setLabel("Projected balance");
+        LineChart<String, Number> forecastChart = new LineChart<>(monthAxis, balanceAxis);
+        forecastChart.setLegendVisible(false);
+        forecastChart.setAnimated(false);
+
+        DateTimeFormatter monthFormat = DateTimeFormatter.ofPattern("MMM yyyy");
+        accountComboBox.setOnAction(e -> {
+            String selectedAccount = accountComboBox.getValue();
+            if (selectedAccount != null) {
+                XYChart.Series<String, Number> series = new XYChart.Series<>();
+                for (CashFlowForecast.BalancePoint point : cashFlowForecast.monthEndBalances(selectedAccount)) {
+                    series.getData().add(new XYChart.Data<>(point.getDate().format(monthFormat), point.getBalance()));
+                }
+                List<XYChart.Series<String, Number>> lines = List.of(series);
+                forecastChart.getData().setAll(lines);
+            }
+        });
+
+        Button backButton = createStyledButton("Back", () -> primaryStage.setScene(createHomeScene()));
+
+        forecastLayout.getChildren().addAll(backButton, forecastLabel, accountComboBox, forecastChart);
+        return sceneEvent.finish(new Scene(forecastLayout, 820, 640));
+    }
+
+    // Dated rates between currencies; each pair is listed with its newest rate
+    private Scene createExchangeRatesScene() {
+        SceneBuildEvent sceneEvent = SceneBuildEvent.start("ExchangeRates");
+        VBox ratesLayout = new VBox(20);
+        ratesLayout.setPadding(new Insets(20));
+        ratesLayout.setStyle("-fx-background-color: white;");
+
+        Label ratesLabel = new Label("Exchange Rates");
+        ratesLabel.setStyle("-fx-font-size: 24px; -fx-text-fill: #1e4b35; -fx-font-weight: bold;");
+        Label instructionLabel = new Label("1 unit of the base currency is worth the rate in the quote currency from the date on.");
+
+        ListView<String> latestList = new ListView<>();
+        Runnable refresh = () -> {
+            latestList.getItems().clear();
+            dbHelper.getExchangeRates().latest().forEach((pair, latest) ->
+                    latestList.getItems().add(String.format("%s  %s  (since %s)", pair, latest.getValue(), latest.getKey())));
+        };
+        refresh.run();
+
+        TextField baseField = new TextField();
+        baseField.setPromptText("Base, e.g. EUR");
+        TextField quoteField = new TextField(ExchangeRates.DEFAULT_CURRENCY);
+        quoteField.setPromptText("Quote, e.g. USD");
+        DatePicker rateDatePicker = new DatePicker(LocalDate.now());
+        TextField rateField = new TextField();
+        rateField.setPromptText("Rate");
+
+        Button saveButton = createStyledButton("Save Rate", () -> {
+            try {
+                String base = ExchangeRates.normalize(baseField.getText());
+                String quote = ExchangeRates.normalize(quoteField.getText());
+                if (base.equals(quote) || rateDatePicker.getValue() == null) {
+                    showAlert("Error", "Please enter two different currencies and a date.");
+                    return;
+                }
+                if (dbHelper.setExchangeRate(base, quote, rateDatePicker.getValue(), Double.parseDouble(rateField.getText()))) {
+                    refresh.run();
+                } else {
+                    showAlert("Error", "Failed to save exchange rate.");
+                }
+            } catch (IllegalArgumentException ex) {
+                showAlert("Error", ex instanceof NumberFormatException ? "Please enter a valid number for the rate." : ex.getMessage());
+            }
+        });
+        HBox rateForm = new HBox(10, baseField, quoteField, rateDatePicker, rateField, saveButton);
+        Button backButton = createStyledButton("Back", () -> primaryStage.setScene(createHomeScene()));
+
+        ratesLayout.getChildren().addAll(backButton, ratesLabel, instructionLabel, rateForm, latestList);
+        return sceneEvent.finish(new Scene(ratesLayout, 820, 640));
+    }
+
+    // Monthly limits per transaction type, for one account or all of them, with this month's spending
+    private Scene createBudgetsScene() {
+        SceneBuildEvent sceneEvent = SceneBuildEvent.start("Budgets");
+        VBox budgetsLayout = new VBox(20);
+        budgetsLayout.setPadding(new Insets(20));
+        budgetsLayout.setStyle("-fx-background-color: white;");
+
+        Label budgetsLabel = new Label("Budgets");
+        budgetsLabel.setStyle("-fx-font-size: 24px; -fx-text-fill: #1e4b35; -fx-font-weight: bold;");
+
+        TableView<BudgetTracker.Status> budgetsTable = new TableView<>();
+        String[][] columns = {{"Transaction Type", "transactionType"}, {"Account", "accountLabel"},
+                {"Monthly Limit", "limit"}, {"Spent This Month", "spent"}, {"Remaining", "remaining"}, {"Used %", "percentUsed"}};
+        for (String[] column : columns) {
+            TableColumn<BudgetTracker.Status, Object> tableColumn = new TableColumn<>(column[0]);
+            tableColumn.setCellValueFactory(new PropertyValueFactory<>(column[1]));
+            budgetsTable.getColumns().add(tableColumn);
+        }
+        Runnable refresh = () -> budgetsTable.getItems().setAll(dbHelper.getBudgetStatus(LocalDate.now()));
+        refresh.run();
+
+        ComboBox<String> typeComboBox = new ComboBox<>();
+        typeComboBox.getItems().addAll(dbHelper.getAllTransactionTypes());
+        typeComboBox.setPromptText("Transaction Type");
+        typeComboBox.setStyle("-fx-background-color: #cbdfd6; -fx-text-fill: black;");
+        ComboBox<String> budgetAccountComboBox = new ComboBox<>();
+        budgetAccountComboBox.getItems().add("All accounts");
+        budgetAccountComboBox.getItems().addAll(dbHelper.getAllAccountNames());
+        budgetAccountComboBox.setValue("All accounts");
+        budgetAccountComboBox.setStyle("-fx-background-color: #cbdfd6; -fx-text-fill: black;");
+        TextField limitField = new TextField();
+        limitField.setPromptText("Monthly limit");
+
+        Button saveButton = createStyledButton("Save Budget", () -> {
+            double limit;
+            try {
+                limit = Double.parseDouble(limitField.getText());
+            } catch (NumberFormatException ex) {
+                showAlert("Error", "Please enter a valid number for the limit.");
+                return;
+            }
+            if (typeComboBox.getValue() == null || limit < 0) {
+                showAlert("Error", "Please choose a transaction type and a limit of zero or more.");
+                return;
+            }
+            String accountName = "All accounts".equals(budgetAccountComboBox.getValue()) ? null : budgetAccountComboBox.getValue();
+            if (dbHelper.setBudget(typeComboBox.getValue(), accountName, limit)) {
+                refresh.run();
+            } else {
+                showAlert("Error", "Failed to save budget.");
+            }
+        });
+        Button deleteButton = createStyledButton("Delete Selected Budget", () -> {
+            BudgetTracker.Status selected = budgetsTable.getSelectionModel().getSelectedItem();
+            if (selected != null && dbHelper.deleteBudget(selected.getTransactionType(), selected.getAccountName())) {
+                refresh.run();
+            }
+        });
+        HBox budgetForm = new HBox(10, typeComboBox, budgetAccountComboBox, limitField, saveButton);
+        Button backButton = createStyledButton("Back", () -> primaryStage.setScene(createHomeScene()));
+
+        budgetsLayout.getChildren().addAll(backButton, budgetsLabel, budgetForm, budgetsTable, deleteButton);
+        return sceneEvent.finish(new Scene(budgetsLayout, 820, 640));
+    }
+
+    // Payments that already repeat in the ledger, offered as schedules; a suggestion with the account and amount
+    // of an existing schedule is left out
+    private Scene createSuggestedSchedulesScene() {
+        SceneBuildEvent sceneEvent = SceneBuildEvent.start("SuggestedSchedules");
+        VBox suggestionsLayout = new VBox(20);
+        suggestionsLayout.setPadding(new Insets(20));
+        suggestionsLayout.setStyle("-fx-background-color: white;");
+
+        Label suggestionsLabel = new Label("Suggested Scheduled Transactions");
+        suggestionsLabel.setStyle("-fx-font-size: 24px; -fx-text-fill: #1e4b35; -fx-font-weight: bold;");
+
+        Label instructionLabel = new Label("Select a suggestion to create a scheduled transaction for it.");
+        instructionLabel.setStyle("-fx-font-size: 14px; -fx-text-fill: #555555;");
+
+        TableView<RecurringPaymentFinder.Proposal> suggestionsTable = new TableView<>();
+        String[][] columns = {{"Description", "description"}, {"Account Name", "accountName"},
+                {"Transaction Type", "transactionType"}, {"Frequency", "frequency"}, {"Payment Amount", "paymentAmount"},
+                {"Last Paid", "lastPaid"}, {"Payments", "payments"}, {"Confidence %", "confidencePercent"}};
+        for (String[] column : columns) {
+            TableColumn<RecurringPaymentFinder.Proposal, Object> tableColumn = new TableColumn<>(column[0]);
+            tableColumn.setCellValueFactory(new PropertyValueFactory<>(column[1]));
+            suggestionsTable.getColumns().add(tableColumn);
+        }
+        List<ScheduledTransaction> schedules = dbHelper.getScheduledTransactions();
+        for (RecurringPaymentFinder.Proposal proposal : dbHelper.findRecurringPayments()) {
+            boolean scheduled = schedules.stream().anyMatch(schedule -> schedule.getAccountName().equals(proposal.getAccountName())
+                    && Math.abs(schedule.getPaymentAmount() - proposal.getPaymentAmount()) < 0.005);
+            if (!scheduled) {
+                suggestionsTable.getItems().add(proposal);
+            }
+        }
+
+        Button createButton = createStyledButton("Create Scheduled Transaction", () -> {
+            RecurringPaymentFinder.Proposal selected = suggestionsTable.getSelectionModel().getSelectedItem();
+            if (selected == null) {
+                showAlert("Error", "Please select a suggestion first.");
+                return;
+            }
+            String scheduleName = selected.getDescription();
+            for (int copy = 2; dbHelper.scheduleNameExists(scheduleName); copy++) {
+                scheduleName = selected.getDescription() + " (" + copy + ")";
+            }
+            if (dbHelper.saveScheduledTransaction(scheduleName, selected.getAccountName(), selected.getTransactionType(),
+                    selected.getRecurrence(), selected.getPaymentAmount())) {
+                scheduleChanged(null, new ScheduledTransaction(scheduleName, selected.getAccountName(), selected.getTransactionType(),
+                        selected.getRecurrence(), selected.getPaymentAmount()));
+                suggestionsTable.getItems().remove(selected);
+                showAlert("Success", "Scheduled transaction \"" + scheduleName + "\" saved successfully!");
+            } else {
+                showAlert("Error", "Failed to save scheduled transaction.");
+            }
+        });
+        Button backButton = createStyledButton("Back", () -> primaryStage.setScene(createHomeScene()));
+
+        suggestionsLayout.getChildren().addAll(backButton, suggestionsLabel, instructionLabel, suggestionsTable, createButton);
+        return sceneEvent.finish(new Scene(suggestionsLayout, 820, 640));
+    }
+
+    // Spending and income per period, stacked by type or account. Charts are drawn from the pre-aggregated
+    // buckets, so even ten years of months is about a hundred rows per series.
+    private Scene createSpendingDashboardScene() {
+        SceneBuildEvent sceneEvent = SceneBuildEvent.start("SpendingDashboard");
+        VBox dashboardLayout = new VBox(20);
+        dashboardLayout.setPadding(new Insets(20));
+        dashboardLayout.setStyle("-fx-background-color: white;");
+
+        Label dashboardLabel = new Label("Spending Dashboard");
+        dashboardLabel.setStyle("-fx-font-size: 24px; -fx-text-fill: #1e4b35; -fx-font-weight: bold;");
+
+        ComboBox<String> periodComboBox = new ComboBox<>();
+        periodComboBox.getItems().addAll("Daily", "Weekly", "Monthly");
+        periodComboBox.setValue("Monthly");
+        periodComboBox.setStyle("-fx-background-color: #cbdfd6;");
+
+        ComboBox<String> breakdownComboBox = new ComboBox<>();
+        breakdownComboBox.getItems().addAll("By Transaction Type", "By Account");
+        breakdownComboBox.setValue("By Transaction Type");
+        breakdownComboBox.setStyle("-fx-background-color: #cbdfd6;");
+
+        // Only offered once accounts are kept in more than one currency
+        TreeSet<String> currencies = new TreeSet<>();
+        for (Account account : dbHelper.getAllAccountDetails()) {
+            currencies.add(account.getCurrency());
+        }
+        ComboBox<String> currencyComboBox = new ComboBox<>();
+        currencyComboBox.getItems().addAll(currencies);
+        currencyComboBox.setValue(currencies.contains(ExchangeRates.DEFAULT_CURRENCY) || currencies.isEmpty()
+                ? ExchangeRates.DEFAULT_CURRENCY : currencies.first());
+        currencyComboBox.setStyle("-fx-background-color: #cbdfd6;");
+        currencyComboBox.setVisible(currencies.size() > 1);
+        currencyComboBox.setManaged(currencies.size() > 1);
+
+        StackedBarChart<String, Number> spendingChart = new StackedBarChart<>(new CategoryAxis(), new NumberAxis());
+        spendingChart.setTitle("Spending");
+        spendingChart.setAnimated(false);
+        StackedBarChart<String, Number> incomeChart = new StackedBarChart<>(new CategoryAxis(), new NumberAxis());
+        incomeChart.setTitle("Income");
+        incomeChart.setAnimated(false);
+
+        Runnable redraw = () -> {
+            SpendingBuckets.Period period;
+            LocalDate from;
+            DateTimeFormatter format;
+            switch (periodComboBox.getValue()) {
+                case "Daily":
+                    period = SpendingBuckets.Period.DAY;
+                    from = LocalDate.now().minusDays(59);
+                    format = DateTimeFormatter.ofPattern("MMM d");
+                    break;
+                case "Weekly":
+                    period = SpendingBuckets.Period.WEEK;
+                    from = LocalDate.now().minusWeeks(51);
+                    format = DateTimeFormatter.ofPattern("MMM d yyyy");
+                    break;
+                default:
+                    period = SpendingBuckets.Period.MONTH;
+                    from = LocalDate.now().minusMonths(119);
+                    format = DateTimeFormatter.ofPattern("MMM yyyy");
+                    break;
+            }
+            ReportEngine.GroupBy groupBy = breakdownComboBox.getValue().equals("By Account")
+                    ? ReportEngine.GroupBy.ACCOUNT : ReportEngine.GroupBy.TYPE;
+            Map<String, SortedMap<LocalDate, ReportTotals>> buckets;
+            try {
+                buckets = dbHelper.getSpendingOverTime(period, groupBy, from, LocalDate.now(), currencyComboBox.getValue());
+            } catch (IllegalArgumentException ex) {
+                showAlert("Error", ex.getMessage() + ". Add one under Actions -> Exchange Rates.");
+                buckets = Map.of();
+            }
+
+            // Every period gets a category, so gaps show as empty bars instead of being skipped
+            List<String> categories = new ArrayList<>();
+            for (LocalDate start = period.start(from); !start.isAfter(LocalDate.now()); start = period.next(start)) {
+                categories.add(start.format(format));
+            }
+            List<XYChart.Series<String, Number>> spending = new ArrayList<>();
+            List<XYChart.Series<String, Number>> income = new ArrayList<>();
+            for (Map.Entry<String, SortedMap<LocalDate, ReportTotals>> entry : buckets.entrySet()) {
+                String name = entry.getKey().isEmpty() ? "(no type)" : entry.getKey();
+                XYChart.Series<String, Number> payments = new XYChart.Series<>();
+                payments.setName(name);
+                XYChart.Series<String, Number> deposits = new XYChart.Series<>();
+                deposits.setName(name);
+                for (Map.Entry<LocalDate, ReportTotals> bucket : entry.getValue().entrySet()) {
+                    String category = bucket.getKey().format(format);
+                    if (bucket.getValue().getPayments() != 0) {
+                        payments.getData().add(new XYChart.Data<>(category, bucket.getValue().getPayments()));
+                    }
+                    if (bucket.getValue().getDeposits() != 0) {
+                        deposits.getData().add(new XYChart.Data<>(category, bucket.getValue().getDeposits()));
+                    }
+                }
+                if (!payments.getData().isEmpty()) {
+                    spending.add(payments);
+                }
+                if (!deposits.getData().isEmpty()) {
+                    income.add(deposits);
+                }
+            }
+            ((CategoryAxis) spendingChart.getXAxis()).setCategories(FXCollections.observableArrayList(categories));
+            ((CategoryAxis) incomeChart.getXAxis()).setCategories(FXCollections.observableArrayList(categories));
+            spendingChart.getData().setAll(spending);
+            incomeChart.getData().setAll(income);
+        };
+        periodComboBox.setOnAction(e -> redraw.run());
+        breakdownComboBox.setOnAction(e -> redraw.run());
+        currencyComboBox.setOnAction(e -> redraw.run());
+        redraw.run();
+
+        Button backButton = createStyledButton("Back", () -> primaryStage.setScene(createHomeScene()));
+        HBox controls = new HBox(10, periodComboBox, breakdownComboBox, currencyComboBox);
+
+        dashboardLayout.getChildren().addAll(backButton, dashboardLabel, controls, spendingChart, incomeChart);
+        return sceneEvent.finish(new Scene(dashboardLayout, 820, 640));
+    }
+
+    private void archiveOldTransactions() {
+        if (!(dbHelper instanceof DatabaseHelper)) {
+            showAlert("Error", "Archiving is only available with SQLite storage.");
+            return;
+        }
+        DatabaseHelper sqliteHelper = (DatabaseHelper) dbHelper;
+        if (sqliteHelper.isPartitioned()) {
+            showAlert("Archive", "Archiving is not available when transactions are partitioned by year; "
+                    + "older years already sit in their own files and are only opened when needed.");
+            return;
+        }
+        LocalDate cutoff = LocalDate.now().minusYears(Integer.getInteger("centsible.archiveAfterYears", 2));
+        new Thread(() -> {
+            int moved = sqliteHelper.archiveTransactionsBefore(cutoff);
+            Platform.runLater(() -> showAlert("Archive", moved + " transactions dated before " + cutoff + " were archived."));
+        }, "transaction-archive").start();
+    }
+
+    @Override
+    public void stop() {
+        if (backupService != null) {
+            backupService.shutdown();
+        }
+        if (reminders != null) {
+            reminders.shutdown();
+        }
+        if (profiles != null) {
+            profiles.closeAll();
+        } else {
+            dbHelper.close();
+        }
+    }
+
+    private void backUpDatabaseNow() {
+        if (backupService == null) {
+            showAlert("Error", "Backups are only available with SQLite storage.");
+            return;
+        }
+        // Run the copy off the FX thread and report back once the snapshot is verified
+        new Thread(() -> {
+            try {
+                Path snapshot = backupService.snapshotNow().get();
+                Platform.runLater(() -> {
+                    if (snapshot != null) {
+                        showAlert("Success", "Backup saved to " + snapshot);
+                    } else {
+                        showAlert("Error", "Backup failed. See the console for details.");
+                    }
+                });
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "backup-wait").start();
+    }
+
 
 // Adnan added-modified-start (12-03-2024)
 private Scene createTransactionTypeReportScene(String selectedType, ObservableList<Transaction> transactions) {
+    SceneBuildEvent sceneEvent = SceneBuildEvent.start("TransactionTypeReport");
     VBox reportLayout = new VBox(20);
     reportLayout.setPadding(new Insets(20));
     reportLayout.setStyle("-fx-background-color: white;");
@@ -72,20 +656,15 @@ private Scene createTransactionTypeReportScene(String selectedType, ObservableLi
     reportTable.setPlaceholder(placeholderLabel);
 
     // Populate table with provided transactions or fetch all if null
-    if (transactions != null) {
-        reportTable.getItems().addAll(transactions);
-    }
-
     if (selectedType != null) {
         typeComboBox.setValue(selectedType);
-        reportTable.setItems(transactions);
     }
+    showTransactionPages(reportTable, transactions);
 
     typeComboBox.setOnAction(e -> {
         String newSelectedType = typeComboBox.getValue();
         if (newSelectedType != null) {
-            ObservableList<Transaction> filteredTransactions = FXCollections.observableArrayList(dbHelper.getTransactionsByType(newSelectedType));
-            reportTable.setItems(filteredTransactions);
+            reportTable.setItems(new PagedTransactionList(dbHelper, null, newSelectedType, sortKeys(reportTable)));
         }
     });
 
@@ -102,10 +681,11 @@ private Scene createTransactionTypeReportScene(String selectedType, ObservableLi
     Button backButton = createStyledButton("Back", () -> primaryStage.setScene(createHomeScene()));
     
     reportLayout.getChildren().addAll(backButton, reportLabel, typeComboBox, reportTable);
-    return new Scene(reportLayout, 820, 640);
+    return sceneEvent.finish(new Scene(reportLayout, 820, 640));
 }
 
 private Scene createAccountReportScene(String selectedAccountType, ObservableList<Transaction> transactions) {
+    SceneBuildEvent sceneEvent = SceneBuildEvent.start("AccountReport");
     VBox reportLayout = new VBox(20);
     reportLayout.setPadding(new Insets(20));
     reportLayout.setStyle("-fx-background-color: white;");
@@ -127,20 +707,28 @@ private Scene createAccountReportScene(String selectedAccountType, ObservableLis
     reportTable.setPlaceholder(placeholderLabel);
 
     // Populate the table with provided transactions or fetch all if null
-    if (transactions != null) {
-        reportTable.getItems().addAll(transactions);
-    }
-
     if (selectedAccountType != null) {
         accountComboBox.setValue(selectedAccountType);
-        reportTable.setItems(transactions);
     }
+    showTransactionPages(reportTable, transactions);
+
+    // Balance of the selected account at the end of any day, answered from the balance index
+    DatePicker balanceDatePicker = new DatePicker(LocalDate.now());
+    Label balanceLabel = new Label();
+    Runnable showBalance = () -> {
+        if (accountComboBox.getValue() != null && balanceDatePicker.getValue() != null) {
+            balanceLabel.setText(String.format("Balance as of %s: %.2f", balanceDatePicker.getValue(),
+                    dbHelper.getBalanceOn(accountComboBox.getValue(), balanceDatePicker.getValue())));
+        }
+    };
+    balanceDatePicker.setOnAction(e -> showBalance.run());
+    showBalance.run();
 
     accountComboBox.setOnAction(e -> {
         String selectedAccount = accountComboBox.getValue();
         if (selectedAccount != null) {
-            reportTable.getItems().clear();
-            reportTable.getItems().addAll(dbHelper.getTransactionsByAccount(selectedAccount));
+            reportTable.setItems(new PagedTransactionList(dbHelper, selectedAccount, null, sortKeys(reportTable)));
+            showBalance.run();
         }
     });
 
@@ -156,11 +744,14 @@ private Scene createAccountReportScene(String selectedAccountType, ObservableLis
 
     Button backButton = createStyledButton("Back", () -> primaryStage.setScene(createHomeScene()));
     
-    reportLayout.getChildren().addAll(backButton, reportLabel, accountComboBox, reportTable);
-    return new Scene(reportLayout, 820, 640);
+    HBox balanceRow = new HBox(10, new Label("Balance as of:"), balanceDatePicker, balanceLabel);
+    balanceRow.setAlignment(Pos.CENTER_LEFT);
+    reportLayout.getChildren().addAll(backButton, reportLabel, accountComboBox, balanceRow, reportTable);
+    return sceneEvent.finish(new Scene(reportLayout, 820, 640));
 }
 
     private Scene createTransactionDetailsScene(Transaction transaction, Runnable onBack) {
+        SceneBuildEvent sceneEvent = SceneBuildEvent.start("TransactionDetails");
         VBox detailsLayout = new VBox(20);
         detailsLayout.setPadding(new Insets(20));
         detailsLayout.setStyle("-fx-background-color: white;");
@@ -193,7 +784,7 @@ private Scene createAccountReportScene(String selectedAccountType, ObservableLis
         // Add everything to the main layout
         detailsLayout.getChildren().addAll(topSection, detailsGrid);
 
-        return new Scene(detailsLayout, 820, 640);
+        return sceneEvent.finish(new Scene(detailsLayout, 820, 640));
     }
 
 
@@ -221,35 +812,82 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
     if (!hideAccountName) {
         TableColumn<Transaction, String> accountNameColumn = new TableColumn<>("Account Name");
         accountNameColumn.setCellValueFactory(new PropertyValueFactory<>("accountName"));
+        accountNameColumn.setUserData(TransactionSort.Column.ACCOUNT);
         table.getColumns().add(accountNameColumn);
     }
 
     if (!hideTransactionType) {
         TableColumn<Transaction, String> transactionTypeColumn = new TableColumn<>("Transaction Type");
         transactionTypeColumn.setCellValueFactory(new PropertyValueFactory<>("transactionType"));
+        transactionTypeColumn.setUserData(TransactionSort.Column.TYPE);
         table.getColumns().add(transactionTypeColumn);
     }
     
     TableColumn<Transaction, Date> dateColumn = new TableColumn<>("Date");
     dateColumn.setCellValueFactory(new PropertyValueFactory<>("transactionDate"));
+    dateColumn.setUserData(TransactionSort.Column.DATE);
     
     TableColumn<Transaction, String> descriptionColumn = new TableColumn<>("Description");
     descriptionColumn.setCellValueFactory(new PropertyValueFactory<>("description"));
+    descriptionColumn.setUserData(TransactionSort.Column.DESCRIPTION);
     
     TableColumn<Transaction, Double> paymentColumn = new TableColumn<>("Payment Amount");
     paymentColumn.setCellValueFactory(new PropertyValueFactory<>("paymentAmount"));
+    paymentColumn.setUserData(TransactionSort.Column.PAYMENT);
     
     TableColumn<Transaction, Double> depositColumn = new TableColumn<>("Deposit Amount");
     depositColumn.setCellValueFactory(new PropertyValueFactory<>("depositAmount"));
+    depositColumn.setUserData(TransactionSort.Column.DEPOSIT);
 
     table.getColumns().addAll(
         dateColumn, descriptionColumn,
         paymentColumn, depositColumn
     );
+    sortInRepository(table);
 } // Adnan added-modified-end (12-03-2024)
 
+    // Clicking a column header re-queries the visible rows in the new order instead of sorting them in memory;
+    // each column's user data is the TransactionSort.Column it sorts by
+    private void sortInRepository(TableView<Transaction> table) {
+        table.setSortPolicy(t -> {
+            if (t.getItems() instanceof PagedTransactionList
+                    && ((PagedTransactionList) t.getItems()).sortBy(sortKeys(t))) {
+                t.getSelectionModel().clearSelection();
+                t.refresh();
+            }
+            return true;
+        });
+    }
+
+    private static List<TransactionSort> sortKeys(TableView<Transaction> table) {
+        List<TransactionSort> keys = new ArrayList<>();
+        for (TableColumn<Transaction, ?> column : table.getSortOrder()) {
+            keys.add(new TransactionSort((TransactionSort.Column) column.getUserData(),
+                    column.getSortType() == TableColumn.SortType.ASCENDING));
+        }
+        return keys;
+    }
+
+    // Shows rows handed back from a details scene, restoring the column headers to the order they are sorted in
+    private void showTransactionPages(TableView<Transaction> table, ObservableList<Transaction> transactions) {
+        if (transactions instanceof PagedTransactionList) {
+            for (TransactionSort key : ((PagedTransactionList) transactions).getOrder()) {
+                for (TableColumn<Transaction, ?> column : table.getColumns()) {
+                    if (column.getUserData() == key.getColumn()) {
+                        column.setSortType(key.isAscending() ? TableColumn.SortType.ASCENDING : TableColumn.SortType.DESCENDING);
+                        table.getSortOrder().add(column);
+                    }
+                }
+            }
+        }
+        if (transactions != null) {
+            table.setItems(transactions);
+        }
+    }
+
     
     private Scene createHomeScene() {
+        SceneBuildEvent sceneEvent = SceneBuildEvent.start("Home");
         VBox homeLayout = new VBox(10);
         homeLayout.setPadding(new Insets(20));
         homeLayout.setStyle("-fx-background-color: white;");
@@ -275,6 +913,27 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
         MenuItem CreateNewScheduledTransactionMenuItem = new MenuItem("Create New Scheduled Transaction");
         CreateNewScheduledTransactionMenuItem.setOnAction(e -> primaryStage.setScene(createEnterScheduledTransactionsScene()));
 
+        MenuItem suggestSchedulesMenuItem = new MenuItem("Suggest Scheduled Transactions");
+        suggestSchedulesMenuItem.setOnAction(e -> primaryStage.setScene(createSuggestedSchedulesScene()));
+
+        MenuItem manageBudgetsMenuItem = new MenuItem("Manage Budgets");
+        manageBudgetsMenuItem.setOnAction(e -> primaryStage.setScene(createBudgetsScene()));
+
+        MenuItem exchangeRatesMenuItem = new MenuItem("Exchange Rates");
+        exchangeRatesMenuItem.setOnAction(e -> primaryStage.setScene(createExchangeRatesScene()));
+
+        MenuItem backUpDatabaseMenuItem = new MenuItem("Back Up Database Now");
+        backUpDatabaseMenuItem.setOnAction(e -> backUpDatabaseNow());
+
+        MenuItem archiveTransactionsMenuItem = new MenuItem("Archive Old Transactions");
+        archiveTransactionsMenuItem.setOnAction(e -> archiveOldTransactions());
+
+        MenuItem switchProfileMenuItem = new MenuItem("Switch Profile");
+        switchProfileMenuItem.setOnAction(e -> switchProfile());
+
+        MenuItem allProfilesSummaryMenuItem = new MenuItem("All Profiles Summary");
+        allProfilesSummaryMenuItem.setOnAction(e -> showAllProfilesSummary());
+
         //Adnan added-modified-start
         // Search Transactions menu item
         MenuItem searchTransactionsMenuItem = new MenuItem("Search or Edit Transactions");
@@ -295,6 +954,10 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
         MenuItem viewTransactionTypeReportMenuItem = new MenuItem("View Transactions by Transaction Type");
         viewTransactionTypeReportMenuItem.setOnAction(e -> primaryStage.setScene(createTransactionTypeReportScene(null, FXCollections.observableArrayList())));
         MenuItem viewAccountReportMenuItem = new MenuItem("View Transactions by Account");
+        MenuItem viewForecastMenuItem = new MenuItem("View Cash Flow Forecast");
+        viewForecastMenuItem.setOnAction(e -> primaryStage.setScene(createForecastScene()));
+        MenuItem viewDashboardMenuItem = new MenuItem("View Spending Dashboard");
+        viewDashboardMenuItem.setOnAction(e -> primaryStage.setScene(createSpendingDashboardScene()));
         viewAccountReportMenuItem.setOnAction(e -> primaryStage.setScene(createAccountReportScene(null, FXCollections.observableArrayList())));
         //Adnan added-modified-end (12-03-2024)
 
@@ -305,15 +968,16 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
 
         
         // Add MenuItems to the Menu
-        pagesMenu.getItems().addAll(viewTransactionsMenuItem, viewScheduledTransactionsMenuItem);
-        actionsMenu.getItems().addAll(AddTransactionTypeMenuItem, CreateNewTransactionMenuItem, CreateNewScheduledTransactionMenuItem);
+        pagesMenu.getItems().addAll(viewTransactionsMenuItem, viewScheduledTransactionsMenuItem, viewForecastMenuItem,
+                viewDashboardMenuItem);
+        actionsMenu.getItems().addAll(AddTransactionTypeMenuItem, CreateNewTransactionMenuItem, CreateNewScheduledTransactionMenuItem,
+                suggestSchedulesMenuItem, manageBudgetsMenuItem, exchangeRatesMenuItem, backUpDatabaseMenuItem, archiveTransactionsMenuItem, switchProfileMenuItem, allProfilesSummaryMenuItem);
 
         // Add the Menu to the MenuBar
         menuBar.getMenus().add(actionsMenu);
         menuBar.getMenus().add(pagesMenu);
 
         setupDueTodayTransactionsTable();
-        refreshDueTodayTransactionsTable();
 
         Label homePageLabel = new Label("Home Page");
         homePageLabel.setStyle("-fx-font-size: 24px; -fx-text-fill: #1e4b35 ; -fx-font-weight: bold;");
@@ -326,7 +990,13 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
 
         accountTable = new TableView<>(); // Initialize the TableView
         setupAccountTable();
-        refreshAccountTable(); // Populate the table with account details
+        budgetStatusBox = new VBox(2);
+        // On first launch the tables are filled by finishStartup once the window has painted
+        if (primaryStage.isShowing()) {
+            refreshDueTodayTransactionsTable();
+            refreshAccountTable(); // Populate the table with account details
+            refreshBudgetStatus();
+        }
 
         // Define button styles
         String buttonStyle = "-fx-background-color: #cbdfd6;";
@@ -354,12 +1024,12 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
         spacer.setMinHeight(20);
 
 
-        homeLayout.getChildren().addAll(menuBar, homePageLabel, dueTodayLabel, dueTodayTransactionsTable, yourAccountsLabel,
-                accountTable, spacer, buttonLayout);
+        homeLayout.getChildren().addAll(menuBar, homePageLabel, dueTodayLabel, dueTodayTransactionsTable, budgetStatusBox,
+                yourAccountsLabel, accountTable, spacer, buttonLayout);
 
         homeLayout.setAlignment(Pos.TOP_CENTER);
 
-        return new Scene(homeLayout, 820, 640);
+        return sceneEvent.finish(new Scene(homeLayout, 820, 640));
     }
 
     private void setupAccountTable() {
@@ -374,7 +1044,11 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
         balanceColumn.setCellValueFactory(new PropertyValueFactory<>("openingBalance"));
         balanceColumn.setStyle("-fx-text-fill: #1e4b35;");
 
-        accountTable.getColumns().addAll(nameColumn, dateColumn, balanceColumn);
+        TableColumn<Account, String> currencyColumn = new TableColumn<>("Currency");
+        currencyColumn.setCellValueFactory(new PropertyValueFactory<>("currency"));
+        currencyColumn.setStyle("-fx-text-fill: #1e4b35;");
+
+        accountTable.getColumns().addAll(nameColumn, dateColumn, balanceColumn, currencyColumn);
     }
 
     private void setupScheduledTransactionsTable() {
@@ -447,9 +1121,17 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
         TableColumn<Transaction, Double> depositAmountColumn = new TableColumn<>("Deposit Amount");
         depositAmountColumn.setCellValueFactory(new PropertyValueFactory<>("depositAmount"));
 
+        accountNameColumn.setUserData(TransactionSort.Column.ACCOUNT);
+        transactionTypeColumn.setUserData(TransactionSort.Column.TYPE);
+        transactionDateColumn.setUserData(TransactionSort.Column.DATE);
+        transactionDescriptionColumn.setUserData(TransactionSort.Column.DESCRIPTION);
+        paymentAmountColumn.setUserData(TransactionSort.Column.PAYMENT);
+        depositAmountColumn.setUserData(TransactionSort.Column.DEPOSIT);
+
         // Add columns to the TableView
         transactionsTable.getColumns().addAll(accountNameColumn,
                 transactionTypeColumn, transactionDateColumn, transactionDescriptionColumn, paymentAmountColumn, depositAmountColumn);
+        sortInRepository(transactionsTable);
     }
 
     private void setupTransactionsSearchResultsTable(TableView<Transaction> table) {
@@ -477,6 +1159,7 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
 
 
     private Scene createCreateAccountScene() {
+        SceneBuildEvent sceneEvent = SceneBuildEvent.start("CreateAccount");
         VBox enterAccountLayout = new VBox(20);
         enterAccountLayout.setPadding(new Insets(20));
         enterAccountLayout.setStyle("-fx-background-color: white;");
@@ -492,6 +1175,7 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
         accountNameField = new TextField();
         openingDatePicker = new DatePicker(LocalDate.now());
         openingBalanceField = new TextField();
+        accountCurrencyField = new TextField(ExchangeRates.DEFAULT_CURRENCY);
 
         // Define button styles
         String buttonStyle = "-fx-background-color: #cbdfd6;";
@@ -519,13 +1203,15 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
         createAccountPane.add(openingDatePicker, 1, 2);
         createAccountPane.add(new Label("Opening Balance:"), 0, 3);
         createAccountPane.add(openingBalanceField, 1, 3);
-        createAccountPane.add(submitButton, 1, 4);
+        createAccountPane.add(new Label("Currency:"), 0, 4);
+        createAccountPane.add(accountCurrencyField, 1, 4);
+        createAccountPane.add(submitButton, 1, 5);
 
         enterAccountLayout.getChildren().addAll(enterNewAccountPageLabel, createAccountPane);
         enterAccountLayout.setAlignment(Pos.TOP_CENTER);
         createAccountPane.setAlignment(Pos.CENTER);
 
-        return new Scene(enterAccountLayout, 820,640);
+        return sceneEvent.finish(new Scene(enterAccountLayout, 820,640));
     }
 
     private void createAccount() {
@@ -549,6 +1235,14 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
             return;
         }
 
+        String currency;
+        try {
+            currency = ExchangeRates.normalize(accountCurrencyField.getText());
+        } catch (IllegalArgumentException e) {
+            showAlert("Error", e.getMessage());
+            return;
+        }
+
         // Check if the account name already exists
         if (dbHelper.accountExists(accountName)) {
             showAlert("Error", "Account name already exists. Please choose a different name.");
@@ -556,7 +1250,8 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
         }
 
         // Create the account if the name does not exist
-        if (dbHelper.createAccount(accountName, Date.valueOf(openingDate), openingBalance)) {
+        if (dbHelper.createAccount(accountName, Date.valueOf(openingDate), openingBalance, currency)) {
+            forecast = null;
             showAlert("Success", "Account created successfully!");
             primaryStage.setScene(createHomeScene());
         } else {
@@ -564,26 +1259,51 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
         }
     }
 
+    // One line per budget for this month, read from the counters every write keeps; hidden with no budgets
+    private void refreshBudgetStatus() {
+        if (budgetStatusBox == null) {
+            return;
+        }
+        budgetStatusBox.getChildren().clear();
+        List<BudgetTracker.Status> statuses = dbHelper.getBudgetStatus(LocalDate.now());
+        if (statuses.isEmpty()) {
+            return;
+        }
+        Label budgetsLabel = new Label("Budgets This Month:");
+        budgetsLabel.setStyle("-fx-font-size: 12px; -fx-text-fill: #1e4b35 ;");
+        budgetStatusBox.getChildren().add(budgetsLabel);
+        for (BudgetTracker.Status status : statuses) {
+            Label line = new Label(String.format("%s (%s): %.2f of %.2f (%d%%)", status.getTransactionType(),
+                    status.getAccountLabel(), status.getSpent(), status.getLimit(), status.getPercentUsed()));
+            line.setStyle(status.isExceeded() ? "-fx-text-fill: #b00020;" : "-fx-text-fill: #1e4b35;");
+            budgetStatusBox.getChildren().add(line);
+        }
+    }
+
     private void refreshAccountTable() {
+        TableRefreshEvent refreshEvent = TableRefreshEvent.start("accountTable");
         accountTable.getItems().clear();
         // Get account details from the database
         for (Account accountDetail : dbHelper.getAllAccountDetails()) {
             accountTable.getItems().add(accountDetail);
         }
+        refreshEvent.finish(accountTable.getItems().size());
     }
 
     private void refreshScheduledTransactionsTable() {
+        TableRefreshEvent refreshEvent = TableRefreshEvent.start("scheduledTransactionsTable");
         scheduledTransactionsTable.getItems().clear();
         for (ScheduledTransaction scheduledTransactionDetail : dbHelper.getScheduledTransactions()){
             scheduledTransactionsTable.getItems().add(scheduledTransactionDetail);
         }
+        refreshEvent.finish(scheduledTransactionsTable.getItems().size());
     }
 
     private void refreshTransactionsTable() {
-        transactionsTable.getItems().clear();
-        for (Transaction transactionDetail : dbHelper.getTransactions()){
-            transactionsTable.getItems().add(transactionDetail);
-        }
+        TableRefreshEvent refreshEvent = TableRefreshEvent.start("transactionsTable");
+        // Only the count is queried here; rows are fetched a page at a time as they scroll into view
+        transactionsTable.setItems(new PagedTransactionList(dbHelper, null, null, sortKeys(transactionsTable)));
+        refreshEvent.finish(transactionsTable.getItems().size());
     }
 
     private void showAlert(String title, String message) {
@@ -594,7 +1314,16 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
         alert.showAndWait();
     }
 
+    private boolean confirm(String title, String message) {
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+        alert.setTitle(title);
+        alert.setHeaderText(null);
+        alert.setContentText(message);
+        return alert.showAndWait().filter(button -> button == ButtonType.OK).isPresent();
+    }
+
     private Scene createAddTransactionTypeScene() {
+        SceneBuildEvent sceneEvent = SceneBuildEvent.start("AddTransactionType");
         VBox enterTransactionTypeLayout = new VBox(20);
         enterTransactionTypeLayout.setPadding(new Insets(20));
         enterTransactionTypeLayout.setStyle("-fx-background-color: white;");
@@ -654,13 +1383,14 @@ private void setupTransactionsReportTable(TableView<Transaction> table, boolean
         enterTransactionTypeLayout.setAlignment(Pos.TOP_CENTER);
         addTransactionTypePane.setAlignment(Pos.CENTER);
 
-        return new Scene(enterTransactionTypeLayout, 820, 640);
+        return sceneEvent.finish(new Scene(enterTransactionTypeLayout, 820, 640));
     }
 
 
 
 // Adnan added-modified-start-(rubric #5)
 private Scene createSearchTransactionsScene() {
+    SceneBuildEvent sceneEvent = SceneBuildEvent.start("SearchTransactions");
     VBox searchLayout = new VBox(20);
     searchLayout.setPadding(new Insets(20));
     searchLayout.setStyle("-fx-background-color: white;");
@@ -670,6 +1400,20 @@ private Scene createSearchTransactionsScene() {
 
     TextField searchField = new TextField();
     searchField.setPromptText("Enter description to search");
+
+    // Tag, account and date filters are answered from the tag bitmaps, then only the newest matches are fetched
+    TextField tagQueryField = new TextField();
+    tagQueryField.setPromptText("Tags, e.g. work and not reimbursed");
+    ComboBox<String> filterAccountComboBox = new ComboBox<>();
+    filterAccountComboBox.getItems().add("All accounts");
+    filterAccountComboBox.getItems().addAll(dbHelper.getAllAccountNames());
+    filterAccountComboBox.setValue("All accounts");
+    filterAccountComboBox.setStyle("-fx-background-color: #cbdfd6; -fx-text-fill: black;");
+    DatePicker fromDatePicker = new DatePicker();
+    fromDatePicker.setPromptText("From");
+    DatePicker toDatePicker = new DatePicker();
+    toDatePicker.setPromptText("To");
+    HBox filterBox = new HBox(10, tagQueryField, filterAccountComboBox, fromDatePicker, toDatePicker);
     
     Button searchButton = new Button("Search");
 
@@ -685,8 +1429,32 @@ private Scene createSearchTransactionsScene() {
     
     searchButton.setOnAction(e -> {
         String searchTerm = searchField.getText().trim();
+        String tagText = tagQueryField.getText().trim();
+        String accountName = "All accounts".equals(filterAccountComboBox.getValue()) ? null : filterAccountComboBox.getValue();
         searchResultsTable.getItems().clear();
-        searchResultsTable.getItems().addAll(dbHelper.searchTransactions(searchTerm));
+        instructionLabel.setText("Single-click any transaction to edit it.");
+        if (tagText.isEmpty() && accountName == null && fromDatePicker.getValue() == null && toDatePicker.getValue() == null) {
+            searchResultsTable.getItems().addAll(dbHelper.searchTransactions(searchTerm));
+            return;
+        }
+        IdBitmap matched;
+        try {
+            matched = dbHelper.matchTransactions(tagText.isEmpty() ? null : TagQuery.parse(tagText), accountName,
+                    fromDatePicker.getValue(), toDatePicker.getValue());
+        } catch (IllegalArgumentException ex) {
+            showAlert("Error", ex.getMessage());
+            return;
+        }
+        // Ids grow with entry order, so the highest ones are the most recently entered matches
+        int shown = Math.min(matched.cardinality(), TAG_SEARCH_LIMIT);
+        for (Transaction found : dbHelper.getTransactionsByIds(matched.select(matched.cardinality() - shown, shown))) {
+            if (found.getDescription().toLowerCase().contains(searchTerm.toLowerCase())) {
+                searchResultsTable.getItems().add(found);
+            }
+        }
+        instructionLabel.setText(matched.cardinality() + " transactions match the filters" +
+                (shown < matched.cardinality() ? ", the " + shown + " most recently entered are searched" : "") +
+                ". Single-click any transaction to edit it.");
     });
     searchButton.setStyle(buttonStyle);
     searchButton.setOnMouseEntered(e -> searchButton.setStyle(hoverStyle));
@@ -707,13 +1475,14 @@ private Scene createSearchTransactionsScene() {
     backButton.setOnMouseExited(e -> backButton.setStyle(buttonStyle));
     backButton.setOnAction(e -> primaryStage.setScene(createHomeScene()));
 
-    searchLayout.getChildren().addAll(backButton, searchLabel, searchField,
+    searchLayout.getChildren().addAll(backButton, searchLabel, searchField, filterBox,
                                     searchButton, instructionLabel, searchResultsTable);
     
-    return new Scene(searchLayout, 820, 640);
+    return sceneEvent.finish(new Scene(searchLayout, 820, 640));
 }
 
 private Scene createEditTransactionScene(Transaction transaction) {
+    SceneBuildEvent sceneEvent = SceneBuildEvent.start("EditTransaction");
     BorderPane rootLayout = new BorderPane();
     rootLayout.setPadding(new Insets(20));
     rootLayout.setStyle("-fx-background-color: white;");
@@ -755,6 +1524,9 @@ private Scene createEditTransactionScene(Transaction transaction) {
 
     TextField depositField = new TextField(String.valueOf(transaction.getDepositAmount()));
 
+    TextField tagsField = new TextField(String.join(", ", dbHelper.getTransactionTags(transaction.getId())));
+    tagsField.setPromptText("Optional, comma-separated");
+
     // Add fields to the grid
     editPane.add(new Label("Account:"), 0, 0);
     editPane.add(accountComboBox, 1, 0);
@@ -768,6 +1540,8 @@ private Scene createEditTransactionScene(Transaction transaction) {
     editPane.add(paymentField, 1, 4);
     editPane.add(new Label("Deposit Amount:"), 0, 5);
     editPane.add(depositField, 1, 5);
+    editPane.add(new Label("Tags:"), 0, 6);
+    editPane.add(tagsField, 1, 6);
 
     Button saveButton = new Button("Save");
     saveButton.setStyle(buttonStyle);
@@ -790,7 +1564,12 @@ private Scene createEditTransactionScene(Transaction transaction) {
                 descriptionField.getText(),
                 Double.parseDouble(paymentField.getText()),
                 Double.parseDouble(depositField.getText()))) {
-            showAlert("Success", "Transaction updated successfully!");
+            forecast = null;
+            if (dbHelper.setTransactionTags(transaction.getId(), TagIndex.parseTags(tagsField.getText()))) {
+                showAlert("Success", "Transaction updated successfully!");
+            } else {
+                showAlert("Error", "The transaction was updated but its tags could not be saved.");
+            }
             primaryStage.setScene(createSearchTransactionsScene());
         } else {
             showAlert("Error", "Failed to update transaction.");
@@ -815,12 +1594,13 @@ private Scene createEditTransactionScene(Transaction transaction) {
     rootLayout.setBottom(saveButton);
     BorderPane.setAlignment(saveButton, Pos.CENTER);
 
-    return new Scene(rootLayout, 820, 640);
+    return sceneEvent.finish(new Scene(rootLayout, 820, 640));
 } //Adnan added-modified-end
 
 
     // Adnan added-modified-start-(rubric #6)
 private Scene createSearchScheduledTransactionsScene() {
+    SceneBuildEvent sceneEvent = SceneBuildEvent.start("SearchScheduledTransactions");
     VBox searchLayout = new VBox(20);
     searchLayout.setPadding(new Insets(20));
     searchLayout.setStyle("-fx-background-color: white;");
@@ -872,10 +1652,11 @@ private Scene createSearchScheduledTransactionsScene() {
     searchLayout.getChildren().addAll(backButton, searchLabel, searchField, 
                                     searchButton, instructionLabel, searchResultsTable);
     
-    return new Scene(searchLayout, 820, 640);
+    return sceneEvent.finish(new Scene(searchLayout, 820, 640));
 }
 
 private Scene createEditScheduledTransactionScene(ScheduledTransaction transaction) {
+    SceneBuildEvent sceneEvent = SceneBuildEvent.start("EditScheduledTransaction");
     BorderPane rootLayout = new BorderPane();
     rootLayout.setPadding(new Insets(20));
     rootLayout.setStyle("-fx-background-color: white;");
@@ -908,11 +1689,13 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
     typeComboBox.setStyle("-fx-background-color: #cbdfd6; -fx-text-fill: black;");
 
     ComboBox<String> frequencyComboBox = new ComboBox<>();
-    frequencyComboBox.getItems().addAll("Monthly", "Weekly", "Yearly");
+    frequencyComboBox.getItems().addAll(SCHEDULE_FREQUENCIES);
     frequencyComboBox.setValue(transaction.getFrequency());
     frequencyComboBox.setStyle("-fx-background-color: #cbdfd6; -fx-text-fill: black;");
 
     TextField dueDateField = new TextField(String.valueOf(transaction.getDueDate()));
+    DatePicker endDatePicker = new DatePicker(transaction.getRecurrence().getEnd());
+    endDatePicker.setPromptText("Optional");
     TextField paymentAmountField = new TextField(String.valueOf(transaction.getPaymentAmount()));
 
     editPane.add(new Label("Schedule Name:"), 0, 0);
@@ -925,8 +1708,10 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
     editPane.add(frequencyComboBox, 1, 3);
     editPane.add(new Label("Due Date:"), 0, 4);
     editPane.add(dueDateField, 1, 4);
-    editPane.add(new Label("Payment Amount:"), 0, 5);
-    editPane.add(paymentAmountField, 1, 5);
+    editPane.add(new Label("End Date:"), 0, 5);
+    editPane.add(endDatePicker, 1, 5);
+    editPane.add(new Label("Payment Amount:"), 0, 6);
+    editPane.add(paymentAmountField, 1, 6);
 
 
     Button saveButton = new Button("Save");
@@ -934,14 +1719,21 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
     saveButton.setOnMouseEntered(e -> saveButton.setStyle(hoverStyle));
     saveButton.setOnMouseExited(e -> saveButton.setStyle(buttonStyle));
     saveButton.setOnAction(e -> {
+        // An unchanged frequency and due day keep the rule's anchor, so interval schedules don't shift
+        int dueDay = ScheduledTransaction.parseDueDay(dueDateField.getText());
+        RecurrenceRule recurrence = frequencyComboBox.getValue().equals(transaction.getFrequency()) && dueDay == transaction.getDueDate()
+                ? transaction.getRecurrence()
+                : RecurrenceRule.parse(frequencyComboBox.getValue(), dueDay, LocalDate.now());
+        recurrence = recurrence.withEnd(endDatePicker.getValue());
         if (dbHelper.updateScheduledTransaction(
                 transaction.getScheduleName(),
                 scheduleNameField.getText(),
                 accountComboBox.getValue(),
                 typeComboBox.getValue(),
-                frequencyComboBox.getValue(),
-                dueDateField.getText(),
+                recurrence,
                 Double.parseDouble(paymentAmountField.getText()))) {
+            scheduleChanged(transaction.getScheduleName(), new ScheduledTransaction(scheduleNameField.getText(),
+                    accountComboBox.getValue(), typeComboBox.getValue(), recurrence, Double.parseDouble(paymentAmountField.getText())));
             showAlert("Success", "Scheduled transaction updated successfully!");
             primaryStage.setScene(createSearchScheduledTransactionsScene());
         } else {
@@ -967,10 +1759,11 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
     rootLayout.setBottom(saveButton);
     BorderPane.setAlignment(saveButton, Pos.CENTER);
     
-    return new Scene(rootLayout, 820, 640);
+    return sceneEvent.finish(new Scene(rootLayout, 820, 640));
 } // Adnan added-modified-end
 
     private Scene createEnterTransactionsScene() {
+        SceneBuildEvent sceneEvent = SceneBuildEvent.start("EnterTransactions");
         VBox enterTransactionLayout = new VBox(20);
         enterTransactionLayout.setPadding(new Insets(20));
         enterTransactionLayout.setStyle("-fx-background-color: white;");
@@ -999,6 +1792,25 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
         transactionDescriptionField = new TextField();
         paymentAmountField = new TextField();
         depositAmountField = new TextField();
+        transactionTagsField = new TextField();
+        transactionTagsField.setPromptText("Optional, comma-separated");
+
+        // Suggest a type from past descriptions as the user types, until they open the type list themselves
+        transactionTypeChosen = false;
+        transactionTypeComboBox.showingProperty().addListener((obs, wasShowing, showing) -> {
+            if (showing) {
+                transactionTypeChosen = true;
+            }
+        });
+        transactionDescriptionField.textProperty().addListener((obs, oldText, text) -> {
+            if (transactionTypeChosen) {
+                return;
+            }
+            String suggestion = dbHelper.suggestTransactionType(text);
+            if (suggestion != null && transactionTypeComboBox.getItems().contains(suggestion)) {
+                transactionTypeComboBox.setValue(suggestion);
+            }
+        });
 
         // Define button styles
         String buttonStyle = "-fx-background-color: #cbdfd6;";
@@ -1029,13 +1841,15 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
         enterTransactionPane.add(paymentAmountField, 1, 5);
         enterTransactionPane.add(new Label("Deposit Amount:"), 0, 6);
         enterTransactionPane.add(depositAmountField, 1, 6);
-        enterTransactionPane.add(submitButton, 1, 7);
+        enterTransactionPane.add(new Label("Tags:"), 0, 7);
+        enterTransactionPane.add(transactionTagsField, 1, 7);
+        enterTransactionPane.add(submitButton, 1, 8);
 
         enterTransactionLayout.getChildren().addAll(createTransactionPageLabel, enterTransactionPane);
         enterTransactionLayout.setAlignment(Pos.TOP_CENTER);
         enterTransactionPane.setAlignment(Pos.CENTER);
 
-        return new Scene(enterTransactionLayout, 820, 640);
+        return sceneEvent.finish(new Scene(enterTransactionLayout, 820, 640));
     } // Adnan added-modified-end-(commenting out)
 
     
@@ -1075,9 +1889,25 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
             return;
         }
 
+        // Ask before saving something that looks like an entry already in the ledger
+        List<Transaction> duplicates = dbHelper.findLikelyDuplicates(accountName, Date.valueOf(transactionDate),
+                transactionDescription, paymentAmount, depositAmount);
+        if (!duplicates.isEmpty()) {
+            StringBuilder message = new StringBuilder("This looks like a transaction that is already saved:\n");
+            for (Transaction duplicate : duplicates) {
+                message.append(String.format("%n%s  %s  %s  %.2f / %.2f", duplicate.getTransactionDate(), duplicate.getAccountName(),
+                        duplicate.getDescription(), duplicate.getPaymentAmount(), duplicate.getDepositAmount()));
+            }
+            message.append("\n\nSave it anyway?");
+            if (!confirm("Possible Duplicate", message.toString())) {
+                return;
+            }
+        }
+
         // Save transaction to database
         if (dbHelper.saveTransaction(accountName, transactionType, Date.valueOf(transactionDate),
-                transactionDescription, paymentAmount, depositAmount)) {
+                transactionDescription, paymentAmount, depositAmount, TagIndex.parseTags(transactionTagsField.getText()))) {
+            forecast = null;
             showAlert("Success", "Transaction saved successfully!");
             primaryStage.setScene(createHomeScene());
         } else {
@@ -1086,6 +1916,7 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
     }
 
     private Scene createTransactionsScene() {
+        SceneBuildEvent sceneEvent = SceneBuildEvent.start("Transactions");
         VBox TransactionsLayout = new VBox(20);
         TransactionsLayout.setPadding(new Insets(20));
         TransactionsLayout.setAlignment(Pos.CENTER);
@@ -1124,10 +1955,11 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
         // Add components to the layout, including enterTransactionPane
         TransactionsLayout.getChildren().addAll(enterTransactionPane, homePageLabel, transactionsTable, deleteTransactionButton);
 
-        return new Scene(TransactionsLayout, 820, 640);
+        return sceneEvent.finish(new Scene(TransactionsLayout, 820, 640));
     }
 
     private Scene createEnterScheduledTransactionsScene() {
+        SceneBuildEvent sceneEvent = SceneBuildEvent.start("EnterScheduledTransactions");
         VBox enterScheduledTransactionLayout = new VBox(20);
         enterScheduledTransactionLayout.setPadding(new Insets(20));
         enterScheduledTransactionLayout.setStyle("-fx-background-color: white;");
@@ -1161,11 +1993,13 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
 
         frequencyComboBox = new ComboBox<>();
         frequencyComboBox.setStyle("-fx-background-color: #cbdfd6; -fx-text-fill: black;");
-        frequencyComboBox.getItems().add("Monthly");
+        frequencyComboBox.getItems().addAll(SCHEDULE_FREQUENCIES);
         frequencyComboBox.setValue("Monthly");
 
         dueDateField = new TextField();
         dueDateField.setPromptText("Enter day of the month");
+        scheduleEndDatePicker = new DatePicker();
+        scheduleEndDatePicker.setPromptText("Optional");
 
         // Define button styles
         String buttonStyle = "-fx-background-color: #cbdfd6;";
@@ -1194,15 +2028,17 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
         enterTransactionPane.add(frequencyComboBox, 1, 3);
         enterTransactionPane.add(new Label("Due Date:"), 0, 4);
         enterTransactionPane.add(dueDateField, 1, 4);
-        enterTransactionPane.add(new Label("Payment Amount:"), 0, 5);
-        enterTransactionPane.add(paymentAmountField, 1, 5);
-        enterTransactionPane.add(submitButton, 1, 7);
+        enterTransactionPane.add(new Label("End Date:"), 0, 5);
+        enterTransactionPane.add(scheduleEndDatePicker, 1, 5);
+        enterTransactionPane.add(new Label("Payment Amount:"), 0, 6);
+        enterTransactionPane.add(paymentAmountField, 1, 6);
+        enterTransactionPane.add(submitButton, 1, 8);
 
         enterScheduledTransactionLayout.getChildren().addAll(createTransactionPageLabel, enterTransactionPane);
         enterScheduledTransactionLayout.setAlignment(Pos.TOP_CENTER);
         enterTransactionPane.setAlignment(Pos.CENTER);
 
-        return new Scene(enterScheduledTransactionLayout, 820, 640);
+        return sceneEvent.finish(new Scene(enterScheduledTransactionLayout, 820, 640));
     }
 
     private void saveScheduledTransaction() {
@@ -1245,8 +2081,12 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
             return;
         }
 
+        RecurrenceRule recurrence = RecurrenceRule.parse(frequency, ScheduledTransaction.parseDueDay(dueDate), LocalDate.now())
+                .withEnd(scheduleEndDatePicker.getValue());
+
         // Save transaction to database
-        if (dbHelper.saveScheduledTransaction(scheduleName, accountName, transactionType, frequency, dueDate, paymentAmount)){
+        if (dbHelper.saveScheduledTransaction(scheduleName, accountName, transactionType, recurrence, paymentAmount)){
+            scheduleChanged(null, new ScheduledTransaction(scheduleName, accountName, transactionType, recurrence, paymentAmount));
             showAlert("Success", "Transaction saved successfully!");
             primaryStage.setScene(createScheduledTransactionsScene());
         }
@@ -1256,6 +2096,7 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
     }
 
     private Scene createScheduledTransactionsScene() {
+        SceneBuildEvent sceneEvent = SceneBuildEvent.start("ScheduledTransactions");
         VBox scheduledTransactionsLayout = new VBox(20);
         scheduledTransactionsLayout.setPadding(new Insets(20));
         scheduledTransactionsLayout.setAlignment(Pos.CENTER);
@@ -1294,7 +2135,7 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
         // Add components to the layout, including enterTransactionPane
         scheduledTransactionsLayout.getChildren().addAll(enterTransactionPane, homePageLabel, scheduledTransactionsTable, deletescheduledTransactionButton);
 
-        return new Scene(scheduledTransactionsLayout, 820, 640);
+        return sceneEvent.finish(new Scene(scheduledTransactionsLayout, 820, 640));
     }
 
     private void deleteSelectedAccount() {
@@ -1306,6 +2147,7 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
 
         boolean isDeleted = dbHelper.deleteAccount(selectedAccount.getName());
         if (isDeleted) {
+            forecast = null;
             showAlert("Success", "Account deleted successfully.");
             refreshAccountTable(); // Refresh the table to show updated data
         } else {
@@ -1322,6 +2164,7 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
 
         boolean isDeleted = dbHelper.deleteScheduledTransaction(selectedScheduledTransaction.getScheduleName());
         if (isDeleted) {
+            scheduleChanged(selectedScheduledTransaction.getScheduleName(), null);
             showAlert("Success", "Transaction deleted successfully.");
             refreshScheduledTransactionsTable(); // Refresh the table to show updated data
         } else {
@@ -1338,6 +2181,7 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
 
         boolean isDeleted = dbHelper.deleteTransaction(selectedTransaction.getDescription());
         if (isDeleted) {
+            forecast = null;
             showAlert("Success", "Transaction deleted successfully.");
             refreshTransactionsTable(); // Refresh the table to show updated data
         } else {
@@ -1372,8 +2216,10 @@ private Scene createEditScheduledTransactionScene(ScheduledTransaction transacti
     }
 
     private void refreshDueTodayTransactionsTable() {
+        TableRefreshEvent refreshEvent = TableRefreshEvent.start("dueTodayTransactionsTable");
         dueTodayTransactionsTable.getItems().clear();
         dueTodayTransactionsTable.getItems().addAll(dbHelper.getScheduledTransactionsDueToday());
+        refreshEvent.finish(dueTodayTransactionsTable.getItems().size());
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,71 @@
+package application;
+
+import javafx.collections.ObservableListBase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The rows of a transaction table, fetched a page at a time as the TableView scrolls them into view.
+// Only the row count is queried up front, and only the last few pages are kept, so a table over a large
+// ledger costs one page of Transaction objects rather than all of them. sortBy() changes the order the
+// pages are fetched in; the size stays the same, so the table only needs a refresh() to show it.
+// The list is a snapshot of the filter: after a write, build a new one.
+public class PagedTransactionList extends ObservableListBase<Transaction> {
+    static final int PAGE_SIZE = 200;
+    private static final int CACHED_PAGES = 8;
+
+    private final LedgerRepository repository;
+    private final String accountName;
+    private final String transactionType;
+    private final int size;
+    private List<TransactionSort> order;
+    private final Map<Integer, List<Transaction>> pages = new LinkedHashMap<Integer, List<Transaction>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Transaction>> eldest) {
+            return size() > CACHED_PAGES;
+        }
+    };
+
+    // A null account or type matches any
+    public PagedTransactionList(LedgerRepository repository, String accountName, String transactionType,
+                                List<TransactionSort> order) {
+        this.repository = repository;
+        this.accountName = accountName;
+        this.transactionType = transactionType;
+        this.order = new ArrayList<>(order);
+        this.size = repository.countTransactions(accountName, transactionType);
+    }
+
+    public String getAccountName() { return accountName; }
+    public String getTransactionType() { return transactionType; }
+    public List<TransactionSort> getOrder() { return new ArrayList<>(order); }
+
+    // Returns false when the order is unchanged, so a table re-applying its sort doesn't re-fetch
+    public boolean sortBy(List<TransactionSort> newOrder) {
+        if (order.equals(newOrder)) {
+            return false;
+        }
+        order = new ArrayList<>(newOrder);
+        pages.clear();
+        return true;
+    }
+
+    // Null when the row was deleted after the count was taken
+    @Override
+    public Transaction get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        List<Transaction> page = pages.computeIfAbsent(index / PAGE_SIZE,
+                p -> repository.getTransactionPage(accountName, transactionType, order, p * PAGE_SIZE, PAGE_SIZE));
+        int offset = index % PAGE_SIZE;
+        return offset < page.size() ? page.get(offset) : null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,303 @@
+package application;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+// One ledger per household: each profile is a directory under the profiles root holding its own
+// database file (plus its archive, partitions and backups).
+//
+// Open profiles are kept in LRU order. Once more than maxOpen are open, the least recently used
+// profile that nobody holds a lease on is closed, releasing its connection, attached partitions and
+// mapped archive segments. A background sweep also closes profiles idle for longer than
+// centsible.profileIdleMinutes (default 10). A profile in use is never closed, so the limit can be
+// exceeded briefly while every open profile is leased.
+//
+// Opening and closing a profile's DatabaseHelper (migrations, the writer thread, its connections) happen outside
+// the manager's lock, so one slow profile never holds up leases on the others. While a profile opens, its entry
+// holds a future the other callers for that name wait on, and a profile being closed is only reopened once its
+// close has finished.
+//
+// Start the app with -Dcentsible.profile=<name> to use profiles; without it the single mydatabase.db is used.
+public final class ProfileManager {
+    static final String PROPERTY = "centsible.profile";
+    static final String DIRECTORY = "profiles";
+    private static final Pattern VALID_NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    // A pinned, open profile; close it to let the manager evict the profile again
+    public final class Lease implements AutoCloseable {
+        private final String name;
+        private final OpenProfile profile;
+        private final DatabaseHelper helper;
+        private boolean released;
+
+        private Lease(String name, OpenProfile profile, DatabaseHelper helper) {
+            this.name = name;
+            this.profile = profile;
+            this.helper = helper;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public DatabaseHelper repository() {
+            return helper;
+        }
+
+        @Override
+        public void close() {
+            List<Map.Entry<String, OpenProfile>> evicted;
+            synchronized (ProfileManager.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                profile.leases--;
+                profile.lastUsedNanos = System.nanoTime();
+                evicted = evictOverLimit();
+            }
+            closeAll(evicted);
+        }
+    }
+
+    private static final class OpenProfile {
+        // Completed by the caller that opens the profile
+        final CompletableFuture<DatabaseHelper> helper = new CompletableFuture<>();
+        int leases;
+        long lastUsedNanos = System.nanoTime();
+    }
+
+    private final Path root;
+    private final int maxOpen;
+    private final LinkedHashMap<String, OpenProfile> open = new LinkedHashMap<>(16, 0.75f, true);
+    // Profiles taken out of open whose helper is still closing, by name
+    private final Map<String, CompletableFuture<Void>> closing = new HashMap<>();
+    private final ExecutorService fanOutExecutor;
+    private final ScheduledExecutorService idleSweeper;
+
+    public ProfileManager(Path root, int maxOpen) {
+        this.root = root;
+        this.maxOpen = maxOpen;
+        this.fanOutExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxOpen, Runtime.getRuntime().availableProcessors())),
+                runnable -> daemon(runnable, "profile-fan-out"));
+        this.idleSweeper = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "profile-idle-sweep"));
+        long idleMinutes = Long.getLong("centsible.profileIdleMinutes", 10);
+        if (idleMinutes > 0) {
+            idleSweeper.scheduleWithFixedDelay(() -> closeIdle(TimeUnit.MINUTES.toNanos(idleMinutes)), 1, 1, TimeUnit.MINUTES);
+        }
+    }
+
+    public ProfileManager(Path root) {
+        this(root, Integer.getInteger("centsible.maxOpenProfiles", 4));
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    public static boolean isValidName(String name) {
+        return name != null && VALID_NAME.matcher(name).matches();
+    }
+
+    public String databaseFile(String name) {
+        return root.resolve(name).resolve(DatabaseHelper.DATABASE_FILE).toString();
+    }
+
+    // Profiles that already have a database file, sorted by name
+    public List<String> listProfiles() {
+        List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(root)) {
+            return names;
+        }
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path directory : directories) {
+                String name = directory.getFileName().toString();
+                if (isValidName(name) && Files.exists(directory.resolve(DatabaseHelper.DATABASE_FILE))) {
+                    names.add(name);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    // Opens the profile (creating it on first use) and pins it until the lease is closed
+    public Lease acquire(String name) throws IOException {
+        if (!isValidName(name)) {
+            throw new IllegalArgumentException("Invalid profile name: " + name);
+        }
+        OpenProfile profile;
+        CompletableFuture<Void> previousClose = null;
+        synchronized (this) {
+            profile = open.get(name);
+            if (profile == null) {
+                profile = new OpenProfile();
+                open.put(name, profile);
+                previousClose = closing.getOrDefault(name, CompletableFuture.completedFuture(null));
+            }
+            profile.leases++;
+            profile.lastUsedNanos = System.nanoTime();
+        }
+        if (previousClose != null) {
+            open(name, profile, previousClose);
+        }
+        DatabaseHelper helper;
+        try {
+            helper = profile.helper.join();
+        } catch (CompletionException e) {
+            synchronized (this) {
+                profile.leases--;
+                open.remove(name, profile);
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        List<Map.Entry<String, OpenProfile>> evicted;
+        synchronized (this) {
+            evicted = evictOverLimit();
+        }
+        closeAll(evicted);
+        return new Lease(name, profile, helper);
+    }
+
+    // Outside the lock; waits for the same profile's last helper to finish closing so two never share the file
+    private void open(String name, OpenProfile profile, CompletableFuture<Void> previousClose) {
+        try {
+            previousClose.join();
+            Files.createDirectories(root.resolve(name));
+            profile.helper.complete(new DatabaseHelper(databaseFile(name)));
+        } catch (Throwable e) {
+            profile.helper.completeExceptionally(e);
+        }
+    }
+
+    public <T> T withProfile(String name, Function<LedgerRepository, T> work) throws IOException {
+        try (Lease lease = acquire(name)) {
+            return work.apply(lease.repository());
+        }
+    }
+
+    // Runs the query against every profile in parallel and folds the results together in profile-name order.
+    // At most min(maxOpen, cores) profiles are queried at once, so fanning out doesn't thrash the LRU.
+    public <T> T aggregate(Function<LedgerRepository, T> perProfile, BinaryOperator<T> merge, T identity)
+            throws IOException, InterruptedException {
+        List<Future<T>> results = new ArrayList<>();
+        for (String name : listProfiles()) {
+            results.add(fanOutExecutor.submit(() -> withProfile(name, perProfile)));
+        }
+        T combined = identity;
+        for (Future<T> result : results) {
+            try {
+                combined = merge.apply(combined, result.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return combined;
+    }
+
+    public synchronized int getOpenCount() {
+        return open.size();
+    }
+
+    // Takes the least recently used unleased profiles out of open until it fits; the caller closes them once it
+    // has let go of the lock. A profile still opening is leased, so it is never taken.
+    private List<Map.Entry<String, OpenProfile>> evictOverLimit() {
+        List<Map.Entry<String, OpenProfile>> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, OpenProfile>> eldestFirst = open.entrySet().iterator();
+        while (open.size() - evicted.size() > maxOpen && eldestFirst.hasNext()) {
+            Map.Entry<String, OpenProfile> entry = eldestFirst.next();
+            if (entry.getValue().leases == 0) {
+                evicted.add(Map.entry(entry.getKey(), entry.getValue()));
+            }
+        }
+        return taken(evicted);
+    }
+
+    public void closeIdle(long idleNanos) {
+        List<Map.Entry<String, OpenProfile>> idle = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            for (Map.Entry<String, OpenProfile> entry : open.entrySet()) {
+                if (entry.getValue().leases == 0 && now - entry.getValue().lastUsedNanos > idleNanos) {
+                    idle.add(Map.entry(entry.getKey(), entry.getValue()));
+                }
+            }
+            taken(idle);
+        }
+        closeAll(idle);
+    }
+
+    // Under the lock: removes the profiles from open and marks each as closing, so a reopen waits for it
+    private List<Map.Entry<String, OpenProfile>> taken(List<Map.Entry<String, OpenProfile>> profiles) {
+        for (Map.Entry<String, OpenProfile> entry : profiles) {
+            open.remove(entry.getKey());
+            closing.put(entry.getKey(), new CompletableFuture<>());
+        }
+        return profiles;
+    }
+
+    // Outside the lock, since closing a helper waits for its queued writes
+    private void closeAll(List<Map.Entry<String, OpenProfile>> profiles) {
+        for (Map.Entry<String, OpenProfile> entry : profiles) {
+            try {
+                entry.getValue().helper.join().close();
+            } catch (RuntimeException e) {
+                System.err.println("Could not close profile " + entry.getKey());
+                e.printStackTrace();
+            } finally {
+                CompletableFuture<Void> closed;
+                synchronized (this) {
+                    closed = closing.remove(entry.getKey());
+                }
+                closed.complete(null);
+            }
+        }
+    }
+
+    // Closes every profile, leased or not; for application shutdown
+    public void closeAll() {
+        fanOutExecutor.shutdownNow();
+        idleSweeper.shutdownNow();
+        List<Map.Entry<String, OpenProfile>> all = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, OpenProfile> entry : open.entrySet()) {
+                all.add(Map.entry(entry.getKey(), entry.getValue()));
+            }
+            taken(all);
+        }
+        closeAll(all);
+    }
+}
@@ -0,0 +1,224 @@
+package application;
+
+import org.sqlite.SQLiteConfig;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+// Collects per-method timings for the data layer, publishes them as JMX MBeans under
+// "application:type=QueryStats", and writes statements slower than the threshold to a slow-query log.
+// The log, and the query plan it includes, are written on a background thread with its own read-only
+// connection, so a slow call is not made slower and never runs EXPLAIN on the caller's connection.
+//
+// Tuning via system properties:
+//   centsible.slowQueryMillis        threshold for the slow-query log (default 100)
+//   centsible.slowQueryLog           log file (default slow-queries.log)
+//   centsible.metricsSummaryMinutes  how often to print a summary to stdout (default 0 = off)
+public class QueryMetrics {
+    private static final QueryMetrics INSTANCE = new QueryMetrics();
+
+    private final Map<String, QueryStats> statsByMethod = new ConcurrentHashMap<>();
+    private final long slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("centsible.slowQueryMillis", 100));
+    private final String slowQueryLog = System.getProperty("centsible.slowQueryLog", "slow-queries.log");
+    // At most this many slow queries wait for the log; more are dropped rather than queued without bound
+    private final ExecutorService slowQueryExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(256), runnable -> {
+                Thread thread = new Thread(runnable, "slow-query-log");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+    private ScheduledExecutorService summaryExecutor;
+    private volatile StatementListener statementListener;
+
+    // Sees every statement as it is recorded, on the connection that ran it
+    public interface StatementListener {
+        void statement(String method, String sql, Connection connection);
+    }
+
+    // The body of one timed data-layer call
+    public interface Call<T> {
+        T run() throws SQLException;
+    }
+
+    private QueryMetrics() {
+        long summaryMinutes = Long.getLong("centsible.metricsSummaryMinutes", 0);
+        if (summaryMinutes > 0) {
+            startPeriodicSummary(summaryMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    public static QueryMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    // QueryPlanCheck uses this to collect the statements the data layer runs; null removes the listener
+    public void setStatementListener(StatementListener listener) {
+        statementListener = listener;
+    }
+
+    public QueryStats stats(String method) {
+        return statsByMethod.computeIfAbsent(method, this::register);
+    }
+
+    private QueryStats register(String method) {
+        QueryStats stats = new QueryStats(method);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("application:type=QueryStats,name=" + ObjectName.quote(method));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(stats, objectName);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return stats;
+    }
+
+    // Times one call on the connection that runs it and records it, as failed if it throws; the exception is
+    // rethrown for the caller to handle. rows counts what the call read or wrote from its result.
+    public <T> T time(String method, String sql, Connection connection, ToIntFunction<? super T> rows, Call<T> call)
+            throws SQLException {
+        DatabaseCallEvent event = new DatabaseCallEvent();
+        event.begin();
+        long start = System.nanoTime();
+        T result = null;
+        boolean failed = true;
+        try {
+            result = call.run();
+            failed = false;
+            return result;
+        } finally {
+            record(method, sql, start, failed ? 0 : rows.applyAsInt(result), failed, connection, event);
+        }
+    }
+
+    // For calls that return their own row count
+    public int time(String method, String sql, Connection connection, Call<Integer> call) throws SQLException {
+        return time(method, sql, connection, Integer::intValue, call);
+    }
+
+    private void record(String method, String sql, long startNanos, int rows, boolean failed, Connection connection,
+                        DatabaseCallEvent event) {
+        long elapsed = System.nanoTime() - startNanos;
+        event.end();
+        stats(method).record(elapsed, rows, failed);
+        StatementListener listener = statementListener;
+        if (listener != null) {
+            listener.statement(method, sql, connection);
+        }
+
+        if (event.shouldCommit()) {
+            event.queryName = method;
+            event.sql = sql;
+            event.rows = rows;
+            event.failed = failed;
+            event.commit();
+        }
+
+        if (elapsed >= slowQueryNanos) {
+            String databaseFile = databaseFile(connection);
+            LocalDateTime at = LocalDateTime.now();
+            slowQueryExecutor.execute(() -> logSlowQuery(at, method, sql, elapsed, rows, databaseFile));
+        }
+    }
+
+    // Read from the driver's URL, which costs no statement on the connection
+    private static String databaseFile(Connection connection) {
+        try {
+            return connection == null ? null : connection.getMetaData().getURL().replaceFirst("^jdbc:sqlite:", "");
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    private void logSlowQuery(LocalDateTime at, String method, String sql, long elapsedNanos, int rows, String databaseFile) {
+        List<String> plan = explainOffline(sql, databaseFile);
+        try (PrintWriter out = new PrintWriter(new FileWriter(slowQueryLog, true))) {
+            out.printf("%s %s took %.1f ms (%d rows)%n", at, method, elapsedNanos / 1_000_000.0, rows);
+            out.println("  " + sql);
+            for (String step : plan) {
+                out.println("    " + step);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Plans on a fresh read-only connection to the same file, with any year partitions the statement names attached
+    private static List<String> explainOffline(String sql, String databaseFile) {
+        if (databaseFile == null || databaseFile.isEmpty() || databaseFile.startsWith(":memory:")) {
+            return List.of("(plan unavailable: no database file)");
+        }
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile, config.toProperties())) {
+            TransactionPartitions.attachNamedIn(sql, connection,
+                    DatabaseHelper.besideDatabase(databaseFile, DatabaseHelper.PARTITION_DIRECTORY));
+            return explainQueryPlan(sql, connection);
+        } catch (SQLException e) {
+            return List.of("(plan unavailable: " + e.getMessage() + ")");
+        }
+    }
+
+    // Parameters are left unbound; SQLite plans them the same way regardless of value
+    public static List<String> explainQueryPlan(String sql, Connection connection) {
+        List<String> plan = new ArrayList<>();
+        if (connection == null) {
+            return plan;
+        }
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (rs.next()) {
+                plan.add(rs.getString("detail"));
+            }
+        } catch (SQLException e) {
+            plan.add("(plan unavailable: " + e.getMessage() + ")");
+        }
+        return plan;
+    }
+
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-36s %8s %8s %10s %9s %9s %9s%n", "method", "calls", "errors", "rows", "p50 ms", "p99 ms", "max ms"));
+        statsByMethod.values().stream()
+                .sorted((a, b) -> a.getName().compareTo(b.getName()))
+                .forEach(s -> sb.append(String.format("%-36s %8d %8d %10d %9.2f %9.2f %9.2f%n",
+                        s.getName(), s.getCallCount(), s.getErrorCount(), s.getRowCount(),
+                        s.getP50Millis(), s.getP99Millis(), s.getMaxMillis())));
+        return sb.toString();
+    }
+
+    public synchronized void startPeriodicSummary(long period, TimeUnit unit) {
+        if (summaryExecutor != null) {
+            return;
+        }
+        summaryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "query-metrics-summary");
+            thread.setDaemon(true);
+            return thread;
+        });
+        summaryExecutor.scheduleAtFixedRate(() -> System.out.print(summary()), period, period, unit);
+    }
+}
@@ -0,0 +1,347 @@
+package application;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+// Checks that every statement DatabaseHelper runs keeps the query plan recorded in query-plans.txt, so a
+// schema or query change can't quietly turn an index search into a full table scan.
+//
+// Usage: java -cp <app classpath> application.QueryPlanCheck [baseline file] [--update]
+// e.g.   ... application.QueryPlanCheck query-plans.txt
+//
+// Runs a fixed workload through DatabaseHelper on seeded ledgers in a temp directory, once plain and once
+// partitioned by year, and asks SQLite for the plan of each statement QueryMetrics records, on the connection
+// that ran it. A changed plan, a statement missing from the baseline or a baseline statement no longer run is
+// printed as a diff and the exit status is 1, so a build step running the check fails. A statement that reads a
+// whole table also fails, whatever the baseline says, unless ALLOWED_SCANS lists it; those are listed first.
+// --update rewrites the baseline after a reviewed change, but never accepts a scan. Plan text comes from the
+// SQLite bundled with sqlite-jdbc, so upgrading the driver may need an update.
+public class QueryPlanCheck {
+    private static final int ACCOUNTS = 6;
+    private static final String[] TYPES = {"Groceries", "Rent", "Utilities", "Salary", "Dining", "Travel"};
+    private static final int ROWS = 600;
+    private static final String PLAN_INDENT = "    ";
+    // The only statements allowed to read a whole table, as "method table": each loads or lists every row on
+    // purpose, or filters in a way no index serves, and none runs once per row written
+    private static final Set<String> ALLOWED_SCANS = Set.of(
+            "getAllAccountDetails accounts",
+            "getAllTransactionTypes transaction_types",
+            "getScheduledTransactions scheduled_transactions",
+            // Whether a schedule is due depends on its recurrence, which is worked out in Java
+            "getScheduledTransactionsDueToday scheduled_transactions",
+            // A LIKE with a leading wildcard
+            "searchScheduledTransactions scheduled_transactions",
+            "loadBalances transactions",
+            "loadBudgets budgets",
+            "loadExchangeRates exchange_rates",
+            "loadFingerprints transaction_fingerprints",
+            "loadTags tag_chunks");
+
+    public static void main(String[] args) throws IOException {
+        boolean update = Arrays.asList(args).contains("--update");
+        Path baselineFile = Paths.get(Arrays.stream(args).filter(arg -> !arg.startsWith("--")).findFirst().orElse("query-plans.txt"));
+
+        Map<String, List<String>> actual = new TreeMap<>();
+        collect("ledger", false, actual);
+        collect("partitioned", true, actual);
+
+        List<String> scans = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : actual.entrySet()) {
+            String method = entry.getKey().substring(entry.getKey().indexOf("] ") + 2, entry.getKey().indexOf('\n'));
+            for (String scan : fullScans(entry.getValue())) {
+                if (!ALLOWED_SCANS.contains(method + " " + scan.split(" ")[1])) {
+                    scans.add("FULL TABLE SCAN, not in ALLOWED_SCANS:\n" + entry.getKey() + "\n" + indent(entry.getValue(), "  "));
+                    break;
+                }
+            }
+        }
+
+        if (update) {
+            write(baselineFile, actual);
+            System.out.printf("Wrote %d query plans to %s%n", actual.size(), baselineFile);
+            if (!scans.isEmpty()) {
+                scans.forEach(report -> System.out.println("\n" + report));
+                System.exit(1);
+            }
+            return;
+        }
+        Map<String, List<String>> expected = read(baselineFile);
+        List<String> changes = new ArrayList<>();
+        TreeSet<String> statements = new TreeSet<>(expected.keySet());
+        statements.addAll(actual.keySet());
+        for (String statement : statements) {
+            List<String> before = expected.get(statement);
+            List<String> after = actual.get(statement);
+            if (before != null && before.equals(after)) {
+                continue;
+            }
+            String report;
+            if (before == null) {
+                report = "not in the baseline:\n" + statement + "\n" + indent(after, "+ ");
+            } else if (after == null) {
+                report = "no longer run:\n" + statement + "\n" + indent(before, "- ");
+            } else {
+                report = "plan changed:\n" + statement + "\n" + diff(before, after);
+            }
+            changes.add(report);
+        }
+
+        for (String report : scans) {
+            System.out.println(report);
+            System.out.println();
+        }
+        for (String report : changes) {
+            System.out.println(report);
+            System.out.println();
+        }
+        if (!scans.isEmpty()) {
+            System.out.printf("%d statements scan a whole table without being allowed to%n", scans.size());
+        }
+        if (!changes.isEmpty()) {
+            System.out.printf("%d of %d statements differ from %s; if the change is intended, rerun with --update%n",
+                    changes.size(), statements.size(), baselineFile);
+        }
+        if (!scans.isEmpty() || !changes.isEmpty()) {
+            System.exit(1);
+        }
+        System.out.printf("%d query plans match %s%n", actual.size(), baselineFile);
+    }
+
+    // Runs the workload on a fresh ledger, keyed by "[pass] method" and the statement
+    private static void collect(String pass, boolean partitioned, Map<String, List<String>> plans) throws IOException {
+        Path directory = Files.createTempDirectory("centsible-query-plans");
+        String previous = System.getProperty(TransactionPartitions.PROPERTY);
+        try {
+            if (partitioned) {
+                System.setProperty(TransactionPartitions.PROPERTY, "year");
+            }
+            DatabaseHelper helper = new DatabaseHelper(directory.resolve(DatabaseHelper.DATABASE_FILE).toString());
+            QueryMetrics.getInstance().setStatementListener((method, sql, connection) ->
+                    plans.putIfAbsent("[" + pass + "] " + method + "\n" + sql, QueryMetrics.explainQueryPlan(sql, connection)));
+            try {
+                exercise(helper);
+            } finally {
+                QueryMetrics.getInstance().setStatementListener(null);
+                helper.close();
+            }
+        } finally {
+            if (previous == null) {
+                System.clearProperty(TransactionPartitions.PROPERTY);
+            } else {
+                System.setProperty(TransactionPartitions.PROPERTY, previous);
+            }
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    // Calls each public DatabaseHelper method the app uses, so each of its statements runs at least once
+    private static void exercise(DatabaseHelper helper) {
+        Random random = new Random(42);
+        LocalDate first = LocalDate.of(2023, 1, 1);
+        for (String type : TYPES) {
+            helper.addTransactionType(type);
+        }
+        helper.transactionTypeExists("Rent");
+        helper.getAllTransactionTypes();
+        for (int account = 0; account < ACCOUNTS; account++) {
+            helper.createAccount("Account " + account, Date.valueOf(first), 1000, account == 5 ? "EUR" : "USD");
+        }
+        helper.accountExists("Account 0");
+        helper.getAllAccountNames();
+        helper.getAllAccountDetails();
+
+        for (int i = 0; i < ROWS; i++) {
+            boolean payment = random.nextInt(4) != 0;
+            helper.saveTransaction("Account " + random.nextInt(ACCOUNTS), TYPES[random.nextInt(TYPES.length)],
+                    Date.valueOf(first.plusDays(random.nextInt(3 * 365))), "Payee " + random.nextInt(150),
+                    payment ? random.nextInt(50_000) / 100.0 : 0, payment ? 0 : random.nextInt(300_000) / 100.0);
+        }
+        helper.getTransactions();
+        helper.getTransactionsBetween(first.plusMonths(3), first.plusMonths(9));
+        helper.getTransactionsByAccount("Account 1");
+        helper.getTransactionsByType("Rent");
+        helper.searchTransactions("Payee 1");
+        List<Transaction> candidates = helper.findLikelyDuplicates("Account 1", Date.valueOf(first.plusDays(40)), "Payee 7", 12.5, 0);
+        helper.flagLikelyDuplicates(helper.getTransactionsByAccount("Account 2"));
+        helper.suggestTransactionType("Payee 12");
+        helper.suggestTransactionTypes(List.of("Payee 3", "Payee 4"));
+        for (SpendingBuckets.Period period : SpendingBuckets.Period.values()) {
+            for (ReportEngine.GroupBy groupBy : new ReportEngine.GroupBy[] {ReportEngine.GroupBy.ACCOUNT, ReportEngine.GroupBy.TYPE}) {
+                helper.getSpendingOverTime(period, groupBy, first, first.plusYears(3));
+            }
+        }
+        helper.getBalanceOn("Account 3", first.plusYears(1));
+        helper.getNetChange("Account 3", first.plusMonths(2), first.plusMonths(14));
+
+        // Budgets: loaded from the month buckets, then moved by a save and an edit
+        helper.setBudget("Dining", null, 400);
+        helper.setBudget("Dining", "Account 1", 150);
+        helper.getBudgetStatus(first.plusMonths(2));
+        helper.saveTransaction("Account 1", "Dining", Date.valueOf(first.plusMonths(2)), "Payee 8", 200, 0);
+        helper.deleteBudget("Dining", "Account 1");
+
+        // Currencies: one EUR account, reported in USD and EUR through a rate
+        helper.setExchangeRate("EUR", "USD", first, 1.1);
+        for (ReportEngine.GroupBy groupBy : new ReportEngine.GroupBy[] {ReportEngine.GroupBy.ACCOUNT, ReportEngine.GroupBy.TYPE}) {
+            helper.getSpendingOverTime(SpendingBuckets.Period.MONTH, groupBy, first, first.plusYears(3), "USD");
+            helper.getSpendingOverTime(SpendingBuckets.Period.MONTH, groupBy, first, first.plusYears(3), "EUR");
+        }
+
+        // Tags: chunks written, emptied and reloaded, then a filtered match fetched by id
+        for (int id = 1; id <= ROWS; id += 7) {
+            helper.setTransactionTags(id, id % 3 == 0 ? List.of("work", "travel") : List.of("work"));
+        }
+        helper.saveTransaction("Account 0", "Dining", Date.valueOf(first.plusDays(100)), "Payee 3", 18, 0, List.of("meals"));
+        helper.setTransactionTags(8, List.of());
+        helper.getTransactionTags(15);
+        helper.getAllTags();
+        IdBitmap matched = helper.matchTransactions(TagQuery.parse("work and not travel"), "Account 2", first, first.plusYears(1));
+        helper.getTransactionsByIds(matched.select(Math.max(0, matched.cardinality() - 50), 50));
+        helper.findRecurringPayments();
+
+        // The paged tables: every single-column order over the whole ledger, and by date under each filter
+        helper.countTransactions(null, null);
+        helper.getTransactionPage(null, null, List.of(), 0, PagedTransactionList.PAGE_SIZE);
+        for (TransactionSort.Column column : TransactionSort.Column.values()) {
+            for (boolean ascending : new boolean[] {true, false}) {
+                helper.getTransactionPage(null, null, List.of(new TransactionSort(column, ascending)),
+                        PagedTransactionList.PAGE_SIZE, PagedTransactionList.PAGE_SIZE);
+            }
+        }
+        List<TransactionSort> byDate = List.of(new TransactionSort(TransactionSort.Column.DATE, false));
+        String[][] filters = {{"Account 4", null}, {null, "Dining"}, {"Account 4", "Dining"}};
+        for (String[] filter : filters) {
+            helper.countTransactions(filter[0], filter[1]);
+            helper.getTransactionPage(filter[0], filter[1], byDate, 0, PagedTransactionList.PAGE_SIZE);
+        }
+
+        RecurrenceRule monthly = RecurrenceRule.parse("Monthly", 15, first);
+        helper.saveScheduledTransaction("Rent", "Account 0", "Rent", monthly, 1200);
+        helper.saveScheduledTransaction("Power", "Account 1", "Utilities", monthly, 90);
+        helper.scheduleNameExists("Rent");
+        helper.getScheduledTransactions();
+        helper.getScheduledTransactionsDueToday();
+        helper.searchScheduledTransactions("Pow");
+        helper.updateScheduledTransaction("Power", "Electricity", "Account 1", "Utilities", monthly, 95);
+        helper.deleteScheduledTransaction("Electricity");
+
+        // Edits within a year and across years, which moves a row between partitions
+        for (Transaction transaction : candidates.isEmpty() ? helper.getTransactionsByAccount("Account 5") : candidates) {
+            LocalDate date = transaction.getTransactionDate().toLocalDate();
+            helper.updateTransaction(transaction.getAccountName(), transaction.getTransactionDate(), transaction.getDescription(),
+                    transaction.getAccountName(), "Dining", Date.valueOf(date.plusDays(1)), transaction.getDescription() + " (edited)",
+                    transaction.getPaymentAmount(), transaction.getDepositAmount());
+            helper.updateTransaction(transaction.getAccountName(), Date.valueOf(date.plusDays(1)), transaction.getDescription() + " (edited)",
+                    transaction.getAccountName(), "Dining", Date.valueOf(date.plusYears(1)), transaction.getDescription(),
+                    transaction.getPaymentAmount(), transaction.getDepositAmount());
+            break;
+        }
+        helper.deleteTransaction("Payee 9");
+        helper.deleteAccount("Account 5");
+        if (!helper.isPartitioned()) {
+            helper.archiveTransactionsBefore(first.plusYears(1));
+        }
+        helper.countTransactions("Account 4", null);
+        helper.getTransactionsByAccount("Account 4");
+    }
+
+    private static List<String> fullScans(List<String> plan) {
+        List<String> scans = new ArrayList<>();
+        for (String step : plan) {
+            // "SCAN t" reads every row of t; "SCAN t USING ... INDEX" walks an index instead, and a table-valued
+            // function such as json_each only reads its argument
+            if (step.startsWith("SCAN ") && !step.contains(" USING ") && !step.contains(" VIRTUAL TABLE ")
+                    && !step.equals("SCAN CONSTANT ROW")) {
+                scans.add(step);
+            }
+        }
+        return scans;
+    }
+
+    // A line diff over the longest common subsequence; plans are a handful of lines
+    private static String diff(List<String> before, List<String> after) {
+        int[][] common = new int[before.size() + 1][after.size() + 1];
+        for (int i = before.size() - 1; i >= 0; i--) {
+            for (int j = after.size() - 1; j >= 0; j--) {
+                common[i][j] = before.get(i).equals(after.get(j)) ? common[i + 1][j + 1] + 1
+                        : Math.max(common[i + 1][j], common[i][j + 1]);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        int j = 0;
+        while (i < before.size() || j < after.size()) {
+            if (i < before.size() && j < after.size() && before.get(i).equals(after.get(j))) {
+                sb.append("  ").append(before.get(i++)).append('\n');
+                j++;
+            } else if (i < before.size() && (j == after.size() || common[i + 1][j] >= common[i][j + 1])) {
+                sb.append("- ").append(before.get(i++)).append('\n');
+            } else {
+                sb.append("+ ").append(after.get(j++)).append('\n');
+            }
+        }
+        return sb.toString().stripTrailing();
+    }
+
+    private static String indent(List<String> plan, String prefix) {
+        StringBuilder sb = new StringBuilder();
+        for (String step : plan) {
+            sb.append(prefix).append(step).append('\n');
+        }
+        return sb.toString().stripTrailing();
+    }
+
+    // Each entry is the "[pass] method" line, the statement, then its plan indented, with blank lines between
+    private static void write(Path file, Map<String, List<String>> plans) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# Query plans for the statements DatabaseHelper runs, checked by QueryPlanCheck.");
+        lines.add("# Regenerate with: java -cp <app classpath> application.QueryPlanCheck --update");
+        for (Map.Entry<String, List<String>> entry : plans.entrySet()) {
+            lines.add("");
+            lines.addAll(Arrays.asList(entry.getKey().split("\n", 2)));
+            for (String step : entry.getValue()) {
+                lines.add(PLAN_INDENT + step);
+            }
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, List<String>> read(Path file) throws IOException {
+        Map<String, List<String>> plans = new TreeMap<>();
+        if (!Files.exists(file)) {
+            return plans;
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            if (!lines.get(i).startsWith("[")) {
+                continue;
+            }
+            String statement = lines.get(i) + "\n" + lines.get(++i);
+            List<String> plan = new ArrayList<>();
+            while (i + 1 < lines.size() && lines.get(i + 1).startsWith(PLAN_INDENT)) {
+                plan.add(lines.get(++i).substring(PLAN_INDENT.length()));
+            }
+            plans.put(statement, plan);
+        }
+        return plans;
+    }
+}
@@ -0,0 +1,92 @@
+package application;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Lock-free latency histogram plus row and error counters for a single data-access method.
+// Buckets are powers of two in microseconds, so percentiles are accurate to within a factor of two.
+public class QueryStats implements QueryStatsMBean {
+    private static final int BUCKETS = 40;
+
+    private final String name;
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public QueryStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long elapsedNanos, int rowCount, boolean failed) {
+        calls.increment();
+        rows.add(rowCount);
+        if (failed) {
+            errors.increment();
+        }
+        histogram.incrementAndGet(bucketFor(elapsedNanos));
+        maxNanos.accumulateAndGet(elapsedNanos, Math::max);
+    }
+
+    private static int bucketFor(long elapsedNanos) {
+        long micros = Math.max(1, elapsedNanos / 1000);
+        return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+    }
+
+    // Upper bound of the bucket containing the given percentile
+    private double percentileMillis(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min((1L << (i + 1)) / 1000.0, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    @Override
+    public long getCallCount() { return calls.sum(); }
+
+    @Override
+    public long getErrorCount() { return errors.sum(); }
+
+    @Override
+    public long getRowCount() { return rows.sum(); }
+
+    @Override
+    public double getP50Millis() { return percentileMillis(0.50); }
+
+    @Override
+    public double getP99Millis() { return percentileMillis(0.99); }
+
+    @Override
+    public double getMaxMillis() { return maxNanos.get() / 1_000_000.0; }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram.set(i, 0);
+        }
+        calls.reset();
+        errors.reset();
+        rows.reset();
+        maxNanos.set(0);
+    }
+}
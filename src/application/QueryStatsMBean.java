@@ -0,0 +1,12 @@
+package application;
+
+// JMX view of the timings collected for one DatabaseHelper method
+public interface QueryStatsMBean {
+    long getCallCount();
+    long getErrorCount();
+    long getRowCount();
+    double getP50Millis();
+    double getP99Millis();
+    double getMaxMillis();
+    void reset();
+}
@@ -0,0 +1,314 @@
+package application;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// When a scheduled transaction falls due: every <interval> days, weeks, months or years from an anchor date,
+// optionally on the last day of the month, optionally moved off weekends, optionally until an end date.
+//
+// A rule packs into one long for the scheduled_transactions.recurrence column:
+//   bits  0-1   unit                      bits 18-19  business-day adjustment
+//   bits  2-11  interval - 1              bits 20-41  anchor epoch day
+//   bits 12-17  day of month (0 = last)   bits 42-63  end epoch day + 1 (0 = no end)
+// so dates between 1970 and roughly 13,000 AD are representable.
+//
+// Cursors work in epoch days and jump straight to the first occurrence on or after a date: the period index
+// is computed by division, then at most a couple of steps absorb weekend adjustments near the boundary
+// (an adjustment moves a date at most two days, less than any period it is allowed on).
+public final class RecurrenceRule {
+    public enum Unit { DAILY, WEEKLY, MONTHLY, YEARLY }
+
+    public enum Adjustment { NONE, PREVIOUS_BUSINESS_DAY, NEXT_BUSINESS_DAY }
+
+    public static final int LAST_DAY = 0;
+    public static final long NONE = Long.MIN_VALUE;
+    private static final long MAX_EPOCH_DAY = (1L << 22) - 2;
+    private static final Pattern EVERY_N = Pattern.compile("every (\\d+) (day|week|month|year)s?");
+    private static final DateTimeFormatter YEARLY_FORMAT = DateTimeFormatter.ofPattern("MMM d", Locale.ENGLISH);
+
+    private final Unit unit;
+    private final int interval;
+    private final int dayOfMonth;
+    private final Adjustment adjustment;
+    private final long anchorDay;
+    private final long endDay;
+
+    public RecurrenceRule(Unit unit, int interval, int dayOfMonth, Adjustment adjustment, LocalDate anchor, LocalDate end) {
+        if (interval < 1 || interval > 1024) {
+            throw new IllegalArgumentException("Interval must be between 1 and 1024: " + interval);
+        }
+        if (dayOfMonth < LAST_DAY || dayOfMonth > 31) {
+            throw new IllegalArgumentException("Day of month must be between 1 and 31, or LAST_DAY: " + dayOfMonth);
+        }
+        // Moving a daily date off a weekend would land it on another occurrence
+        if (unit == Unit.DAILY && adjustment != Adjustment.NONE) {
+            throw new IllegalArgumentException("Daily rules can't move to business days");
+        }
+        this.unit = unit;
+        this.interval = interval;
+        this.dayOfMonth = dayOfMonth;
+        this.adjustment = adjustment;
+        this.anchorDay = checkEpochDay(anchor.toEpochDay());
+        this.endDay = end == null ? NONE : checkEpochDay(end.toEpochDay());
+    }
+
+    private static long checkEpochDay(long epochDay) {
+        if (epochDay < 0 || epochDay > MAX_EPOCH_DAY) {
+            throw new IllegalArgumentException("Date out of range: " + LocalDate.ofEpochDay(epochDay));
+        }
+        return epochDay;
+    }
+
+    public static RecurrenceRule decode(long encoded) {
+        long end = encoded >>> 42;
+        return new RecurrenceRule(
+                Unit.values()[(int) (encoded & 0x3)],
+                (int) ((encoded >>> 2) & 0x3FF) + 1,
+                (int) ((encoded >>> 12) & 0x3F),
+                Adjustment.values()[(int) ((encoded >>> 18) & 0x3)],
+                LocalDate.ofEpochDay((encoded >>> 20) & 0x3FFFFF),
+                end == 0 ? null : LocalDate.ofEpochDay(end - 1));
+    }
+
+    public long encode() {
+        return unit.ordinal()
+                | (long) (interval - 1) << 2
+                | (long) dayOfMonth << 12
+                | (long) adjustment.ordinal() << 18
+                | anchorDay << 20
+                | (endDay == NONE ? 0 : endDay + 1) << 42;
+    }
+
+    // Builds a rule from the frequency text the forms offer (and older rows still hold) plus a due day of the
+    // month. The rule is anchored on the first date on or after "from" that falls on the due day.
+    public static RecurrenceRule parse(String frequency, int dueDay, LocalDate from) {
+        String text = frequency == null ? "" : frequency.trim().toLowerCase(Locale.ROOT);
+        int day = Math.max(1, Math.min(31, dueDay));
+        if (text.contains("last business day")) {
+            return new RecurrenceRule(Unit.MONTHLY, 1, LAST_DAY, Adjustment.PREVIOUS_BUSINESS_DAY, firstOnDay(from, 31), null);
+        }
+        Unit unit = Unit.MONTHLY;
+        int interval = 1;
+        Matcher everyN = EVERY_N.matcher(text);
+        if (everyN.find()) {
+            interval = Math.max(1, Math.min(1024, Integer.parseInt(everyN.group(1))));
+            switch (everyN.group(2)) {
+                case "day":
+                    unit = Unit.DAILY;
+                    break;
+                case "week":
+                    unit = Unit.WEEKLY;
+                    break;
+                case "year":
+                    unit = Unit.YEARLY;
+                    break;
+                default:
+                    unit = Unit.MONTHLY;
+            }
+        } else if (text.startsWith("daily")) {
+            unit = Unit.DAILY;
+        } else if (text.startsWith("weekly")) {
+            unit = Unit.WEEKLY;
+        } else if (text.startsWith("yearly")) {
+            unit = Unit.YEARLY;
+        }
+        return new RecurrenceRule(unit, interval, day, Adjustment.NONE, firstOnDay(from, day), null);
+    }
+
+    private static LocalDate firstOnDay(LocalDate from, int day) {
+        LocalDate candidate = from.withDayOfMonth(Math.min(day, from.lengthOfMonth()));
+        if (candidate.isBefore(from)) {
+            LocalDate nextMonth = from.plusMonths(1);
+            candidate = nextMonth.withDayOfMonth(Math.min(day, nextMonth.lengthOfMonth()));
+        }
+        return candidate;
+    }
+
+    public RecurrenceRule withEnd(LocalDate end) {
+        return new RecurrenceRule(unit, interval, dayOfMonth, adjustment, getAnchor(), end);
+    }
+
+    public Unit getUnit() { return unit; }
+    public int getInterval() { return interval; }
+    public int getDayOfMonth() { return dayOfMonth; }
+    public Adjustment getAdjustment() { return adjustment; }
+    public LocalDate getAnchor() { return LocalDate.ofEpochDay(anchorDay); }
+    public LocalDate getEnd() { return endDay == NONE ? null : LocalDate.ofEpochDay(endDay); }
+
+    // The day-of-month figure kept in the legacy due_date column
+    public int getDueDay() {
+        if (unit == Unit.MONTHLY || unit == Unit.YEARLY) {
+            return dayOfMonth == LAST_DAY ? 31 : dayOfMonth;
+        }
+        return getAnchor().getDayOfMonth();
+    }
+
+    public boolean occursOn(LocalDate date) {
+        return cursor(date).nextEpochDay() == date.toEpochDay();
+    }
+
+    public Cursor cursor(LocalDate from) {
+        Cursor cursor = new Cursor();
+        cursor.seek(from.toEpochDay());
+        return cursor;
+    }
+
+    // Reusable, allocation-free walk over the occurrences, in epoch days
+    public final class Cursor {
+        private long period;
+        private long next;
+
+        private Cursor() {
+        }
+
+        // Positions the cursor on the first occurrence on or after the given day
+        public void seek(long fromEpochDay) {
+            long offset;
+            long periodLength;
+            if (unit == Unit.DAILY || unit == Unit.WEEKLY) {
+                offset = fromEpochDay - anchorDay;
+                periodLength = (long) interval * (unit == Unit.WEEKLY ? 7 : 1);
+            } else {
+                offset = monthIndex(fromEpochDay) - monthIndex(anchorDay);
+                periodLength = (long) interval * (unit == Unit.YEARLY ? 12 : 1);
+            }
+            // One period early in case a weekend adjustment pushed that occurrence past the boundary
+            period = Math.max(0, Math.floorDiv(offset + periodLength - 1, periodLength) - 1);
+            next = dateOf(period);
+            while (next != NONE && next < fromEpochDay) {
+                next = dateOf(++period);
+            }
+        }
+
+        public boolean hasNext() {
+            return next != NONE;
+        }
+
+        // Returns the current occurrence and advances, or NONE once the rule has ended
+        public long nextEpochDay() {
+            long current = next;
+            if (current != NONE) {
+                next = dateOf(++period);
+            }
+            return current;
+        }
+
+        public LocalDate next() {
+            long epochDay = nextEpochDay();
+            return epochDay == NONE ? null : LocalDate.ofEpochDay(epochDay);
+        }
+
+        public long peekEpochDay() {
+            return next;
+        }
+    }
+
+    private long dateOf(long period) {
+        long day;
+        switch (unit) {
+            case DAILY:
+                day = anchorDay + period * interval;
+                break;
+            case WEEKLY:
+                day = anchorDay + period * interval * 7;
+                break;
+            default:
+                long months = monthIndex(anchorDay) + period * interval * (unit == Unit.YEARLY ? 12 : 1);
+                int year = (int) Math.floorDiv(months, 12);
+                int month = Math.floorMod(months, 12) + 1;
+                int length = lengthOfMonth(year, month);
+                day = epochDay(year, month, dayOfMonth == LAST_DAY ? length : Math.min(dayOfMonth, length));
+        }
+        day = adjust(day);
+        return endDay != NONE && day > endDay ? NONE : day;
+    }
+
+    private long adjust(long epochDay) {
+        int dayOfWeek = (int) Math.floorMod(epochDay + 3, 7L) + 1; // 1 = Monday, as in DayOfWeek
+        if (dayOfWeek < DayOfWeek.SATURDAY.getValue() || adjustment == Adjustment.NONE) {
+            return epochDay;
+        }
+        if (adjustment == Adjustment.PREVIOUS_BUSINESS_DAY) {
+            return epochDay - (dayOfWeek - DayOfWeek.FRIDAY.getValue());
+        }
+        return epochDay + (8 - dayOfWeek);
+    }
+
+    // Months since year 0 for an epoch day, without building a LocalDate
+    private static long monthIndex(long epochDay) {
+        // Civil-from-days (H. Hinnant), shifted so the year starts in March
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 12 + month - 1;
+    }
+
+    private static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // Human-readable form, also stored in the frequency column for display
+    public String describe() {
+        StringBuilder text = new StringBuilder();
+        String unitName = unit.name().toLowerCase(Locale.ROOT);
+        if (unit == Unit.MONTHLY && dayOfMonth == LAST_DAY && adjustment == Adjustment.PREVIOUS_BUSINESS_DAY && interval == 1) {
+            text.append("Last Business Day");
+        } else if (interval == 1) {
+            text.append(Character.toUpperCase(unitName.charAt(0))).append(unitName.substring(1));
+        } else {
+            String noun = unit == Unit.DAILY ? "Days" : unit == Unit.WEEKLY ? "Weeks" : unit == Unit.MONTHLY ? "Months" : "Years";
+            text.append("Every ").append(interval).append(' ').append(noun);
+        }
+        if (unit == Unit.YEARLY) {
+            text.append(" on ").append(getAnchor().format(YEARLY_FORMAT));
+        }
+        if (endDay != NONE) {
+            text.append(" until ").append(getEnd());
+        }
+        return text.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof RecurrenceRule && ((RecurrenceRule) o).encode() == encode();
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(encode());
+    }
+
+    @Override
+    public String toString() {
+        return describe();
+    }
+}
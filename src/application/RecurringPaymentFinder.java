@@ -0,0 +1,239 @@
+package application;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Proposes scheduled transactions for payments that already repeat in the ledger. Payments are grouped by
+// account, description and amount band: the description keeps only its words without digits, so "NETFLIX.COM
+// 4411" and "Netflix.com #4518" agree, and amounts fall in bands about 10% wide. A group is keyed by a 64-bit
+// hash of the three; a payment in a new band first joins a group in a neighbouring band within 10% of its
+// amount, so amounts either side of a band edge stay together. Each group keeps running counts of how many gaps between its dates fit each period, so payments
+// can be fed in date order in one pass and fed again as new ones arrive. A payment dated on or before its
+// group's last one is skipped.
+//
+// Memory is bounded by the live groups, not the ledger: a group whose last payment is more than MAX_GAP_DAYS
+// before the newest one seen can't be an active pattern, and is dropped once maxGroups groups are live. If
+// that isn't enough the groups seen only once go too, and after that new groups are ignored until stale
+// ones can be dropped.
+public class RecurringPaymentFinder {
+    public static final int MAX_GROUPS = Integer.getInteger("centsible.recurringMaxGroups", 200_000);
+    static final int MAX_GAP_DAYS = 400;
+    private static final int MIN_PAYMENTS = 3;
+    private static final double MIN_CONFIDENCE = 0.6;
+    private static final double BAND_WIDTH = Math.log(1.1);
+
+    // The periods a schedule can express, with the gaps in days that count as one
+    private enum Period {
+        WEEKLY(RecurrenceRule.Unit.WEEKLY, 1, 7, 6, 8),
+        BIWEEKLY(RecurrenceRule.Unit.WEEKLY, 2, 14, 12, 16),
+        MONTHLY(RecurrenceRule.Unit.MONTHLY, 1, 30, 26, 35),
+        QUARTERLY(RecurrenceRule.Unit.MONTHLY, 3, 91, 85, 98),
+        YEARLY(RecurrenceRule.Unit.YEARLY, 1, 365, 355, 375);
+
+        final RecurrenceRule.Unit unit;
+        final int interval;
+        final int days;
+        final int minGap;
+        final int maxGap;
+
+        Period(RecurrenceRule.Unit unit, int interval, int days, int minGap, int maxGap) {
+            this.unit = unit;
+            this.interval = interval;
+            this.days = days;
+            this.minGap = minGap;
+            this.maxGap = maxGap;
+        }
+    }
+
+    private static final class Group {
+        final String accountName;
+        String description;
+        String transactionType;
+        long lastCents;
+        long lastDay;
+        int payments;
+        int lastDayOfMonthPayments;
+        final int[] fits = new int[Period.values().length];
+
+        Group(String accountName) {
+            this.accountName = accountName;
+        }
+    }
+
+    // A schedule the history suggests, for the newest payment's description, type and amount
+    public static final class Proposal {
+        private final String accountName;
+        private final String transactionType;
+        private final String description;
+        private final double paymentAmount;
+        private final RecurrenceRule recurrence;
+        private final int payments;
+        private final double confidence;
+
+        Proposal(Group group, Period period) {
+            LocalDate last = LocalDate.ofEpochDay(group.lastDay);
+            // Monthly payments mostly made on the month's last day stay there in shorter months
+            boolean lastDayOfMonth = period.unit == RecurrenceRule.Unit.MONTHLY && group.lastDayOfMonthPayments * 2 > group.payments;
+            this.accountName = group.accountName;
+            this.transactionType = group.transactionType;
+            this.description = group.description;
+            this.paymentAmount = group.lastCents / 100.0;
+            this.recurrence = new RecurrenceRule(period.unit, period.interval,
+                    lastDayOfMonth ? RecurrenceRule.LAST_DAY : last.getDayOfMonth(), RecurrenceRule.Adjustment.NONE, last, null);
+            this.payments = group.payments;
+            // The share of gaps that fit the period, discounted for short histories
+            this.confidence = (double) group.fits[period.ordinal()] / (group.payments - 1) * (1 - 1.0 / group.payments);
+        }
+
+        public String getAccountName() { return accountName; }
+        public String getTransactionType() { return transactionType; }
+        public String getDescription() { return description; }
+        public double getPaymentAmount() { return paymentAmount; }
+        public RecurrenceRule getRecurrence() { return recurrence; }
+        public String getFrequency() { return recurrence.describe(); }
+        public int getPayments() { return payments; }
+        public double getConfidence() { return confidence; }
+        public int getConfidencePercent() { return (int) Math.round(confidence * 100); }
+        public LocalDate getLastPaid() { return recurrence.getAnchor(); }
+    }
+
+    private final int maxGroups;
+    private final Map<Long, Group> groups = new HashMap<>();
+    private long newestDay = Long.MIN_VALUE;
+
+    public RecurringPaymentFinder() {
+        this(MAX_GROUPS);
+    }
+
+    public RecurringPaymentFinder(int maxGroups) {
+        this.maxGroups = maxGroups;
+    }
+
+    public void add(Transaction transaction) {
+        add(transaction.getAccountName(), transaction.getTransactionType(), transaction.getTransactionDate().toLocalDate(),
+                transaction.getDescription(), transaction.getPaymentAmount(), transaction.getDepositAmount());
+    }
+
+    // Only payments count; deposits can't be scheduled
+    public void add(String accountName, String transactionType, LocalDate date, String description,
+                    double paymentAmount, double depositAmount) {
+        long cents = ReportTotals.toCents(paymentAmount);
+        String words = words(description);
+        if (cents <= 0 || depositAmount != 0 || words.isEmpty()) {
+            return;
+        }
+        long day = date.toEpochDay();
+        newestDay = Math.max(newestDay, day);
+        int band = (int) Math.floor(Math.log(cents) / BAND_WIDTH);
+        Group group = groups.get(key(accountName, words, band));
+        for (int neighbour = band - 1; group == null && neighbour <= band + 1; neighbour += 2) {
+            Group near = groups.get(key(accountName, words, neighbour));
+            if (near != null && Math.max(cents, near.lastCents) <= Math.min(cents, near.lastCents) * 1.1) {
+                group = near;
+            }
+        }
+        if (group == null) {
+            if (groups.size() >= maxGroups && !prune()) {
+                return;
+            }
+            group = new Group(accountName);
+            groups.put(key(accountName, words, band), group);
+        } else if (day <= group.lastDay) {
+            return;
+        } else {
+            long gap = day - group.lastDay;
+            for (Period period : Period.values()) {
+                if (gap >= period.minGap && gap <= period.maxGap) {
+                    group.fits[period.ordinal()]++;
+                }
+            }
+        }
+        group.description = description;
+        group.transactionType = transactionType;
+        group.lastCents = cents;
+        group.lastDay = day;
+        group.payments++;
+        if (date.getDayOfMonth() == date.lengthOfMonth()) {
+            group.lastDayOfMonthPayments++;
+        }
+    }
+
+    // Patterns with enough payments whose next one isn't overdue by more than half a period, most confident first
+    public List<Proposal> proposals() {
+        List<Proposal> proposals = new ArrayList<>();
+        for (Group group : groups.values()) {
+            if (group.payments < MIN_PAYMENTS) {
+                continue;
+            }
+            Period best = null;
+            for (Period period : Period.values()) {
+                if (best == null || group.fits[period.ordinal()] > group.fits[best.ordinal()]) {
+                    best = period;
+                }
+            }
+            if (group.lastDay + best.days * 3 / 2 < newestDay) {
+                continue;
+            }
+            Proposal proposal = new Proposal(group, best);
+            if (proposal.getConfidence() >= MIN_CONFIDENCE) {
+                proposals.add(proposal);
+            }
+        }
+        proposals.sort(Comparator.comparingDouble(Proposal::getConfidence).reversed()
+                .thenComparing(Proposal::getDescription).thenComparing(Proposal::getAccountName));
+        return proposals;
+    }
+
+    public int groupCount() {
+        return groups.size();
+    }
+
+    // Makes room for a new group; false when every live group is still worth keeping
+    private boolean prune() {
+        groups.values().removeIf(group -> group.lastDay < newestDay - MAX_GAP_DAYS);
+        if (groups.size() >= maxGroups * 3 / 4) {
+            groups.values().removeIf(group -> group.payments == 1);
+        }
+        return groups.size() < maxGroups;
+    }
+
+    // The lower-cased words of a description, dropping any word with a digit in it
+    static String words(String description) {
+        StringBuilder words = new StringBuilder();
+        int start = 0;
+        boolean digit = false;
+        for (int i = 0; i <= description.length(); i++) {
+            char c = i < description.length() ? description.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                digit |= Character.isDigit(c);
+                continue;
+            }
+            if (i > start && !digit) {
+                if (words.length() > 0) {
+                    words.append(' ');
+                }
+                words.append(description, start, i);
+            }
+            start = i + 1;
+            digit = false;
+        }
+        return words.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static long key(String accountName, String words, int band) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < accountName.length(); i++) {
+            hash = (hash ^ accountName.charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ 0x1f) * 0x100000001b3L;
+        for (int i = 0; i < words.length(); i++) {
+            hash = (hash ^ words.charAt(i)) * 0x100000001b3L;
+        }
+        return DuplicateIndex.mix(hash ^ band);
+    }
+}
@@ -0,0 +1,152 @@
+package application;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Reminds about scheduled payments a configurable number of days before they fall due, while the app is open.
+//
+// Each (schedule, days ahead) pair has one pending timer in a TimingWheel with one-minute ticks: the next
+// occurrence whose reminder time is still to come. When it fires, the pair's following occurrence is scheduled.
+// Adding, editing or deleting a schedule cancels and re-creates only that schedule's timers, each O(1).
+// Reminders whose time passed before the service started are skipped; the home page lists what is due today.
+public final class ReminderService {
+    public static final String DAYS_AHEAD_PROPERTY = "centsible.reminderDaysAhead";
+    public static final String TIME_PROPERTY = "centsible.reminderTime";
+    private static final long TICK_MILLIS = 60_000;
+
+    public static final class Reminder {
+        private final ScheduledTransaction schedule;
+        private final LocalDate dueDate;
+        private final int daysAhead;
+
+        Reminder(ScheduledTransaction schedule, LocalDate dueDate, int daysAhead) {
+            this.schedule = schedule;
+            this.dueDate = dueDate;
+            this.daysAhead = daysAhead;
+        }
+
+        public ScheduledTransaction getSchedule() { return schedule; }
+        public LocalDate getDueDate() { return dueDate; }
+        public int getDaysAhead() { return daysAhead; }
+    }
+
+    private final List<Integer> daysAhead;
+    private final LocalTime remindAt;
+    private final Clock clock;
+    private final Consumer<Reminder> listener;
+    private final TimingWheel<Reminder> wheel;
+    private final Map<String, Map<Integer, TimingWheel.Timer<Reminder>>> timersByName = new HashMap<>();
+    private ScheduledExecutorService ticker;
+
+    public ReminderService(Collection<ScheduledTransaction> schedules, List<Integer> daysAhead, LocalTime remindAt,
+                           Clock clock, Consumer<Reminder> listener) {
+        this.daysAhead = new ArrayList<>(daysAhead);
+        this.remindAt = remindAt;
+        this.clock = clock;
+        this.listener = listener;
+        this.wheel = new TimingWheel<>(TICK_MILLIS, clock.millis());
+        for (ScheduledTransaction schedule : schedules) {
+            putSchedule(schedule);
+        }
+    }
+
+    // -Dcentsible.reminderDaysAhead=3,1,0 reminds three days before, the day before and on the day
+    public static List<Integer> configuredDaysAhead() {
+        List<Integer> days = new ArrayList<>();
+        for (String day : System.getProperty(DAYS_AHEAD_PROPERTY, "1,0").split(",")) {
+            if (!day.isBlank()) {
+                days.add(Integer.parseInt(day.trim()));
+            }
+        }
+        return days;
+    }
+
+    public static LocalTime configuredTime() {
+        return LocalTime.parse(System.getProperty(TIME_PROPERTY, "09:00"));
+    }
+
+    // Adds a schedule, or replaces the one with the same name
+    public synchronized void putSchedule(ScheduledTransaction schedule) {
+        removeSchedule(schedule.getScheduleName());
+        LocalDate today = LocalDate.now(clock);
+        for (int days : daysAhead) {
+            scheduleNext(schedule, today.plusDays(days), days);
+        }
+    }
+
+    public synchronized void removeSchedule(String scheduleName) {
+        Map<Integer, TimingWheel.Timer<Reminder>> timers = timersByName.remove(scheduleName);
+        if (timers != null) {
+            for (TimingWheel.Timer<Reminder> timer : timers.values()) {
+                wheel.cancel(timer);
+            }
+        }
+    }
+
+    // The first occurrence on or after the date whose reminder is still to come
+    private void scheduleNext(ScheduledTransaction schedule, LocalDate from, int days) {
+        long now = clock.millis();
+        RecurrenceRule.Cursor dates = schedule.getRecurrence().cursor(from);
+        while (dates.hasNext()) {
+            LocalDate due = dates.next();
+            long remindMillis = due.minusDays(days).atTime(remindAt).atZone(clock.getZone()).toInstant().toEpochMilli();
+            if (remindMillis > now) {
+                timersByName.computeIfAbsent(schedule.getScheduleName(), name -> new HashMap<>())
+                        .put(days, wheel.schedule(remindMillis, new Reminder(schedule, due, days)));
+                return;
+            }
+        }
+    }
+
+    // Fires everything due by the clock's time; the ticker calls this once a minute, catching up after a sleep
+    public void tick() {
+        List<Reminder> due;
+        synchronized (this) {
+            due = wheel.advance(clock.millis());
+            for (Reminder reminder : due) {
+                scheduleNext(reminder.getSchedule(), reminder.getDueDate().plusDays(1), reminder.getDaysAhead());
+            }
+        }
+        due.forEach(listener);
+    }
+
+    public synchronized int pendingCount() {
+        return wheel.size();
+    }
+
+    public synchronized void start() {
+        if (ticker == null) {
+            ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "schedule-reminders");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long untilNextMinute = TICK_MILLIS - clock.millis() % TICK_MILLIS;
+            // An exception escaping a periodic task would cancel it, so one bad reminder can't stop the rest
+            ticker.scheduleAtFixedRate(() -> {
+                try {
+                    tick();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }, untilNextMinute, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+}
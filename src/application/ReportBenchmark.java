@@ -0,0 +1,131 @@
+package application;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+// Measures ReportEngine against the sequential per-account loop, on a generated ledger in a temp directory.
+//
+// Usage: java -cp <app classpath> application.ReportBenchmark [rows] [runs] [max threads]
+// e.g.   ... application.ReportBenchmark 2000000 5
+//
+// Prints the median time for each pool size (1, 2, 4, ... up to the core count), for the SQLite ledger and
+// for an in-memory slice of the same rows, with the speedup over a single thread. Every result is checked
+// against the single-threaded one.
+public class ReportBenchmark {
+    private static final int ACCOUNTS = 40;
+    private static final int TYPES = 12;
+
+    public static void main(String[] args) throws IOException, SQLException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Path directory = Files.createTempDirectory("centsible-report-benchmark");
+        String databaseFile = directory.resolve(DatabaseHelper.DATABASE_FILE).toString();
+        try {
+            DatabaseHelper helper = new DatabaseHelper(databaseFile);
+            for (int account = 0; account < ACCOUNTS; account++) {
+                helper.createAccount("Account " + account, Date.valueOf(LocalDate.of(2015, 1, 1)), 0);
+            }
+            seed(databaseFile, rows);
+            System.out.printf("%,d transactions, %d accounts, %d cores%n", rows, ACCOUNTS, Runtime.getRuntime().availableProcessors());
+
+            long loopStart = System.nanoTime();
+            double loopNet = 0;
+            for (String account : helper.getAllAccountNames()) {
+                for (Transaction transaction : helper.getTransactionsByAccount(account)) {
+                    loopNet += transaction.getDepositAmount() - transaction.getPaymentAmount();
+                }
+            }
+            System.out.printf("per-account loop        %8.1f ms  (net %.2f)%n", (System.nanoTime() - loopStart) / 1e6, loopNet);
+
+            measure("sqlite", runs, maxThreads, engine -> engine.summarizeDatabase(databaseFile, ReportEngine.GroupBy.ACCOUNT));
+            List<Transaction> transactions = helper.getTransactions();
+            measure("in-memory", runs, maxThreads, engine -> engine.summarize(transactions, ReportEngine.GroupBy.ACCOUNT));
+            helper.close();
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private interface Report {
+        Map<String, ReportTotals> run(ReportEngine engine) throws SQLException;
+    }
+
+    private static void measure(String label, int runs, int maxThreads, Report report) throws SQLException {
+        Map<String, ReportTotals> expected = null;
+        double singleThreadMillis = 0;
+        for (int parallelism = 1; parallelism <= maxThreads; parallelism *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                ReportEngine engine = new ReportEngine(pool);
+                report.run(engine); // warm-up
+                List<Double> timings = new ArrayList<>();
+                for (int run = 0; run < runs; run++) {
+                    long start = System.nanoTime();
+                    Map<String, ReportTotals> totals = report.run(engine);
+                    timings.add((System.nanoTime() - start) / 1e6);
+                    if (expected == null) {
+                        expected = totals;
+                    } else if (!expected.equals(totals)) {
+                        throw new IllegalStateException(label + " with " + parallelism + " threads disagrees with 1 thread");
+                    }
+                }
+                Collections.sort(timings);
+                double median = timings.get(timings.size() / 2);
+                if (parallelism == 1) {
+                    singleThreadMillis = median;
+                    double net = expected.values().stream().mapToDouble(ReportTotals::getNet).sum();
+                    System.out.printf("%-9s net %.2f%n", label, net);
+                }
+                System.out.printf("%-9s %2d threads   %8.1f ms  speedup %.2fx%n", label, parallelism, median, singleThreadMillis / median);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static void seed(String databaseFile, int rows) throws SQLException {
+        Random random = new Random(42);
+        LocalDate first = LocalDate.of(2015, 1, 1);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+             PreparedStatement pstmt = connection.prepareStatement("INSERT INTO transactions (account_name, transaction_type, " +
+                     "transaction_date, description, payment_amount, deposit_amount) VALUES (?, ?, ?, ?, ?, ?)")) {
+            connection.setAutoCommit(false);
+            for (int i = 0; i < rows; i++) {
+                boolean payment = random.nextInt(4) != 0;
+                pstmt.setString(1, "Account " + random.nextInt(ACCOUNTS));
+                pstmt.setString(2, "Type " + random.nextInt(TYPES));
+                SqlDates.bind(pstmt, 3, first.plusDays(random.nextInt(3650)));
+                pstmt.setString(4, "Transaction " + i);
+                pstmt.setDouble(5, payment ? random.nextInt(100_000) / 100.0 : 0);
+                pstmt.setDouble(6, payment ? 0 : random.nextInt(500_000) / 100.0);
+                pstmt.addBatch();
+                if (i % 10_000 == 9_999) {
+                    pstmt.executeBatch();
+                }
+            }
+            pstmt.executeBatch();
+            connection.commit();
+        }
+    }
+}
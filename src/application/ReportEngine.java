@@ -0,0 +1,380 @@
+package application;
+
+import org.sqlite.SQLiteConfig;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
+
+// Computes per-account or per-type totals in parallel on a ForkJoinPool.
+//
+// For a SQLite ledger the work is split into id ranges of the transactions table (the primary key, so each
+// task reads only its own slice of the b-tree), one set per partition file, plus record ranges of each
+// archive segment. Each file gets at most one read-only connection per pool thread, and every one of them
+// begins its read transaction while the ledger's writes are held off, so all tasks read the same commit. A
+// table task borrows a connection for its query and lets SQLite do the GROUP BY. An open ledger's archive
+// segments are the ones it has already mapped. Any other ledger is summarized from an in-memory list split by
+// index. Partial results are merged on the way back up.
+public class ReportEngine {
+    public enum GroupBy {
+        ACCOUNT("account_name"),
+        TYPE("transaction_type");
+
+        final String column;
+
+        GroupBy(String column) {
+            this.column = column;
+        }
+    }
+
+    // Work below these sizes runs in a single task instead of being split further
+    private static final long ROWS_PER_TASK = Long.getLong("centsible.reportRowsPerTask", 50_000);
+    private static final int LIST_ITEMS_PER_TASK = 20_000;
+
+    private final ForkJoinPool pool;
+
+    public ReportEngine(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public ReportEngine() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    // Sorted by group name; empty if the ledger could not be read
+    public Map<String, ReportTotals> summarize(LedgerRepository repository, GroupBy groupBy) {
+        if (repository instanceof DatabaseHelper) {
+            DatabaseHelper helper = (DatabaseHelper) repository;
+            try {
+                return summarizeDatabase(helper.getDatabaseFile(), helper.getArchiveSegments(), helper.getWriteLock(), groupBy);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return new TreeMap<>();
+            }
+        }
+        return summarize(repository.getTransactions(), groupBy);
+    }
+
+    public Map<String, ReportTotals> summarize(List<Transaction> transactions, GroupBy groupBy) {
+        return new TreeMap<>(pool.invoke(new ListTask(transactions, 0, transactions.size(), groupBy)));
+    }
+
+    // A database file no DatabaseHelper in this process has open, so nothing needs holding off; its archive
+    // segments are mapped for this run
+    public Map<String, ReportTotals> summarizeDatabase(String databaseFile, GroupBy groupBy) throws SQLException {
+        return summarizeDatabase(databaseFile, List.of(), new Object(), groupBy);
+    }
+
+    // Holding writeLock keeps the ledger's writes from committing while the connections begin reading
+    private Map<String, ReportTotals> summarizeDatabase(String databaseFile, List<ArchiveSegment> mapped, Object writeLock,
+                                                        GroupBy groupBy) throws SQLException {
+        List<RecursiveTask<Map<String, ReportTotals>>> tasks = new ArrayList<>();
+        List<PinnedFile> files = new ArrayList<>();
+        try {
+            List<String> segmentFiles = new ArrayList<>();
+            synchronized (writeLock) {
+                PinnedFile main = pin(databaseFile, files);
+                Connection connection = main.connections.peek();
+                try (Statement stmt = connection.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT file FROM transaction_partitions ORDER BY year")) {
+                    while (rs.next()) {
+                        pin(DatabaseHelper.besideDatabase(databaseFile, DatabaseHelper.PARTITION_DIRECTORY)
+                                .resolve(rs.getString("file")).toString(), files);
+                    }
+                }
+                try (Statement stmt = connection.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT file FROM archive_segments ORDER BY id")) {
+                    while (rs.next()) {
+                        segmentFiles.add(rs.getString("file"));
+                    }
+                }
+                for (PinnedFile file : files) {
+                    file.addConnections(pool.getParallelism());
+                }
+            }
+            for (PinnedFile file : files) {
+                if (file.toId >= file.fromId) {
+                    tasks.add(new TableTask(file, file.fromId, file.toId, groupBy));
+                }
+            }
+            for (ArchiveSegment segment : segments(databaseFile, segmentFiles, mapped)) {
+                tasks.add(new SegmentTask(segment, 0, segment.getRecordCount(), groupBy));
+            }
+
+            try {
+                return new TreeMap<>(pool.invoke(new AllTask(tasks)));
+            } catch (ReportFailure e) {
+                throw e.getCause();
+            }
+        } finally {
+            for (PinnedFile file : files) {
+                file.close();
+            }
+        }
+    }
+
+    // Opens the file's first connection, whose read transaction also gives the id range the tasks split
+    private static PinnedFile pin(String file, List<PinnedFile> files) throws SQLException {
+        PinnedFile pinned = new PinnedFile(file);
+        files.add(pinned);
+        Connection connection = pinned.open();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MIN(id), MAX(id) FROM transactions")) {
+            if (rs.next() && rs.getObject(1) != null) {
+                pinned.fromId = rs.getLong(1);
+                pinned.toId = rs.getLong(2);
+            }
+        }
+        return pinned;
+    }
+
+    // The segments registered when the snapshot was taken: the ledger's mapped ones, and any registered since
+    // it last mapped (or, with no ledger open, all of them) mapped here
+    private static List<ArchiveSegment> segments(String databaseFile, List<String> files, List<ArchiveSegment> mapped) {
+        Map<String, ArchiveSegment> byFile = new HashMap<>();
+        for (ArchiveSegment segment : mapped) {
+            byFile.put(segment.getFile().getFileName().toString(), segment);
+        }
+        List<ArchiveSegment> segments = new ArrayList<>();
+        for (String file : files) {
+            ArchiveSegment segment = byFile.get(file);
+            if (segment == null) {
+                Path path = DatabaseHelper.besideDatabase(databaseFile, DatabaseHelper.ARCHIVE_DIRECTORY).resolve(file);
+                try {
+                    segment = ArchiveSegment.open(path);
+                } catch (IOException e) {
+                    System.err.println("Archive segment unavailable: " + path);
+                    e.printStackTrace();
+                    continue;
+                }
+            }
+            segments.add(segment);
+        }
+        return segments;
+    }
+
+    private static Connection openReadOnly(String file) throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        return DriverManager.getConnection("jdbc:sqlite:" + file, config.toProperties());
+    }
+
+    private static Map<String, ReportTotals> merge(Map<String, ReportTotals> into, Map<String, ReportTotals> from) {
+        from.forEach((group, totals) -> into.merge(group, totals, ReportTotals::merge));
+        return into;
+    }
+
+    // Read-only connections to one file, each inside a read transaction begun under the write lock. A task
+    // takes one for its query and puts it back, so a connection is only ever used by one thread at a time.
+    private static final class PinnedFile {
+        final String file;
+        final BlockingQueue<Connection> connections = new LinkedBlockingQueue<>();
+        final List<Connection> opened = new ArrayList<>();
+        long fromId = 1;
+        long toId = 0;
+
+        PinnedFile(String file) {
+            this.file = file;
+        }
+
+        Connection open() throws SQLException {
+            Connection connection = openReadOnly(file);
+            opened.add(connection);
+            connection.setAutoCommit(false);
+            // The first read starts the transaction, and with it the snapshot every later read sees
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT 1 FROM transactions LIMIT 1")) {
+                rs.next();
+            }
+            connections.add(connection);
+            return connection;
+        }
+
+        // One per thread that can be reading the file at once: no more than the pool's threads, or its tasks
+        void addConnections(int threads) throws SQLException {
+            long tasks = toId < fromId ? 0 : (toId - fromId) / ROWS_PER_TASK + 1;
+            while (opened.size() < Math.min(threads, tasks)) {
+                open();
+            }
+        }
+
+        Connection take() {
+            try {
+                return connections.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ReportFailure(new SQLException("Interrupted waiting for a connection to " + file));
+            }
+        }
+
+        void close() {
+            for (Connection connection : opened) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Carries a SQLException out of a task; compute() cannot throw checked exceptions
+    private static final class ReportFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ReportFailure(SQLException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized SQLException getCause() {
+            return (SQLException) super.getCause();
+        }
+    }
+
+    // Tasks only live inside one report run and are never serialized
+    @SuppressWarnings("serial")
+    private static final class AllTask extends RecursiveTask<Map<String, ReportTotals>> {
+        private final List<RecursiveTask<Map<String, ReportTotals>>> tasks;
+
+        AllTask(List<RecursiveTask<Map<String, ReportTotals>>> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected Map<String, ReportTotals> compute() {
+            invokeAll(tasks);
+            Map<String, ReportTotals> totals = new HashMap<>();
+            for (RecursiveTask<Map<String, ReportTotals>> task : tasks) {
+                merge(totals, task.join());
+            }
+            return totals;
+        }
+    }
+
+    // Inclusive id range of one transactions table; never serialized
+    @SuppressWarnings("serial")
+    private static final class TableTask extends RecursiveTask<Map<String, ReportTotals>> {
+        private final PinnedFile file;
+        private final long fromId;
+        private final long toId;
+        private final GroupBy groupBy;
+
+        TableTask(PinnedFile file, long fromId, long toId, GroupBy groupBy) {
+            this.file = file;
+            this.fromId = fromId;
+            this.toId = toId;
+            this.groupBy = groupBy;
+        }
+
+        @Override
+        protected Map<String, ReportTotals> compute() {
+            if (toId - fromId >= ROWS_PER_TASK) {
+                long middle = fromId + (toId - fromId) / 2;
+                TableTask right = new TableTask(file, middle + 1, toId, groupBy);
+                right.fork();
+                Map<String, ReportTotals> totals = new TableTask(file, fromId, middle, groupBy).compute();
+                return merge(totals, right.join());
+            }
+
+            String sql = "SELECT " + groupBy.column + ", COUNT(*), " +
+                    "SUM(CAST(ROUND(payment_amount * 100) AS INTEGER)), SUM(CAST(ROUND(deposit_amount * 100) AS INTEGER)) " +
+                    "FROM transactions WHERE id BETWEEN ? AND ? GROUP BY " + groupBy.column;
+            Map<String, ReportTotals> totals = new HashMap<>();
+            Connection connection = file.take();
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setLong(1, fromId);
+                pstmt.setLong(2, toId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        totals.computeIfAbsent(rs.getString(1), group -> new ReportTotals())
+                                .add(rs.getLong(2), rs.getLong(3), rs.getLong(4));
+                    }
+                }
+            } catch (SQLException e) {
+                throw new ReportFailure(e);
+            } finally {
+                file.connections.add(connection);
+            }
+            return totals;
+        }
+    }
+
+    // Never serialized, like AllTask
+    @SuppressWarnings("serial")
+    private static final class SegmentTask extends RecursiveTask<Map<String, ReportTotals>> {
+        private final ArchiveSegment segment;
+        private final int fromRecord;
+        private final int toRecord;
+        private final GroupBy groupBy;
+
+        SegmentTask(ArchiveSegment segment, int fromRecord, int toRecord, GroupBy groupBy) {
+            this.segment = segment;
+            this.fromRecord = fromRecord;
+            this.toRecord = toRecord;
+            this.groupBy = groupBy;
+        }
+
+        @Override
+        protected Map<String, ReportTotals> compute() {
+            if (toRecord - fromRecord > ROWS_PER_TASK) {
+                int middle = (fromRecord + toRecord) >>> 1;
+                SegmentTask right = new SegmentTask(segment, middle, toRecord, groupBy);
+                right.fork();
+                Map<String, ReportTotals> totals = new SegmentTask(segment, fromRecord, middle, groupBy).compute();
+                return merge(totals, right.join());
+            }
+            Map<String, ReportTotals> totals = new HashMap<>();
+            segment.summarize(fromRecord, toRecord, groupBy == GroupBy.ACCOUNT, totals);
+            return totals;
+        }
+    }
+
+    // Never serialized, like AllTask
+    @SuppressWarnings("serial")
+    private static final class ListTask extends RecursiveTask<Map<String, ReportTotals>> {
+        private final List<Transaction> transactions;
+        private final int from;
+        private final int to;
+        private final GroupBy groupBy;
+
+        ListTask(List<Transaction> transactions, int from, int to, GroupBy groupBy) {
+            this.transactions = transactions;
+            this.from = from;
+            this.to = to;
+            this.groupBy = groupBy;
+        }
+
+        @Override
+        protected Map<String, ReportTotals> compute() {
+            if (to - from > LIST_ITEMS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                ListTask right = new ListTask(transactions, middle, to, groupBy);
+                right.fork();
+                Map<String, ReportTotals> totals = new ListTask(transactions, from, middle, groupBy).compute();
+                return merge(totals, right.join());
+            }
+            Map<String, ReportTotals> totals = new HashMap<>();
+            for (int i = from; i < to; i++) {
+                Transaction transaction = transactions.get(i);
+                String group = groupBy == GroupBy.ACCOUNT ? transaction.getAccountName() : transaction.getTransactionType();
+                totals.computeIfAbsent(group, g -> new ReportTotals()).add(transaction);
+            }
+            return totals;
+        }
+    }
+}
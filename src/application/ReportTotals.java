@@ -0,0 +1,73 @@
+package application;
+
+import java.util.Objects;
+
+// Row count and sums for one report group. Amounts are kept in whole cents so partial totals from
+// parallel tasks merge exactly, whatever order they finish in.
+public class ReportTotals {
+    private long count;
+    private long paymentCents;
+    private long depositCents;
+
+    public static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    public void add(Transaction transaction) {
+        add(1, toCents(transaction.getPaymentAmount()), toCents(transaction.getDepositAmount()));
+    }
+
+    public void add(long count, long paymentCents, long depositCents) {
+        this.count += count;
+        this.paymentCents += paymentCents;
+        this.depositCents += depositCents;
+    }
+
+    public ReportTotals merge(ReportTotals other) {
+        add(other.count, other.paymentCents, other.depositCents);
+        return this;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getPaymentCents() {
+        return paymentCents;
+    }
+
+    public long getDepositCents() {
+        return depositCents;
+    }
+
+    public double getPayments() {
+        return paymentCents / 100.0;
+    }
+
+    public double getDeposits() {
+        return depositCents / 100.0;
+    }
+
+    public double getNet() {
+        return (depositCents - paymentCents) / 100.0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ReportTotals)) {
+            return false;
+        }
+        ReportTotals other = (ReportTotals) o;
+        return count == other.count && paymentCents == other.paymentCents && depositCents == other.depositCents;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(count, paymentCents, depositCents);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d rows, payments %.2f, deposits %.2f", count, getPayments(), getDeposits());
+    }
+}
@@ -0,0 +1,30 @@
+package application;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Spans one Main.create*Scene call, including any queries it issues while building the scene
+@Name("application.SceneBuild")
+@Label("Scene Build")
+@Category({"Centsible", "UI"})
+@Description("Construction of a JavaFX scene")
+@StackTrace(false)
+public class SceneBuildEvent extends jdk.jfr.Event {
+    @Label("Scene Name")
+    public String sceneName;
+
+    public static SceneBuildEvent start(String sceneName) {
+        SceneBuildEvent event = new SceneBuildEvent();
+        event.sceneName = sceneName;
+        event.begin();
+        return event;
+    }
+
+    public <T> T finish(T scene) {
+        commit();
+        return scene;
+    }
+}
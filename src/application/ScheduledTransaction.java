@@ -1,22 +1,47 @@
 package application;
 
+import java.time.LocalDate;
+
 public class ScheduledTransaction  extends  PaymentType{
     private String scheduleName;
     private String frequency;
     private int dueDate;
+    private RecurrenceRule recurrence;
 
     // Constructor
     public ScheduledTransaction(String scheduleName, String accountName, String transactionType,
                                 String frequency, int dueDate, double paymentAmount) {
+        this(scheduleName, accountName, transactionType, frequency, dueDate, paymentAmount,
+                RecurrenceRule.parse(frequency, dueDate, LocalDate.now()));
+    }
+
+    public ScheduledTransaction(String scheduleName, String accountName, String transactionType,
+                                RecurrenceRule recurrence, double paymentAmount) {
+        this(scheduleName, accountName, transactionType, recurrence.describe(), recurrence.getDueDay(), paymentAmount, recurrence);
+    }
+
+    ScheduledTransaction(String scheduleName, String accountName, String transactionType,
+                         String frequency, int dueDate, double paymentAmount, RecurrenceRule recurrence) {
         super(accountName, transactionType,paymentAmount);
         this.scheduleName = scheduleName;
         this.frequency = frequency;
         this.dueDate = dueDate;
+        this.recurrence = recurrence;
     }
 
     // Getters
     public String getScheduleName() { return scheduleName; }
     public String getFrequency() { return frequency; }
     public int getDueDate() { return dueDate; }
+    public RecurrenceRule getRecurrence() { return recurrence; }
+
+    // Same coercion SQLite applies when DatabaseHelper reads due_date with getInt
+    public static int parseDueDay(String dueDate) {
+        try {
+            return (int) Double.parseDouble(dueDate.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
 }
 
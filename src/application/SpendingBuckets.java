@@ -0,0 +1,150 @@
+package application;
+
+import java.sql.SQLException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+// Payments and deposits summed per day, week and month for each (account, transaction type).
+//
+// Every write adds or subtracts one transaction from three buckets, one per period, so a chart over years of
+// history reads a few hundred bucket rows instead of the transactions behind them. DatabaseHelper keeps the
+// buckets in spending_buckets; this class holds the periods and the heap copy InMemoryLedgerRepository uses.
+// Archiving moves rows without changing what was spent, so archived transactions stay in their buckets.
+public class SpendingBuckets {
+    public enum Period {
+        DAY, WEEK, MONTH;
+
+        // The first day of the period holding the date; weeks start on Monday
+        public LocalDate start(LocalDate date) {
+            switch (this) {
+                case WEEK:
+                    return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                case MONTH:
+                    return date.withDayOfMonth(1);
+                default:
+                    return date;
+            }
+        }
+
+        public LocalDate next(LocalDate start) {
+            switch (this) {
+                case WEEK:
+                    return start.plusWeeks(1);
+                case MONTH:
+                    return start.plusMonths(1);
+                default:
+                    return start.plusDays(1);
+            }
+        }
+    }
+
+    // Receives every non-empty bucket when the buckets are written out
+    public interface BucketConsumer {
+        void accept(Period period, LocalDate start, String accountName, String transactionType, ReportTotals totals)
+                throws SQLException;
+    }
+
+    private final Map<Period, TreeMap<Long, Map<List<String>, ReportTotals>>> buckets = new EnumMap<>(Period.class);
+
+    public SpendingBuckets() {
+        for (Period period : Period.values()) {
+            buckets.put(period, new TreeMap<>());
+        }
+    }
+
+    // Adds (sign 1) or removes (sign -1) a transaction from its bucket in every period
+    public synchronized void add(Transaction transaction, int sign) {
+        LocalDate date = transaction.getTransactionDate().toLocalDate();
+        List<String> key = List.of(transaction.getAccountName(), bucketType(transaction.getTransactionType()));
+        for (Period period : Period.values()) {
+            Map<List<String>, ReportTotals> bucket = buckets.get(period)
+                    .computeIfAbsent(period.start(date).toEpochDay(), day -> new HashMap<>());
+            ReportTotals totals = bucket.computeIfAbsent(key, k -> new ReportTotals());
+            totals.add(sign, sign * ReportTotals.toCents(transaction.getPaymentAmount()),
+                    sign * ReportTotals.toCents(transaction.getDepositAmount()));
+            if (totals.getCount() <= 0) {
+                bucket.remove(key);
+                if (bucket.isEmpty()) {
+                    buckets.get(period).remove(period.start(date).toEpochDay());
+                }
+            }
+        }
+    }
+
+    // Totals per account or type for each period starting in [from, to], keyed by name then by period start
+    public synchronized Map<String, SortedMap<LocalDate, ReportTotals>> query(Period period, ReportEngine.GroupBy groupBy,
+                                                                             LocalDate from, LocalDate to) {
+        Map<String, SortedMap<LocalDate, ReportTotals>> series = new TreeMap<>();
+        int keyIndex = groupBy == ReportEngine.GroupBy.ACCOUNT ? 0 : 1;
+        for (Map.Entry<Long, Map<List<String>, ReportTotals>> bucket : buckets.get(period)
+                .subMap(period.start(from).toEpochDay(), true, to.toEpochDay(), true).entrySet()) {
+            LocalDate start = LocalDate.ofEpochDay(bucket.getKey());
+            for (Map.Entry<List<String>, ReportTotals> totals : bucket.getValue().entrySet()) {
+                series.computeIfAbsent(totals.getKey().get(keyIndex), name -> new TreeMap<>())
+                        .computeIfAbsent(start, day -> new ReportTotals()).merge(totals.getValue());
+            }
+        }
+        return series;
+    }
+
+    // Like query(), in one currency: accounts already in it are read per period, the others per day and converted
+    public synchronized Map<String, SortedMap<LocalDate, ReportTotals>> query(Period period, ReportEngine.GroupBy groupBy,
+                                                                             LocalDate from, LocalDate to,
+                                                                             Function<String, String> currencyOf,
+                                                                             String reportingCurrency, ExchangeRates rates) {
+        Map<String, SortedMap<LocalDate, ReportTotals>> series = new TreeMap<>();
+        int keyIndex = groupBy == ReportEngine.GroupBy.ACCOUNT ? 0 : 1;
+        for (Map.Entry<Long, Map<List<String>, ReportTotals>> bucket : buckets.get(period)
+                .subMap(period.start(from).toEpochDay(), true, to.toEpochDay(), true).entrySet()) {
+            LocalDate start = LocalDate.ofEpochDay(bucket.getKey());
+            for (Map.Entry<List<String>, ReportTotals> totals : bucket.getValue().entrySet()) {
+                if (currencyOf.apply(totals.getKey().get(0)).equals(reportingCurrency)) {
+                    series.computeIfAbsent(totals.getKey().get(keyIndex), name -> new TreeMap<>())
+                            .computeIfAbsent(start, day -> new ReportTotals()).merge(totals.getValue());
+                }
+            }
+        }
+        long lastDay = period.next(period.start(to)).toEpochDay() - 1;
+        for (Map.Entry<Long, Map<List<String>, ReportTotals>> bucket : buckets.get(Period.DAY)
+                .subMap(period.start(from).toEpochDay(), true, lastDay, true).entrySet()) {
+            // A day's amounts are summed per account and group first, then converted once, as DatabaseHelper does
+            Map<List<String>, ReportTotals> day = new HashMap<>();
+            for (Map.Entry<List<String>, ReportTotals> totals : bucket.getValue().entrySet()) {
+                if (!currencyOf.apply(totals.getKey().get(0)).equals(reportingCurrency)) {
+                    day.computeIfAbsent(List.of(totals.getKey().get(0), totals.getKey().get(keyIndex)), key -> new ReportTotals())
+                            .merge(totals.getValue());
+                }
+            }
+            for (Map.Entry<List<String>, ReportTotals> totals : day.entrySet()) {
+                rates.addConverted(series, period, totals.getKey().get(1), bucket.getKey(), currencyOf.apply(totals.getKey().get(0)),
+                        reportingCurrency, totals.getValue().getCount(), totals.getValue().getPaymentCents(),
+                        totals.getValue().getDepositCents());
+            }
+        }
+        return series;
+    }
+
+    public synchronized void forEachBucket(BucketConsumer consumer) throws SQLException {
+        for (Map.Entry<Period, TreeMap<Long, Map<List<String>, ReportTotals>>> period : buckets.entrySet()) {
+            for (Map.Entry<Long, Map<List<String>, ReportTotals>> bucket : period.getValue().entrySet()) {
+                for (Map.Entry<List<String>, ReportTotals> totals : bucket.getValue().entrySet()) {
+                    consumer.accept(period.getKey(), LocalDate.ofEpochDay(bucket.getKey()),
+                            totals.getKey().get(0), totals.getKey().get(1), totals.getValue());
+                }
+            }
+        }
+    }
+
+    // Bucket keys can't be null, so an untyped transaction is filed under ""
+    static String bucketType(String transactionType) {
+        return transactionType == null ? "" : transactionType;
+    }
+}
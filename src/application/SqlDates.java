@@ -0,0 +1,92 @@
+package application;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+
+// The one place dates cross into and out of SQLite. Every date column holds the day as an INTEGER epoch day
+// (days since 1970-01-01), so a range predicate or ORDER BY on it is an integer index range scan, the value
+// takes two or three bytes instead of a millisecond timestamp's six, and it doesn't depend on the time zone
+// the row was written in. Always bind and read dates through here, never with setDate/getDate.
+public class SqlDates {
+    // Any epoch day this far from 1970 is a millisecond timestamp from before schema version 12
+    private static final long MAX_EPOCH_DAY = 1_000_000;
+
+    public static long toDay(Date date) {
+        return date.toLocalDate().toEpochDay();
+    }
+
+    public static Date fromDay(long epochDay) {
+        return Date.valueOf(LocalDate.ofEpochDay(epochDay));
+    }
+
+    public static void bind(PreparedStatement pstmt, int index, Date date) throws SQLException {
+        pstmt.setLong(index, toDay(date));
+    }
+
+    public static void bind(PreparedStatement pstmt, int index, LocalDate date) throws SQLException {
+        pstmt.setLong(index, date.toEpochDay());
+    }
+
+    public static Date read(ResultSet rs, String column) throws SQLException {
+        return fromDay(rs.getLong(column));
+    }
+
+    public static Date read(ResultSet rs, int column) throws SQLException {
+        return fromDay(rs.getLong(column));
+    }
+
+    // Rewrites the column's old values as epoch days and returns how many changed. Those were millisecond
+    // timestamps (local midnights, so they are turned into days in this JVM's zone), stored as integers, reals
+    // or, in a column with TEXT affinity, numeric text; a few may be yyyy-MM-dd text. Rows already holding an
+    // epoch day are left alone, so a rerun after a crash is harmless.
+    static int convertColumn(Connection connection, String table, String column) throws SQLException {
+        long[] rowIds = new long[1024];
+        long[] days = new long[1024];
+        int count = 0;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT rowid, typeof(" + column + "), CAST(" + column + " AS INTEGER), " +
+                     column + " FROM " + table + " WHERE " + column + " IS NOT NULL AND (typeof(" + column +
+                     ") <> 'integer' OR " + column + " NOT BETWEEN -" + MAX_EPOCH_DAY + " AND " + MAX_EPOCH_DAY + ")")) {
+            while (rs.next()) {
+                if (count == rowIds.length) {
+                    rowIds = Arrays.copyOf(rowIds, count * 2);
+                    days = Arrays.copyOf(days, count * 2);
+                }
+                rowIds[count] = rs.getLong(1);
+                days[count] = legacyDay(rs.getString(2), rs.getLong(3), rs.getString(4), table + "." + column);
+                count++;
+            }
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement("UPDATE " + table + " SET " + column + " = ? WHERE rowid = ?")) {
+            for (int i = 0; i < count; i++) {
+                pstmt.setLong(1, days[i]);
+                pstmt.setLong(2, rowIds[i]);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        return count;
+    }
+
+    private static long legacyDay(String type, long number, String text, String column) throws SQLException {
+        if (!type.equals("text") || text.trim().matches("-?\\d+(\\.\\d*)?")) {
+            // A small number is already an epoch day that was stored as text or a real
+            return Math.abs(number) <= MAX_EPOCH_DAY ? number
+                    : Instant.ofEpochMilli(number).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+        }
+        try {
+            return LocalDate.parse(text.trim().substring(0, Math.min(10, text.trim().length()))).toEpochDay();
+        } catch (DateTimeParseException e) {
+            throw new SQLException("Unreadable date \"" + text + "\" in " + column, e);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package application;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Measures cold start-to-window time by launching the app in fresh JVMs.
+//
+// Usage: java -cp <app classpath> application.StartupBenchmark [runs] [extra JVM options...]
+// e.g.   ... application.StartupBenchmark 10 -XX:SharedArchiveFile=centsible.jsa
+//
+// Each child runs Main with -Dcentsible.startupBenchmark=true, which makes it print the time from
+// process start to "window" (stage shown) and "ready" (home tables filled), then exit.
+public class StartupBenchmark {
+    static final String PROPERTY = "centsible.startupBenchmark";
+    private static final String REPORT_PREFIX = "startup.";
+
+    static boolean isRunning() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    // Called by Main at each startup milestone; a no-op outside benchmark runs
+    static void report(String phase) {
+        if (!isRunning()) {
+            return;
+        }
+        ProcessHandle.current().info().startInstant().ifPresent(started ->
+                System.out.println(REPORT_PREFIX + phase + "=" + Duration.between(started, Instant.now()).toMillis()));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        List<String> extraOptions = args.length > 1 ? Arrays.asList(args).subList(1, args.length) : List.of();
+
+        Map<String, List<Long>> timings = new LinkedHashMap<>();
+        for (int run = 1; run <= runs; run++) {
+            Map<String, Long> result = launchOnce(extraOptions);
+            System.out.println("run " + run + ": " + result);
+            result.forEach((phase, millis) -> timings.computeIfAbsent(phase, p -> new ArrayList<>()).add(millis));
+        }
+
+        for (Map.Entry<String, List<Long>> entry : timings.entrySet()) {
+            List<Long> values = entry.getValue();
+            Collections.sort(values);
+            System.out.printf("%-8s min %5d ms  median %5d ms  max %5d ms%n", entry.getKey(),
+                    values.get(0), values.get(values.size() / 2), values.get(values.size() - 1));
+        }
+    }
+
+    private static Map<String, Long> launchOnce(List<String> extraOptions) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(extraOptions);
+        String modulePath = System.getProperty("jdk.module.path");
+        if (modulePath != null) {
+            command.add("--module-path");
+            command.add(modulePath);
+            command.add("--add-modules");
+            command.add("javafx.controls");
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-D" + PROPERTY + "=true");
+        command.add(Main.class.getName());
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        Map<String, Long> result = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(REPORT_PREFIX)) {
+                    String[] parts = line.substring(REPORT_PREFIX.length()).split("=");
+                    result.put(parts[0], Long.parseLong(parts[1].trim()));
+                }
+            }
+        }
+        process.waitFor();
+        return result;
+    }
+}
@@ -0,0 +1,33 @@
+package application;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Spans one Main.refresh*Table call: the query plus repopulating the TableView
+@Name("application.TableRefresh")
+@Label("Table Refresh")
+@Category({"Centsible", "UI"})
+@Description("Reloading the rows of a TableView")
+@StackTrace(false)
+public class TableRefreshEvent extends jdk.jfr.Event {
+    @Label("Table Name")
+    public String tableName;
+
+    @Label("Rows")
+    public int rows;
+
+    public static TableRefreshEvent start(String tableName) {
+        TableRefreshEvent event = new TableRefreshEvent();
+        event.tableName = tableName;
+        event.begin();
+        return event;
+    }
+
+    public void finish(int rows) {
+        this.rows = rows;
+        commit();
+    }
+}
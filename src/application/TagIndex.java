@@ -0,0 +1,195 @@
+package application;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Free-form tags on transactions, as one IdBitmap of transaction ids per tag, plus bitmaps of the ledger's rows
+// by account and by year, month and day. A tag query with account and date filters is then a handful of
+// bitmap operations: a date range is the union of the fewest whole years, months and days that cover it.
+//
+// DatabaseHelper persists the tag bitmaps a chunk at a time in tag_chunks and builds the row bitmaps from one
+// scan of the ledger the first time a filter needs them; InMemoryLedgerRepository keeps everything here.
+// Tags of deleted rows may linger in a tag bitmap, so matches are always taken within the rows loaded here: the live
+// ones and, for DatabaseHelper, the archived ones.
+public class TagIndex {
+    private static final IdBitmap EMPTY = new IdBitmap();
+
+    private final Map<String, IdBitmap> tags = new TreeMap<>();
+    // Null until the rows are loaded
+    private IdBitmap rows;
+    private final Map<String, IdBitmap> accounts = new HashMap<>();
+    private final TreeMap<Long, IdBitmap> years = new TreeMap<>();
+    private final TreeMap<Long, IdBitmap> months = new TreeMap<>();
+    private final TreeMap<Long, IdBitmap> days = new TreeMap<>();
+
+    // Tags are case-insensitive and can't hold spaces, commas or parentheses, so "Work Trip" becomes "work-trip";
+    // null when nothing is left
+    public static String normalize(String tag) {
+        String normalized = tag.trim().toLowerCase(Locale.ROOT).replaceAll("[\\s,()]+", "-")
+                .replaceAll("^-+|-+$", "");
+        return normalized.isEmpty() ? null : normalized;
+    }
+
+    // A comma-separated list as typed in a form, e.g. "work trip, reimbursable"
+    public static Set<String> parseTags(String text) {
+        return normalizeAll(Arrays.asList(text.split(",")));
+    }
+
+    public static Set<String> normalizeAll(Collection<String> tags) {
+        Set<String> normalized = new LinkedHashSet<>();
+        for (String tag : tags) {
+            String name = normalize(tag);
+            if (name != null) {
+                normalized.add(name);
+            }
+        }
+        return normalized;
+    }
+
+    public synchronized boolean tag(int id, String tag) {
+        return tags.computeIfAbsent(tag, name -> new IdBitmap()).add(id);
+    }
+
+    public synchronized boolean untag(int id, String tag) {
+        IdBitmap bitmap = tags.get(tag);
+        if (bitmap == null || !bitmap.remove(id)) {
+            return false;
+        }
+        if (bitmap.isEmpty()) {
+            tags.remove(tag);
+        }
+        return true;
+    }
+
+    public synchronized Set<String> tagsOf(int id) {
+        Set<String> found = new TreeSet<>();
+        for (Map.Entry<String, IdBitmap> entry : tags.entrySet()) {
+            if (entry.getValue().contains(id)) {
+                found.add(entry.getKey());
+            }
+        }
+        return found;
+    }
+
+    // Every tag in use, alphabetically
+    public synchronized List<String> tagNames() {
+        return new ArrayList<>(tags.keySet());
+    }
+
+    // The serialized chunk of the tag's bitmap holding the id, or null when that chunk is now empty
+    public synchronized byte[] chunk(String tag, int id) {
+        IdBitmap bitmap = tags.get(tag);
+        return bitmap == null ? null : bitmap.chunk(id >>> 16);
+    }
+
+    public synchronized int chunkCardinality(String tag, int id) {
+        IdBitmap bitmap = tags.get(tag);
+        return bitmap == null ? 0 : bitmap.chunkCardinality(id >>> 16);
+    }
+
+    public synchronized void loadChunk(String tag, int high, byte[] bytes, int cardinality) {
+        tags.computeIfAbsent(tag, name -> new IdBitmap()).putChunk(high, bytes, cardinality);
+    }
+
+    public synchronized boolean hasRows() {
+        return rows != null;
+    }
+
+    // Starts (or restarts) the row bitmaps empty, ready for addRow() with every transaction
+    public synchronized void clearRows() {
+        rows = new IdBitmap();
+        accounts.clear();
+        years.clear();
+        months.clear();
+        days.clear();
+    }
+
+    // Forgets the rows, e.g. after a failed load, so they are loaded again before the next match
+    public synchronized void dropRows() {
+        clearRows();
+        rows = null;
+    }
+
+    public synchronized void addRow(int id, String accountName, LocalDate date) {
+        if (rows == null) {
+            return;
+        }
+        rows.add(id);
+        accounts.computeIfAbsent(accountName, name -> new IdBitmap()).add(id);
+        years.computeIfAbsent(date.withDayOfYear(1).toEpochDay(), day -> new IdBitmap()).add(id);
+        months.computeIfAbsent(date.withDayOfMonth(1).toEpochDay(), day -> new IdBitmap()).add(id);
+        days.computeIfAbsent(date.toEpochDay(), day -> new IdBitmap()).add(id);
+    }
+
+    public synchronized void removeRow(int id, String accountName, LocalDate date) {
+        if (rows == null) {
+            return;
+        }
+        rows.remove(id);
+        remove(accounts, accountName, id);
+        remove(years, date.withDayOfYear(1).toEpochDay(), id);
+        remove(months, date.withDayOfMonth(1).toEpochDay(), id);
+        remove(days, date.toEpochDay(), id);
+    }
+
+    // The ids of rows matching every given filter; a null query, account or bound matches anything
+    public synchronized IdBitmap match(TagQuery query, String accountName, LocalDate from, LocalDate to) {
+        if (rows == null) {
+            throw new IllegalStateException("Rows are not loaded");
+        }
+        IdBitmap matched = accountName == null ? rows.copy() : rows.and(accounts.getOrDefault(accountName, EMPTY));
+        if ((from != null || to != null) && !matched.isEmpty()) {
+            matched = matched.and(between(from, to));
+        }
+        if (query != null && !matched.isEmpty()) {
+            matched = query.evaluate(tag -> tags.getOrDefault(tag, EMPTY), matched);
+        }
+        return matched;
+    }
+
+    private static <K> void remove(Map<K, IdBitmap> bitmaps, K key, int id) {
+        IdBitmap bitmap = bitmaps.get(key);
+        if (bitmap != null && bitmap.remove(id) && bitmap.isEmpty()) {
+            bitmaps.remove(key);
+        }
+    }
+
+    // Walks the range a day at a time, taking a whole year or month instead whenever one starts there and fits
+    private IdBitmap between(LocalDate from, LocalDate to) {
+        if (days.isEmpty()) {
+            return EMPTY;
+        }
+        LocalDate first = LocalDate.ofEpochDay(days.firstKey());
+        LocalDate last = LocalDate.ofEpochDay(days.lastKey());
+        LocalDate day = from == null || from.isBefore(first) ? first : from;
+        LocalDate end = to == null || to.isAfter(last) ? last : to;
+        List<IdBitmap> parts = new ArrayList<>();
+        while (!day.isAfter(end)) {
+            IdBitmap part;
+            if (day.getDayOfYear() == 1 && !day.plusYears(1).isAfter(end.plusDays(1))) {
+                part = years.get(day.toEpochDay());
+                day = day.plusYears(1);
+            } else if (day.getDayOfMonth() == 1 && !day.plusMonths(1).isAfter(end.plusDays(1))) {
+                part = months.get(day.toEpochDay());
+                day = day.plusMonths(1);
+            } else {
+                part = days.get(day.toEpochDay());
+                day = day.plusDays(1);
+            }
+            if (part != null) {
+                parts.add(part);
+            }
+        }
+        return IdBitmap.or(parts);
+    }
+}
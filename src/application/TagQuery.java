@@ -0,0 +1,206 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+// A boolean query over transaction tags, e.g. "groceries and not reimbursed" or "work (travel or meals)".
+// Tags combine with AND, OR and NOT (in any case) and group with parentheses; AND binds tighter than OR, and
+// two terms side by side mean AND. Evaluating a query narrows a set of ids: each AND evaluates its right side
+// only within what its left side matched, and NOT is the difference from the set being narrowed.
+public abstract class TagQuery {
+
+    // Ids within the given set that match; tags maps a tag to its bitmap, empty for an unknown tag
+    abstract IdBitmap evaluate(Function<String, IdBitmap> tags, IdBitmap within);
+
+    // Throws IllegalArgumentException, with a message for the user, when the text isn't a query
+    public static TagQuery parse(String text) {
+        Parser parser = new Parser(tokenize(text));
+        TagQuery query = parser.or();
+        if (parser.position < parser.tokens.size()) {
+            throw new IllegalArgumentException("Unexpected \"" + parser.tokens.get(parser.position) + "\" in tag query");
+        }
+        return query;
+    }
+
+    private static final class Tag extends TagQuery {
+        private final String name;
+
+        Tag(String name) {
+            this.name = name;
+        }
+
+        @Override
+        IdBitmap evaluate(Function<String, IdBitmap> tags, IdBitmap within) {
+            return within.and(tags.apply(name));
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class Not extends TagQuery {
+        private final TagQuery operand;
+
+        Not(TagQuery operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        IdBitmap evaluate(Function<String, IdBitmap> tags, IdBitmap within) {
+            return within.andNot(operand.evaluate(tags, within));
+        }
+
+        @Override
+        public String toString() {
+            return "NOT " + operand;
+        }
+    }
+
+    private static final class And extends TagQuery {
+        private final List<TagQuery> operands;
+
+        And(List<TagQuery> operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        IdBitmap evaluate(Function<String, IdBitmap> tags, IdBitmap within) {
+            IdBitmap matched = within;
+            for (TagQuery operand : operands) {
+                if (matched.isEmpty()) {
+                    break;
+                }
+                matched = operand.evaluate(tags, matched);
+            }
+            return matched;
+        }
+
+        @Override
+        public String toString() {
+            return join(operands, " AND ");
+        }
+    }
+
+    private static final class Or extends TagQuery {
+        private final List<TagQuery> operands;
+
+        Or(List<TagQuery> operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        IdBitmap evaluate(Function<String, IdBitmap> tags, IdBitmap within) {
+            List<IdBitmap> matched = new ArrayList<>();
+            for (TagQuery operand : operands) {
+                matched.add(operand.evaluate(tags, within));
+            }
+            return IdBitmap.or(matched);
+        }
+
+        @Override
+        public String toString() {
+            return join(operands, " OR ");
+        }
+    }
+
+    private static String join(List<TagQuery> operands, String separator) {
+        List<String> parts = new ArrayList<>();
+        for (TagQuery operand : operands) {
+            parts.add(operand instanceof Tag || operand instanceof Not ? operand.toString() : "(" + operand + ")");
+        }
+        return String.join(separator, parts);
+    }
+
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            if (c == '(' || c == ')' || Character.isWhitespace(c)) {
+                if (word.length() > 0) {
+                    tokens.add(word.toString());
+                    word.setLength(0);
+                }
+                if (!Character.isWhitespace(c)) {
+                    tokens.add(String.valueOf(c));
+                }
+            } else {
+                word.append(c);
+            }
+        }
+        if (word.length() > 0) {
+            tokens.add(word.toString());
+        }
+        return tokens;
+    }
+
+    // Recursive descent: or := and (OR and)*, and := unary (AND? unary)*, unary := NOT unary | ( or ) | tag
+    private static final class Parser {
+        private final List<String> tokens;
+        private int position;
+
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        TagQuery or() {
+            List<TagQuery> operands = new ArrayList<>();
+            operands.add(and());
+            while (accept("or")) {
+                operands.add(and());
+            }
+            return operands.size() == 1 ? operands.get(0) : new Or(operands);
+        }
+
+        TagQuery and() {
+            List<TagQuery> operands = new ArrayList<>();
+            operands.add(unary());
+            while (position < tokens.size() && !atKeyword("or") && !tokens.get(position).equals(")")) {
+                accept("and");
+                operands.add(unary());
+            }
+            return operands.size() == 1 ? operands.get(0) : new And(operands);
+        }
+
+        TagQuery unary() {
+            if (position == tokens.size()) {
+                throw new IllegalArgumentException(tokens.isEmpty() ? "The tag query is empty" : "The tag query ends too early");
+            }
+            if (accept("not")) {
+                return new Not(unary());
+            }
+            String token = tokens.get(position++);
+            if (token.equals("(")) {
+                TagQuery inner = or();
+                if (position == tokens.size() || !tokens.get(position++).equals(")")) {
+                    throw new IllegalArgumentException("Missing \")\" in tag query");
+                }
+                return inner;
+            }
+            if (token.equals(")") || isKeyword(token)) {
+                throw new IllegalArgumentException("Expected a tag but found \"" + token + "\"");
+            }
+            return new Tag(TagIndex.normalize(token));
+        }
+
+        private boolean accept(String keyword) {
+            if (position < tokens.size() && atKeyword(keyword)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean atKeyword(String keyword) {
+            return tokens.get(position).equalsIgnoreCase(keyword);
+        }
+
+        private static boolean isKeyword(String token) {
+            String lower = token.toLowerCase(Locale.ROOT);
+            return lower.equals("and") || lower.equals("or") || lower.equals("not");
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A hierarchical timing wheel: LEVELS wheels of SLOTS slots each, where a slot on level n spans SLOTS^n ticks.
+// A timer goes into the lowest level whose range covers its deadline, in the slot its deadline falls in, so
+// scheduling is one list insert and cancelling one unlink. Each tick fires the current level-0 slot; whenever
+// the lower levels wrap, the next slot of the level above is emptied and its timers re-inserted further down.
+// With one-minute ticks, four levels of 64 reach about 31 years. Deadlines at or before the current tick fire
+// on the next one, and deadlines beyond the top level wait in its last slot and are re-filed as it comes round.
+public class TimingWheel<T> {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    public static final class Timer<T> {
+        private final long deadlineTick;
+        private final T payload;
+        private Timer<T> previous;
+        private Timer<T> next;
+        private boolean scheduled;
+
+        private Timer(long deadlineTick, T payload) {
+            this.deadlineTick = deadlineTick;
+            this.payload = payload;
+        }
+
+        public T getPayload() {
+            return payload;
+        }
+
+        public long getDeadlineTick() {
+            return deadlineTick;
+        }
+    }
+
+    private final long tickMillis;
+    // Each slot is a circular list with a sentinel head
+    private final List<List<Timer<T>>> slots = new ArrayList<>(LEVELS);
+    private long currentTick;
+    private int size;
+
+    public TimingWheel(long tickMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+        for (int level = 0; level < LEVELS; level++) {
+            List<Timer<T>> heads = new ArrayList<>(SLOTS);
+            for (int i = 0; i < SLOTS; i++) {
+                Timer<T> head = new Timer<>(0, null);
+                head.previous = head;
+                head.next = head;
+                heads.add(head);
+            }
+            slots.add(heads);
+        }
+    }
+
+    public synchronized Timer<T> schedule(long deadlineMillis, T payload) {
+        Timer<T> timer = new Timer<>(Math.floorDiv(deadlineMillis, tickMillis), payload);
+        insert(timer, currentTick + 1);
+        size++;
+        return timer;
+    }
+
+    // False if the timer had already fired or been cancelled
+    public synchronized boolean cancel(Timer<T> timer) {
+        if (!timer.scheduled) {
+            return false;
+        }
+        unlink(timer);
+        size--;
+        return true;
+    }
+
+    // Runs every tick up to the given time and returns the payloads that fell due, in deadline order per tick
+    public synchronized List<T> advance(long nowMillis) {
+        List<T> expired = new ArrayList<>();
+        long nowTick = Math.floorDiv(nowMillis, tickMillis);
+        while (currentTick < nowTick) {
+            currentTick++;
+            // Cascade from the highest level that wrapped, so re-filed timers can land on this tick
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) (currentTick >>> (BITS * level)) & MASK);
+                }
+            }
+            Timer<T> head = slots.get(0).get((int) currentTick & MASK);
+            while (head.next != head) {
+                Timer<T> timer = head.next;
+                unlink(timer);
+                size--;
+                expired.add(timer.payload);
+            }
+        }
+        return expired;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private void cascade(int level, int slot) {
+        Timer<T> head = slots.get(level).get(slot);
+        while (head.next != head) {
+            Timer<T> timer = head.next;
+            unlink(timer);
+            insert(timer, currentTick);
+        }
+    }
+
+    // earliestTick is the next tick still to fire: currentTick while cascading, currentTick + 1 otherwise
+    private void insert(Timer<T> timer, long earliestTick) {
+        long deadline = Math.max(timer.deadlineTick, earliestTick);
+        long delta = deadline - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        int slot;
+        if (delta >= 1L << (BITS * LEVELS)) {
+            // Too far out: park in the top slot that comes round last, to be re-filed from there
+            slot = (int) ((currentTick >>> (BITS * level)) - 1) & MASK;
+        } else {
+            slot = (int) (deadline >>> (BITS * level)) & MASK;
+        }
+        Timer<T> head = slots.get(level).get(slot);
+        timer.previous = head.previous;
+        timer.next = head;
+        head.previous.next = timer;
+        head.previous = timer;
+        timer.scheduled = true;
+    }
+
+    private void unlink(Timer<T> timer) {
+        timer.previous.next = timer.next;
+        timer.next.previous = timer.previous;
+        timer.previous = null;
+        timer.next = null;
+        timer.scheduled = false;
+    }
+}
@@ -0,0 +1,246 @@
+package application;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Cold storage for old transactions. archiveBefore() moves rows out of the live "transactions" table
+// into immutable ArchiveSegment files, one id window at a time. A segment only becomes visible once it is
+// registered in "archive_segments", in the same SQLite transaction that deletes its rows, so a crash
+// can leave an orphaned file but never a row that is both live and archived (or in neither place). Only the
+// main file's table is archived; DatabaseHelper refuses to archive a ledger partitioned by year.
+public class TransactionArchive {
+    private static final int ROWS_PER_SEGMENT = 250_000;
+
+    private final String databaseFile;
+    private final Path directory;
+    private final List<ArchiveSegment> segments = new CopyOnWriteArrayList<>();
+
+    public TransactionArchive(String databaseFile, Path directory, Connection connection) throws SQLException {
+        this.databaseFile = databaseFile;
+        this.directory = directory;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT file FROM archive_segments ORDER BY id")) {
+            while (rs.next()) {
+                Path file = directory.resolve(rs.getString("file"));
+                try {
+                    segments.add(ArchiveSegment.open(file));
+                } catch (IOException e) {
+                    System.err.println("Archive segment unavailable: " + file);
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    public long getRecordCount() {
+        long count = 0;
+        for (ArchiveSegment segment : segments) {
+            count += segment.getRecordCount();
+        }
+        return count;
+    }
+
+    // Newest first, like the live queries
+    public List<Transaction> getTransactions() {
+        List<Transaction> results = new ArrayList<>();
+        for (ArchiveSegment segment : segments) {
+            segment.scan(ArchiveSegment.ANY, ArchiveSegment.ANY, Integer.MIN_VALUE, Integer.MAX_VALUE, results::add);
+        }
+        return newestFirst(results);
+    }
+
+    public List<Transaction> getTransactionsByIds(int[] ids) {
+        List<Transaction> results = new ArrayList<>();
+        if (ids.length > 0) {
+            IdBitmap wanted = new IdBitmap();
+            for (int id : ids) {
+                wanted.add(id);
+            }
+            for (ArchiveSegment segment : segments) {
+                segment.scanIds(wanted, results::add);
+            }
+        }
+        return newestFirst(results);
+    }
+
+    // A null account or type matches any
+    public int count(String accountName, String transactionType) {
+        int count = 0;
+        for (ArchiveSegment segment : segments) {
+            count += segment.count(accountName == null ? ArchiveSegment.ANY : segment.accountId(accountName),
+                    transactionType == null ? ArchiveSegment.ANY : segment.typeId(transactionType));
+        }
+        return count;
+    }
+
+    public List<Transaction> getTransactionsByAccount(String accountName) {
+        List<Transaction> results = new ArrayList<>();
+        for (ArchiveSegment segment : segments) {
+            segment.scan(segment.accountId(accountName), ArchiveSegment.ANY, Integer.MIN_VALUE, Integer.MAX_VALUE, results::add);
+        }
+        return newestFirst(results);
+    }
+
+    public List<Transaction> getTransactionsByType(String transactionType) {
+        List<Transaction> results = new ArrayList<>();
+        for (ArchiveSegment segment : segments) {
+            segment.scan(ArchiveSegment.ANY, segment.typeId(transactionType), Integer.MIN_VALUE, Integer.MAX_VALUE, results::add);
+        }
+        return newestFirst(results);
+    }
+
+    public List<Transaction> getTransactionsBetween(LocalDate from, LocalDate to) {
+        List<Transaction> results = new ArrayList<>();
+        for (ArchiveSegment segment : segments) {
+            segment.scan(ArchiveSegment.ANY, ArchiveSegment.ANY, (int) from.toEpochDay(), (int) to.toEpochDay(), results::add);
+        }
+        return newestFirst(results);
+    }
+
+    // Newest first, and the highest id first within a day
+    private static final Comparator<Transaction> NEWEST_FIRST = Comparator.comparing(Transaction::getTransactionDate)
+            .thenComparingInt(Transaction::getId).reversed();
+
+    private static List<Transaction> newestFirst(List<Transaction> transactions) {
+        transactions.sort(NEWEST_FIRST);
+        return transactions;
+    }
+
+    // Merges two newest-first lists into one newest-first list
+    public static List<Transaction> merge(List<Transaction> live, List<Transaction> archived) {
+        if (archived.isEmpty()) {
+            return live;
+        }
+        List<Transaction> merged = new ArrayList<>(live.size() + archived.size());
+        int i = 0;
+        int j = 0;
+        while (i < live.size() && j < archived.size()) {
+            if (NEWEST_FIRST.compare(live.get(i), archived.get(j)) <= 0) {
+                merged.add(live.get(i++));
+            } else {
+                merged.add(archived.get(j++));
+            }
+        }
+        merged.addAll(live.subList(i, live.size()));
+        merged.addAll(archived.subList(j, archived.size()));
+        return merged;
+    }
+
+    // Moves every transaction dated before the cutoff into new segments and returns how many moved.
+    // Uses its own connection and holds the write lock for one id window at a time.
+    public int archiveBefore(LocalDate cutoff) throws SQLException, IOException {
+        Files.createDirectories(directory);
+        int moved = 0;
+        Properties properties = new Properties();
+        properties.setProperty("transaction_mode", "IMMEDIATE");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile, properties)) {
+            long maxId = 0;
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM transactions")) {
+                if (rs.next()) {
+                    maxId = rs.getLong(1);
+                }
+            }
+            for (long fromId = 0; fromId < maxId; fromId += ROWS_PER_SEGMENT) {
+                moved += archiveWindow(connection, cutoff, fromId, Math.min(fromId + ROWS_PER_SEGMENT, maxId));
+            }
+        }
+        return moved;
+    }
+
+    private int archiveWindow(Connection connection, LocalDate cutoff, long fromId, long toId) throws SQLException, IOException {
+        String where = "transaction_date < ? AND id > ? AND id <= ?";
+        // The connection begins IMMEDIATE transactions, so the write lock is taken before the copy
+        // and no row in the window can change between copying it and deleting it
+        connection.setAutoCommit(false);
+
+        Path file = null;
+        List<Transaction> rows = new ArrayList<>();
+        try {
+            try (PreparedStatement pstmt = connection.prepareStatement(
+                    "SELECT id, account_name, transaction_type, transaction_date, description, payment_amount, deposit_amount " +
+                    "FROM transactions WHERE " + where)) {
+                bindWindow(pstmt, cutoff, fromId, toId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        Transaction transaction = new Transaction(
+                                rs.getString("account_name"),
+                                rs.getString("transaction_type"),
+                                SqlDates.read(rs, "transaction_date"),
+                                rs.getString("description"),
+                                rs.getDouble("payment_amount"),
+                                rs.getDouble("deposit_amount"));
+                        transaction.setId(rs.getInt("id"));
+                        rows.add(transaction);
+                    }
+                }
+            }
+            if (rows.isEmpty()) {
+                connection.rollback();
+                return 0;
+            }
+
+            String fileName = "transactions-" + (fromId + 1) + "-" + toId + "-" + System.currentTimeMillis() + ".seg";
+            file = directory.resolve(fileName);
+            ArchiveSegment.write(file, rows);
+
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM transactions WHERE " + where);
+                 PreparedStatement register = connection.prepareStatement(
+                         "INSERT INTO archive_segments (file, row_count, cutoff_date) VALUES (?, ?, ?)")) {
+                bindWindow(delete, cutoff, fromId, toId);
+                delete.executeUpdate();
+                register.setString(1, fileName);
+                register.setInt(2, rows.size());
+                SqlDates.bind(register, 3, cutoff);
+                register.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException | IOException e) {
+            connection.rollback();
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+
+        // The rows are gone from the table now, so the file is their only copy: if it can't be mapped
+        // here it stays registered and the next load tries again
+        try {
+            segments.add(ArchiveSegment.open(file));
+        } catch (IOException e) {
+            System.err.println("Archive segment unavailable until the next load: " + file);
+            e.printStackTrace();
+        }
+        return rows.size();
+    }
+
+    private static void bindWindow(PreparedStatement pstmt, LocalDate cutoff, long fromId, long toId) throws SQLException {
+        SqlDates.bind(pstmt, 1, cutoff);
+        pstmt.setLong(2, fromId);
+        pstmt.setLong(3, toId);
+    }
+
+    public List<ArchiveSegment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+}
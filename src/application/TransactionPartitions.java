@@ -0,0 +1,387 @@
+package application;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Splits transactions into one SQLite file per calendar year, attached to the main connection on demand
+// with ATTACH DATABASE as "p<year>". The main file keeps the registry (transaction_partitions) and the id
+// sequence of its own "transactions" table, so ids stay unique across every partition.
+//
+// Partitioning is turned on with -Dcentsible.partitioning=year and stays on once a partition exists.
+// Years older than centsible.writablePartitionYears (default 2, i.e. this year and last) are attached
+// read-only and only re-attached read-write when a write actually targets them. SQLite allows 10 attached
+// databases per connection, so at most centsible.maxAttachedPartitions (default 8) are kept attached and
+// the least recently used one is detached to make room.
+//
+// ATTACH and DETACH are not allowed inside a transaction: callers attach every partition they need first.
+// Attachments belong to one connection; on(connection) gives another connection its own, sharing the registry.
+// A write that holds a partition keeps it from being detached until release(), so a group of writes can
+// attach all of theirs before its transaction begins. Partitions attached for writing are switched to WAL, so
+// readers on other connections never wait for the writer.
+public class TransactionPartitions {
+    static final String PROPERTY = "centsible.partitioning";
+    private static final int MAX_ATTACHED = Math.max(2, Integer.getInteger("centsible.maxAttachedPartitions", 8));
+    private static final int WRITABLE_YEARS = Integer.getInteger("centsible.writablePartitionYears", 2);
+    private static final Pattern PARTITION_SCHEMA = Pattern.compile("\\bp(\\d{4})\\.");
+
+    private final Connection connection;
+    private final Path directory;
+    // Shared by every connection's instance
+    private final NavigableMap<Integer, String> filesByYear;
+    // Years whose file still stores millisecond dates, from before schema version 12
+    private final Set<Integer> unconvertedYears = new TreeSet<>();
+    // Years whose file only has the date index, from before schema version 13
+    private final Set<Integer> unindexedYears = new TreeSet<>();
+    // Attached years and whether they are writable, least recently used first
+    private final LinkedHashMap<Integer, Boolean> attached = new LinkedHashMap<>(16, 0.75f, true);
+    // Years a write has held since the last release()
+    private final Set<Integer> held = new HashSet<>();
+
+    public TransactionPartitions(Connection connection, Path directory) throws SQLException, IOException {
+        this.connection = connection;
+        this.directory = directory;
+        this.filesByYear = new ConcurrentSkipListMap<>();
+        Files.createDirectories(directory);
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT year, file, epoch_days, sort_indexes FROM transaction_partitions")) {
+            while (rs.next()) {
+                filesByYear.put(rs.getInt("year"), rs.getString("file"));
+                if (rs.getInt("epoch_days") == 0) {
+                    unconvertedYears.add(rs.getInt("year"));
+                }
+                if (rs.getInt("sort_indexes") == 0) {
+                    unindexedYears.add(rs.getInt("year"));
+                }
+            }
+        }
+    }
+
+    private TransactionPartitions(TransactionPartitions registry, Connection connection) {
+        this.connection = connection;
+        this.directory = registry.directory;
+        this.filesByYear = registry.filesByYear;
+    }
+
+    // The same partitions, attached on their own to another connection to the main file
+    public TransactionPartitions on(Connection other) {
+        return other == connection ? this : new TransactionPartitions(this, other);
+    }
+
+    public static boolean isEnabled(Connection connection) throws SQLException {
+        if ("year".equals(System.getProperty(PROPERTY))) {
+            return true;
+        }
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM transaction_partitions LIMIT 1")) {
+            return rs.next();
+        }
+    }
+
+    public static int yearOf(Date date) {
+        return date.toLocalDate().getYear();
+    }
+
+    // Qualified table name for a year; only valid once that year is attached
+    public static String table(int year) {
+        return "p" + year + ".transactions";
+    }
+
+    // Attaches read-only, on another connection to the main file, each partition a statement names
+    // ("p2024.transactions") so the statement can be planned there; years not in the registry are skipped
+    static void attachNamedIn(String sql, Connection connection, Path directory) throws SQLException {
+        Set<Integer> years = new TreeSet<>();
+        Matcher matcher = PARTITION_SCHEMA.matcher(sql);
+        while (matcher.find()) {
+            years.add(Integer.parseInt(matcher.group(1)));
+        }
+        for (int year : years) {
+            String file;
+            try (PreparedStatement pstmt = connection.prepareStatement("SELECT file FROM transaction_partitions WHERE year = ?")) {
+                pstmt.setInt(1, year);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        continue;
+                    }
+                    file = rs.getString(1);
+                }
+            }
+            try (PreparedStatement pstmt = connection.prepareStatement("ATTACH DATABASE ? AS p" + year)) {
+                pstmt.setString(1, "file:" + directory.resolve(file) + "?mode=ro");
+                pstmt.execute();
+            }
+        }
+    }
+
+    public boolean hasYear(int year) {
+        return filesByYear.containsKey(year);
+    }
+
+    // Registered years within [fromYear, toYear], newest first
+    public List<Integer> yearsNewestFirst(int fromYear, int toYear) {
+        if (fromYear > toYear) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(filesByYear.subMap(fromYear, true, toYear, true).descendingKeySet());
+    }
+
+    public synchronized void attachForRead(int year) throws SQLException {
+        attach(year, year > LocalDate.now().getYear() - WRITABLE_YEARS);
+    }
+
+    // Creates the partition if this is the first write for its year
+    public synchronized void attachForWrite(int year) throws SQLException {
+        if (!filesByYear.containsKey(year)) {
+            create(year);
+        }
+        attach(year, true);
+    }
+
+    // Attaches the year for writing and keeps it attached until release(); false, attaching nothing, when
+    // every slot is already held
+    public synchronized boolean holdForWrite(int year) throws SQLException {
+        if (!attached.containsKey(year) && attached.size() >= MAX_ATTACHED && leastRecentlyUsedUnheld() == null) {
+            return false;
+        }
+        attachForWrite(year);
+        held.add(year);
+        return true;
+    }
+
+    // Lets the years held since the last call be detached again
+    public synchronized void release() {
+        held.clear();
+    }
+
+    // The year to detach to make room, or null when every attached year is held
+    private Integer leastRecentlyUsedUnheld() {
+        for (int year : attached.keySet()) {
+            if (!held.contains(year)) {
+                return year;
+            }
+        }
+        return null;
+    }
+
+    private void attach(int year, boolean writable) throws SQLException {
+        Boolean current = attached.get(year);
+        if (current != null && (current || !writable)) {
+            return;
+        }
+        if (current != null) {
+            detach(year);
+        }
+        makeRoom();
+        String file = directory.resolve(filesByYear.get(year)).toString();
+        try (PreparedStatement pstmt = connection.prepareStatement("ATTACH DATABASE ? AS p" + year)) {
+            pstmt.setString(1, writable ? file : "file:" + file + "?mode=ro");
+            pstmt.execute();
+        }
+        attached.put(year, writable);
+        if (writable) {
+            useWal(year);
+        }
+    }
+
+    private void makeRoom() throws SQLException {
+        while (attached.size() >= MAX_ATTACHED) {
+            Integer year = leastRecentlyUsedUnheld();
+            if (year == null) {
+                throw new SQLException("Every attached partition is held by a write");
+            }
+            detach(year);
+        }
+    }
+
+    // The mode is stored in the file, so this only changes anything the first time; a file another connection
+    // is busy with stays as it is until the next try
+    private void useWal(int year) {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA p" + year + ".journal_mode=WAL");
+        } catch (SQLException e) {
+            System.err.println("Partition " + year + " stays in rollback journal mode for now");
+            e.printStackTrace();
+        }
+    }
+
+    private void detach(int year) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DETACH DATABASE p" + year);
+        }
+        attached.remove(year);
+    }
+
+    private void create(int year) throws SQLException {
+        String file = "transactions-" + year + ".db";
+        makeRoom();
+        try (PreparedStatement pstmt = connection.prepareStatement("ATTACH DATABASE ? AS p" + year)) {
+            pstmt.setString(1, directory.resolve(file).toString());
+            pstmt.execute();
+        }
+        attached.put(year, true);
+        useWal(year);
+        // Same columns as the main table; ids come from the main sequence, and foreign keys cannot span files
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS p" + year + ".transactions (" +
+                    "id INTEGER PRIMARY KEY," +
+                    "account_name TEXT NOT NULL," +
+                    "transaction_type TEXT NOT NULL," +
+                    "transaction_date INTEGER NOT NULL," +
+                    "description TEXT," +
+                    "payment_amount REAL," +
+                    "deposit_amount REAL" +
+                    ");");
+        }
+        createIndexes(year);
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "INSERT OR IGNORE INTO transaction_partitions (year, file, epoch_days, sort_indexes) VALUES (?, ?, 1, 1)")) {
+            pstmt.setInt(1, year);
+            pstmt.setString(2, file);
+            pstmt.executeUpdate();
+        }
+        filesByYear.put(year, file);
+    }
+
+    // The main table's sort indexes, so a partition is searched and sorted the same way
+    private void createIndexes(int year) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (String index : DatabaseHelper.SORT_INDEXES) {
+                stmt.execute("CREATE INDEX IF NOT EXISTS p" + year + "." + index);
+            }
+        }
+    }
+
+    // Draws the next id from the main table's AUTOINCREMENT sequence, so a partitioned row can never
+    // collide with one still in (or later added to) the main table. Call inside the inserting transaction.
+    public long nextTransactionId() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("INSERT INTO main.sqlite_sequence (name, seq) " +
+                    "SELECT 'transactions', COALESCE((SELECT MAX(id) FROM main.transactions), 0) " +
+                    "WHERE NOT EXISTS (SELECT 1 FROM main.sqlite_sequence WHERE name = 'transactions')");
+            try (ResultSet rs = stmt.executeQuery(
+                    "UPDATE main.sqlite_sequence SET seq = seq + 1 WHERE name = 'transactions' RETURNING seq")) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    // Rewrites the dates of partition files from before schema version 12 as epoch days, one file per
+    // transaction, then compacts the file; returns how many rows changed. The conversion skips rows already
+    // converted, so a crash between a file's commit and the registry's is harmless.
+    public synchronized int convertDates() throws SQLException {
+        int converted = 0;
+        for (Iterator<Integer> years = unconvertedYears.iterator(); years.hasNext(); ) {
+            int year = years.next();
+            attach(year, true);
+            connection.setAutoCommit(false);
+            try (PreparedStatement pstmt = connection.prepareStatement(
+                    "UPDATE main.transaction_partitions SET epoch_days = 1 WHERE year = ?")) {
+                converted += SqlDates.convertColumn(connection, table(year), "transaction_date");
+                pstmt.setInt(1, year);
+                pstmt.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("VACUUM p" + year);
+            }
+            years.remove();
+        }
+        return converted;
+    }
+
+    // Gives partition files from before schema version 13 the sort indexes and returns how many files changed.
+    // The indexes are created only if missing, so a crash before the registry is updated is harmless.
+    public synchronized int createMissingIndexes() throws SQLException {
+        int indexed = 0;
+        for (Iterator<Integer> years = unindexedYears.iterator(); years.hasNext(); ) {
+            int year = years.next();
+            attach(year, true);
+            createIndexes(year);
+            try (PreparedStatement pstmt = connection.prepareStatement(
+                    "UPDATE main.transaction_partitions SET sort_indexes = 1 WHERE year = ?")) {
+                pstmt.setInt(1, year);
+                pstmt.executeUpdate();
+            }
+            years.remove();
+            indexed++;
+        }
+        return indexed;
+    }
+
+    // Moves rows still in the main table into their year partitions, one year per transaction, and returns
+    // how many moved. Ids are kept, and INSERT OR IGNORE makes a rerun after a crash harmless (with the main
+    // file in WAL mode, a commit spanning attached files is atomic per file, not across them).
+    public synchronized int absorbMainTable() throws SQLException {
+        int firstYear;
+        int lastYear;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MIN(transaction_date), MAX(transaction_date) FROM main.transactions")) {
+            if (!rs.next() || rs.getObject(1) == null) {
+                return 0;
+            }
+            firstYear = LocalDate.ofEpochDay(rs.getLong(1)).getYear();
+            lastYear = LocalDate.ofEpochDay(rs.getLong(2)).getYear();
+        }
+
+        String where = " WHERE transaction_date >= ? AND transaction_date < ?";
+        int moved = 0;
+        for (int year = firstYear; year <= lastYear; year++) {
+            try (PreparedStatement probe = connection.prepareStatement("SELECT 1 FROM main.transactions" + where + " LIMIT 1")) {
+                bindYear(probe, year);
+                try (ResultSet rs = probe.executeQuery()) {
+                    if (!rs.next()) {
+                        continue;
+                    }
+                }
+            }
+            attachForWrite(year);
+            connection.setAutoCommit(false);
+            try (PreparedStatement copy = connection.prepareStatement("INSERT OR IGNORE INTO " + table(year) +
+                    " (id, account_name, transaction_type, transaction_date, description, payment_amount, deposit_amount) " +
+                    "SELECT id, account_name, transaction_type, transaction_date, description, payment_amount, deposit_amount " +
+                    "FROM main.transactions" + where);
+                 PreparedStatement delete = connection.prepareStatement("DELETE FROM main.transactions" + where)) {
+                bindYear(copy, year);
+                copy.executeUpdate();
+                bindYear(delete, year);
+                moved += delete.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        return moved;
+    }
+
+    private static void bindYear(PreparedStatement pstmt, int year) throws SQLException {
+        SqlDates.bind(pstmt, 1, LocalDate.of(year, 1, 1));
+        SqlDates.bind(pstmt, 2, LocalDate.of(year + 1, 1, 1));
+    }
+}
@@ -0,0 +1,104 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+// One key of a paged transaction query, as set by clicking a table column header.
+// Rows with equal keys are ordered by date and then id, in the direction of the last key (newest first when
+// unsorted), so one (column, transaction_date) index can serve a column sorted either way.
+public final class TransactionSort {
+    public enum Column {
+        ACCOUNT("account_name", Comparator.comparing(Transaction::getAccountName, Comparator.nullsFirst(Comparator.naturalOrder()))),
+        TYPE("transaction_type", Comparator.comparing(Transaction::getTransactionType, Comparator.nullsFirst(Comparator.naturalOrder()))),
+        DATE("transaction_date", Comparator.comparing(Transaction::getTransactionDate)),
+        DESCRIPTION("description", Comparator.comparing(Transaction::getDescription, Comparator.nullsFirst(Comparator.naturalOrder()))),
+        PAYMENT("payment_amount", Comparator.comparingDouble(Transaction::getPaymentAmount)),
+        DEPOSIT("deposit_amount", Comparator.comparingDouble(Transaction::getDepositAmount));
+
+        final String column;
+        final Comparator<Transaction> comparator;
+
+        Column(String column, Comparator<Transaction> comparator) {
+            this.column = column;
+            this.comparator = comparator;
+        }
+    }
+
+    private static final Comparator<Transaction> OLDEST_FIRST = Comparator.comparing(Transaction::getTransactionDate)
+            .thenComparingInt(Transaction::getId);
+
+    private final Column column;
+    private final boolean ascending;
+
+    public TransactionSort(Column column, boolean ascending) {
+        this.column = column;
+        this.ascending = ascending;
+    }
+
+    public Column getColumn() { return column; }
+    public boolean isAscending() { return ascending; }
+
+    private static boolean tiesAscending(List<TransactionSort> order) {
+        return !order.isEmpty() && order.get(order.size() - 1).ascending;
+    }
+
+    static String orderBy(List<TransactionSort> order) {
+        StringBuilder sql = new StringBuilder(" ORDER BY ");
+        for (TransactionSort key : order) {
+            sql.append(key.column.column).append(key.ascending ? " ASC, " : " DESC, ");
+        }
+        String ties = tiesAscending(order) ? " ASC" : " DESC";
+        return sql.append("transaction_date").append(ties).append(", id").append(ties).toString();
+    }
+
+    // Whether the sort indexes created by DatabaseHelper can return this order without sorting the rows: the
+    // date (or nothing) under an account or type filter, or any single column over the whole table
+    static boolean indexed(List<TransactionSort> order, boolean filtered) {
+        if (order.isEmpty()) {
+            return true;
+        }
+        return order.size() == 1 && (!filtered || order.get(0).column == Column.DATE);
+    }
+
+    static Comparator<Transaction> comparator(List<TransactionSort> order) {
+        Comparator<Transaction> comparator = null;
+        for (TransactionSort key : order) {
+            Comparator<Transaction> next = key.ascending ? key.column.comparator : key.column.comparator.reversed();
+            comparator = comparator == null ? next : comparator.thenComparing(next);
+        }
+        Comparator<Transaction> ties = tiesAscending(order) ? OLDEST_FIRST : OLDEST_FIRST.reversed();
+        return comparator == null ? ties : comparator.thenComparing(ties);
+    }
+
+    // Pages through a list sorted in memory, for ledgers that can't be ordered by one SQL query. The sorted
+    // list is kept until the filter, the order or the ledger's version changes, so scrolling doesn't re-sort.
+    static final class Window {
+        private Object key;
+        private List<Transaction> sorted;
+
+        synchronized List<Transaction> page(Supplier<List<Transaction>> rows, List<TransactionSort> order, long version,
+                                            String accountName, String transactionType, int offset, int limit) {
+            List<Object> cacheKey = List.of(order, version, Objects.toString(accountName, "\0"), Objects.toString(transactionType, "\0"));
+            if (!cacheKey.equals(key)) {
+                sorted = new ArrayList<>(rows.get());
+                sorted.sort(comparator(order));
+                key = cacheKey;
+            }
+            int from = Math.min(offset, sorted.size());
+            return new ArrayList<>(sorted.subList(from, Math.min(from + limit, sorted.size())));
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TransactionSort && ((TransactionSort) o).column == column && ((TransactionSort) o).ascending == ascending;
+    }
+
+    @Override
+    public int hashCode() {
+        return column.hashCode() * 2 + (ascending ? 1 : 0);
+    }
+}
@@ -0,0 +1,196 @@
+package application;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+// Suggests a transaction type for a description with multinomial naive Bayes.
+//
+// Features are the lower-cased words of a description plus the character trigrams of each word, padded with
+// '^' and '$', so a half-typed "starb" already shares trigrams with "starbucks". Numbers are skipped; they are
+// mostly store and reference numbers. The model is only counts: transactions per type and occurrences of each
+// feature per type, so learning or forgetting a transaction adds or subtracts a handful of counts.
+// DatabaseHelper keeps the counts in the type_model table. Suggestions only take the read lock, so a bulk
+// import can be categorized on many threads at once.
+public class TypeClassifier {
+    // The feature whose count is the number of transactions of a type
+    static final String DOCUMENTS = "";
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<String> types = new ArrayList<>();
+    private final Map<String, Integer> typeIndexes = new HashMap<>();
+    private long[] documents = new long[0];
+    private long[] featureTotals = new long[0];
+    private final Map<String, long[]> featureCounts = new HashMap<>();
+
+    // Receives the counts when the model is written out
+    public interface CountConsumer {
+        void accept(String type, String feature, long count) throws SQLException;
+    }
+
+    // The description's features and how often each occurs, plus DOCUMENTS -> 1
+    public static Map<String, Integer> features(String description) {
+        Map<String, Integer> features = new HashMap<>();
+        features.put(DOCUMENTS, 1);
+        if (description == null) {
+            return features;
+        }
+        for (String word : description.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty() || word.chars().allMatch(Character::isDigit)) {
+                continue;
+            }
+            features.merge(word, 1, Integer::sum);
+            String padded = "^" + word + "$";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                features.merge("#" + padded.substring(i, i + 3), 1, Integer::sum);
+            }
+        }
+        return features;
+    }
+
+    public void learn(String type, String description) {
+        add(type, features(description), 1);
+    }
+
+    public void forget(String type, String description) {
+        add(type, features(description), -1);
+    }
+
+    // Adds each feature count times sign; counts that fall to zero are dropped
+    public void add(String type, Map<String, Integer> features, int sign) {
+        lock.writeLock().lock();
+        try {
+            int index = typeIndex(type);
+            for (Map.Entry<String, Integer> feature : features.entrySet()) {
+                addCount(index, feature.getKey(), (long) feature.getValue() * sign);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // One persisted count, when loading
+    public void add(String type, String feature, long count) {
+        lock.writeLock().lock();
+        try {
+            addCount(typeIndex(type), feature, count);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addCount(int index, String feature, long count) {
+        if (feature.equals(DOCUMENTS)) {
+            documents[index] = Math.max(0, documents[index] + count);
+            return;
+        }
+        long[] counts = featureCounts.get(feature);
+        if (counts == null) {
+            counts = new long[types.size()];
+            featureCounts.put(feature, counts);
+        } else if (counts.length <= index) {
+            counts = Arrays.copyOf(counts, types.size());
+            featureCounts.put(feature, counts);
+        }
+        counts[index] += count;
+        featureTotals[index] += count;
+        if (counts[index] <= 0) {
+            featureTotals[index] -= counts[index];
+            counts[index] = 0;
+            boolean unused = true;
+            for (long c : counts) {
+                unused &= c == 0;
+            }
+            if (unused) {
+                featureCounts.remove(feature);
+            }
+        }
+    }
+
+    private int typeIndex(String type) {
+        Integer index = typeIndexes.get(type);
+        if (index == null) {
+            index = types.size();
+            types.add(type);
+            typeIndexes.put(type, index);
+            documents = Arrays.copyOf(documents, types.size());
+            featureTotals = Arrays.copyOf(featureTotals, types.size());
+        }
+        return index;
+    }
+
+    // The most likely type, or null when no feature of the description has been seen before
+    public String suggest(String description) {
+        Map<String, Integer> features = features(description);
+        lock.readLock().lock();
+        try {
+            long totalDocuments = 0;
+            for (long count : documents) {
+                totalDocuments += count;
+            }
+            if (totalDocuments == 0) {
+                return null;
+            }
+            double vocabulary = featureCounts.size();
+            double[] scores = new double[types.size()];
+            for (int t = 0; t < scores.length; t++) {
+                scores[t] = documents[t] > 0 ? Math.log((double) documents[t] / totalDocuments) : Double.NEGATIVE_INFINITY;
+            }
+            boolean known = false;
+            for (Map.Entry<String, Integer> feature : features.entrySet()) {
+                long[] counts = featureCounts.get(feature.getKey());
+                if (counts == null) {
+                    continue;
+                }
+                known = true;
+                for (int t = 0; t < scores.length; t++) {
+                    long count = t < counts.length ? counts[t] : 0;
+                    scores[t] += feature.getValue() * Math.log((count + 1) / (featureTotals[t] + vocabulary));
+                }
+            }
+            if (!known) {
+                return null;
+            }
+            int best = -1;
+            for (int t = 0; t < scores.length; t++) {
+                if (scores[t] > Double.NEGATIVE_INFINITY && (best < 0 || scores[t] > scores[best])) {
+                    best = t;
+                }
+            }
+            return best < 0 ? null : types.get(best);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // One suggestion per description, in order, computed in parallel
+    public List<String> suggestAll(List<String> descriptions) {
+        return descriptions.parallelStream().map(this::suggest).collect(Collectors.toList());
+    }
+
+    public void forEachCount(CountConsumer consumer) throws SQLException {
+        lock.readLock().lock();
+        try {
+            for (int t = 0; t < types.size(); t++) {
+                if (documents[t] != 0) {
+                    consumer.accept(types.get(t), DOCUMENTS, documents[t]);
+                }
+            }
+            for (Map.Entry<String, long[]> feature : featureCounts.entrySet()) {
+                long[] counts = feature.getValue();
+                for (int t = 0; t < counts.length; t++) {
+                    if (counts[t] != 0) {
+                        consumer.accept(types.get(t), feature.getKey(), counts[t]);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
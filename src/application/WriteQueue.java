@@ -0,0 +1,353 @@
+package application;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Runs every write to a connection on one thread, so writes never interleave with each other whichever
+// thread asks for them. Grouped writes (saving, editing and deleting transactions) that are waiting together
+// share one transaction: each runs under its own savepoint, so a failing one is undone alone, and the group
+// pays for a single commit (and fsync) instead of one each. A caller's future completes only once its write
+// is committed, or failed.
+//
+// A group closes at centsible.groupCommitSize writes (default 64) or centsible.groupCommitMillis after its
+// first write (default 2), whichever comes first. Other writes run alone between groups, as before, and so
+// does every write when grouping is off: without a transaction around it, just as if the caller had run it.
+//
+// The connection should be the queue's own, so readers on another connection in WAL mode only see committed
+// rows. The owner's lock is held while a write or a group runs and while its hooks are called, so anything the
+// owner builds under that lock sees either none or all of a write.
+//
+// Whatever a write throws, Errors included, fails that write (or its whole group, if the commit can't go
+// ahead) and the writer carries on, so a caller's future always completes and later writes still run.
+public class WriteQueue {
+    private static final int GROUP_SIZE = Math.max(1, Integer.getInteger("centsible.groupCommitSize", 64));
+    private static final long GROUP_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("centsible.groupCommitMillis", 2));
+
+    // One write; only apply() is required
+    public interface Write<T> {
+        // On the writer thread before the group's transaction begins, e.g. to attach a partition; false when the
+        // write can't join the writes already prepared (say, no room is left to attach its partition), so it
+        // starts the next group instead
+        default boolean prepare() throws SQLException {
+            return true;
+        }
+
+        // Inside the group's transaction
+        T apply() throws SQLException;
+
+        // On the writer thread once the group has committed, before the caller's future completes
+        default void committed(T result) {
+        }
+
+        // On the writer thread once the write failed; in a group its changes were rolled back, alone whatever
+        // it had done before failing stands
+        default void rolledBack() {
+        }
+    }
+
+    private static final class Pending<T> {
+        final Write<T> write;
+        final boolean grouped;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+        Throwable error;
+
+        Pending(Write<T> write, boolean grouped) {
+            this.write = write;
+            this.grouped = grouped;
+        }
+
+        void complete() {
+            if (error == null) {
+                future.complete(result);
+            } else {
+                future.completeExceptionally(error);
+            }
+        }
+    }
+
+    private final Connection connection;
+    private final boolean grouping;
+    private final Object lock;
+    private final Runnable afterWrites;
+    private final QueryMetrics metrics = QueryMetrics.getInstance();
+    private final BlockingQueue<Pending<?>> queue = new LinkedBlockingQueue<>();
+    // Writes taken from the queue that must wait for the next group, in order
+    private final Deque<Pending<?>> held = new ArrayDeque<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // afterWrites runs on the writer thread once each group or lone write has committed or rolled back, before
+    // any hooks, e.g. to let go of what the writes' prepare() held
+    public WriteQueue(Connection connection, String name, boolean grouping, Object lock, Runnable afterWrites) {
+        this.connection = connection;
+        this.grouping = grouping;
+        this.lock = lock;
+        this.afterWrites = afterWrites;
+        this.writer = new Thread(this::run, name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public boolean isWriterThread() {
+        return Thread.currentThread() == writer;
+    }
+
+    // Queues a write to share a commit with others
+    public <T> CompletableFuture<T> submit(Write<T> write) {
+        return enqueue(new Pending<>(write, true));
+    }
+
+    // Runs a write by itself, outside any group (it may manage its own transaction), and waits for it;
+    // its exceptions come back unwrapped
+    public <T> T callAlone(Write<T> write) throws SQLException {
+        try {
+            return enqueue(new Pending<>(write, false)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Stops taking writes, finishes the queued ones and stops the writer
+    public void close() {
+        closed = true;
+        queue.add(new Pending<Void>(() -> null, false));
+        if (!isWriterThread()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // The writer runs its own writes straight away, since waiting on the queue would deadlock
+    private <T> CompletableFuture<T> enqueue(Pending<T> pending) {
+        if (isWriterThread()) {
+            runAlone(pending);
+            return pending.future;
+        }
+        if (closed) {
+            pending.future.completeExceptionally(new SQLException("The ledger is closed"));
+            return pending.future;
+        }
+        queue.add(pending);
+        return pending.future;
+    }
+
+    private void run() {
+        while (true) {
+            Pending<?> first;
+            try {
+                first = !held.isEmpty() ? held.poll() : queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            boolean alone = !first.grouped || !grouping;
+            List<Pending<?>> group = alone ? List.of(first) : fill(first);
+            try {
+                if (alone) {
+                    runAlone(first);
+                } else {
+                    runGroup(group);
+                }
+            } catch (Throwable e) {
+                // Nothing should get this far, but if it does the writes still fail rather than hang
+                report(e);
+                for (Pending<?> pending : group) {
+                    if (!held.contains(pending)) {
+                        pending.future.completeExceptionally(e);
+                    }
+                }
+            }
+            if (alone && closed && queue.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    // Takes queued grouped writes until the group is full or its time is up; an ungrouped one ends it early
+    private List<Pending<?>> fill(Pending<?> first) {
+        List<Pending<?>> group = new ArrayList<>();
+        group.add(first);
+        long deadline = System.nanoTime() + GROUP_NANOS;
+        while (group.size() < GROUP_SIZE) {
+            Pending<?> next = !held.isEmpty() ? held.poll() : queue.poll();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                try {
+                    next = remaining > 0 && !closed ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            if (!next.grouped) {
+                held.addFirst(next);
+                break;
+            }
+            group.add(next);
+        }
+        return group;
+    }
+
+    private <T> void runAlone(Pending<T> pending) {
+        synchronized (lock) {
+            try {
+                try {
+                    if (!pending.write.prepare()) {
+                        throw new SQLException("The write can't be prepared");
+                    }
+                    pending.result = pending.write.apply();
+                } finally {
+                    afterWrites.run();
+                }
+                pending.write.committed(pending.result);
+            } catch (Throwable e) {
+                pending.error = e;
+                rolledBack(pending);
+            }
+        }
+        pending.complete();
+    }
+
+    private void runGroup(List<Pending<?>> filled) {
+        List<Pending<?>> group;
+        synchronized (lock) {
+            List<Pending<?>> applied = new ArrayList<>();
+            List<Pending<?>> failed = new ArrayList<>();
+            group = prepare(filled, failed);
+            try {
+                metrics.time("commitGroup", "COMMIT", connection, done -> group.size(), () -> {
+                    connection.setAutoCommit(false);
+                    try {
+                        for (Pending<?> pending : group) {
+                            if (pending.error == null) {
+                                if (apply(pending)) {
+                                    applied.add(pending);
+                                } else {
+                                    failed.add(pending);
+                                }
+                            }
+                        }
+                        connection.commit();
+                    } catch (Throwable e) {
+                        // Restoring autocommit below would commit whatever is left, so the group is undone first
+                        try {
+                            connection.rollback();
+                        } catch (SQLException rollback) {
+                            e.addSuppressed(rollback);
+                        }
+                        throw e;
+                    } finally {
+                        connection.setAutoCommit(true);
+                    }
+                    return null;
+                });
+            } catch (Throwable e) {
+                // Everything not already failed on its own, applied or not, goes down with the group
+                for (Pending<?> pending : group) {
+                    if (pending.error == null) {
+                        pending.error = e;
+                        failed.add(pending);
+                    }
+                }
+                applied.clear();
+            }
+            afterWrites.run();
+            for (Pending<?> pending : applied) {
+                committed(pending);
+            }
+            for (Pending<?> pending : failed) {
+                rolledBack(pending);
+            }
+        }
+        for (Pending<?> pending : group) {
+            pending.complete();
+        }
+    }
+
+    // Prepares the writes in order and returns the ones that form this group; from the first that can't join,
+    // the rest go back to wait for the next group. A first write that can't be prepared at all fails.
+    private List<Pending<?>> prepare(List<Pending<?>> filled, List<Pending<?>> failed) {
+        for (int i = 0; i < filled.size(); i++) {
+            Pending<?> pending = filled.get(i);
+            try {
+                if (pending.write.prepare()) {
+                    continue;
+                }
+                if (i > 0) {
+                    for (int j = filled.size() - 1; j >= i; j--) {
+                        held.addFirst(filled.get(j));
+                    }
+                    return new ArrayList<>(filled.subList(0, i));
+                }
+                throw new SQLException("The write can't be prepared");
+            } catch (Throwable e) {
+                pending.error = e;
+                failed.add(pending);
+            }
+        }
+        return filled;
+    }
+
+    // Runs one write under a savepoint; false if it failed and was rolled back to it
+    private <T> boolean apply(Pending<T> pending) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("SAVEPOINT grouped_write");
+            try {
+                pending.result = pending.write.apply();
+                stmt.execute("RELEASE grouped_write");
+                return true;
+            } catch (Throwable e) {
+                pending.error = e;
+                stmt.execute("ROLLBACK TO grouped_write");
+                stmt.execute("RELEASE grouped_write");
+                return false;
+            }
+        }
+    }
+
+    // The write has committed whatever its hook does, so a failing hook is only reported
+    private <T> void committed(Pending<T> pending) {
+        try {
+            pending.write.committed(pending.result);
+        } catch (Throwable e) {
+            report(e);
+        }
+    }
+
+    private void rolledBack(Pending<?> pending) {
+        try {
+            pending.write.rolledBack();
+        } catch (Throwable e) {
+            report(e);
+        }
+    }
+
+    // Goes wherever the writer thread's uncaught exceptions would, without ending the thread
+    private void report(Throwable e) {
+        writer.getUncaughtExceptionHandler().uncaughtException(writer, e);
+    }
+}